@@ -2,6 +2,7 @@ import { html, css, LitElement } from 'lit';
 import '@vaadin/board';
 import '@vaadin/board/vaadin-board-row.js';
 import '@vaadin/charts';
+import '@vaadin/date-picker';
 import '@vaadin/grid';
 import '../storefront/order-card.js';
 import './dashboard-counter-label.js';
@@ -47,6 +48,11 @@ class DashboardView extends LitElement {
           min-height: 355px;
         }
 
+        .product-split-range {
+          display: flex;
+          gap: var(--lumo-space-m);
+        }
+
         vaadin-board-row.custom-board-row {
           --vaadin-board-width-medium: 1440px;
           --vaadin-board-width-small: 1024px;
@@ -104,6 +110,10 @@ class DashboardView extends LitElement {
         </vaadin-board-row>
         <vaadin-board-row class="custom-board-row">
           <div class="vaadin-board-cell">
+            <div class="product-split-range">
+              <vaadin-date-picker id="productSplitFrom" label="From"></vaadin-date-picker>
+              <vaadin-date-picker id="productSplitTo" label="To"></vaadin-date-picker>
+            </div>
             <vaadin-chart
               id="monthlyProductSplit"
               class="product-split-donut"
@@ -122,16 +132,28 @@ class DashboardView extends LitElement {
     return 'dashboard-view';
   }
 
-  // This method is overridden to measure the page load performance and can be safely removed
-  // if there is no need for that.
-  firstUpdated() {
-    super.firstUpdated();
+  // The constructor and this method are overridden to measure the page load performance and can be
+  // safely removed if there is no need for that.
+  constructor() {
+    super();
+    // Called from the server in the response that shows the first and the last dashboard section. The
+    // charts are drawn before their data is loaded, so their load events cannot be used. The marks are
+    // set once the browser has painted the section after the response has been applied.
+    const afterPaint = callback => requestAnimationFrame(() => setTimeout(callback));
+    this._firstChartLoaded = () => afterPaint(() => {
+      window.performance.mark && window.performance.mark('bakery-first-chart-loaded');
+    });
     this._chartsLoaded = new Promise((resolve, reject) => {
       // save the 'resolve' callback to trigger it later from the server
-      this._chartsLoadedResolve = () => {
+      this._chartsLoadedResolve = () => afterPaint(() => {
+        window.performance.mark && window.performance.mark('bakery-all-charts-loaded');
         resolve();
-      };
+      });
     });
+  }
+
+  firstUpdated() {
+    super.firstUpdated();
 
     this._gridLoaded = new Promise((resolve, reject) => {
       const ordersGrid = this.shadowRoot.querySelector('#ordersGrid');
@@ -177,7 +177,7 @@ class OrderCard extends LitElement {
               ${map(this.orderCard && this.orderCard.items, (item) => html`
                 <div class="goods-item">
                   <span class="count">${item.quantity}</span>
-                  <div>${item.product.name}</div>
+                  <div>${item.productName}</div>
                 </div>`)}
             </div>
           </div>
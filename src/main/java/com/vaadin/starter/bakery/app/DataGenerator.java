@@ -3,17 +3,26 @@ package com.vaadin.starter.bakery.app;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.time.YearMonth;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
-import java.util.function.Supplier;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
+import javax.persistence.EntityManager;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.vaadin.flow.spring.annotation.SpringComponent;
 import com.vaadin.starter.bakery.backend.data.OrderState;
@@ -45,23 +54,46 @@ public class DataGenerator implements HasLogger {
 			"Whitney", "Farmer", "Henry", "Chen", "Macias", "Rowland", "Pierce", "Cortez", "Noble", "Howard", "Nixon",
 			"Mcbride", "Leblanc", "Russell", "Carver", "Benton", "Maldonado", "Lyons" };
 
-	private final Random random = new Random(1L);
+	// Orders persisted between two flushes of a partition
+	private static final int ORDERS_PER_FLUSH = 500;
 
 	private OrderRepository orderRepository;
 	private UserRepository userRepository;
 	private ProductRepository productRepository;
 	private PickupLocationRepository pickupLocationRepository;
 	private PasswordEncoder passwordEncoder;
+	private TransactionTemplate transactionTemplate;
+	private EntityManager entityManager;
+
+	private final long seed;
+	private final int years;
+	private final int ordersPerDay;
+	private final int productCount;
+	private final int pickupLocationCount;
+	private final int threads;
 
 	@Autowired
 	public DataGenerator(OrderRepository orderRepository, UserRepository userRepository,
 			ProductRepository productRepository, PickupLocationRepository pickupLocationRepository,
-			PasswordEncoder passwordEncoder) {
+			PasswordEncoder passwordEncoder, PlatformTransactionManager transactionManager, EntityManager entityManager,
+			@Value("${bakery.generator.seed:1}") long seed, @Value("${bakery.generator.years:2}") int years,
+			@Value("${bakery.generator.orders-per-day:10}") int ordersPerDay,
+			@Value("${bakery.generator.products:8}") int productCount,
+			@Value("${bakery.generator.pickup-locations:2}") int pickupLocationCount,
+			@Value("${bakery.generator.threads:0}") int threads) {
 		this.orderRepository = orderRepository;
 		this.userRepository = userRepository;
 		this.productRepository = productRepository;
 		this.pickupLocationRepository = pickupLocationRepository;
 		this.passwordEncoder = passwordEncoder;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.entityManager = entityManager;
+		this.seed = seed;
+		this.years = years;
+		this.ordersPerDay = ordersPerDay;
+		this.productCount = productCount;
+		this.pickupLocationCount = pickupLocationCount;
+		this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
 	}
 
 	@PostConstruct
@@ -72,6 +104,7 @@ public class DataGenerator implements HasLogger {
 		}
 
 		getLogger().info("Generating demo data");
+		RandomData data = new RandomData(new Random(seed));
 
 		getLogger().info("... generating users");
 		User baker = createBaker(userRepository, passwordEncoder);
@@ -82,221 +115,316 @@ public class DataGenerator implements HasLogger {
 
 		getLogger().info("... generating products");
 		// A set of products that will be used for creating orders.
-		Supplier<Product> productSupplier = createProducts(productRepository, 8);
+		List<Product> products = createProducts(productRepository, data, productCount);
 		// A set of products without relationships that can be deleted
-		createProducts(productRepository, 4);
+		createProducts(productRepository, data, 4);
 
 		getLogger().info("... generating pickup locations");
-		Supplier<PickupLocation> pickupLocationSupplier = createPickupLocations(pickupLocationRepository);
+		List<PickupLocation> pickupLocations = createPickupLocations(pickupLocationRepository, pickupLocationCount);
 
 		getLogger().info("... generating orders");
-		createOrders(orderRepository, productSupplier, pickupLocationSupplier, barista, baker);
+		createOrders(data, products, pickupLocations, barista, baker);
 
 		getLogger().info("Generated demo data");
 	}
 
-	private void fillCustomer(Customer customer) {
-		String first = getRandom(FIRST_NAME);
-		String last = getRandom(LAST_NAME);
-		customer.setFullName(first + " " + last);
-		customer.setPhoneNumber(getRandomPhone());
-		if (random.nextInt(10) == 0) {
-			customer.setDetails("Very important customer");
-		}
-	}
-
-	private String getRandomPhone() {
-		return "+1-555-" + String.format("%04d", random.nextInt(10000));
-	}
-
-	private void createOrders(OrderRepository orderRepo, Supplier<Product> productSupplier,
-			Supplier<PickupLocation> pickupLocationSupplier, User barista, User baker) {
-		int yearsToInclude = 2;
+	/**
+	 * Creates the orders of each month in a transaction of its own, on several
+	 * threads. Each month has a random number generator seeded from the seed
+	 * and the month, so the generated data only depends on the seed, whatever
+	 * the number of threads. Only the ids depend on the order in which the
+	 * months are written.
+	 */
+	private void createOrders(RandomData data, List<Product> products, List<PickupLocation> pickupLocations,
+			User barista, User baker) {
 		LocalDate now = LocalDate.now();
-		LocalDate oldestDate = LocalDate.of(now.getYear() - yearsToInclude, 1, 1);
+		YearMonth oldestMonth = YearMonth.of(now.getYear() - years, 1);
 		LocalDate newestDate = now.plusMonths(1L);
 
 		// Create first today's order
-		Order order = createOrder(productSupplier, pickupLocationSupplier, barista, baker, now);
+		data.setReferences(products, pickupLocations);
+		Order order = data.createOrder(barista, baker, now);
 		order.setDueTime(LocalTime.of(8, 0));
 		order.setHistory(order.getHistory().subList(0, 1));
 		order.setItems(order.getItems().subList(0, 1));
-		orderRepo.save(order);
+		orderRepository.save(order);
+
+		long start = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<long[]>> partitions = new ArrayList<>();
+			int partition = 0;
+			for (YearMonth month = oldestMonth; month.atDay(1).isBefore(newestDate); month = month.plusMonths(1)) {
+				RandomData partitionData = new RandomData(new Random(seed ^ (++partition * 0x9E3779B97F4A7C15L)));
+				partitionData.setReferences(products, pickupLocations);
+				LocalDate from = month.atDay(1);
+				LocalDate to = month.plusMonths(1).atDay(1).isBefore(newestDate) ? month.plusMonths(1).atDay(1)
+						: newestDate;
+				partitions.add(executor.submit(() -> transactionTemplate
+						.execute(status -> createOrders(partitionData, from, to, barista, baker))));
+			}
+
+			long orders = 0;
+			long rows = 0;
+			for (Future<long[]> future : partitions) {
+				long[] counts = future.get();
+				orders += counts[0];
+				rows += counts[1];
+			}
+			long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+			getLogger().info("... generated {} orders with {} rows in {} ms on {} threads, {} rows/s", orders, rows,
+					millis, threads, rows * 1000 / millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while generating orders", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("Generating orders failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
 
-		for (LocalDate dueDate = oldestDate; dueDate.isBefore(newestDate); dueDate = dueDate.plusDays(1)) {
+	/**
+	 * Creates the orders due in a date range, flushing them in JDBC batches.
+	 *
+	 * @return the number of orders and the number of inserted rows
+	 */
+	private long[] createOrders(RandomData data, LocalDate from, LocalDate to, User barista, User baker) {
+		LocalDate now = LocalDate.now();
+		List<Order> orders = new ArrayList<>();
+		long orderCount = 0;
+		long rows = 0;
+		for (LocalDate dueDate = from; dueDate.isBefore(to); dueDate = dueDate.plusDays(1)) {
 			// Create a slightly upwards trend - everybody wants to be
 			// successful
-			int relativeYear = dueDate.getYear() - now.getYear() + yearsToInclude;
+			int relativeYear = dueDate.getYear() - now.getYear() + years;
 			int relativeMonth = relativeYear * 12 + dueDate.getMonthValue();
 			double multiplier = 1.0 + 0.03 * relativeMonth;
-			int ordersThisDay = (int) (random.nextInt(10) + 1 * multiplier);
+			int ordersThisDay = (int) (data.random.nextInt(ordersPerDay) + 1 * multiplier);
 			for (int i = 0; i < ordersThisDay; i++) {
-				orderRepo.save(createOrder(productSupplier, pickupLocationSupplier, barista, baker, dueDate));
+				Order order = data.createOrder(barista, baker, dueDate);
+				// The order, its customer, items and history
+				rows += 2 + order.getItems().size() + order.getHistory().size();
+				orders.add(order);
+			}
+			if (orders.size() >= ORDERS_PER_FLUSH) {
+				orderCount += flush(orders);
 			}
 		}
+		orderCount += flush(orders);
+		return new long[] { orderCount, rows };
 	}
 
-	private Order createOrder(Supplier<Product> productSupplier, Supplier<PickupLocation> pickupLocationSupplier,
-			User barista, User baker, LocalDate dueDate) {
-		Order order = new Order(barista);
-
-		fillCustomer(order.getCustomer());
-		order.setPickupLocation(pickupLocationSupplier.get());
-		order.setDueDate(dueDate);
-		order.setDueTime(getRandomDueTime());
-		order.changeState(barista, getRandomState(order.getDueDate()));
-
-		int itemCount = random.nextInt(3);
-		List<OrderItem> items = new ArrayList<>();
-		for (int i = 0; i <= itemCount; i++) {
-			OrderItem item = new OrderItem();
-			Product product;
-			do {
-				product = productSupplier.get();
-			} while (containsProduct(items, product));
-			item.setProduct(product);
-			item.setQuantity(random.nextInt(10) + 1);
-			if (random.nextInt(5) == 0) {
-				if (random.nextBoolean()) {
-					item.setComment("Lactose free");
-				} else {
-					item.setComment("Gluten free");
-				}
+	private int flush(List<Order> orders) {
+		int count = orders.size();
+		orderRepository.saveAll(orders);
+		entityManager.flush();
+		entityManager.clear();
+		orders.clear();
+		return count;
+	}
+
+	/**
+	 * Random demo data from a random number generator of its own.
+	 */
+	private static class RandomData {
+
+		private final Random random;
+		private List<Product> products;
+		private List<PickupLocation> pickupLocations;
+
+		RandomData(Random random) {
+			this.random = random;
+		}
+
+		void setReferences(List<Product> products, List<PickupLocation> pickupLocations) {
+			this.products = products;
+			this.pickupLocations = pickupLocations;
+		}
+
+		private void fillCustomer(Customer customer) {
+			String first = getRandom(FIRST_NAME);
+			String last = getRandom(LAST_NAME);
+			customer.setFullName(first + " " + last);
+			customer.setPhoneNumber(getRandomPhone());
+			if (random.nextInt(10) == 0) {
+				customer.setDetails("Very important customer");
 			}
-			items.add(item);
 		}
-		order.setItems(items);
 
-		order.setHistory(createOrderHistory(order, barista, baker));
+		private String getRandomPhone() {
+			return "+1-555-" + String.format("%04d", random.nextInt(10000));
+		}
 
-		return order;
-	}
+		Order createOrder(User barista, User baker, LocalDate dueDate) {
+			Order order = new Order(barista);
+
+			fillCustomer(order.getCustomer());
+			order.setPickupLocation(nextPickupLocation());
+			order.setDueDate(dueDate);
+			order.setDueTime(getRandomDueTime());
+			order.changeState(barista, getRandomState(order.getDueDate()));
+
+			int itemCount = random.nextInt(Math.min(3, products.size()));
+			List<OrderItem> items = new ArrayList<>();
+			for (int i = 0; i <= itemCount; i++) {
+				OrderItem item = new OrderItem();
+				Product product;
+				do {
+					product = nextProduct();
+				} while (containsProduct(items, product));
+				item.setProduct(product);
+				item.setQuantity(random.nextInt(10) + 1);
+				if (random.nextInt(5) == 0) {
+					if (random.nextBoolean()) {
+						item.setComment("Lactose free");
+					} else {
+						item.setComment("Gluten free");
+					}
+				}
+				items.add(item);
+			}
+			order.setItems(items);
 
-	private List<HistoryItem> createOrderHistory(Order order, User barista, User baker) {
-		ArrayList<HistoryItem> history = new ArrayList<>();
-		HistoryItem item = new HistoryItem(barista, "Order placed");
-		item.setNewState(OrderState.NEW);
-		LocalDateTime orderPlaced = order.getDueDate().minusDays(random.nextInt(5) + 2L).atTime(random.nextInt(10) + 7,
-				00);
-		item.setTimestamp(orderPlaced);
-		history.add(item);
-		if (order.getState() == OrderState.CANCELLED) {
-			item = new HistoryItem(barista, "Order cancelled");
-			item.setNewState(OrderState.CANCELLED);
-			item.setTimestamp(orderPlaced.plusDays(random
-					.nextInt((int) orderPlaced.until(order.getDueDate().atTime(order.getDueTime()), ChronoUnit.DAYS))));
-			history.add(item);
-		} else if (order.getState() == OrderState.CONFIRMED || order.getState() == OrderState.DELIVERED
-				|| order.getState() == OrderState.PROBLEM || order.getState() == OrderState.READY) {
-			item = new HistoryItem(baker, "Order confirmed");
-			item.setNewState(OrderState.CONFIRMED);
-			item.setTimestamp(orderPlaced.plusDays(random.nextInt(2)).plusHours(random.nextInt(5)));
-			history.add(item);
+			order.setHistory(createOrderHistory(order, barista, baker));
+
+			return order;
+		}
 
-			if (order.getState() == OrderState.PROBLEM) {
-				item = new HistoryItem(baker, "Can't make it. Did not get any ingredients this morning");
-				item.setNewState(OrderState.PROBLEM);
-				item.setTimestamp(order.getDueDate().atTime(random.nextInt(4) + 4, 0));
+		private List<HistoryItem> createOrderHistory(Order order, User barista, User baker) {
+			ArrayList<HistoryItem> history = new ArrayList<>();
+			HistoryItem item = new HistoryItem(barista, "Order placed");
+			item.setNewState(OrderState.NEW);
+			LocalDateTime orderPlaced = order.getDueDate().minusDays(random.nextInt(5) + 2L).atTime(random.nextInt(10) + 7,
+					00);
+			item.setTimestamp(orderPlaced);
+			history.add(item);
+			if (order.getState() == OrderState.CANCELLED) {
+				item = new HistoryItem(barista, "Order cancelled");
+				item.setNewState(OrderState.CANCELLED);
+				item.setTimestamp(orderPlaced.plusDays(random
+						.nextInt((int) orderPlaced.until(order.getDueDate().atTime(order.getDueTime()), ChronoUnit.DAYS))));
 				history.add(item);
-			} else if (order.getState() == OrderState.READY || order.getState() == OrderState.DELIVERED) {
-				item = new HistoryItem(baker, "Order ready for pickup");
-				item.setNewState(OrderState.READY);
-				item.setTimestamp(order.getDueDate().atTime(random.nextInt(2) + 8, random.nextBoolean() ? 0 : 30));
+			} else if (order.getState() == OrderState.CONFIRMED || order.getState() == OrderState.DELIVERED
+					|| order.getState() == OrderState.PROBLEM || order.getState() == OrderState.READY) {
+				item = new HistoryItem(baker, "Order confirmed");
+				item.setNewState(OrderState.CONFIRMED);
+				item.setTimestamp(orderPlaced.plusDays(random.nextInt(2)).plusHours(random.nextInt(5)));
 				history.add(item);
-				if (order.getState() == OrderState.DELIVERED) {
-					item = new HistoryItem(baker, "Order delivered");
-					item.setNewState(OrderState.DELIVERED);
-					item.setTimestamp(order.getDueDate().atTime(order.getDueTime().minusMinutes(random.nextInt(120))));
+
+				if (order.getState() == OrderState.PROBLEM) {
+					item = new HistoryItem(baker, "Can't make it. Did not get any ingredients this morning");
+					item.setNewState(OrderState.PROBLEM);
+					item.setTimestamp(order.getDueDate().atTime(random.nextInt(4) + 4, 0));
+					history.add(item);
+				} else if (order.getState() == OrderState.READY || order.getState() == OrderState.DELIVERED) {
+					item = new HistoryItem(baker, "Order ready for pickup");
+					item.setNewState(OrderState.READY);
+					item.setTimestamp(order.getDueDate().atTime(random.nextInt(2) + 8, random.nextBoolean() ? 0 : 30));
 					history.add(item);
+					if (order.getState() == OrderState.DELIVERED) {
+						item = new HistoryItem(baker, "Order delivered");
+						item.setNewState(OrderState.DELIVERED);
+						item.setTimestamp(order.getDueDate().atTime(order.getDueTime().minusMinutes(random.nextInt(120))));
+						history.add(item);
+					}
 				}
 			}
-		}
 
-		return history;
-	}
+			return history;
+		}
 
-	private boolean containsProduct(List<OrderItem> items, Product product) {
-		for (OrderItem item : items) {
-			if (item.getProduct() == product) {
-				return true;
+		private boolean containsProduct(List<OrderItem> items, Product product) {
+			for (OrderItem item : items) {
+				if (item.getProduct() == product) {
+					return true;
+				}
 			}
+			return false;
 		}
-		return false;
-	}
 
-	private LocalTime getRandomDueTime() {
-		int time = 8 + 4 * random.nextInt(3);
+		private LocalTime getRandomDueTime() {
+			int time = 8 + 4 * random.nextInt(3);
 
-		return LocalTime.of(time, 0);
-	}
+			return LocalTime.of(time, 0);
+		}
 
-	private OrderState getRandomState(LocalDate due) {
-		LocalDate today = LocalDate.now();
-		LocalDate tomorrow = today.plusDays(1);
-		LocalDate twoDays = today.plusDays(2);
+		private OrderState getRandomState(LocalDate due) {
+			LocalDate today = LocalDate.now();
+			LocalDate tomorrow = today.plusDays(1);
+			LocalDate twoDays = today.plusDays(2);
 
-		if (due.isBefore(today)) {
-			if (random.nextDouble() < 0.9) {
-				return OrderState.DELIVERED;
-			} else {
-				return OrderState.CANCELLED;
-			}
-		} else {
-			if (due.isAfter(twoDays)) {
-				return OrderState.NEW;
-			} else if (due.isAfter(tomorrow)) {
-				// in 1-2 days
-				double resolution = random.nextDouble();
-				if (resolution < 0.8) {
-					return OrderState.NEW;
-				} else if (resolution < 0.9) {
-					return OrderState.PROBLEM;
+			if (due.isBefore(today)) {
+				if (random.nextDouble() < 0.9) {
+					return OrderState.DELIVERED;
 				} else {
 					return OrderState.CANCELLED;
 				}
 			} else {
-				double resolution = random.nextDouble();
-				if (resolution < 0.6) {
-					return OrderState.READY;
-				} else if (resolution < 0.8) {
-					return OrderState.DELIVERED;
-				} else if (resolution < 0.9) {
-					return OrderState.PROBLEM;
+				if (due.isAfter(twoDays)) {
+					return OrderState.NEW;
+				} else if (due.isAfter(tomorrow)) {
+					// in 1-2 days
+					double resolution = random.nextDouble();
+					if (resolution < 0.8) {
+						return OrderState.NEW;
+					} else if (resolution < 0.9) {
+						return OrderState.PROBLEM;
+					} else {
+						return OrderState.CANCELLED;
+					}
 				} else {
-					return OrderState.CANCELLED;
+					double resolution = random.nextDouble();
+					if (resolution < 0.6) {
+						return OrderState.READY;
+					} else if (resolution < 0.8) {
+						return OrderState.DELIVERED;
+					} else if (resolution < 0.9) {
+						return OrderState.PROBLEM;
+					} else {
+						return OrderState.CANCELLED;
+					}
 				}
+
 			}
+		}
 
+		private <T> T getRandom(T[] array) {
+			return array[random.nextInt(array.length)];
 		}
-	}
 
-	private <T> T getRandom(T[] array) {
-		return array[random.nextInt(array.length)];
-	}
+		private String getRandomProductName() {
+			String firstFilling = getRandom(FILLING);
+			String name;
+			if (random.nextBoolean()) {
+				String secondFilling;
+				do {
+					secondFilling = getRandom(FILLING);
+				} while (secondFilling.equals(firstFilling));
 
-	private Supplier<PickupLocation> createPickupLocations(PickupLocationRepository pickupLocationRepository) {
-		List<PickupLocation> pickupLocations = Arrays.asList(
-				pickupLocationRepository.save(createPickupLocation("Store")),
-				pickupLocationRepository.save(createPickupLocation("Bakery")));
-		return () -> pickupLocations.get(random.nextInt(pickupLocations.size()));
-	}
+				name = firstFilling + " " + secondFilling;
+			} else {
+				name = firstFilling;
+			}
+			name += " " + getRandom(TYPE);
 
-	private PickupLocation createPickupLocation(String name) {
-		PickupLocation store = new PickupLocation();
-		store.setName(name);
-		return store;
-	}
+			return name;
+		}
 
-	private Supplier<Product> createProducts(ProductRepository productsRepo, int numberOfItems) {
-		List<Product> products  = new ArrayList<>();
-		for (int i = 0; i < numberOfItems; i++) {
-			Product product = new Product();
-			product.setName(getRandomProductName());
-			double doublePrice = 2.0 + random.nextDouble() * 100.0;
-			product.setPrice((int) (doublePrice * 100.0));
-			products.add(productsRepo.save(product));
+		// There are 300 different names, numbered when they have all been used
+		String getUniqueProductName(Set<String> names) {
+			String name = getRandomProductName();
+			for (int i = 0; names.contains(name) && i < 1000; i++) {
+				name = getRandomProductName();
+			}
+			for (int i = 2; names.contains(name); i++) {
+				name = getRandomProductName() + " " + i;
+			}
+			names.add(name);
+			return name;
 		}
-		return () -> {
+
+		Product nextProduct() {
 			double cutoff = 2.5;
 			double g = random.nextGaussian();
 			g = Math.min(cutoff, g);
@@ -304,25 +432,41 @@ public class DataGenerator implements HasLogger {
 			g += cutoff;
 			g /= (cutoff * 2.0);
 			return products.get((int) (g * (products.size() - 1)));
-		};
+		}
+
+		PickupLocation nextPickupLocation() {
+			return pickupLocations.get(random.nextInt(pickupLocations.size()));
+		}
 	}
 
-	private String getRandomProductName() {
-		String firstFilling = getRandom(FILLING);
-		String name;
-		if (random.nextBoolean()) {
-			String secondFilling;
-			do {
-				secondFilling = getRandom(FILLING);
-			} while (secondFilling.equals(firstFilling));
-
-			name = firstFilling + " " + secondFilling;
-		} else {
-			name = firstFilling;
+	private List<PickupLocation> createPickupLocations(PickupLocationRepository pickupLocationRepository,
+			int numberOfItems) {
+		String[] names = { "Store", "Bakery" };
+		List<PickupLocation> pickupLocations = new ArrayList<>();
+		for (int i = 0; i < numberOfItems; i++) {
+			String name = names[i % names.length] + (i < names.length ? "" : " " + (i / names.length + 1));
+			pickupLocations.add(pickupLocationRepository.save(createPickupLocation(name)));
 		}
-		name += " " + getRandom(TYPE);
+		return pickupLocations;
+	}
 
-		return name;
+	private PickupLocation createPickupLocation(String name) {
+		PickupLocation store = new PickupLocation();
+		store.setName(name);
+		return store;
+	}
+
+	private List<Product> createProducts(ProductRepository productsRepo, RandomData data, int numberOfItems) {
+		Set<String> names = productsRepo.findAll().stream().map(Product::getName).collect(Collectors.toSet());
+		List<Product> products = new ArrayList<>();
+		for (int i = 0; i < numberOfItems; i++) {
+			Product product = new Product();
+			product.setName(data.getUniqueProductName(names));
+			double doublePrice = 2.0 + data.random.nextDouble() * 100.0;
+			product.setPrice((int) (doublePrice * 100.0));
+			products.add(product);
+		}
+		return productsRepo.saveAll(products);
 	}
 
 	private User createBaker(UserRepository userRepository, PasswordEncoder passwordEncoder) {
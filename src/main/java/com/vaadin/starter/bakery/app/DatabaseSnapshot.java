@@ -0,0 +1,78 @@
+package com.vaadin.starter.bakery.app;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.h2.tools.DeleteDbFiles;
+import org.h2.tools.Restore;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.env.EnvironmentPostProcessor;
+import org.springframework.boot.logging.DeferredLogFactory;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.MapPropertySource;
+
+/**
+ * Starts the application on a copy of a prebuilt H2 database when
+ * {@code bakery.snapshot.file} is set, so that startup takes about as long as
+ * unzipping the snapshot instead of generating the demo data. The generator
+ * then finds the users of the snapshot and keeps the existing database.
+ * <p>
+ * The snapshot is created by starting the application once with
+ * {@code --bakery.snapshot.create=true}, or with {@code mvn -Psnapshot}: the
+ * demo data is generated into a new file database, which
+ * {@link DatabaseSnapshotWriter} zips into the snapshot file. The database
+ * files are kept in {@code bakery.snapshot.directory} and replaced on every
+ * start, so the snapshot itself is never changed.
+ */
+public class DatabaseSnapshot implements EnvironmentPostProcessor {
+
+	static final String FILE = "bakery.snapshot.file";
+	static final String CREATE = "bakery.snapshot.create";
+	static final String DIRECTORY = "bakery.snapshot.directory";
+	static final String DATABASE_NAME = "bakery";
+
+	private final Log log;
+
+	public DatabaseSnapshot(DeferredLogFactory logFactory) {
+		this.log = logFactory.getLog(DatabaseSnapshot.class);
+	}
+
+	@Override
+	public void postProcessEnvironment(ConfigurableEnvironment environment, SpringApplication application) {
+		String file = environment.getProperty(FILE, "");
+		if (file.isEmpty()) {
+			return;
+		}
+		Path snapshot = Paths.get(file).toAbsolutePath();
+		boolean create = environment.getProperty(CREATE, Boolean.class, false);
+		if (!create && !Files.isRegularFile(snapshot)) {
+			throw new IllegalStateException(
+					"No database snapshot " + snapshot + ", create it first with --" + CREATE + "=true");
+		}
+		Path directory = Paths.get(environment.getProperty(DIRECTORY, System.getProperty("java.io.tmpdir")),
+				"bakery-snapshot").toAbsolutePath();
+		DeleteDbFiles.execute(directory.toString(), DATABASE_NAME, true);
+
+		Map<String, Object> properties = new HashMap<>();
+		if (create) {
+			log.info("Generating a new database for the snapshot " + snapshot);
+			properties.put("spring.jpa.hibernate.ddl-auto", "create");
+		} else {
+			long start = System.nanoTime();
+			Restore.execute(snapshot.toString(), directory.toString(), DATABASE_NAME);
+			log.info("Restored the database snapshot " + snapshot + " in " + (System.nanoTime() - start) / 1_000_000
+					+ " ms");
+			// The schema and the delivery rollup are part of the snapshot
+			properties.put("spring.jpa.hibernate.ddl-auto", "none");
+		}
+		properties.put("spring.datasource.url",
+				"jdbc:h2:file:" + directory.resolve(DATABASE_NAME) + ";DB_CLOSE_ON_EXIT=FALSE");
+		properties.put("spring.datasource.username", "sa");
+		properties.put("spring.datasource.password", "");
+		environment.getPropertySources().addFirst(new MapPropertySource("bakerySnapshot", properties));
+	}
+}
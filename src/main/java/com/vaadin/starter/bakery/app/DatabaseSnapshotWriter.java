@@ -0,0 +1,60 @@
+package com.vaadin.starter.bakery.app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.vaadin.flow.spring.annotation.SpringComponent;
+
+/**
+ * Writes the database snapshot restored by {@link DatabaseSnapshot} and stops
+ * the application, when it is started with
+ * {@code --bakery.snapshot.create=true}. The snapshot is written once the
+ * application is ready, i.e. after the demo data and the delivery rollup have
+ * been built.
+ */
+@SpringComponent
+@ConditionalOnProperty(DatabaseSnapshot.CREATE)
+public class DatabaseSnapshotWriter implements ApplicationListener<ApplicationReadyEvent>, HasLogger {
+
+	private final JdbcTemplate jdbcTemplate;
+	private final Path snapshot;
+
+	@Autowired
+	public DatabaseSnapshotWriter(JdbcTemplate jdbcTemplate, @Value("${" + DatabaseSnapshot.FILE + "}") String file) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.snapshot = Paths.get(file).toAbsolutePath();
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationReadyEvent event) {
+		write();
+		System.exit(SpringApplication.exit(event.getApplicationContext()));
+	}
+
+	/**
+	 * Writes a compressed copy of the database to the snapshot file, replacing a
+	 * previous snapshot.
+	 */
+	void write() {
+		long start = System.nanoTime();
+		try {
+			Files.createDirectories(snapshot.getParent());
+			Files.deleteIfExists(snapshot);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot write the database snapshot " + snapshot, e);
+		}
+		jdbcTemplate.execute("BACKUP TO '" + snapshot.toString().replace("'", "''") + "'");
+		getLogger().info("Wrote the database snapshot {} ({} kB) in {} ms", snapshot, snapshot.toFile().length() / 1024,
+				(System.nanoTime() - start) / 1_000_000);
+	}
+}
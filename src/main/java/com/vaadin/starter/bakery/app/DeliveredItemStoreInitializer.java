@@ -0,0 +1,31 @@
+package com.vaadin.starter.bakery.app;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+
+import com.vaadin.flow.spring.annotation.SpringComponent;
+import com.vaadin.starter.bakery.backend.service.DeliveredItemStore;
+
+/**
+ * Loads the delivered order items into the in-memory reporting store on
+ * startup.
+ */
+@SpringComponent
+public class DeliveredItemStoreInitializer implements ApplicationRunner, HasLogger {
+
+	private final DeliveredItemStore deliveredItemStore;
+
+	@Autowired
+	public DeliveredItemStoreInitializer(DeliveredItemStore deliveredItemStore) {
+		this.deliveredItemStore = deliveredItemStore;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		long start = System.currentTimeMillis();
+		deliveredItemStore.rebuild();
+		getLogger().info("Loaded {} delivered order items in {} ms", deliveredItemStore.size(),
+				System.currentTimeMillis() - start);
+	}
+}
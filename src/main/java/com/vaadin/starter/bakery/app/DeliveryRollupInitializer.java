@@ -0,0 +1,44 @@
+package com.vaadin.starter.bakery.app;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+
+import com.vaadin.flow.spring.annotation.SpringComponent;
+import com.vaadin.starter.bakery.backend.repositories.ArchivedOrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+import com.vaadin.starter.bakery.backend.service.DeliveryRollupService;
+
+/**
+ * Builds the delivery rollup when it is missing, e.g. after the demo data has
+ * been generated. Start the application with
+ * {@code --bakery.rollup.rebuild=true} to recreate it from scratch.
+ */
+@SpringComponent
+public class DeliveryRollupInitializer implements ApplicationRunner, HasLogger {
+
+	private final DeliveryRollupService rollupService;
+	private final OrderRepository orderRepository;
+	private final ArchivedOrderRepository archivedOrderRepository;
+	private final boolean rebuild;
+
+	@Autowired
+	public DeliveryRollupInitializer(DeliveryRollupService rollupService, OrderRepository orderRepository,
+			ArchivedOrderRepository archivedOrderRepository, @Value("${bakery.rollup.rebuild:false}") boolean rebuild) {
+		this.rollupService = rollupService;
+		this.orderRepository = orderRepository;
+		this.archivedOrderRepository = archivedOrderRepository;
+		this.rebuild = rebuild;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		if (rebuild || (rollupService.isEmpty()
+				&& (orderRepository.count() != 0L || archivedOrderRepository.count() != 0L))) {
+			getLogger().info("Rebuilding delivery rollup");
+			rollupService.rebuild();
+			getLogger().info("Rebuilt delivery rollup");
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package com.vaadin.starter.bakery.app;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.Period;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+
+import com.vaadin.flow.spring.annotation.SpringComponent;
+import com.vaadin.starter.bakery.backend.service.OrderArchiveService;
+
+/**
+ * Archives the delivered and cancelled orders due before the archive horizon,
+ * on startup and then at a fixed interval. Each batch is a transaction of its
+ * own, so a run never locks more orders than a batch holds.
+ * <p>
+ * The startup run blocks, so that the orders are not moved while the other
+ * initializers rebuild from them.
+ */
+@SpringComponent
+public class OrderArchiver implements ApplicationRunner, HasLogger {
+
+	private final OrderArchiveService orderArchive;
+	private final Period horizon;
+	private final int batchSize;
+	private final Duration interval;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "order-archiver");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@Autowired
+	public OrderArchiver(OrderArchiveService orderArchive, @Value("${bakery.archive.horizon:90d}") Period horizon,
+			@Value("${bakery.archive.batch-size:500}") int batchSize,
+			@Value("${bakery.archive.interval:1h}") Duration interval) {
+		this.orderArchive = orderArchive;
+		this.horizon = horizon;
+		this.batchSize = batchSize;
+		this.interval = interval;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		archive();
+		if (!interval.isZero()) {
+			executor.scheduleWithFixedDelay(this::archive, interval.toMillis(), interval.toMillis(),
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdownNow();
+	}
+
+	private void archive() {
+		LocalDate dueBefore = LocalDate.now().minus(horizon);
+		long start = System.currentTimeMillis();
+		int archived = 0;
+		try {
+			int moved;
+			do {
+				moved = orderArchive.archive(dueBefore, batchSize);
+				archived += moved;
+			} while (moved == batchSize && !Thread.currentThread().isInterrupted());
+		} catch (RuntimeException e) {
+			getLogger().error("Archiving orders due before " + dueBefore + " failed", e);
+		}
+		if (archived != 0) {
+			getLogger().info("Archived {} orders due before {} in {} ms", archived, dueBefore,
+					System.currentTimeMillis() - start);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.vaadin.starter.bakery.app;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+
+import com.vaadin.flow.spring.annotation.SpringComponent;
+import com.vaadin.starter.bakery.backend.service.OrderSearchIndex;
+
+/**
+ * Builds the in-memory order search index on startup. Until it is ready,
+ * searches are run against the database.
+ */
+@SpringComponent
+public class OrderSearchIndexInitializer implements ApplicationRunner, HasLogger {
+
+	private final OrderSearchIndex orderSearchIndex;
+
+	@Autowired
+	public OrderSearchIndexInitializer(OrderSearchIndex orderSearchIndex) {
+		this.orderSearchIndex = orderSearchIndex;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) {
+		long start = System.currentTimeMillis();
+		orderSearchIndex.rebuild();
+		getLogger().info("Indexed {} orders for search in {} ms", orderSearchIndex.size(),
+				System.currentTimeMillis() - start);
+	}
+}
@@ -0,0 +1,94 @@
+package com.vaadin.starter.bakery.app.datasource;
+
+import java.time.Duration;
+
+import javax.sql.DataSource;
+
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.resource.jdbc.spi.PhysicalConnectionHandlingMode;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Sends the read-only transactions to a replica database when
+ * {@code bakery.datasource.replica.url} is set, see
+ * {@link ReplicaRoutingDataSource}. The primary is configured by the usual
+ * {@code spring.datasource} properties.
+ * <p>
+ * The replica must be kept up to date by the database server, e.g. by
+ * streaming replication. Its lag is measured by a {@link ReplicaHeartbeat}
+ * every {@code bakery.datasource.replica.heartbeat-interval}, and read-only
+ * transactions read from it while it lags behind by no more than
+ * {@code bakery.datasource.replica.max-lag}.
+ */
+@Configuration
+@ConditionalOnProperty("bakery.datasource.replica.url")
+public class ReplicaDataSourceConfiguration {
+
+	@Bean(destroyMethod = "close")
+	public ReplicaRoutingDataSource replicaRoutingDataSource(DataSourceProperties properties,
+			@Value("${bakery.datasource.replica.url}") String url,
+			@Value("${bakery.datasource.replica.username:sa}") String username,
+			@Value("${bakery.datasource.replica.password:}") String password,
+			@Value("${bakery.datasource.replica.pool-size:10}") int poolSize,
+			@Value("${bakery.datasource.replica.max-lag:5s}") Duration maxLag,
+			@Value("${bakery.datasource.replica.heartbeat-interval:500ms}") Duration heartbeatInterval) {
+		HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+		primary.setPoolName("primary");
+		HikariDataSource replica = DataSourceBuilder.create().type(HikariDataSource.class).url(url).username(username)
+				.password(password).build();
+		replica.setPoolName("replica");
+		replica.setMaximumPoolSize(poolSize);
+		return routing(primary, replica, maxLag, heartbeatInterval);
+	}
+
+	/**
+	 * Creates the routing between the primary and the replica pools.
+	 *
+	 * @param primary
+	 *            the primary pool
+	 * @param replica
+	 *            the replica pool
+	 * @param maxLag
+	 *            the longest lag with which the replica is still read from
+	 * @param heartbeatInterval
+	 *            how often the lag is measured
+	 * @return the routing data source, which closes both pools
+	 */
+	protected ReplicaRoutingDataSource routing(DataSource primary, DataSource replica, Duration maxLag,
+			Duration heartbeatInterval) {
+		return new ReplicaRoutingDataSource(primary, replica,
+				new ReplicaHeartbeat(primary, replica, heartbeatInterval), maxLag);
+	}
+
+	/**
+	 * Releases the connection of a session when its transaction ends, so that
+	 * an entity manager used by several transactions, e.g. in a request with
+	 * open session in view, does not read or write through the connection of
+	 * a previous one.
+	 */
+	@Bean
+	public HibernatePropertiesCustomizer releaseConnectionsAfterTransaction() {
+		return properties -> properties.put(AvailableSettings.CONNECTION_HANDLING,
+				PhysicalConnectionHandlingMode.DELAYED_ACQUISITION_AND_RELEASE_AFTER_TRANSACTION);
+	}
+
+	/**
+	 * The data source of the application, which picks the primary or the
+	 * replica when a transaction runs its first statement.
+	 */
+	@Bean
+	@Primary
+	public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+		return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+	}
+}
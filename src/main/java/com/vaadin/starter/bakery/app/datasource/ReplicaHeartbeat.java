@@ -0,0 +1,119 @@
+package com.vaadin.starter.bakery.app.datasource;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import com.vaadin.starter.bakery.app.HasLogger;
+
+/**
+ * Measures how far a replica lags behind the primary database by writing the
+ * current time to a heartbeat table on the primary, and reading the last
+ * heartbeat the replica has applied.
+ * <p>
+ * The replica holds every write committed before the heartbeat it shows was
+ * written, so the time since that heartbeat is an upper bound of the lag. It
+ * is at least as long as the time since the last beat, so the tolerance must
+ * be longer than the interval. Until the replica shows a heartbeat, and while
+ * it cannot be read, the lag keeps growing.
+ */
+public class ReplicaHeartbeat implements Supplier<Duration>, Closeable, HasLogger {
+
+	/** The lag of a replica that has not shown a heartbeat yet, longer than any tolerance. */
+	private static final Duration UNKNOWN_LAG = Duration.ofSeconds(Long.MAX_VALUE);
+
+	private final JdbcTemplate primary;
+	private final JdbcTemplate replica;
+	private final LongSupplier clock;
+	private ScheduledExecutorService executor;
+
+	private boolean created;
+
+	/** The last heartbeat read from the replica, in milliseconds, or -1 */
+	private volatile long replicaBeat = -1;
+
+	/**
+	 * Starts writing and reading the heartbeat.
+	 *
+	 * @param primary
+	 *            the primary database, where the heartbeat table is created
+	 * @param replica
+	 *            the replica database
+	 * @param interval
+	 *            how often the heartbeat is written and read
+	 */
+	public ReplicaHeartbeat(DataSource primary, DataSource replica, Duration interval) {
+		this(primary, replica, System::currentTimeMillis);
+		executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "replica-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.scheduleWithFixedDelay(this::beat, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+	}
+
+	ReplicaHeartbeat(DataSource primary, DataSource replica, LongSupplier clock) {
+		this.primary = new JdbcTemplate(primary);
+		this.replica = new JdbcTemplate(replica);
+		this.clock = clock;
+	}
+
+	/**
+	 * Writes the current time to the primary, and reads the last heartbeat of
+	 * the replica.
+	 */
+	void beat() {
+		try {
+			if (!created) {
+				primary.execute(
+						"CREATE TABLE IF NOT EXISTS replica_heartbeat (id INT PRIMARY KEY, beat BIGINT NOT NULL)");
+				created = true;
+			}
+			long now = clock.getAsLong();
+			if (primary.update("UPDATE replica_heartbeat SET beat = ? WHERE id = 1", now) == 0) {
+				primary.update("INSERT INTO replica_heartbeat (id, beat) VALUES (1, ?)", now);
+			}
+			Long beat = replica.query("SELECT beat FROM replica_heartbeat WHERE id = 1",
+					rs -> rs.next() ? rs.getLong(1) : null);
+			if (beat != null) {
+				replicaBeat = beat;
+			}
+		} catch (DataAccessException e) {
+			getLogger().warn("Checking the lag of the replica failed", e);
+		}
+	}
+
+	/**
+	 * Returns how far the replica lags behind the primary at most.
+	 *
+	 * @return the time since the last heartbeat the replica has applied
+	 */
+	@Override
+	public Duration get() {
+		long beat = replicaBeat;
+		return beat < 0 ? UNKNOWN_LAG : Duration.ofMillis(Math.max(0, clock.getAsLong() - beat));
+	}
+
+	@Override
+	public void close() {
+		if (executor == null) {
+			return;
+		}
+		// Not interrupted, as an interrupted JDBC call may close an H2 database
+		executor.shutdown();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
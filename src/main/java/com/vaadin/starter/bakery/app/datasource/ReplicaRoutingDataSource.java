@@ -0,0 +1,148 @@
+package com.vaadin.starter.bakery.app.datasource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+import javax.sql.DataSource;
+
+import org.springframework.core.Ordered;
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Sends the connections of read-only transactions to a replica database, as
+ * long as the replica lags behind the primary by no more than a tolerance.
+ * All other connections, including those of the write path and of code
+ * running without a transaction, go to the primary.
+ * <p>
+ * Read-only transactions also go to the primary until the replica has caught
+ * up with the last transaction written through this data source, so that
+ * data reloaded after a write, e.g. by a cache, includes it whatever the
+ * tolerance.
+ * <p>
+ * The read-only flag of a transaction is only known once the transaction has
+ * begun, so this data source must be wrapped in a
+ * {@link org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy}
+ * that fetches the connection on the first statement.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource implements Closeable {
+
+	enum Target {
+		PRIMARY, REPLICA
+	}
+
+	private final DataSource primary;
+	private final DataSource replica;
+	private final Supplier<Duration> lag;
+	private final Duration maxLag;
+	private final LongSupplier clock;
+
+	/** When the last transaction written through this data source committed, in nanoseconds */
+	private volatile long lastWrite;
+	private volatile boolean written;
+
+	private final AtomicLong replicaConnections = new AtomicLong();
+	private final AtomicLong laggingConnections = new AtomicLong();
+
+	/**
+	 * Creates the data source.
+	 *
+	 * @param primary
+	 *            the primary database
+	 * @param replica
+	 *            the replica database
+	 * @param lag
+	 *            returns how far the replica lags behind the primary at most,
+	 *            closed with this data source if it is {@link Closeable}
+	 * @param maxLag
+	 *            the longest lag with which read-only transactions still read
+	 *            from the replica
+	 */
+	public ReplicaRoutingDataSource(DataSource primary, DataSource replica, Supplier<Duration> lag, Duration maxLag) {
+		this(primary, replica, lag, maxLag, System::nanoTime);
+	}
+
+	ReplicaRoutingDataSource(DataSource primary, DataSource replica, Supplier<Duration> lag, Duration maxLag,
+			LongSupplier clock) {
+		this.primary = primary;
+		this.replica = replica;
+		this.lag = lag;
+		this.maxLag = maxLag;
+		this.clock = clock;
+		Map<Object, Object> targets = new HashMap<>();
+		targets.put(Target.PRIMARY, primary);
+		targets.put(Target.REPLICA, replica);
+		setTargetDataSources(targets);
+		setDefaultTargetDataSource(primary);
+		afterPropertiesSet();
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+			if (TransactionSynchronizationManager.isSynchronizationActive()) {
+				TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+					@Override
+					public int getOrder() {
+						// Before the synchronizations that reload data after the commit
+						return Ordered.HIGHEST_PRECEDENCE;
+					}
+
+					@Override
+					public void afterCommit() {
+						lastWrite = clock.getAsLong();
+						written = true;
+					}
+				});
+			}
+			return Target.PRIMARY;
+		}
+		Duration replicaLag = lag.get();
+		// The replica holds the writes committed longer ago than its lag
+		if (replicaLag.compareTo(maxLag) > 0
+				|| written && Duration.ofNanos(clock.getAsLong() - lastWrite).compareTo(replicaLag) <= 0) {
+			laggingConnections.incrementAndGet();
+			return Target.PRIMARY;
+		}
+		replicaConnections.incrementAndGet();
+		return Target.REPLICA;
+	}
+
+	/**
+	 * Returns the number of connections of read-only transactions served by
+	 * the replica.
+	 *
+	 * @return the number of replica connections
+	 */
+	public long getReplicaConnectionCount() {
+		return replicaConnections.get();
+	}
+
+	/**
+	 * Returns the number of connections of read-only transactions served by
+	 * the primary because the replica lagged behind too far, or had not
+	 * applied the last write yet.
+	 *
+	 * @return the number of connections that fell back to the primary
+	 */
+	public long getLaggingConnectionCount() {
+		return laggingConnections.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		// The lag first, which may write to the primary, then the primary, which stops the shipping of its writes
+		for (Object resource : new Object[] { lag, primary, replica }) {
+			if (resource instanceof Closeable) {
+				((Closeable) resource).close();
+			}
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package com.vaadin.starter.bakery.app.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.vaadin.flow.spring.annotation.SpringComponent;
+import com.vaadin.starter.bakery.backend.service.OrderService;
+import com.vaadin.starter.bakery.backend.service.RefreshingCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Publishes the counters of the caches shared by all users as the Micrometer
+ * meters {@value RefreshingCache#GETS}, {@value RefreshingCache#LOADS},
+ * {@value RefreshingCache#EVICTIONS} and {@value RefreshingCache#SIZE}, tagged
+ * with the cache name, e.g. {@code dashboard.deliveryStats}.
+ */
+@SpringComponent
+public class CacheMetrics {
+
+	@Autowired
+	public CacheMetrics(MeterRegistry registry, OrderService orderService) {
+		orderService.getDashboardCaches().forEach((name, cache) -> cache.bindTo(registry, "dashboard." + name));
+		orderService.getFirstOrdersCache().bindTo(registry, "storefront.firstOrders");
+	}
+}
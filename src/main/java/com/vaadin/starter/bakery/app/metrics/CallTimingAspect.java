@@ -0,0 +1,125 @@
+package com.vaadin.starter.bakery.app.metrics;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.repository.Repository;
+import org.springframework.util.ClassUtils;
+
+import com.vaadin.flow.spring.annotation.SpringComponent;
+import com.vaadin.starter.bakery.app.HasLogger;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Times every call of a repository or a service into the Micrometer timers
+ * {@value #REPOSITORY_TIMER} and {@value #SERVICE_TIMER}, tagged by class,
+ * method and exception, and logs the calls slower than
+ * {@code bakery.metrics.slow-call-threshold}.
+ * <p>
+ * This runs outside of the transactions, so a service call is timed with its
+ * commit. A repository method returning a stream is timed until the stream is
+ * returned, not until it has been read. The slow call log shows the types of
+ * the arguments and the sizes of collections, but never their values, as they
+ * hold customer names and phone numbers.
+ */
+@Aspect
+@SpringComponent
+@Order(Ordered.HIGHEST_PRECEDENCE)
+public class CallTimingAspect implements HasLogger {
+
+	/** The timer of the repository calls */
+	public static final String REPOSITORY_TIMER = "bakery.repository.invocations";
+
+	/** The timer of the service calls */
+	public static final String SERVICE_TIMER = "bakery.service.invocations";
+
+	private final MeterRegistry registry;
+	private final long slowCallNanos;
+	private final Map<Class<?>, String> classNames = new ConcurrentHashMap<>();
+
+	@Autowired
+	public CallTimingAspect(MeterRegistry registry,
+			@Value("${bakery.metrics.slow-call-threshold:500ms}") Duration slowCallThreshold) {
+		this.registry = registry;
+		this.slowCallNanos = slowCallThreshold.toNanos();
+	}
+
+	@Around("execution(public * org.springframework.data.repository.Repository+.*(..))")
+	public Object timeRepositoryCall(ProceedingJoinPoint call) throws Throwable {
+		return time(REPOSITORY_TIMER, call);
+	}
+
+	@Around("execution(public * com.vaadin.starter.bakery.backend.service.CrudService+.*(..))")
+	public Object timeServiceCall(ProceedingJoinPoint call) throws Throwable {
+		return time(SERVICE_TIMER, call);
+	}
+
+	private Object time(String timer, ProceedingJoinPoint call) throws Throwable {
+		long start = System.nanoTime();
+		String exception = "none";
+		try {
+			return call.proceed();
+		} catch (Throwable e) {
+			exception = e.getClass().getSimpleName();
+			throw e;
+		} finally {
+			long nanos = System.nanoTime() - start;
+			String className = className(call.getTarget());
+			String method = call.getSignature().getName();
+			Timer.builder(timer).tag("class", className).tag("method", method).tag("exception", exception)
+					.register(registry).record(nanos, TimeUnit.NANOSECONDS);
+			if (nanos >= slowCallNanos) {
+				getLogger().warn("Slow call {}.{}({}) took {} ms", className, method, redact(call.getArgs()),
+						TimeUnit.NANOSECONDS.toMillis(nanos));
+			}
+		}
+	}
+
+	/**
+	 * Returns the name of the repository interface or of the service class.
+	 */
+	private String className(Object target) {
+		return classNames.computeIfAbsent(target.getClass(), type -> {
+			// A repository is a proxy of its interface
+			Class<?> user = target instanceof Repository && AopUtils.isAopProxy(target)
+					? AopProxyUtils.proxiedUserInterfaces(target)[0]
+					: ClassUtils.getUserClass(type);
+			return user.getSimpleName();
+		});
+	}
+
+	/**
+	 * Describes the arguments of a call without their values.
+	 *
+	 * @param args
+	 *            the arguments
+	 * @return the types of the arguments, and the sizes of collections
+	 */
+	static String redact(Object[] args) {
+		return Arrays.stream(args).map(arg -> {
+			if (arg == null) {
+				return "null";
+			} else if (arg instanceof Collection) {
+				return "Collection[" + ((Collection<?>) arg).size() + "]";
+			} else {
+				return arg.getClass().getSimpleName();
+			}
+		}).collect(Collectors.joining(", "));
+	}
+}
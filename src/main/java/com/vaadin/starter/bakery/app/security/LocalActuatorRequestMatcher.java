@@ -0,0 +1,48 @@
+package com.vaadin.starter.bakery.app.security;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
+import org.springframework.security.web.util.matcher.RequestMatcher;
+
+/**
+ * Matches the requests for the actuator endpoints that arrive on the
+ * management port from the loopback address, so they can be served without a
+ * login even if the management server is configured to listen on other
+ * addresses as well.
+ */
+public class LocalActuatorRequestMatcher implements RequestMatcher {
+
+	private final int managementPort;
+	private final RequestMatcher actuatorPaths;
+
+	/**
+	 * @param managementPort
+	 *            the port of the management server, or -1 if it shares the
+	 *            application port, when no request matches
+	 * @param basePath
+	 *            the base path of the actuator endpoints
+	 */
+	public LocalActuatorRequestMatcher(int managementPort, String basePath) {
+		this.managementPort = managementPort;
+		this.actuatorPaths = new AntPathRequestMatcher(basePath + "/**");
+	}
+
+	@Override
+	public boolean matches(HttpServletRequest request) {
+		return managementPort > 0 && request.getLocalPort() == managementPort && actuatorPaths.matches(request)
+				&& isLoopback(request.getRemoteAddr());
+	}
+
+	private static boolean isLoopback(String address) {
+		try {
+			// A literal address, so it is not looked up
+			return address != null && InetAddress.getByName(address).isLoopbackAddress();
+		} catch (UnknownHostException e) {
+			return false;
+		}
+	}
+}
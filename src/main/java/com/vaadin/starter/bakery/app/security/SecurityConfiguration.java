@@ -5,6 +5,7 @@ import com.vaadin.starter.bakery.backend.data.entity.User;
 import com.vaadin.starter.bakery.backend.repositories.UserRepository;
 import com.vaadin.starter.bakery.ui.views.login.LoginView;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -19,6 +20,7 @@ import org.springframework.security.crypto.password.PasswordEncoder;
  * Configures spring security, doing the following:
  * <li>Bypass security checks for static resources,</li>
  * <li>Restrict access to the application, allowing only logged in users,</li>
+ * <li>Allow local access to the actuator endpoints on the management port,</li>
  * <li>Set up the login form,</li>
  * <li>Configures the {@link UserDetailsServiceImpl}.</li>
  * 
@@ -27,6 +29,13 @@ import org.springframework.security.crypto.password.PasswordEncoder;
 @Configuration
 public class SecurityConfiguration extends VaadinWebSecurityConfigurerAdapter {
 
+	private final LocalActuatorRequestMatcher localActuatorRequests;
+
+	public SecurityConfiguration(@Value("${management.server.port:-1}") int managementPort,
+			@Value("${management.endpoints.web.base-path:/actuator}") String actuatorBasePath) {
+		this.localActuatorRequests = new LocalActuatorRequestMatcher(managementPort, actuatorBasePath);
+	}
+
 	/**
 	 * The password encoder to use when encrypting passwords.
 	 */
@@ -48,6 +57,8 @@ public class SecurityConfiguration extends VaadinWebSecurityConfigurerAdapter {
 	 */
 	@Override
 	protected void configure(HttpSecurity http) throws Exception {
+		// The metrics endpoint, see management.server.address
+		http.authorizeRequests().requestMatchers(localActuatorRequests).permitAll();
 		super.configure(http);
 		setLoginView(http, LoginView.class);
 	}
@@ -0,0 +1,132 @@
+package com.vaadin.starter.bakery.backend.data;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.TreeSet;
+
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueTime;
+
+/**
+ * The dashboard sections of a month reloaded after a batch of order writes.
+ * <p>
+ * The values replace previously loaded data, so an update can be shown however
+ * old the data on screen is. Sections the writes did not change are null. The
+ * product split is not included as its date range differs per dashboard, only
+ * the due dates whose delivered quantities changed.
+ */
+public class DashboardUpdate {
+
+	private final YearMonth month;
+	private DeliveryStats deliveryStats;
+	private Optional<OrderDueTime> nextDelivery = Optional.empty();
+	private Optional<LocalDateTime> lastNewOrderPlaced = Optional.empty();
+	private Optional<LocalTime> firstDueTimeTomorrow = Optional.empty();
+	private List<Number> deliveriesThisMonth;
+	private List<Number> deliveriesThisYear;
+	private Number[][] salesPerMonth;
+	private final NavigableSet<LocalDate> productDeliveryDates = new TreeSet<>();
+
+	public DashboardUpdate(YearMonth month) {
+		this.month = month;
+	}
+
+	/**
+	 * @return the month of the reloaded sections
+	 */
+	public YearMonth getMonth() {
+		return month;
+	}
+
+	/**
+	 * @return the delivery statistics of the day the update was created, or
+	 *         null if the counters did not change
+	 */
+	public DeliveryStats getDeliveryStats() {
+		return deliveryStats;
+	}
+
+	public void setDeliveryStats(DeliveryStats deliveryStats) {
+		this.deliveryStats = deliveryStats;
+	}
+
+	public Optional<OrderDueTime> getNextDelivery() {
+		return nextDelivery;
+	}
+
+	public void setNextDelivery(Optional<OrderDueTime> nextDelivery) {
+		this.nextDelivery = nextDelivery;
+	}
+
+	public Optional<LocalDateTime> getLastNewOrderPlaced() {
+		return lastNewOrderPlaced;
+	}
+
+	public void setLastNewOrderPlaced(Optional<LocalDateTime> lastNewOrderPlaced) {
+		this.lastNewOrderPlaced = lastNewOrderPlaced;
+	}
+
+	public Optional<LocalTime> getFirstDueTimeTomorrow() {
+		return firstDueTimeTomorrow;
+	}
+
+	public void setFirstDueTimeTomorrow(Optional<LocalTime> firstDueTimeTomorrow) {
+		this.firstDueTimeTomorrow = firstDueTimeTomorrow;
+	}
+
+	/**
+	 * @return the deliveries per day of the month, or null if they did not
+	 *         change
+	 */
+	public List<Number> getDeliveriesThisMonth() {
+		return deliveriesThisMonth;
+	}
+
+	public void setDeliveriesThisMonth(List<Number> deliveriesThisMonth) {
+		this.deliveriesThisMonth = deliveriesThisMonth;
+	}
+
+	/**
+	 * @return the deliveries per month of the year, or null if they did not
+	 *         change
+	 */
+	public List<Number> getDeliveriesThisYear() {
+		return deliveriesThisYear;
+	}
+
+	public void setDeliveriesThisYear(List<Number> deliveriesThisYear) {
+		this.deliveriesThisYear = deliveriesThisYear;
+	}
+
+	/**
+	 * @return the sales per month of the last three years, or null if they did
+	 *         not change
+	 */
+	public Number[][] getSalesPerMonth() {
+		return salesPerMonth;
+	}
+
+	public void setSalesPerMonth(Number[][] salesPerMonth) {
+		this.salesPerMonth = salesPerMonth;
+	}
+
+	/**
+	 * @param from
+	 *            the first due date, inclusive
+	 * @param to
+	 *            the last due date, exclusive
+	 * @return whether the delivered quantities in the date range changed
+	 */
+	public boolean hasProductDeliveries(LocalDate from, LocalDate to) {
+		LocalDate first = productDeliveryDates.ceiling(from);
+		return first != null && first.isBefore(to);
+	}
+
+	public void addProductDeliveryDate(LocalDate dueDate) {
+		productDeliveryDates.add(dueDate);
+	}
+}
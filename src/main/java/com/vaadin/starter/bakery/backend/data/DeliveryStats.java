@@ -8,6 +8,26 @@ public class DeliveryStats {
 	private int notAvailableToday;
 	private int newOrders;
 
+	public DeliveryStats() {
+	}
+
+	/**
+	 * Creates the statistics from aggregate query results, where a missing
+	 * value means no matching orders.
+	 */
+	public DeliveryStats(Long dueToday, Long dueTomorrow, Long deliveredToday, Long notAvailableToday,
+			Long newOrders) {
+		this.dueToday = toInt(dueToday);
+		this.dueTomorrow = toInt(dueTomorrow);
+		this.deliveredToday = toInt(deliveredToday);
+		this.notAvailableToday = toInt(notAvailableToday);
+		this.newOrders = toInt(newOrders);
+	}
+
+	private static int toInt(Long count) {
+		return count == null ? 0 : count.intValue();
+	}
+
 	public int getDeliveredToday() {
 		return deliveredToday;
 	}
@@ -0,0 +1,137 @@
+package com.vaadin.starter.bakery.backend.data;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.OrderItem;
+import com.vaadin.starter.bakery.backend.repositories.SqlFunctions;
+
+/**
+ * A read-only summary of an order, with what the order lists show: the due
+ * date and time, the state, the customer, the pickup location and the
+ * quantity and name of each product. Unlike an {@link Order} loaded with the
+ * brief entity graph, it does not reference other entities, so a page of
+ * summaries takes a fraction of the memory.
+ */
+public class OrderBrief implements Serializable {
+
+	private final Long id;
+	private final LocalDate dueDate;
+	private final LocalTime dueTime;
+	private final OrderState state;
+	private final String customerFullName;
+	private final String customerPhoneNumber;
+	private final String pickupLocationName;
+	private final List<Item> items;
+
+	/**
+	 * The quantity of a product in an order.
+	 */
+	public static class Item implements Serializable {
+		private final int quantity;
+		private final String productName;
+
+		public Item(int quantity, String productName) {
+			this.quantity = quantity;
+			this.productName = productName;
+		}
+
+		public int getQuantity() {
+			return quantity;
+		}
+
+		public String getProductName() {
+			return productName;
+		}
+	}
+
+	/**
+	 * Creates the summary from an aggregate query result, where the
+	 * quantities and product names of the items are listed on separate lines
+	 * in the same order, by {@link SqlFunctions#LIST_LINES}.
+	 */
+	public OrderBrief(Long id, LocalDate dueDate, LocalTime dueTime, OrderState state, String customerFullName,
+			String customerPhoneNumber, String pickupLocationName, String quantities, String productNames) {
+		this.id = id;
+		this.dueDate = dueDate;
+		this.dueTime = dueTime;
+		this.state = state;
+		this.customerFullName = customerFullName;
+		this.customerPhoneNumber = customerPhoneNumber;
+		this.pickupLocationName = shared(pickupLocationName);
+		if (quantities == null) {
+			items = Collections.emptyList();
+		} else {
+			String[] quantityLines = SqlFunctions.splitLines(quantities);
+			String[] nameLines = SqlFunctions.splitLines(productNames);
+			List<Item> list = new ArrayList<>(quantityLines.length);
+			for (int i = 0; i < quantityLines.length; i++) {
+				list.add(new Item(Integer.parseInt(quantityLines[i]), shared(nameLines[i])));
+			}
+			items = Collections.unmodifiableList(list);
+		}
+	}
+
+	/**
+	 * Creates the summary of an order entity.
+	 */
+	public OrderBrief(Order order) {
+		this.id = order.getId();
+		this.dueDate = order.getDueDate();
+		this.dueTime = order.getDueTime();
+		this.state = order.getState();
+		this.customerFullName = order.getCustomer().getFullName();
+		this.customerPhoneNumber = order.getCustomer().getPhoneNumber();
+		this.pickupLocationName = order.getPickupLocation() == null ? null : order.getPickupLocation().getName();
+		List<Item> list = new ArrayList<>();
+		for (OrderItem item : order.getItems()) {
+			list.add(new Item(item.getQuantity(), item.getProduct() == null ? null : item.getProduct().getName()));
+		}
+		items = Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * Returns the one instance of a location or product name, as there are
+	 * few of them but every row of a query result has its own copy.
+	 */
+	private static String shared(String name) {
+		return name == null ? null : name.intern();
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public LocalDate getDueDate() {
+		return dueDate;
+	}
+
+	public LocalTime getDueTime() {
+		return dueTime;
+	}
+
+	public OrderState getState() {
+		return state;
+	}
+
+	public String getCustomerFullName() {
+		return customerFullName;
+	}
+
+	public String getCustomerPhoneNumber() {
+		return customerPhoneNumber;
+	}
+
+	public String getPickupLocationName() {
+		return pickupLocationName;
+	}
+
+	public List<Item> getItems() {
+		return items;
+	}
+}
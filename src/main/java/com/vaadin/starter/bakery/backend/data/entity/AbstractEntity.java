@@ -4,15 +4,20 @@ import java.io.Serializable;
 import java.util.Objects;
 
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.MappedSuperclass;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Version;
 
 @MappedSuperclass
 public abstract class AbstractEntity implements Serializable {
 
+	// The ids are taken from the sequence in blocks, so that inserts can be sent in
+	// JDBC batches without a round trip per row
 	@Id
-	@GeneratedValue
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "hibernate_sequence")
+	@SequenceGenerator(name = "hibernate_sequence", sequenceName = "hibernate_sequence", allocationSize = 50)
 	private Long id;
 
 	@Version
@@ -26,6 +31,15 @@ public abstract class AbstractEntity implements Serializable {
 		return version;
 	}
 
+	/**
+	 * Gives a copy the id and version of the entity it was copied from, so that
+	 * the copy is merged into the same row.
+	 */
+	void copyIdentity(AbstractEntity entity) {
+		id = entity.id;
+		version = entity.version;
+	}
+
 	@Override
 	public int hashCode() {
 		return Objects.hash(id, version);
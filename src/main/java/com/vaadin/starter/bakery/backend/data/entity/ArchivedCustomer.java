@@ -0,0 +1,44 @@
+package com.vaadin.starter.bakery.backend.data.entity;
+
+import javax.persistence.Entity;
+
+import org.hibernate.annotations.Immutable;
+
+/**
+ * The customer of an {@link ArchivedOrder}.
+ */
+@Entity
+@Immutable
+public class ArchivedCustomer extends AbstractEntity {
+
+	private String fullName;
+
+	private String phoneNumber;
+
+	private String details;
+
+	ArchivedCustomer() {
+		// Empty constructor is needed by Spring Data / JPA
+	}
+
+	public String getFullName() {
+		return fullName;
+	}
+
+	public String getPhoneNumber() {
+		return phoneNumber;
+	}
+
+	public String getDetails() {
+		return details;
+	}
+
+	Customer toCustomer() {
+		Customer customer = new Customer();
+		customer.copyIdentity(this);
+		customer.setFullName(fullName);
+		customer.setPhoneNumber(phoneNumber);
+		customer.setDetails(details);
+		return customer;
+	}
+}
@@ -0,0 +1,55 @@
+package com.vaadin.starter.bakery.backend.data.entity;
+
+import java.time.LocalDateTime;
+
+import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+
+import org.hibernate.annotations.Immutable;
+
+import com.vaadin.starter.bakery.backend.data.OrderState;
+
+/**
+ * A history item of an {@link ArchivedOrder}.
+ */
+@Entity
+@Immutable
+public class ArchivedHistoryItem extends AbstractEntity {
+
+	private OrderState newState;
+
+	private String message;
+
+	private LocalDateTime timestamp;
+
+	@ManyToOne
+	private User createdBy;
+
+	ArchivedHistoryItem() {
+		// Empty constructor is needed by Spring Data / JPA
+	}
+
+	public OrderState getNewState() {
+		return newState;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public LocalDateTime getTimestamp() {
+		return timestamp;
+	}
+
+	public User getCreatedBy() {
+		return createdBy;
+	}
+
+	HistoryItem toHistoryItem() {
+		HistoryItem item = new HistoryItem(createdBy, message);
+		item.copyIdentity(this);
+		item.setNewState(newState);
+		item.setTimestamp(timestamp);
+		return item;
+	}
+}
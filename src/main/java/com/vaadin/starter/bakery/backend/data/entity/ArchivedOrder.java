@@ -0,0 +1,102 @@
+package com.vaadin.starter.bakery.backend.data.entity;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.List;
+
+import javax.persistence.Entity;
+import javax.persistence.FetchType;
+import javax.persistence.Index;
+import javax.persistence.JoinColumn;
+import javax.persistence.ManyToOne;
+import javax.persistence.OneToMany;
+import javax.persistence.OneToOne;
+import javax.persistence.OrderColumn;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Immutable;
+
+import com.vaadin.starter.bakery.backend.data.OrderState;
+
+/**
+ * A delivered or cancelled order that was due before the archive horizon,
+ * moved out of the order tables so that they only hold the orders still being
+ * worked on. The archive tables have the columns of the order tables, and the
+ * rows are moved between them with SQL, see
+ * {@link com.vaadin.starter.bakery.backend.service.OrderArchiveService}.
+ * Archived orders are only read, e.g. for the storefront with past orders
+ * shown. An archived order is shown as a copy, and moved back when it is
+ * changed.
+ */
+@Entity
+@Immutable
+@Table(indexes = @Index(name = ArchivedOrder.INDEX_DUE_DATE_TIME_ID, columnList = "dueDate,dueTime,id"))
+public class ArchivedOrder extends AbstractEntity {
+
+	public static final String INDEX_DUE_DATE_TIME_ID = "IDX_ARCHIVED_ORDER_DUE_DATE_TIME_ID";
+
+	private LocalDate dueDate;
+
+	private LocalTime dueTime;
+
+	@ManyToOne
+	private PickupLocation pickupLocation;
+
+	@OneToOne(fetch = FetchType.LAZY)
+	private ArchivedCustomer customer;
+
+	@OneToMany
+	@OrderColumn
+	@JoinColumn
+	private List<ArchivedOrderItem> items;
+
+	private OrderState state;
+
+	@OneToMany
+	@OrderColumn
+	@JoinColumn
+	private List<ArchivedHistoryItem> history;
+
+	ArchivedOrder() {
+		// Empty constructor is needed by Spring Data / JPA
+	}
+
+	public LocalDate getDueDate() {
+		return dueDate;
+	}
+
+	public LocalTime getDueTime() {
+		return dueTime;
+	}
+
+	public PickupLocation getPickupLocation() {
+		return pickupLocation;
+	}
+
+	public ArchivedCustomer getCustomer() {
+		return customer;
+	}
+
+	public List<ArchivedOrderItem> getItems() {
+		return items;
+	}
+
+	public OrderState getState() {
+		return state;
+	}
+
+	public List<ArchivedHistoryItem> getHistory() {
+		return history;
+	}
+
+	/**
+	 * Copies the order into a detached {@link Order} with the same ids and
+	 * versions, so that the copy can be saved once the order has been moved
+	 * back. Must be called while the order can be loaded lazily.
+	 *
+	 * @return the copy
+	 */
+	public Order toOrder() {
+		return new Order(this);
+	}
+}
@@ -0,0 +1,46 @@
+package com.vaadin.starter.bakery.backend.data.entity;
+
+import javax.persistence.Entity;
+import javax.persistence.ManyToOne;
+
+import org.hibernate.annotations.Immutable;
+
+/**
+ * An item of an {@link ArchivedOrder}.
+ */
+@Entity
+@Immutable
+public class ArchivedOrderItem extends AbstractEntity {
+
+	@ManyToOne
+	private Product product;
+
+	private Integer quantity;
+
+	private String comment;
+
+	ArchivedOrderItem() {
+		// Empty constructor is needed by Spring Data / JPA
+	}
+
+	public Product getProduct() {
+		return product;
+	}
+
+	public Integer getQuantity() {
+		return quantity;
+	}
+
+	public String getComment() {
+		return comment;
+	}
+
+	OrderItem toOrderItem() {
+		OrderItem item = new OrderItem();
+		item.copyIdentity(this);
+		item.setProduct(product);
+		item.setQuantity(quantity);
+		item.setComment(comment);
+		return item;
+	}
+}
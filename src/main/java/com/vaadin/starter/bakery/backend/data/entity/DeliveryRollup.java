@@ -0,0 +1,93 @@
+package com.vaadin.starter.bakery.backend.data.entity;
+
+import java.time.LocalDate;
+
+import javax.persistence.Entity;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.validation.constraints.NotNull;
+
+import com.vaadin.starter.bakery.backend.data.OrderState;
+
+/**
+ * Pre-aggregated order figures for one due date, order state, product and
+ * pickup location.
+ * <p>
+ * Rows with a {@code null} product carry the number of orders, rows with a
+ * product carry the ordered quantity and the sales (price * 100) of that
+ * product. Several rows may exist for the same key when concurrent writers
+ * both insert, so readers must always aggregate with {@code sum}.
+ */
+@Entity
+@Table(indexes = @Index(name = DeliveryRollup.INDEX_STATE_DUE_DATE, columnList = "state,dueDate"))
+public class DeliveryRollup extends AbstractEntity {
+
+	public static final String INDEX_STATE_DUE_DATE = "IDX_ROLLUP_STATE_DUE_DATE";
+
+	@NotNull
+	private LocalDate dueDate;
+
+	@NotNull
+	private OrderState state;
+
+	private Long productId;
+
+	private Long pickupLocationId;
+
+	private int orderCount;
+
+	private int quantity;
+
+	private long sales;
+
+	DeliveryRollup() {
+		// Empty constructor is needed by Spring Data / JPA
+	}
+
+	public DeliveryRollup(LocalDate dueDate, OrderState state, Long productId, Long pickupLocationId) {
+		this.dueDate = dueDate;
+		this.state = state;
+		this.productId = productId;
+		this.pickupLocationId = pickupLocationId;
+	}
+
+	public LocalDate getDueDate() {
+		return dueDate;
+	}
+
+	public OrderState getState() {
+		return state;
+	}
+
+	public Long getProductId() {
+		return productId;
+	}
+
+	public Long getPickupLocationId() {
+		return pickupLocationId;
+	}
+
+	public int getOrderCount() {
+		return orderCount;
+	}
+
+	public void setOrderCount(int orderCount) {
+		this.orderCount = orderCount;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public void setQuantity(int quantity) {
+		this.quantity = quantity;
+	}
+
+	public long getSales() {
+		return sales;
+	}
+
+	public void setSales(long sales) {
+		this.sales = sales;
+	}
+}
@@ -5,6 +5,7 @@ import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
@@ -15,6 +16,7 @@ import javax.persistence.ManyToOne;
 import javax.persistence.NamedAttributeNode;
 import javax.persistence.NamedEntityGraph;
 import javax.persistence.NamedEntityGraphs;
+import javax.persistence.NamedSubgraph;
 import javax.persistence.OneToMany;
 import javax.persistence.OneToOne;
 import javax.persistence.OrderColumn;
@@ -23,25 +25,48 @@ import javax.validation.Valid;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
 
+import org.hibernate.Hibernate;
 import org.hibernate.annotations.BatchSize;
 
 import com.vaadin.starter.bakery.backend.data.OrderState;
 
 @Entity(name = "OrderInfo") // "Order" is a reserved word
-@NamedEntityGraphs({@NamedEntityGraph(name = Order.ENTITY_GRAPTH_BRIEF, attributeNodes = {
-		@NamedAttributeNode("customer"),
-		@NamedAttributeNode("pickupLocation")
-}),@NamedEntityGraph(name = Order.ENTITY_GRAPTH_FULL, attributeNodes = {
-		@NamedAttributeNode("customer"),
-		@NamedAttributeNode("pickupLocation"),
-		@NamedAttributeNode("items"),
-		@NamedAttributeNode("history")
-})})
-@Table(indexes = @Index(columnList = "dueDate"))
+@NamedEntityGraphs({
+		// Lists of orders. Paged queries cannot fetch a collection, so the items are loaded
+		// in batches when first read.
+		@NamedEntityGraph(name = Order.ENTITY_GRAPTH_BRIEF, attributeNodes = {
+				@NamedAttributeNode("customer"),
+				@NamedAttributeNode("pickupLocation")
+		}),
+		// Orders read by id for showing their items, e.g. the cards of a page
+		@NamedEntityGraph(name = Order.ENTITY_GRAPH_ITEMS, attributeNodes = {
+				@NamedAttributeNode("customer"),
+				@NamedAttributeNode("pickupLocation"),
+				@NamedAttributeNode(value = "items", subgraph = "items")
+		}, subgraphs = @NamedSubgraph(name = "items", attributeNodes = @NamedAttributeNode("product"))),
+		// A single order in the editor and the order details
+		@NamedEntityGraph(name = Order.ENTITY_GRAPTH_FULL, attributeNodes = {
+				@NamedAttributeNode("customer"),
+				@NamedAttributeNode("pickupLocation"),
+				@NamedAttributeNode(value = "items", subgraph = "items"),
+				@NamedAttributeNode(value = "history", subgraph = "history")
+		}, subgraphs = {
+				@NamedSubgraph(name = "items", attributeNodes = @NamedAttributeNode("product")),
+				@NamedSubgraph(name = "history", attributeNodes = @NamedAttributeNode("createdBy"))
+		})
+})
+@Table(indexes = {
+		// The sort order of the storefront, for seeking to the next page
+		@Index(name = Order.INDEX_DUE_DATE_TIME_ID, columnList = "dueDate,dueTime,id"),
+		// Range queries on dueDate for a single state, e.g. the dashboard aggregates
+		@Index(name = Order.INDEX_STATE_DUE_DATE, columnList = "state,dueDate") })
 public class Order extends AbstractEntity implements OrderSummary {
 
 	public static final String ENTITY_GRAPTH_BRIEF = "Order.brief";
 	public static final String ENTITY_GRAPTH_FULL = "Order.full";
+	public static final String ENTITY_GRAPH_ITEMS = "Order.items";
+	public static final String INDEX_STATE_DUE_DATE = "IDX_ORDER_STATE_DUE_DATE";
+	public static final String INDEX_DUE_DATE_TIME_ID = "IDX_ORDER_DUE_DATE_TIME_ID";
 
 	@NotNull(message = "{bakery.due.date.required}")
 	private LocalDate dueDate;
@@ -57,7 +82,7 @@ public class Order extends AbstractEntity implements OrderSummary {
 	@OneToOne(cascade = CascadeType.ALL)
 	private Customer customer;
 
-	@OneToMany(cascade = CascadeType.ALL, fetch = FetchType.EAGER, orphanRemoval = true)
+	@OneToMany(cascade = CascadeType.ALL, fetch = FetchType.LAZY, orphanRemoval = true)
 	@OrderColumn
 	@JoinColumn
 	@BatchSize(size = 1000)
@@ -84,6 +109,22 @@ public class Order extends AbstractEntity implements OrderSummary {
 		// Empty constructor is needed by Spring Data / JPA
 	}
 
+	/**
+	 * Copies an archived order, see {@link ArchivedOrder#toOrder()}.
+	 */
+	Order(ArchivedOrder archived) {
+		copyIdentity(archived);
+		dueDate = archived.getDueDate();
+		dueTime = archived.getDueTime();
+		pickupLocation = archived.getPickupLocation();
+		customer = archived.getCustomer().toCustomer();
+		items = archived.getItems().stream().map(ArchivedOrderItem::toOrderItem)
+				.collect(Collectors.toCollection(ArrayList::new));
+		state = archived.getState();
+		history = archived.getHistory().stream().map(ArchivedHistoryItem::toHistoryItem)
+				.collect(Collectors.toCollection(LinkedList::new));
+	}
+
 	public void addHistoryItem(User createdBy, String comment) {
 		HistoryItem item = new HistoryItem(createdBy, comment);
 		item.setNewState(state);
@@ -162,7 +203,7 @@ public class Order extends AbstractEntity implements OrderSummary {
 	@Override
 	public String toString() {
 		return "Order{" + "dueDate=" + dueDate + ", dueTime=" + dueTime + ", pickupLocation=" + pickupLocation
-				+ ", customer=" + customer + ", items=" + items + ", state=" + state + '}';
+				+ ", customer=" + customer + ", items=" + (Hibernate.isInitialized(items) ? items : "(not loaded)") + ", state=" + state + '}';
 	}
 
 	@Override
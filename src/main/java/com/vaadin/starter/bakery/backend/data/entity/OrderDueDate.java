@@ -0,0 +1,13 @@
+package com.vaadin.starter.bakery.backend.data.entity;
+
+import java.time.LocalDate;
+
+/**
+ * Projection of the id and due date of an order.
+ */
+public interface OrderDueDate {
+
+	Long getId();
+
+	LocalDate getDueDate();
+}
@@ -0,0 +1,14 @@
+package com.vaadin.starter.bakery.backend.data.entity;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+/**
+ * Projection of the due date and time of an order.
+ */
+public interface OrderDueTime {
+
+	LocalDate getDueDate();
+
+	LocalTime getDueTime();
+}
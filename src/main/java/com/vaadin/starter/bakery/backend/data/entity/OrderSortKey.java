@@ -0,0 +1,12 @@
+package com.vaadin.starter.bakery.backend.data.entity;
+
+import java.time.LocalTime;
+
+/**
+ * Projection of the id, due date and time of an order, by which the order
+ * lists are sorted.
+ */
+public interface OrderSortKey extends OrderDueDate {
+
+	LocalTime getDueTime();
+}
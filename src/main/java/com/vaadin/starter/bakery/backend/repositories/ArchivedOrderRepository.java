@@ -0,0 +1,67 @@
+package com.vaadin.starter.bakery.backend.repositories;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.LockModeType;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Query;
+
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.ArchivedOrder;
+import com.vaadin.starter.bakery.backend.data.entity.OrderSortKey;
+
+public interface ArchivedOrderRepository extends JpaRepository<ArchivedOrder, Long>, OrderListQueries {
+
+	@Override
+	@Query(OrderRepository.BRIEF_SELECT_FROM + "ArchivedOrder" + OrderRepository.BRIEF_JOINS + " WHERE o.id IN ?1"
+			+ OrderRepository.BRIEF_GROUP_BY)
+	List<OrderBrief> findBriefsByIdIn(Collection<Long> ids);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM ArchivedOrder o ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeys(Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM ArchivedOrder o WHERE o.dueDate>?1 ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeysByDueDateAfter(LocalDate dueDate, Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM ArchivedOrder o WHERE UPPER(o.customer.fullName) LIKE UPPER(?1) ESCAPE '\\' ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeysByCustomerFullNameLike(String fullNamePattern, Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM ArchivedOrder o WHERE UPPER(o.customer.fullName) LIKE UPPER(?1) ESCAPE '\\' AND o.dueDate>?2 ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeysByCustomerFullNameLikeAndDueDateAfter(String fullNamePattern, LocalDate dueDate,
+			Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM ArchivedOrder o WHERE o.dueDate>=?1 AND (o.dueDate>?1 OR o.dueTime>?2 OR (o.dueTime=?2 AND o.id>?3)) ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeysAfter(LocalDate dueDate, LocalTime dueTime, Long id, Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM ArchivedOrder o WHERE UPPER(o.customer.fullName) LIKE UPPER(?4) ESCAPE '\\' AND o.dueDate>=?1 AND (o.dueDate>?1 OR o.dueTime>?2 OR (o.dueTime=?2 AND o.id>?3)) ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeysByCustomerFullNameLikeAfter(LocalDate dueDate, LocalTime dueTime, Long id,
+			String fullNamePattern, Pageable pageable);
+
+	@Query("SELECT max(o.dueDate) FROM ArchivedOrder o")
+	LocalDate findLastDueDate();
+
+	// The customer id of an order to restore. Locks the order, so it is restored only once.
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("SELECT o.customer.id FROM ArchivedOrder o WHERE o.id=?1")
+	List<Long> findRestorable(Long id);
+
+	@Query("SELECT o.dueDate, p.id, o.pickupLocation.id, oi.quantity, p.price FROM ArchivedOrder o JOIN o.items oi JOIN oi.product p WHERE o.state=?1")
+	Stream<Object[]> streamItemFigures(OrderState state);
+
+	@Query("SELECT o.id, o.dueDate, o.dueTime, c.fullName, c.phoneNumber FROM ArchivedOrder o JOIN o.customer c")
+	Stream<Object[]> streamSearchFields();
+}
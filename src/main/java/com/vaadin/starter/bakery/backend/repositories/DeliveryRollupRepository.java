@@ -0,0 +1,58 @@
+package com.vaadin.starter.bakery.backend.repositories;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.DeliveryRollup;
+
+public interface DeliveryRollupRepository extends JpaRepository<DeliveryRollup, Long> {
+
+	@Modifying
+	@Query("UPDATE DeliveryRollup r SET r.orderCount = r.orderCount + ?4 WHERE r.dueDate=?1 AND r.state=?2 AND r.productId IS NULL AND (r.pickupLocationId=?3 OR (?3 IS NULL AND r.pickupLocationId IS NULL))")
+	int addOrders(LocalDate dueDate, OrderState state, Long pickupLocationId, int orderCount);
+
+	@Modifying
+	@Query("UPDATE DeliveryRollup r SET r.orderCount = r.orderCount + ?5, r.quantity = r.quantity + ?6, r.sales = r.sales + ?7 WHERE r.dueDate=?1 AND r.state=?2 AND r.productId=?3 AND (r.pickupLocationId=?4 OR (?4 IS NULL AND r.pickupLocationId IS NULL))")
+	int addProduct(LocalDate dueDate, OrderState state, Long productId, Long pickupLocationId, int orderCount,
+			int quantity, long sales);
+
+	@Modifying
+	@Query("UPDATE DeliveryRollup r SET r.sales = r.quantity * ?2 WHERE r.productId=?1")
+	int updatePrice(Long productId, int price);
+
+	@Transactional(readOnly = true)
+	@Query("SELECT month(r.dueDate) as month, sum(r.orderCount) as deliveries FROM DeliveryRollup r WHERE r.state=?1 AND r.productId IS NULL AND r.dueDate>=?2 AND r.dueDate<?3 GROUP BY month(r.dueDate)")
+	List<Object[]> countPerMonth(OrderState orderState, LocalDate from, LocalDate to);
+
+	@Transactional(readOnly = true)
+	@Query("SELECT day(r.dueDate) as day, sum(r.orderCount) as deliveries FROM DeliveryRollup r WHERE r.state=?1 AND r.productId IS NULL AND r.dueDate>=?2 AND r.dueDate<?3 GROUP BY day(r.dueDate)")
+	List<Object[]> countPerDay(OrderState orderState, LocalDate from, LocalDate to);
+
+	@Transactional(readOnly = true)
+	@Query("SELECT year(r.dueDate) as y, month(r.dueDate) as m, sum(r.sales) as deliveries FROM DeliveryRollup r WHERE r.state=?1 AND r.productId IS NOT NULL AND r.dueDate>=?2 AND r.dueDate<?3 GROUP BY year(r.dueDate), month(r.dueDate) ORDER BY y DESC, month(r.dueDate)")
+	List<Object[]> sumPerMonth(OrderState orderState, LocalDate from, LocalDate to);
+
+	@Query("SELECT sum(r.quantity), p FROM DeliveryRollup r, Product p WHERE p.id=r.productId AND r.state=?1 AND r.dueDate>=?2 AND r.dueDate<?3 GROUP BY p.id ORDER BY p.id")
+	List<Object[]> countPerProduct(OrderState orderState, LocalDate from, LocalDate to);
+
+	@Query("SELECT o.dueDate, o.state, o.pickupLocation.id, count(o) FROM OrderInfo o GROUP BY o.dueDate, o.state, o.pickupLocation.id")
+	List<Object[]> aggregateOrders();
+
+	@Query("SELECT o.dueDate, o.state, o.pickupLocation.id, p.id, count(distinct o), sum(oi.quantity), sum(oi.quantity*p.price) FROM OrderInfo o JOIN o.items oi JOIN oi.product p GROUP BY o.dueDate, o.state, o.pickupLocation.id, p.id")
+	List<Object[]> aggregateOrderItems();
+
+	@Query("SELECT o.dueDate, o.state, o.pickupLocation.id, count(o) FROM ArchivedOrder o GROUP BY o.dueDate, o.state, o.pickupLocation.id")
+	List<Object[]> aggregateArchivedOrders();
+
+	@Query("SELECT o.dueDate, o.state, o.pickupLocation.id, p.id, count(distinct o), sum(oi.quantity), sum(oi.quantity*p.price) FROM ArchivedOrder o JOIN o.items oi JOIN oi.product p GROUP BY o.dueDate, o.state, o.pickupLocation.id, p.id")
+	List<Object[]> aggregateArchivedOrderItems();
+
+	@Query("SELECT o.dueDate, o.state, o.pickupLocation.id, p.id, oi.quantity, p.price FROM OrderInfo o LEFT JOIN o.items oi LEFT JOIN oi.product p WHERE o.id=?1")
+	List<Object[]> findOrderFigures(Long orderId);
+}
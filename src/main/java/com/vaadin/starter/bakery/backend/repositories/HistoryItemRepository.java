@@ -1,8 +1,23 @@
 package com.vaadin.starter.bakery.backend.repositories;
 
+import static org.hibernate.jpa.QueryHints.HINT_NATIVE_SPACES;
+
+import javax.persistence.QueryHint;
+
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import com.vaadin.starter.bakery.backend.data.entity.HistoryItem;
 
 public interface HistoryItemRepository extends JpaRepository<HistoryItem, Long> {
+
+	// The history is mapped only on the order side, so its join and order columns are
+	// set with SQL. The order column is indexed per order by the foreign key. The
+	// table is named, as otherwise the native update would clear all cached queries.
+	@Modifying
+	@QueryHints(@QueryHint(name = HINT_NATIVE_SPACES, value = "history_item"))
+	@Query(value = "UPDATE history_item SET history_id = ?2, history_order = (SELECT COALESCE(MAX(h.history_order) + 1, 0) FROM history_item h WHERE h.history_id = ?2) WHERE id = ?1", nativeQuery = true)
+	int appendToOrder(Long historyItemId, Long orderId);
 }
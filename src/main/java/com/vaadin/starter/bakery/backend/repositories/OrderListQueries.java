@@ -0,0 +1,44 @@
+package com.vaadin.starter.bakery.backend.repositories;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.entity.OrderSortKey;
+
+/**
+ * The queries of the storefront order lists, answered alike by the order
+ * tables and the archive, so that their results can be merged. Sort keys are
+ * returned in the order of {@code dueDate, dueTime, id}, and customer name
+ * patterns are matched like in {@link OrderRepository}.
+ */
+public interface OrderListQueries {
+
+	List<OrderSortKey> findSortKeys(Pageable pageable);
+
+	List<OrderSortKey> findSortKeysByDueDateAfter(LocalDate dueDate, Pageable pageable);
+
+	List<OrderSortKey> findSortKeysByCustomerFullNameLike(String fullNamePattern, Pageable pageable);
+
+	List<OrderSortKey> findSortKeysByCustomerFullNameLikeAndDueDateAfter(String fullNamePattern, LocalDate dueDate,
+			Pageable pageable);
+
+	List<OrderSortKey> findSortKeysAfter(LocalDate dueDate, LocalTime dueTime, Long id, Pageable pageable);
+
+	List<OrderSortKey> findSortKeysByCustomerFullNameLikeAfter(LocalDate dueDate, LocalTime dueTime, Long id,
+			String fullNamePattern, Pageable pageable);
+
+	List<OrderBrief> findBriefsByIdIn(Collection<Long> ids);
+
+	long count();
+
+	long countByDueDateAfter(LocalDate dueDate);
+
+	long countByCustomerFullNameContainingIgnoreCase(String searchQuery);
+
+	long countByCustomerFullNameContainingIgnoreCaseAndDueDateAfter(String searchQuery, LocalDate dueDate);
+}
@@ -1,22 +1,53 @@
 package com.vaadin.starter.bakery.backend.repositories;
 
 import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import javax.persistence.LockModeType;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.EntityGraph.EntityGraphType;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.vaadin.starter.bakery.backend.data.DeliveryStats;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
 import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.ArchivedOrder;
 import com.vaadin.starter.bakery.backend.data.entity.Order;
-import com.vaadin.starter.bakery.backend.data.entity.OrderSummary;
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueDate;
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueTime;
+import com.vaadin.starter.bakery.backend.data.entity.OrderSortKey;
+
+public interface OrderRepository extends JpaRepository<Order, Long>, OrderListQueries {
+
+	/**
+	 * Selects an {@link OrderBrief} per order, with the items aggregated.
+	 * Must be followed by {@link #BRIEF_GROUP_BY}. H2 aggregates all the
+	 * joined rows before it applies a limit, so the orders should be selected
+	 * by id, e.g. after finding the ids of a page with the
+	 * {@link Order#INDEX_DUE_DATE_TIME_ID} index.
+	 */
+	String BRIEF_SELECT_FROM = "SELECT new com.vaadin.starter.bakery.backend.data.OrderBrief(o.id, o.dueDate, o.dueTime, "
+			+ "o.state, c.fullName, c.phoneNumber, l.name, " + SqlFunctions.LIST_LINES + "(str(oi.quantity), index(oi)), "
+			+ SqlFunctions.LIST_LINES + "(p.name, index(oi))) FROM ";
+
+	/** The joins of {@link #BRIEF_SELECT}, which also apply to {@link ArchivedOrder}. */
+	String BRIEF_JOINS = " o JOIN o.customer c JOIN o.pickupLocation l JOIN o.items oi JOIN oi.product p";
+
+	String BRIEF_SELECT = BRIEF_SELECT_FROM + "OrderInfo" + BRIEF_JOINS;
 
-public interface OrderRepository extends JpaRepository<Order, Long> {
+	String BRIEF_GROUP_BY = " GROUP BY o.id, o.dueDate, o.dueTime, o.state, c.fullName, c.phoneNumber, l.name";
 
 	@EntityGraph(value = Order.ENTITY_GRAPTH_BRIEF, type = EntityGraphType.LOAD)
 	Page<Order> findByDueDateAfter(LocalDate filterDate, Pageable pageable);
@@ -27,6 +58,81 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
 	@EntityGraph(value = Order.ENTITY_GRAPTH_BRIEF, type = EntityGraphType.LOAD)
 	Page<Order> findByCustomerFullNameContainingIgnoreCaseAndDueDateAfter(String searchQuery, LocalDate dueDate, Pageable pageable);
 
+	@Query("SELECT o.id FROM OrderInfo o WHERE o.dueDate>=?1 AND (o.dueDate>?1 OR o.dueTime>?2 OR (o.dueTime=?2 AND o.id>?3)) ORDER BY o.dueDate, o.dueTime, o.id")
+	List<Long> findIdPageAfter(LocalDate dueDate, LocalTime dueTime, Long id, Pageable pageable);
+
+	@Query(value = "SELECT o.id FROM OrderInfo o", countQuery = "SELECT count(o) FROM OrderInfo o")
+	Page<Long> findIds(Pageable pageable);
+
+	@Query(value = "SELECT o.id FROM OrderInfo o WHERE o.dueDate>?1",
+			countQuery = "SELECT count(o) FROM OrderInfo o WHERE o.dueDate>?1")
+	Page<Long> findIdsByDueDateAfter(LocalDate dueDate, Pageable pageable);
+
+	@Override
+	@Query(BRIEF_SELECT + " WHERE o.id IN ?1" + BRIEF_GROUP_BY)
+	List<OrderBrief> findBriefsByIdIn(Collection<Long> ids);
+
+	@Query(value = "SELECT o.id FROM OrderInfo o WHERE UPPER(o.customer.fullName) LIKE UPPER(?1) ESCAPE '\\'",
+			countQuery = "SELECT count(o) FROM OrderInfo o WHERE UPPER(o.customer.fullName) LIKE UPPER(?1) ESCAPE '\\'")
+	Page<Long> findIdsByCustomerFullNameLike(String fullNamePattern, Pageable pageable);
+
+	@Query(value = "SELECT o.id FROM OrderInfo o WHERE UPPER(o.customer.fullName) LIKE UPPER(?1) ESCAPE '\\' AND o.dueDate>?2",
+			countQuery = "SELECT count(o) FROM OrderInfo o WHERE UPPER(o.customer.fullName) LIKE UPPER(?1) ESCAPE '\\' AND o.dueDate>?2")
+	Page<Long> findIdsByCustomerFullNameLikeAndDueDateAfter(String fullNamePattern, LocalDate dueDate,
+			Pageable pageable);
+
+	@Query("SELECT o.id FROM OrderInfo o WHERE UPPER(o.customer.fullName) LIKE UPPER(?4) ESCAPE '\\' AND o.dueDate>=?1 AND (o.dueDate>?1 OR o.dueTime>?2 OR (o.dueTime=?2 AND o.id>?3)) ORDER BY o.dueDate, o.dueTime, o.id")
+	List<Long> findIdPageByCustomerFullNameLikeAfter(LocalDate dueDate, LocalTime dueTime, Long id,
+			String fullNamePattern, Pageable pageable);
+
+	@EntityGraph(value = Order.ENTITY_GRAPH_ITEMS, type = EntityGraphType.LOAD)
+	List<Order> findByIdIn(Collection<Long> ids);
+
+	@Query("SELECT o.id as id, o.dueDate as dueDate FROM OrderInfo o ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderDueDate> findDueDates(Pageable pageable);
+
+	@Query("SELECT o.id as id, o.dueDate as dueDate FROM OrderInfo o WHERE o.dueDate>?1 ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderDueDate> findDueDatesAfter(LocalDate dueDate, Pageable pageable);
+
+	@Query("SELECT o.id as id, o.dueDate as dueDate FROM OrderInfo o WHERE UPPER(o.customer.fullName) LIKE UPPER(?1) ESCAPE '\\' ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderDueDate> findDueDatesByCustomerFullNameLike(String fullNamePattern, Pageable pageable);
+
+	@Query("SELECT o.id as id, o.dueDate as dueDate FROM OrderInfo o WHERE UPPER(o.customer.fullName) LIKE UPPER(?1) ESCAPE '\\' AND o.dueDate>?2 ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderDueDate> findDueDatesByCustomerFullNameLikeAfter(String fullNamePattern, LocalDate dueDate,
+			Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM OrderInfo o ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeys(Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM OrderInfo o WHERE o.dueDate>?1 ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeysByDueDateAfter(LocalDate dueDate, Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM OrderInfo o WHERE UPPER(o.customer.fullName) LIKE UPPER(?1) ESCAPE '\\' ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeysByCustomerFullNameLike(String fullNamePattern, Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM OrderInfo o WHERE UPPER(o.customer.fullName) LIKE UPPER(?1) ESCAPE '\\' AND o.dueDate>?2 ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeysByCustomerFullNameLikeAndDueDateAfter(String fullNamePattern, LocalDate dueDate,
+			Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM OrderInfo o WHERE o.dueDate>=?1 AND (o.dueDate>?1 OR o.dueTime>?2 OR (o.dueTime=?2 AND o.id>?3)) ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeysAfter(LocalDate dueDate, LocalTime dueTime, Long id, Pageable pageable);
+
+	@Override
+	@Query("SELECT o.id as id, o.dueDate as dueDate, o.dueTime as dueTime FROM OrderInfo o WHERE UPPER(o.customer.fullName) LIKE UPPER(?4) ESCAPE '\\' AND o.dueDate>=?1 AND (o.dueDate>?1 OR o.dueTime>?2 OR (o.dueTime=?2 AND o.id>?3)) ORDER BY o.dueDate, o.dueTime, o.id")
+	List<OrderSortKey> findSortKeysByCustomerFullNameLikeAfter(LocalDate dueDate, LocalTime dueTime, Long id,
+			String fullNamePattern, Pageable pageable);
+
+	// The id, customer id and due date of orders to archive. Locks the orders, so they
+	// are not changed while they are moved.
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	@Query("SELECT o.id, o.customer.id, o.dueDate FROM OrderInfo o WHERE o.dueDate<?1 AND o.state IN ?2")
+	List<Object[]> findArchivable(LocalDate dueBefore, Collection<OrderState> states, Pageable pageable);
+
 	@Override
 	@EntityGraph(value = Order.ENTITY_GRAPTH_BRIEF, type = EntityGraphType.LOAD)
 	List<Order> findAll();
@@ -35,17 +141,23 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
 	@EntityGraph(value = Order.ENTITY_GRAPTH_BRIEF, type = EntityGraphType.LOAD)
 	Page<Order> findAll(Pageable pageable);
 
-	@EntityGraph(value = Order.ENTITY_GRAPTH_BRIEF, type = EntityGraphType.LOAD)
-	List<OrderSummary> findByDueDateGreaterThanEqual(LocalDate dueDate);
-
 	@Override
 	@EntityGraph(value = Order.ENTITY_GRAPTH_FULL, type = EntityGraphType.LOAD)
 	Optional<Order> findById(Long id);
 
+	// Also locks the order row, so comments added at the same time get distinct positions.
+	// Clears the persistence context, so the order is read again with its new version.
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("UPDATE OrderInfo o SET o.version = o.version + 1 WHERE o.id = ?1 AND o.version = ?2")
+	int incrementVersion(Long id, int version);
+
+	@Override
 	long countByDueDateAfter(LocalDate dueDate);
 
+	@Override
 	long countByCustomerFullNameContainingIgnoreCase(String searchQuery);
 
+	@Override
 	long countByCustomerFullNameContainingIgnoreCaseAndDueDateAfter(String searchQuery, LocalDate dueDate);
 
 	long countByDueDate(LocalDate dueDate);
@@ -54,16 +166,30 @@ public interface OrderRepository extends JpaRepository<Order, Long> {
 
 	long countByState(OrderState state);
 
-	@Query("SELECT month(dueDate) as month, count(*) as deliveries FROM OrderInfo o where o.state=?1 and year(dueDate)=?2 group by month(dueDate)")
-	List<Object[]> countPerMonth(OrderState orderState, int year);
+	@Transactional(readOnly = true)
+	@Query("SELECT new com.vaadin.starter.bakery.backend.data.DeliveryStats("
+			+ "sum(CASE WHEN o.dueDate=?1 THEN 1 ELSE 0 END), "
+			+ "sum(CASE WHEN o.dueDate=?2 THEN 1 ELSE 0 END), "
+			+ "sum(CASE WHEN o.dueDate=?1 AND o.state=?3 THEN 1 ELSE 0 END), "
+			+ "sum(CASE WHEN o.dueDate=?1 AND o.state IN ?4 THEN 1 ELSE 0 END), "
+			+ "sum(CASE WHEN o.state=?5 THEN 1 ELSE 0 END)) "
+			+ "FROM OrderInfo o WHERE o.dueDate IN (?1, ?2) OR o.state=?5")
+	DeliveryStats getDeliveryStats(LocalDate today, LocalDate tomorrow, OrderState deliveredState,
+			Collection<OrderState> notAvailableStates, OrderState newState);
+
+	@Query("SELECT o.dueDate as dueDate, o.dueTime as dueTime FROM OrderInfo o WHERE o.state=?1 AND o.dueDate>=?2 AND (o.dueDate>?2 OR o.dueTime>?3) ORDER BY o.dueDate, o.dueTime")
+	List<OrderDueTime> findNextDue(OrderState state, LocalDate date, LocalTime time, Pageable pageable);
+
+	@Query("SELECT min(o.dueTime) FROM OrderInfo o WHERE o.dueDate=?1")
+	LocalTime findFirstDueTime(LocalDate dueDate);
 
-	@Query("SELECT year(o.dueDate) as y, month(o.dueDate) as m, sum(oi.quantity*p.price) as deliveries FROM OrderInfo o JOIN o.items oi JOIN oi.product p where o.state=?1 and year(o.dueDate)<=?2 AND year(o.dueDate)>=(?2-3) group by year(o.dueDate), month(o.dueDate) order by y desc, month(o.dueDate)")
-	List<Object[]> sumPerMonthLastThreeYears(OrderState orderState, int year);
+	@Query("SELECT max(h.timestamp) FROM OrderInfo o JOIN o.history h WHERE o.state=?1 AND index(h)=0")
+	LocalDateTime findLastPlaced(OrderState state);
 
-	@Query("SELECT day(dueDate) as day, count(*) as deliveries FROM OrderInfo o where o.state=?1 and year(dueDate)=?2 and month(dueDate)=?3 group by day(dueDate)")
-	List<Object[]> countPerDay(OrderState orderState, int year, int month);
+	@Query("SELECT o.dueDate, p.id, o.pickupLocation.id, oi.quantity, p.price FROM OrderInfo o JOIN o.items oi JOIN oi.product p WHERE o.state=?1")
+	Stream<Object[]> streamItemFigures(OrderState state);
 
-	@Query("SELECT sum(oi.quantity), p FROM OrderInfo o JOIN o.items oi JOIN oi.product p WHERE o.state=?1 AND year(o.dueDate)=?2 AND month(o.dueDate)=?3 GROUP BY p.id ORDER BY p.id")
-	List<Object[]> countPerProduct(OrderState orderState, int year, int month);
+	@Query("SELECT o.id, o.dueDate, o.dueTime, c.fullName, c.phoneNumber FROM OrderInfo o JOIN o.customer c")
+	Stream<Object[]> streamSearchFields();
 
 }
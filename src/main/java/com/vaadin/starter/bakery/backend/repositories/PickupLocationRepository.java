@@ -1,14 +1,32 @@
 package com.vaadin.starter.bakery.backend.repositories;
 
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+
+import javax.persistence.QueryHint;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import com.vaadin.starter.bakery.backend.data.entity.PickupLocation;
 
+// The results are kept in the query cache until a pickup location is written
 public interface PickupLocationRepository extends JpaRepository<PickupLocation, Long> {
 
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+	Page<PickupLocation> findBy(Pageable pageable);
+
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
 	Page<PickupLocation> findByNameLikeIgnoreCase(String nameFilter, Pageable pageable);
 
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
 	int countByNameLikeIgnoreCase(String nameFilter);
+
+	// The query of the inherited count does not take hints
+	@Override
+	@Query("SELECT COUNT(l) FROM PickupLocation l")
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+	long count();
 }
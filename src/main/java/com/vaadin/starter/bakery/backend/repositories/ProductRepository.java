@@ -1,17 +1,39 @@
 package com.vaadin.starter.bakery.backend.repositories;
 
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+
+import java.util.List;
+
+import javax.persistence.QueryHint;
+
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 
 import com.vaadin.starter.bakery.backend.data.entity.Product;
 
+// The results are kept in the query cache until a product is written
 public interface ProductRepository extends JpaRepository<Product, Long> {
 
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
 	Page<Product> findBy(Pageable page);
 
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
 	Page<Product> findByNameLikeIgnoreCase(String name, Pageable page);
 
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
 	int countByNameLikeIgnoreCase(String name);
 
+	// The query of the inherited count does not take hints
+	@Override
+	@Query("SELECT COUNT(p) FROM Product p")
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+	long count();
+
+	@Override
+	@QueryHints(@QueryHint(name = HINT_CACHEABLE, value = "true"))
+	List<Product> findAllById(Iterable<Long> ids);
+
 }
@@ -0,0 +1,108 @@
+package com.vaadin.starter.bakery.backend.repositories;
+
+import java.util.List;
+
+import org.hibernate.QueryException;
+import org.hibernate.boot.MetadataBuilder;
+import org.hibernate.boot.spi.MetadataBuilderContributor;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.dialect.function.SQLFunctionTemplate;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+
+/**
+ * Registers the SQL functions that the repository queries use in addition to
+ * those of the dialect. Each function is rendered for the dialect of the
+ * session factory, H2 or PostgreSQL.
+ */
+public class SqlFunctions implements MetadataBuilderContributor {
+
+	/**
+	 * {@code list_lines(value, position)} aggregates the values of a group
+	 * into one string, one value per line, sorted by position. A backslash in
+	 * a value is written as two backslashes and a line break as {@code \n},
+	 * so the lines must be read with {@link #splitLines(String)}.
+	 */
+	public static final String LIST_LINES = "list_lines";
+
+	@Override
+	public void contribute(MetadataBuilder metadataBuilder) {
+		metadataBuilder.applySqlFunction(LIST_LINES, new DialectFunction(
+				new SQLFunctionTemplate(StandardBasicTypes.STRING,
+						"listagg(replace(replace(?1, '\\', '\\\\'), char(10), '\\n'), char(10)) within group (order by ?2)"),
+				new SQLFunctionTemplate(StandardBasicTypes.STRING,
+						"string_agg(replace(replace(?1, '\\', '\\\\'), chr(10), '\\n'), chr(10) order by ?2)")));
+	}
+
+	/**
+	 * Splits a value of {@link #LIST_LINES} into the original values.
+	 *
+	 * @param lines
+	 *            the aggregated values
+	 * @return the values, in the order of their positions
+	 */
+	public static String[] splitLines(String lines) {
+		String[] values = lines.split("\n", -1);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = unescape(values[i]);
+		}
+		return values;
+	}
+
+	private static String unescape(String value) {
+		if (value.indexOf('\\') < 0) {
+			return value;
+		}
+		StringBuilder unescaped = new StringBuilder(value.length());
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\' && i + 1 < value.length()) {
+				c = value.charAt(++i) == 'n' ? '\n' : value.charAt(i);
+			}
+			unescaped.append(c);
+		}
+		return unescaped.toString();
+	}
+
+	/**
+	 * A function rendered with the PostgreSQL template on PostgreSQL and with
+	 * the H2 one otherwise.
+	 */
+	private static class DialectFunction implements SQLFunction {
+		private final SQLFunction h2;
+		private final SQLFunction postgreSql;
+
+		DialectFunction(SQLFunction h2, SQLFunction postgreSql) {
+			this.h2 = h2;
+			this.postgreSql = postgreSql;
+		}
+
+		@Override
+		public boolean hasArguments() {
+			return true;
+		}
+
+		@Override
+		public boolean hasParenthesesIfNoArguments() {
+			return true;
+		}
+
+		@Override
+		public Type getReturnType(Type firstArgumentType, Mapping mapping) throws QueryException {
+			return h2.getReturnType(firstArgumentType, mapping);
+		}
+
+		@Override
+		@SuppressWarnings("rawtypes")
+		public String render(Type firstArgumentType, List arguments, SessionFactoryImplementor factory)
+				throws QueryException {
+			Dialect dialect = factory.getJdbcServices().getDialect();
+			return (dialect instanceof PostgreSQL81Dialect ? postgreSql : h2).render(firstArgumentType, arguments,
+					factory);
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.vaadin.flow.shared.Registration;
+import com.vaadin.starter.bakery.app.HasLogger;
+import com.vaadin.starter.bakery.backend.data.DashboardUpdate;
+
+/**
+ * Delivers the dashboard sections changed by committed order writes to the
+ * open dashboards.
+ * <p>
+ * Changes are merged and, at most once per interval, the sections they affect
+ * are reloaded once for all dashboards and sent as a single
+ * {@link DashboardUpdate}. A burst of writes thus causes one reload and one
+ * round of UI updates instead of one per write and dashboard.
+ */
+@Service
+public class DashboardBroadcaster implements HasLogger {
+
+	private final List<Consumer<DashboardUpdate>> listeners = new CopyOnWriteArrayList<>();
+	private final Consumer<Runnable> scheduler;
+	private final Supplier<LocalDate> today;
+	private final BiFunction<DeliveryRollupService.Figures, LocalDate, DashboardUpdate> reader;
+	private final ScheduledExecutorService executor;
+
+	private DeliveryRollupService.Figures pending = new DeliveryRollupService.Figures();
+	private boolean scheduled;
+
+	/**
+	 * @param interval
+	 *            how long changes are merged before they are sent
+	 * @param orderService
+	 *            reloads the changed sections, looked up on use as it
+	 *            publishes to this broadcaster
+	 */
+	@Autowired
+	public DashboardBroadcaster(@Value("${bakery.dashboard.push.interval:5s}") Duration interval,
+			ObjectProvider<OrderService> orderService) {
+		this(interval, Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "dashboard-broadcaster");
+			thread.setDaemon(true);
+			return thread;
+		}), (changes, today) -> orderService.getObject().loadDashboardUpdate(changes, today));
+	}
+
+	private DashboardBroadcaster(Duration interval, ScheduledExecutorService executor,
+			BiFunction<DeliveryRollupService.Figures, LocalDate, DashboardUpdate> reader) {
+		this.scheduler = flush -> executor.schedule(flush, interval.toMillis(), TimeUnit.MILLISECONDS);
+		this.today = LocalDate::now;
+		this.reader = reader;
+		this.executor = executor;
+	}
+
+	DashboardBroadcaster(Consumer<Runnable> scheduler, Supplier<LocalDate> today,
+			BiFunction<DeliveryRollupService.Figures, LocalDate, DashboardUpdate> reader) {
+		this.scheduler = scheduler;
+		this.today = today;
+		this.reader = reader;
+		this.executor = null;
+	}
+
+	@PreDestroy
+	void shutdown() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Adds a listener for dashboard updates. Listeners are called on a
+	 * background thread.
+	 *
+	 * @param listener
+	 *            the listener
+	 * @return a registration for removing the listener
+	 */
+	public Registration register(Consumer<DashboardUpdate> listener) {
+		listeners.add(listener);
+		return () -> listeners.remove(listener);
+	}
+
+	/**
+	 * Queues the rollup changes of a committed order write.
+	 *
+	 * @param changes
+	 *            the changes from {@link DeliveryRollupService#update}
+	 */
+	public void publish(DeliveryRollupService.Figures changes) {
+		synchronized (this) {
+			pending.add(changes);
+			if (scheduled) {
+				return;
+			}
+			scheduled = true;
+		}
+		scheduler.accept(this::flush);
+	}
+
+	void flush() {
+		DeliveryRollupService.Figures changes;
+		synchronized (this) {
+			changes = pending;
+			pending = new DeliveryRollupService.Figures();
+			scheduled = false;
+		}
+		if (changes.isEmpty() || listeners.isEmpty()) {
+			return;
+		}
+
+		DashboardUpdate update;
+		try {
+			update = reader.apply(changes, today.get());
+		} catch (RuntimeException e) {
+			// The dashboards keep their data until the next change
+			getLogger().warn("Reloading the changed dashboard sections failed", e);
+			return;
+		}
+		for (Consumer<DashboardUpdate> listener : listeners) {
+			try {
+				listener.accept(update);
+			} catch (RuntimeException e) {
+				getLogger().warn("Sending a dashboard update failed", e);
+			}
+		}
+	}
+}
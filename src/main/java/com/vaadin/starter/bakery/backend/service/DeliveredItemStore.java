@@ -0,0 +1,476 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntUnaryOperator;
+import java.util.stream.Stream;
+
+import javax.transaction.Transactional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.Product;
+import com.vaadin.starter.bakery.backend.repositories.ArchivedOrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+
+/**
+ * An in-memory, column oriented copy of the delivered order items for ad-hoc
+ * reporting.
+ * <p>
+ * Every line is stored as five ints: the due date as epoch day, the product,
+ * the pickup location, the quantity and the product price in cents. Products
+ * and pickup locations are stored as ordinals of a dictionary of their ids, so
+ * that grouping by them takes an array as long as the number of distinct ids.
+ * Changes to delivered orders are appended as correcting lines, e.g. a
+ * negative quantity when a delivered order is changed or deleted, so all
+ * figures must be summed. Once the correcting lines outnumber a quarter of the
+ * lines, the lines of the same day, product, pickup location and price are
+ * merged and those summing to zero are dropped. Like the dashboard, sales are calculated with the
+ * current product price.
+ * <p>
+ * Queries scan the columns without touching the database and return sums
+ * grouped by one or two {@link Dimension dimensions}. The quantity of each
+ * product in a date range, which the dashboard shows, is read from a
+ * {@link ProductSplitIndex} without scanning.
+ */
+@Service
+public class DeliveredItemStore {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	/**
+	 * A grouping of the lines. Keys are ints: the epoch day for {@link #DAY},
+	 * the epoch day of the Monday for {@link #WEEK}, {@code yyyyMM} for
+	 * {@link #MONTH}, the year for {@link #YEAR}, 1 (Monday) to 7 for
+	 * {@link #WEEKDAY} and the entity id for {@link #PRODUCT} and
+	 * {@link #PICKUP_LOCATION}.
+	 */
+	public enum Dimension {
+		DAY, WEEK, MONTH, YEAR, WEEKDAY, PRODUCT, PICKUP_LOCATION
+	}
+
+	/**
+	 * A summed figure of the lines.
+	 */
+	public enum Measure {
+		/** The delivered quantity */
+		QUANTITY,
+		/** The sales in cents */
+		SALES
+	}
+
+	private final OrderRepository orderRepository;
+	private final ArchivedOrderRepository archivedOrderRepository;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private int[] epochDays = new int[INITIAL_CAPACITY];
+	private int[] products = new int[INITIAL_CAPACITY];
+	private int[] pickupLocations = new int[INITIAL_CAPACITY];
+	private int[] quantities = new int[INITIAL_CAPACITY];
+	private int[] prices = new int[INITIAL_CAPACITY];
+	private int size;
+	// Appended since the last rebuild or compaction
+	private int corrections;
+	private final IdDictionary productDictionary = new IdDictionary();
+	private final IdDictionary pickupLocationDictionary = new IdDictionary();
+
+	private final ProductSplitIndex productSplitIndex = new ProductSplitIndex();
+
+	@Autowired
+	public DeliveredItemStore(OrderRepository orderRepository, ArchivedOrderRepository archivedOrderRepository) {
+		this.orderRepository = orderRepository;
+		this.archivedOrderRepository = archivedOrderRepository;
+	}
+
+	/**
+	 * Replaces the contents with the delivered order items in the database,
+	 * including the archived ones.
+	 * Writes committed while the items are being read may be counted twice or
+	 * not at all, so this should run before users can change orders.
+	 */
+	@Transactional
+	public void rebuild() {
+		lock.writeLock().lock();
+		try {
+			size = 0;
+			corrections = 0;
+			productDictionary.clear();
+			pickupLocationDictionary.clear();
+			productSplitIndex.clear();
+			try (Stream<Object[]> items = orderRepository.streamItemFigures(OrderState.DELIVERED)) {
+				addAll(items);
+			}
+			try (Stream<Object[]> items = archivedOrderRepository.streamItemFigures(OrderState.DELIVERED)) {
+				addAll(items);
+			}
+			productSplitIndex.commit();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void addAll(Stream<Object[]> items) {
+		// dueDate, productId, pickupLocationId, quantity, price
+		items.forEach(item -> add(((LocalDate) item[0]).toEpochDay(), (Long) item[1], (Long) item[2],
+				(Integer) item[3], (Integer) item[4]));
+	}
+
+	/**
+	 * Appends the changes of a committed order write.
+	 *
+	 * @param changes
+	 *            the changes from {@link DeliveryRollupService#update}
+	 */
+	public void append(DeliveryRollupService.Figures changes) {
+		lock.writeLock().lock();
+		try {
+			changes.forEach((dueDate, state, productId, pickupLocationId, orders, quantity, sales) -> {
+				if (state == OrderState.DELIVERED && productId != null && quantity != 0) {
+					add(dueDate.toEpochDay(), productId, pickupLocationId, (int) quantity, (int) (sales / quantity));
+					corrections++;
+				}
+			});
+			productSplitIndex.commit();
+			compactIfNeeded();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Changes the price of all lines of a product.
+	 *
+	 * @param product
+	 *            the saved product
+	 */
+	public void updatePrice(Product product) {
+		if (product.getId() == null || product.getPrice() == null) {
+			return;
+		}
+		lock.writeLock().lock();
+		try {
+			int ordinal = productDictionary.find(Math.toIntExact(product.getId()));
+			for (int i = 0; ordinal >= 0 && i < size; i++) {
+				if (products[i] == ordinal) {
+					prices[i] = product.getPrice();
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of stored lines, including correcting lines
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the delivered quantity of each product in a date range. Takes
+	 * constant time per product, whatever the length of the range.
+	 *
+	 * @param from
+	 *            the first due date, inclusive
+	 * @param to
+	 *            the last due date, exclusive
+	 * @return the quantities by product id, without products that sum to zero
+	 */
+	public Map<Long, Long> sumQuantityPerProduct(LocalDate from, LocalDate to) {
+		Map<Long, Long> sums = new HashMap<>();
+		lock.readLock().lock();
+		try {
+			productSplitIndex.sum((int) from.toEpochDay(), (int) to.toEpochDay())
+					.forEach((productId, quantity) -> sums.put(productId.longValue(), quantity));
+		} finally {
+			lock.readLock().unlock();
+		}
+		return sums;
+	}
+
+	/**
+	 * Sums a measure over a date range, grouped by one dimension.
+	 *
+	 * @param measure
+	 *            the figure to sum
+	 * @param groupBy
+	 *            the grouping
+	 * @param from
+	 *            the first due date, inclusive
+	 * @param to
+	 *            the last due date, exclusive
+	 * @param productId
+	 *            the product to include, or null for all products
+	 * @param pickupLocationId
+	 *            the pickup location to include, or null for all locations
+	 * @return the sums by group key, without groups that sum to zero
+	 */
+	public Map<Integer, Long> sum(Measure measure, Dimension groupBy, LocalDate from, LocalDate to, Long productId,
+			Long pickupLocationId) {
+		Map<Integer, Long> sums = new HashMap<>();
+		sum(measure, groupBy, null, from, to, productId, pickupLocationId)
+				.forEach((key, columns) -> sums.put(key, columns.get(0)));
+		return sums;
+	}
+
+	/**
+	 * Sums a measure over a date range, grouped by two dimensions, e.g. the
+	 * sales per pickup location and week.
+	 *
+	 * @param measure
+	 *            the figure to sum
+	 * @param rows
+	 *            the first grouping
+	 * @param columns
+	 *            the second grouping, or null to group by the first one only
+	 * @param from
+	 *            the first due date, inclusive
+	 * @param to
+	 *            the last due date, exclusive
+	 * @param productId
+	 *            the product to include, or null for all products
+	 * @param pickupLocationId
+	 *            the pickup location to include, or null for all locations
+	 * @return the sums by row key and column key, without groups that sum to
+	 *         zero
+	 */
+	public Map<Integer, Map<Integer, Long>> sum(Measure measure, Dimension rows, Dimension columns, LocalDate from,
+			LocalDate to, Long productId, Long pickupLocationId) {
+		int fromDay = (int) from.toEpochDay();
+		int toDay = (int) to.toEpochDay();
+
+		lock.readLock().lock();
+		try {
+			int product = productId == null ? -1 : productDictionary.find(Math.toIntExact(productId));
+			int location = pickupLocationId == null ? -1 : pickupLocationDictionary.find(Math.toIntExact(pickupLocationId));
+			if ((productId != null && product < 0) || (pickupLocationId != null && location < 0)) {
+				return new HashMap<>();
+			}
+			Grouping rowGrouping = new Grouping(rows, fromDay, toDay);
+			Grouping columnGrouping = columns == null ? null : new Grouping(columns, fromDay, toDay);
+			int columnCount = columnGrouping == null ? 1 : columnGrouping.count();
+			long[] sums = new long[rowGrouping.count() * columnCount];
+
+			for (int i = 0; i < size; i++) {
+				int day = epochDays[i];
+				if (day < fromDay || day >= toDay || (product >= 0 && products[i] != product)
+						|| (location >= 0 && pickupLocations[i] != location)) {
+					continue;
+				}
+				int group = rowGrouping.ordinal(i) * columnCount
+						+ (columnGrouping == null ? 0 : columnGrouping.ordinal(i));
+				sums[group] += measure == Measure.QUANTITY ? quantities[i] : (long) quantities[i] * prices[i];
+			}
+
+			Map<Integer, Map<Integer, Long>> result = new HashMap<>();
+			for (int group = 0; group < sums.length; group++) {
+				if (sums[group] != 0) {
+					int rowKey = rowGrouping.key(group / columnCount);
+					int columnKey = columnGrouping == null ? 0 : columnGrouping.key(group % columnCount);
+					result.computeIfAbsent(rowKey, key -> new HashMap<>()).put(columnKey, sums[group]);
+				}
+			}
+			return result;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private void add(long epochDay, Long productId, Long pickupLocationId, int quantity, int price) {
+		if (size == epochDays.length) {
+			int capacity = size * 2;
+			epochDays = Arrays.copyOf(epochDays, capacity);
+			products = Arrays.copyOf(products, capacity);
+			pickupLocations = Arrays.copyOf(pickupLocations, capacity);
+			quantities = Arrays.copyOf(quantities, capacity);
+			prices = Arrays.copyOf(prices, capacity);
+		}
+		epochDays[size] = Math.toIntExact(epochDay);
+		products[size] = productDictionary.ordinal(Math.toIntExact(productId));
+		pickupLocations[size] = pickupLocationDictionary
+				.ordinal(pickupLocationId == null ? 0 : Math.toIntExact(pickupLocationId));
+		quantities[size] = quantity;
+		prices[size] = price;
+		productSplitIndex.add(epochDays[size], Math.toIntExact(productId), quantity);
+		size++;
+	}
+
+	/**
+	 * Merges the lines of the same day, product, pickup location and price.
+	 * The sums, and so the product split index, stay the same.
+	 */
+	private void compactIfNeeded() {
+		if (corrections <= Math.max(INITIAL_CAPACITY, size / 4)) {
+			return;
+		}
+		Integer[] lines = new Integer[size];
+		for (int i = 0; i < size; i++) {
+			lines[i] = i;
+		}
+		Arrays.sort(lines, Comparator.<Integer> comparingInt(i -> epochDays[i]).thenComparingInt(i -> products[i])
+				.thenComparingInt(i -> pickupLocations[i]).thenComparingInt(i -> prices[i]));
+
+		int capacity = epochDays.length;
+		int[] mergedEpochDays = new int[capacity];
+		int[] mergedProducts = new int[capacity];
+		int[] mergedPickupLocations = new int[capacity];
+		int[] mergedQuantities = new int[capacity];
+		int[] mergedPrices = new int[capacity];
+		int merged = 0;
+		for (int j = 0; j < size;) {
+			int first = lines[j];
+			int quantity = 0;
+			for (; j < size && sameGroup(lines[j], first); j++) {
+				quantity += quantities[lines[j]];
+			}
+			if (quantity != 0) {
+				mergedEpochDays[merged] = epochDays[first];
+				mergedProducts[merged] = products[first];
+				mergedPickupLocations[merged] = pickupLocations[first];
+				mergedQuantities[merged] = quantity;
+				mergedPrices[merged] = prices[first];
+				merged++;
+			}
+		}
+		epochDays = mergedEpochDays;
+		products = mergedProducts;
+		pickupLocations = mergedPickupLocations;
+		quantities = mergedQuantities;
+		prices = mergedPrices;
+		size = merged;
+		corrections = 0;
+	}
+
+	private boolean sameGroup(int line, int other) {
+		return epochDays[line] == epochDays[other] && products[line] == products[other]
+				&& pickupLocations[line] == pickupLocations[other] && prices[line] == prices[other];
+	}
+
+	/**
+	 * Maps the lines to dense group ordinals, so sums can be collected in an
+	 * array. Date groupings use a lookup table over the days of the range,
+	 * entity groupings the ordinals of the dictionary.
+	 */
+	private class Grouping {
+		private final int[] column;
+		private final int offset;
+		private final int[] ordinals;
+		private final int[] keys;
+
+		Grouping(Dimension dimension, int fromDay, int toDay) {
+			switch (dimension) {
+			case PRODUCT:
+				column = products;
+				offset = 0;
+				ordinals = null;
+				keys = productDictionary.ids();
+				return;
+			case PICKUP_LOCATION:
+				column = pickupLocations;
+				offset = 0;
+				ordinals = null;
+				keys = pickupLocationDictionary.ids();
+				return;
+			default:
+				column = epochDays;
+				offset = fromDay;
+				break;
+			}
+
+			IntUnaryOperator keyOf = dateKey(dimension, fromDay);
+			int length = Math.max(toDay - fromDay, 0);
+			ordinals = new int[length];
+			Map<Integer, Integer> ordinalsByKey = new HashMap<>();
+			for (int i = 0; i < length; i++) {
+				int key = keyOf.applyAsInt(i);
+				ordinals[i] = ordinalsByKey.computeIfAbsent(key, k -> ordinalsByKey.size());
+			}
+			keys = new int[Math.max(ordinalsByKey.size(), 1)];
+			ordinalsByKey.forEach((key, ordinal) -> keys[ordinal] = key);
+		}
+
+		int ordinal(int line) {
+			return ordinals == null ? column[line] : ordinals[column[line] - offset];
+		}
+
+		int key(int ordinal) {
+			return keys[ordinal];
+		}
+
+		int count() {
+			return keys.length;
+		}
+
+		private IntUnaryOperator dateKey(Dimension dimension, int fromDay) {
+			return index -> {
+				LocalDate date = LocalDate.ofEpochDay(fromDay + index);
+				switch (dimension) {
+				case WEEK:
+					return (int) date.with(DayOfWeek.MONDAY).toEpochDay();
+				case MONTH:
+					return date.getYear() * 100 + date.getMonthValue();
+				case YEAR:
+					return date.getYear();
+				case WEEKDAY:
+					return date.getDayOfWeek().getValue();
+				default:
+					return (int) date.toEpochDay();
+				}
+			};
+		}
+	}
+
+	/**
+	 * Numbers the ids of the stored lines densely in the order they are first
+	 * stored. Ids are only added until the next rebuild, so the dictionary
+	 * holds the distinct ids of the lines rather than growing with the ids
+	 * handed out by the database.
+	 */
+	private static class IdDictionary {
+		private final Map<Integer, Integer> ordinals = new HashMap<>();
+		private int[] ids = new int[16];
+
+		int ordinal(int id) {
+			return ordinals.computeIfAbsent(id, key -> {
+				int ordinal = ordinals.size();
+				if (ordinal == ids.length) {
+					ids = Arrays.copyOf(ids, ordinal * 2);
+				}
+				ids[ordinal] = key;
+				return ordinal;
+			});
+		}
+
+		/**
+		 * @return the ordinal of the id, or -1 if no line has it
+		 */
+		int find(int id) {
+			return ordinals.getOrDefault(id, -1);
+		}
+
+		/**
+		 * @return the ids by ordinal
+		 */
+		int[] ids() {
+			return Arrays.copyOf(ids, ordinals.size());
+		}
+
+		void clear() {
+			ordinals.clear();
+		}
+	}
+}
@@ -0,0 +1,280 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import javax.transaction.Transactional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.DeliveryRollup;
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.OrderItem;
+import com.vaadin.starter.bakery.backend.data.entity.Product;
+import com.vaadin.starter.bakery.backend.repositories.DeliveryRollupRepository;
+
+/**
+ * Maintains the {@link DeliveryRollup} table that backs the dashboard.
+ * <p>
+ * Order writes take a {@link #snapshot(Long)} of the persisted figures before
+ * the order is modified and call {@link #update(Figures, Order)} after saving,
+ * in the same transaction, so only the difference is written.
+ */
+@Service
+public class DeliveryRollupService {
+
+	private final DeliveryRollupRepository rollupRepository;
+
+	@Autowired
+	public DeliveryRollupService(DeliveryRollupRepository rollupRepository) {
+		this.rollupRepository = rollupRepository;
+	}
+
+	/**
+	 * Reads the figures currently stored for an order.
+	 *
+	 * @param orderId
+	 *            the order id, or null for a new order
+	 * @return the figures the order currently contributes to the rollup
+	 */
+	@Transactional
+	public Figures snapshot(Long orderId) {
+		Figures figures = new Figures();
+		if (orderId == null) {
+			return figures;
+		}
+
+		List<Object[]> rows = rollupRepository.findOrderFigures(orderId);
+		if (rows.isEmpty()) {
+			return figures;
+		}
+
+		// One row per order item, the order columns repeat on every row
+		Object[] first = rows.get(0);
+		LocalDate dueDate = (LocalDate) first[0];
+		OrderState state = (OrderState) first[1];
+		Long locationId = (Long) first[2];
+		figures.add(dueDate, state, null, locationId, 1, 0, 0);
+		Set<Long> products = new HashSet<>();
+		for (Object[] row : rows) {
+			Long productId = (Long) row[3];
+			if (productId != null) {
+				int quantity = (Integer) row[4];
+				int price = (Integer) row[5];
+				figures.add(dueDate, state, productId, locationId, products.add(productId) ? 1 : 0, quantity,
+						(long) quantity * price);
+			}
+		}
+		return figures;
+	}
+
+	/**
+	 * Writes the difference between the figures of an order before and after a
+	 * change.
+	 *
+	 * @param before
+	 *            the figures from {@link #snapshot(Long)}
+	 * @param after
+	 *            the saved order, or null if it was deleted
+	 * @return the difference that was written
+	 */
+	@Transactional
+	public Figures update(Figures before, Order after) {
+		Figures delta = figuresOf(after);
+		delta.subtract(before);
+		delta.values.forEach(this::apply);
+		return delta;
+	}
+
+	/**
+	 * Recalculates the sales of a product after its price has changed.
+	 *
+	 * @param product
+	 *            the saved product
+	 */
+	@Transactional
+	public void updatePrice(Product product) {
+		if (product.getId() != null && product.getPrice() != null) {
+			rollupRepository.updatePrice(product.getId(), product.getPrice());
+		}
+	}
+
+	/**
+	 * Recreates the whole rollup from the order tables and the archive. A key
+	 * with orders in both gets a row for each, which readers sum.
+	 */
+	@Transactional
+	public void rebuild() {
+		rollupRepository.deleteAllInBatch();
+
+		List<DeliveryRollup> rows = new ArrayList<>();
+		addOrderRows(rows, rollupRepository.aggregateOrders());
+		addOrderRows(rows, rollupRepository.aggregateArchivedOrders());
+		addProductRows(rows, rollupRepository.aggregateOrderItems());
+		addProductRows(rows, rollupRepository.aggregateArchivedOrderItems());
+		rollupRepository.saveAll(rows);
+	}
+
+	private static void addOrderRows(List<DeliveryRollup> rows, List<Object[]> aggregates) {
+		for (Object[] row : aggregates) {
+			DeliveryRollup rollup = new DeliveryRollup((LocalDate) row[0], (OrderState) row[1], null, (Long) row[2]);
+			rollup.setOrderCount(((Long) row[3]).intValue());
+			rows.add(rollup);
+		}
+	}
+
+	private static void addProductRows(List<DeliveryRollup> rows, List<Object[]> aggregates) {
+		for (Object[] row : aggregates) {
+			DeliveryRollup rollup = new DeliveryRollup((LocalDate) row[0], (OrderState) row[1], (Long) row[3],
+					(Long) row[2]);
+			rollup.setOrderCount(((Long) row[4]).intValue());
+			rollup.setQuantity(((Long) row[5]).intValue());
+			rollup.setSales((Long) row[6]);
+			rows.add(rollup);
+		}
+	}
+
+	public boolean isEmpty() {
+		return rollupRepository.count() == 0L;
+	}
+
+	private Figures figuresOf(Order order) {
+		Figures figures = new Figures();
+		if (order == null) {
+			return figures;
+		}
+
+		Long locationId = order.getPickupLocation() == null ? null : order.getPickupLocation().getId();
+		figures.add(order.getDueDate(), order.getState(), null, locationId, 1, 0, 0);
+		Set<Long> products = new HashSet<>();
+		if (order.getItems() != null) {
+			for (OrderItem item : order.getItems()) {
+				if (item.getProduct() == null || item.getQuantity() == null) {
+					continue;
+				}
+				Long productId = item.getProduct().getId();
+				figures.add(order.getDueDate(), order.getState(), productId, locationId,
+						products.add(productId) ? 1 : 0, item.getQuantity(), item.getTotalPrice());
+			}
+		}
+		return figures;
+	}
+
+	private void apply(Key key, long[] delta) {
+		if (delta[0] == 0 && delta[1] == 0 && delta[2] == 0) {
+			return;
+		}
+
+		int updated;
+		if (key.productId == null) {
+			updated = rollupRepository.addOrders(key.dueDate, key.state, key.pickupLocationId, (int) delta[0]);
+		} else {
+			updated = rollupRepository.addProduct(key.dueDate, key.state, key.productId, key.pickupLocationId,
+					(int) delta[0], (int) delta[1], delta[2]);
+		}
+		if (updated == 0) {
+			DeliveryRollup rollup = new DeliveryRollup(key.dueDate, key.state, key.productId, key.pickupLocationId);
+			rollup.setOrderCount((int) delta[0]);
+			rollup.setQuantity((int) delta[1]);
+			rollup.setSales(delta[2]);
+			rollupRepository.save(rollup);
+		}
+	}
+
+	/**
+	 * The rollup figures (orders, quantity, sales) of one order, or the
+	 * difference of several changes, by rollup key.
+	 */
+	public static class Figures {
+
+		/**
+		 * Receives the figures of one rollup key.
+		 */
+		@FunctionalInterface
+		public interface Visitor {
+			void visit(LocalDate dueDate, OrderState state, Long productId, Long pickupLocationId, long orders,
+					long quantity, long sales);
+		}
+
+		private final Map<Key, long[]> values = new HashMap<>();
+
+		void add(LocalDate dueDate, OrderState state, Long productId, Long pickupLocationId, long orders,
+				long quantity, long sales) {
+			long[] figures = values.computeIfAbsent(new Key(dueDate, state, productId, pickupLocationId),
+					k -> new long[3]);
+			figures[0] += orders;
+			figures[1] += quantity;
+			figures[2] += sales;
+		}
+
+		void add(Figures other) {
+			other.values.forEach((key, figures) -> add(key.dueDate, key.state, key.productId, key.pickupLocationId,
+					figures[0], figures[1], figures[2]));
+		}
+
+		boolean isEmpty() {
+			return values.values().stream().allMatch(figures -> figures[0] == 0 && figures[1] == 0 && figures[2] == 0);
+		}
+
+		/**
+		 * Calls the visitor for every key with non-zero figures.
+		 *
+		 * @param visitor
+		 *            the visitor
+		 */
+		public void forEach(Visitor visitor) {
+			values.forEach((key, figures) -> {
+				if (figures[0] != 0 || figures[1] != 0 || figures[2] != 0) {
+					visitor.visit(key.dueDate, key.state, key.productId, key.pickupLocationId, figures[0], figures[1],
+							figures[2]);
+				}
+			});
+		}
+
+		void subtract(Figures other) {
+			other.values.forEach((key, figures) -> add(key.dueDate, key.state, key.productId, key.pickupLocationId,
+					-figures[0], -figures[1], -figures[2]));
+		}
+	}
+
+	private static final class Key {
+		private final LocalDate dueDate;
+		private final OrderState state;
+		private final Long productId;
+		private final Long pickupLocationId;
+
+		Key(LocalDate dueDate, OrderState state, Long productId, Long pickupLocationId) {
+			this.dueDate = dueDate;
+			this.state = state;
+			this.productId = productId;
+			this.pickupLocationId = pickupLocationId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || getClass() != o.getClass()) {
+				return false;
+			}
+			Key that = (Key) o;
+			return Objects.equals(dueDate, that.dueDate) && state == that.state
+					&& Objects.equals(productId, that.productId)
+					&& Objects.equals(pickupLocationId, that.pickupLocationId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(dueDate, state, productId, pickupLocationId);
+		}
+	}
+}
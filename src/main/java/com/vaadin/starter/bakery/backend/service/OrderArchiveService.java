@@ -0,0 +1,458 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import static org.hibernate.jpa.QueryHints.HINT_NATIVE_SPACES;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.ArchivedOrder;
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.OrderSortKey;
+import com.vaadin.starter.bakery.backend.repositories.ArchivedOrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.OrderListQueries;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+
+/**
+ * Moves the orders that are no longer worked on from the order tables to the
+ * {@link ArchivedOrder archive tables}, so that the order tables and their
+ * indexes only grow with the orders of the recent past and the future.
+ * <p>
+ * Delivered and cancelled orders due before a date are archived in batches,
+ * each in a transaction of its own that locks only the orders of the batch,
+ * so users can keep changing other orders meanwhile. A batch copies the rows
+ * of the orders and of their customers, items and history with one statement
+ * per table, and deletes them from the order tables. The orders stay the same,
+ * so the dashboard rollup, the delivered item store and the search index are
+ * not affected.
+ * <p>
+ * The storefront reads the archive only for due date filters it
+ * {@link #includes may match}. The lists that read both the order tables and
+ * the archive do so while no orders are being moved, so an order moved between
+ * the reads is neither missed nor listed twice. An archived order is
+ * {@link #findArchived read from the archive} when it is opened, and moved
+ * back to the order tables when it is changed. It is archived again by a later
+ * run unless it has been changed to a state that is still worked on.
+ */
+@Service
+public class OrderArchiveService {
+
+	/** The states of the orders that are archived */
+	public static final Set<OrderState> ARCHIVED_STATES = Collections
+			.unmodifiableSet(EnumSet.of(OrderState.DELIVERED, OrderState.CANCELLED));
+
+	/** The order of the storefront, {@link OrderSearchIndex#SORT}, for merging the order tables and the archive */
+	private static final Comparator<OrderSortKey> SORT_KEY_ORDER = Comparator.comparing(OrderSortKey::getDueDate)
+			.thenComparing(OrderSortKey::getDueTime).thenComparing(OrderSortKey::getId);
+
+	/**
+	 * An order table and its archive table, with the columns they share and the
+	 * column holding the order or customer id that selects the rows to move.
+	 * Parents come first.
+	 */
+	private enum Table {
+		CUSTOMER("customer", "archived_customer", "id", "id, version, details, full_name, phone_number"),
+		ORDER("order_info", "archived_order", "id",
+				"id, version, due_date, due_time, state, customer_id, pickup_location_id"),
+		ORDER_ITEM("order_item", "archived_order_item", "items_id",
+				"id, version, comment, quantity, product_id, items_id, items_order"),
+		HISTORY_ITEM("history_item", "archived_history_item", "history_id",
+				"id, version, message, new_state, timestamp, created_by_id, history_id, history_order");
+
+		private final String name;
+		private final String archiveName;
+		private final String key;
+		private final String columns;
+
+		Table(String name, String archiveName, String key, String columns) {
+			this.name = name;
+			this.archiveName = archiveName;
+			this.key = key;
+			this.columns = columns;
+		}
+	}
+
+	private final OrderRepository orderRepository;
+	private final ArchivedOrderRepository archivedOrderRepository;
+	private final EntityManager entityManager;
+
+	// Held by a move until its transaction completes, and by the reads of both the order tables and the archive
+	private final ReentrantReadWriteLock moves = new ReentrantReadWriteLock();
+
+	// The latest due date of the archived orders, or null until it has been read
+	private volatile Optional<LocalDate> lastDueDate;
+
+	@Autowired
+	public OrderArchiveService(OrderRepository orderRepository, ArchivedOrderRepository archivedOrderRepository,
+			EntityManager entityManager) {
+		this.orderRepository = orderRepository;
+		this.archivedOrderRepository = archivedOrderRepository;
+		this.entityManager = entityManager;
+	}
+
+	/**
+	 * Archives a batch of the delivered and cancelled orders due before a
+	 * date. Call again until fewer orders than the batch size are archived.
+	 *
+	 * @param dueBefore
+	 *            the date the orders are due before
+	 * @param batchSize
+	 *            the largest number of orders to archive
+	 * @return the number of archived orders
+	 */
+	@Transactional
+	public int archive(LocalDate dueBefore, int batchSize) {
+		// Taken before the orders are locked, as a restore waits for it while holding its order
+		lockMoves();
+		// id, customer id, due date
+		List<Object[]> orders = orderRepository.findArchivable(dueBefore, ARCHIVED_STATES,
+				PageRequest.of(0, batchSize));
+		if (orders.isEmpty()) {
+			return 0;
+		}
+
+		List<Long> orderIds = new ArrayList<>(orders.size());
+		List<Long> customerIds = new ArrayList<>(orders.size());
+		LocalDate last = null;
+		for (Object[] order : orders) {
+			orderIds.add((Long) order[0]);
+			customerIds.add((Long) order[1]);
+			LocalDate dueDate = (LocalDate) order[2];
+			if (last == null || dueDate.isAfter(last)) {
+				last = dueDate;
+			}
+		}
+		move(true, orderIds, customerIds);
+		// Raised before the commit, as it only has to be at least the latest due date
+		archived(last);
+		return orders.size();
+	}
+
+	/**
+	 * Moves an archived order back to the order tables.
+	 *
+	 * @param orderId
+	 *            the order id
+	 * @return whether the order was archived
+	 */
+	@Transactional
+	public boolean restore(Long orderId) {
+		lockMoves();
+		List<Long> customerIds = archivedOrderRepository.findRestorable(orderId);
+		if (customerIds.isEmpty()) {
+			return false;
+		}
+		move(false, Collections.singletonList(orderId), customerIds);
+		return true;
+	}
+
+	/**
+	 * Reads an archived order with its items and history without moving it,
+	 * e.g. for showing it. The order has to be {@link #restore restored} before
+	 * it can be changed.
+	 *
+	 * @param orderId
+	 *            the order id
+	 * @return a detached copy of the order, or empty if it is not archived
+	 */
+	@Transactional(readOnly = true)
+	public Optional<Order> findArchived(Long orderId) {
+		return archivedOrderRepository.findById(orderId).map(ArchivedOrder::toOrder);
+	}
+
+	/**
+	 * Reads summaries of orders by id from the order tables, and those not
+	 * found there from the archive, if anything has been archived.
+	 *
+	 * @param ids
+	 *            the order ids
+	 * @return the order summaries found, in no particular order
+	 */
+	@Transactional(readOnly = true)
+	public List<OrderBrief> findBriefsByIdIn(Collection<Long> ids) {
+		moves.readLock().lock();
+		try {
+			List<OrderBrief> found = orderRepository.findBriefsByIdIn(ids);
+			if (found.size() < ids.size() && getLastDueDate().isPresent()) {
+				Set<Long> missing = new HashSet<>(ids);
+				found.forEach(order -> missing.remove(order.getId()));
+				found = new ArrayList<>(found);
+				found.addAll(archivedOrderRepository.findBriefsByIdIn(missing));
+			}
+			return found;
+		} finally {
+			moves.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the first orders in both the order tables and the archive, in the
+	 * order of {@code dueDate, dueTime, id}.
+	 *
+	 * @param query
+	 *            the query, run on the order tables and the archive with a page
+	 *            of their first orders
+	 * @param limit
+	 *            the maximum number of orders to return
+	 * @return the sort keys of the orders
+	 */
+	@Transactional(readOnly = true)
+	public List<OrderSortKey> findMergedSortKeys(BiFunction<OrderListQueries, Pageable, List<OrderSortKey>> query,
+			int limit) {
+		return findMergedSortKeys(query, orders -> 0, 0, limit);
+	}
+
+	/**
+	 * Finds a page of the orders in both the order tables and the archive, in
+	 * the order of {@code dueDate, dueTime, id}.
+	 * <p>
+	 * All the archived orders are due on or before the {@link #getLastDueDate()
+	 * last due date}, so only those of the order tables are merged with them,
+	 * and the later ones follow. The order tables hold few of the earlier
+	 * orders, those restored or not yet delivered, so they are all read. The
+	 * archive is read from where the page may start, so a deep page does not
+	 * read all the orders before it, only the database skips them. The later
+	 * orders of the order tables are read with an offset as well.
+	 *
+	 * @param query
+	 *            the query, run on the order tables and the archive with a page
+	 *            of their orders
+	 * @param count
+	 *            counts the orders the query matches, only run on the archive
+	 *            when a page starts after all of its orders
+	 * @param offset
+	 *            the number of orders to skip
+	 * @param limit
+	 *            the maximum number of orders to return
+	 * @return the sort keys of the orders
+	 */
+	@Transactional(readOnly = true)
+	public List<OrderSortKey> findMergedSortKeys(BiFunction<OrderListQueries, Pageable, List<OrderSortKey>> query,
+			ToLongFunction<OrderListQueries> count, long offset, int limit) {
+		moves.readLock().lock();
+		try {
+			LocalDate last = getLastDueDate().orElse(LocalDate.MIN);
+			List<OrderSortKey> earlier = findEarlier(query, last, limit);
+
+			// The archive from where the page may start, at most all the earlier orders before it
+			long archiveOffset = Math.max(0, offset - earlier.size());
+			int window = limit + earlier.size();
+			List<OrderSortKey> archived = query.apply(archivedOrderRepository, new Window(archiveOffset, window));
+			boolean archiveRead = archived.size() < window;
+			OrderSortKey first = archived.isEmpty() ? null : archived.get(0);
+			OrderSortKey end = archived.isEmpty() ? null : archived.get(archived.size() - 1);
+
+			// The merged orders, and the position of the first one
+			List<OrderSortKey> merged = new ArrayList<>(archived);
+			long position;
+			if (archiveOffset == 0) {
+				position = 0;
+			} else if (first == null) {
+				position = count.applyAsLong(archivedOrderRepository) + earlier.size();
+			} else {
+				position = archiveOffset
+						+ earlier.stream().filter(key -> SORT_KEY_ORDER.compare(key, first) < 0).count();
+			}
+			// Earlier orders after the end of the window may follow archived orders beyond it
+			earlier.stream()
+					.filter(key -> (archiveOffset == 0 || first != null && SORT_KEY_ORDER.compare(key, first) > 0)
+							&& (archiveRead || SORT_KEY_ORDER.compare(key, end) < 0))
+					.forEach(merged::add);
+			merged.sort(SORT_KEY_ORDER);
+
+			long mergedEnd = position + merged.size();
+			if (archiveRead && mergedEnd < offset + limit) {
+				// The later orders follow all the merged ones
+				long from = Math.max(offset, mergedEnd);
+				if (from > mergedEnd) {
+					merged.clear();
+					position = from;
+				}
+				merged.addAll(query.apply(orderRepository,
+						new Window(earlier.size() + from - mergedEnd, (int) (offset + limit - from))));
+			}
+			return merged.stream().skip(Math.max(0, offset - position)).limit(limit).collect(Collectors.toList());
+		} finally {
+			moves.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Reads the orders of the order tables due on or before a date, which are
+	 * merged with the archived ones. There are few of them, so the first
+	 * orders are read until a later one is found.
+	 */
+	private List<OrderSortKey> findEarlier(BiFunction<OrderListQueries, Pageable, List<OrderSortKey>> query,
+			LocalDate last, int limit) {
+		for (int size = Math.max(limit, 1);; size = (int) Math.min(2L * size, Integer.MAX_VALUE)) {
+			List<OrderSortKey> keys = query.apply(orderRepository, PageRequest.of(0, size));
+			int earlier = 0;
+			while (earlier < keys.size() && !keys.get(earlier).getDueDate().isAfter(last)) {
+				earlier++;
+			}
+			if (earlier < keys.size() || keys.size() < size || size == Integer.MAX_VALUE) {
+				return new ArrayList<>(keys.subList(0, earlier));
+			}
+		}
+	}
+
+	/**
+	 * Returns whether archived orders may be due after a date, i.e. whether the
+	 * archive has to be read for a due date filter.
+	 *
+	 * @param dueAfter
+	 *            the due date filter, or empty for all orders
+	 * @return whether the archive may hold matching orders
+	 */
+	public boolean includes(Optional<LocalDate> dueAfter) {
+		Optional<LocalDate> last = getLastDueDate();
+		return last.isPresent() && (!dueAfter.isPresent() || last.get().isAfter(dueAfter.get()));
+	}
+
+	/**
+	 * Returns the latest due date of the archived orders. Restored orders may
+	 * have been due on it.
+	 *
+	 * @return the latest due date, or empty if no order has been archived
+	 */
+	public Optional<LocalDate> getLastDueDate() {
+		Optional<LocalDate> last = lastDueDate;
+		if (last == null) {
+			last = Optional.ofNullable(archivedOrderRepository.findLastDueDate());
+			lastDueDate = last;
+		}
+		return last;
+	}
+
+	private synchronized void archived(LocalDate dueDate) {
+		Optional<LocalDate> last = getLastDueDate();
+		if (!last.isPresent() || dueDate.isAfter(last.get())) {
+			lastDueDate = Optional.of(dueDate);
+		}
+	}
+
+	/**
+	 * Keeps the lists from reading the order tables and the archive until the
+	 * transaction moving orders has completed.
+	 */
+	private void lockMoves() {
+		if (moves.isWriteLockedByCurrentThread()) {
+			return;
+		}
+		moves.writeLock().lock();
+		try {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCompletion(int status) {
+					moves.writeLock().unlock();
+				}
+			});
+		} catch (RuntimeException e) {
+			moves.writeLock().unlock();
+			throw e;
+		}
+	}
+
+	private void move(boolean archive, List<Long> orderIds, List<Long> customerIds) {
+		Table[] tables = Table.values();
+		for (Table table : tables) {
+			String from = archive ? table.name : table.archiveName;
+			String to = archive ? table.archiveName : table.name;
+			execute("INSERT INTO " + to + " (" + table.columns + ") SELECT " + table.columns + " FROM " + from
+					+ " WHERE " + table.key + " IN (?1)", to, table == Table.CUSTOMER ? customerIds : orderIds);
+		}
+		for (int i = tables.length - 1; i >= 0; i--) {
+			Table table = tables[i];
+			String from = archive ? table.name : table.archiveName;
+			execute("DELETE FROM " + from + " WHERE " + table.key + " IN (?1)", from,
+					table == Table.CUSTOMER ? customerIds : orderIds);
+		}
+	}
+
+	private void execute(String sql, String table, List<Long> ids) {
+		// The table is named, as otherwise a native update would clear all cached queries
+		entityManager.createNativeQuery(sql).setHint(HINT_NATIVE_SPACES, table).setParameter(1, ids).executeUpdate();
+	}
+
+	/**
+	 * A page of a given size starting at any offset.
+	 */
+	private static class Window implements Pageable {
+		private final long offset;
+		private final int size;
+
+		Window(long offset, int size) {
+			this.offset = offset;
+			this.size = size;
+		}
+
+		@Override
+		public int getPageNumber() {
+			return (int) (offset / size);
+		}
+
+		@Override
+		public int getPageSize() {
+			return size;
+		}
+
+		@Override
+		public long getOffset() {
+			return offset;
+		}
+
+		@Override
+		public Sort getSort() {
+			return Sort.unsorted();
+		}
+
+		@Override
+		public Pageable next() {
+			return new Window(offset + size, size);
+		}
+
+		@Override
+		public Pageable previousOrFirst() {
+			return new Window(Math.max(0, offset - size), size);
+		}
+
+		@Override
+		public Pageable first() {
+			return new Window(0, size);
+		}
+
+		@Override
+		public Pageable withPage(int pageNumber) {
+			return new Window((long) pageNumber * size, size);
+		}
+
+		@Override
+		public boolean hasPrevious() {
+			return offset > 0;
+		}
+	}
+}
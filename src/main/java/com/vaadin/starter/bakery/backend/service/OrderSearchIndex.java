@@ -0,0 +1,572 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+import javax.transaction.Transactional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.stereotype.Service;
+
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.entity.Customer;
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueDate;
+import com.vaadin.starter.bakery.backend.repositories.ArchivedOrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+
+/**
+ * An in-memory trigram index over the customer name and phone number of the
+ * orders, for the storefront search.
+ * <p>
+ * Every order is a document holding its search text and sort key. The
+ * documents containing a search text are found by intersecting the document
+ * lists of its trigrams and checking the candidates, so the cost depends on
+ * the number of orders sharing the rarest trigram rather than on the number of
+ * orders. Texts shorter than a trigram are matched by scanning the documents.
+ * <p>
+ * A changed order is appended as a new document and its old document is
+ * marked as removed, so the document lists stay sorted. Removed documents are
+ * dropped when they outnumber the others. Matches are sorted like the
+ * storefront, by {@link #SORT}, and the recent searches are kept for reading
+ * their counts and following pages, so that users searching at the same time
+ * do not replace each other's search.
+ * <p>
+ * When a search text contains a recent one, e.g. while the user is typing, its
+ * matches are a subset of the recent matches. These are filtered instead of
+ * the trigram lists when there are fewer of them, which also keeps them
+ * sorted.
+ */
+@Service
+public class OrderSearchIndex {
+
+	/** The order of the search results */
+	public static final Sort SORT = Sort.by("dueDate", "dueTime", "id");
+
+	private static final int INITIAL_CAPACITY = 1024;
+	private static final int GRAM = 3;
+	private static final int RECENT_SEARCHES = 32;
+
+	private final OrderRepository orderRepository;
+	private final ArchivedOrderRepository archivedOrderRepository;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Documents by number, a removed document has no text
+	private long[] orderIds = new long[INITIAL_CAPACITY];
+	private int[] dueDays = new int[INITIAL_CAPACITY];
+	private int[] dueSeconds = new int[INITIAL_CAPACITY];
+	private String[] texts = new String[INITIAL_CAPACITY];
+	private int size;
+	private int removed;
+
+	private final Map<Long, Integer> documents = new HashMap<>();
+	private final Map<String, Postings> trigrams = new HashMap<>();
+
+	private boolean ready;
+	// Changed on every write, so an older search is not reused
+	private long version;
+	// The least recently used search first
+	private final Map<String, Search> recentSearches = new LinkedHashMap<>(16, 0.75f, true);
+
+	@Autowired
+	public OrderSearchIndex(OrderRepository orderRepository, ArchivedOrderRepository archivedOrderRepository) {
+		this.orderRepository = orderRepository;
+		this.archivedOrderRepository = archivedOrderRepository;
+	}
+
+	/**
+	 * Replaces the contents with the orders in the database, including the
+	 * archived ones, which keep their ids when they are moved. Writes committed
+	 * while the orders are being read may be lost, so this should run before
+	 * users can change orders.
+	 */
+	@Transactional
+	public void rebuild() {
+		lock.writeLock().lock();
+		try {
+			clear();
+			try (Stream<Object[]> orders = orderRepository.streamSearchFields()) {
+				addAll(orders);
+			}
+			try (Stream<Object[]> orders = archivedOrderRepository.streamSearchFields()) {
+				addAll(orders);
+			}
+			ready = true;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void addAll(Stream<Object[]> orders) {
+		// id, dueDate, dueTime, fullName, phoneNumber
+		orders.forEach(order -> add((Long) order[0], day((LocalDate) order[1]), second((LocalTime) order[2]),
+				text((String) order[3], (String) order[4])));
+	}
+
+	/**
+	 * @return whether the index has been built and can be searched
+	 */
+	public boolean isReady() {
+		lock.readLock().lock();
+		try {
+			return ready;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of indexed orders
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size - removed;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds or replaces a committed order.
+	 *
+	 * @param order
+	 *            the saved order
+	 */
+	public void update(Order order) {
+		Customer customer = order.getCustomer();
+		String text = text(customer == null ? null : customer.getFullName(),
+				customer == null ? null : customer.getPhoneNumber());
+		lock.writeLock().lock();
+		try {
+			removeDocument(order.getId());
+			add(order.getId(), day(order.getDueDate()), second(order.getDueTime()), text);
+			compactIfNeeded();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes a deleted order.
+	 *
+	 * @param orderId
+	 *            the id of the deleted order
+	 */
+	public void remove(Long orderId) {
+		lock.writeLock().lock();
+		try {
+			removeDocument(orderId);
+			version++;
+			compactIfNeeded();
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Counts the orders whose customer name or phone number contains a text,
+	 * ignoring case.
+	 *
+	 * @param filter
+	 *            the text to search for
+	 * @param dueAfter
+	 *            the day after which the orders must be due, or null for all
+	 *            orders
+	 * @return the number of matching orders
+	 */
+	public int count(String filter, LocalDate dueAfter) {
+		return search(filter, dueAfter).orderIds.length;
+	}
+
+	/**
+	 * Finds a page of the orders whose customer name or phone number contains
+	 * a text, ignoring case.
+	 *
+	 * @param filter
+	 *            the text to search for
+	 * @param dueAfter
+	 *            the day after which the orders must be due, or null for all
+	 *            orders
+	 * @param offset
+	 *            the index of the first order to return
+	 * @param limit
+	 *            the maximum number of orders to return
+	 * @return the ids of the matching orders, sorted by {@link #SORT}
+	 */
+	public List<Long> find(String filter, LocalDate dueAfter, long offset, int limit) {
+		Search search = search(filter, dueAfter);
+		int from = (int) Math.min(offset, search.orderIds.length);
+		return search.page(from, limit);
+	}
+
+	/**
+	 * Finds the matching orders that follow an order in the order of
+	 * {@link #SORT}.
+	 *
+	 * @param filter
+	 *            the text to search for
+	 * @param last
+	 *            the last order of the previous page
+	 * @param limit
+	 *            the maximum number of orders to return
+	 * @return the ids of the following matching orders
+	 */
+	public List<Long> findAfter(String filter, OrderBrief last, int limit) {
+		// All following orders are due on or after the last one
+		Search search = search(filter, null);
+		return search.page(indexAfter(search, day(last.getDueDate()), second(last.getDueTime()), last.getId()),
+				limit);
+	}
+
+	/**
+	 * Finds the first matching order in the order of {@link #SORT}.
+	 *
+	 * @param filter
+	 *            the text to search for
+	 * @param dueAfter
+	 *            the day after which the order must be due, or null for all
+	 *            orders
+	 * @return the id and due date of the first matching order, or null if
+	 *         there is none
+	 */
+	public OrderDueDate findFirst(String filter, LocalDate dueAfter) {
+		// Shares the cached search with findAfter, whatever the due date
+		Search search = search(filter, null);
+		int i = dueAfter == null ? 0 : indexAfter(search, day(dueAfter), Integer.MAX_VALUE, Long.MAX_VALUE);
+		if (i == search.orderIds.length) {
+			return null;
+		}
+		return new FirstOrder(search.orderIds[i], LocalDate.ofEpochDay(search.dueDays[i]));
+	}
+
+	/**
+	 * Returns the index of the first match that sorts after the given due
+	 * date, due time and id.
+	 */
+	private static int indexAfter(Search search, int day, int second, long id) {
+		int low = 0;
+		int high = search.orderIds.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (compare(search.dueDays[middle], search.dueSeconds[middle], search.orderIds[middle], day, second,
+					id) <= 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private Search search(String filter, LocalDate dueAfter) {
+		String text = filter == null ? "" : filter.toLowerCase(Locale.ROOT);
+		int afterDay = dueAfter == null ? Integer.MIN_VALUE : (int) dueAfter.toEpochDay();
+		Search search;
+		lock.readLock().lock();
+		try {
+			search = recentSearch(text, afterDay);
+			if (search != null) {
+				return search;
+			}
+			Search previous = previousSearch(text, afterDay);
+			Postings[] lists = text.length() < GRAM ? null : postings(text);
+
+			List<Integer> matches = new ArrayList<>();
+			if (previous != null && (lists == null || previous.documents.length <= lists[0].size)) {
+				for (int document : previous.documents) {
+					if (matches(document, text, afterDay)) {
+						matches.add(document);
+					}
+				}
+			} else {
+				if (lists == null) {
+					for (int document = 0; document < size; document++) {
+						if (matches(document, text, afterDay)) {
+							matches.add(document);
+						}
+					}
+				} else {
+					collectMatches(lists, text, afterDay, matches);
+				}
+				matches.sort(Comparator.<Integer> comparingInt(document -> dueDays[document])
+						.thenComparingInt(document -> dueSeconds[document])
+						.thenComparingLong(document -> orderIds[document]));
+			}
+
+			search = new Search(version, text, afterDay, matches.size());
+			for (int i = 0; i < matches.size(); i++) {
+				int document = matches.get(i);
+				search.documents[i] = document;
+				search.orderIds[i] = orderIds[document];
+				search.dueDays[i] = dueDays[document];
+				search.dueSeconds[i] = dueSeconds[document];
+			}
+			remember(search);
+		} finally {
+			lock.readLock().unlock();
+		}
+		return search;
+	}
+
+	private Search recentSearch(String text, int afterDay) {
+		synchronized (recentSearches) {
+			Search search = recentSearches.get(afterDay + ":" + text);
+			return search != null && search.version == version ? search : null;
+		}
+	}
+
+	/**
+	 * Returns the recent search with the fewest matches whose text is
+	 * contained in the given text, or null if there is none.
+	 */
+	private Search previousSearch(String text, int afterDay) {
+		Search previous = null;
+		synchronized (recentSearches) {
+			for (Search search : recentSearches.values()) {
+				if (search.version == version && search.afterDay == afterDay && text.contains(search.text)
+						&& (previous == null || search.documents.length < previous.documents.length)) {
+					previous = search;
+				}
+			}
+		}
+		return previous;
+	}
+
+	private void remember(Search search) {
+		synchronized (recentSearches) {
+			recentSearches.put(search.afterDay + ":" + search.text, search);
+			if (recentSearches.size() > RECENT_SEARCHES) {
+				Iterator<Search> eldest = recentSearches.values().iterator();
+				eldest.next();
+				eldest.remove();
+			}
+		}
+	}
+
+	/**
+	 * Returns the document lists of the trigrams of a text, the shortest
+	 * first. A missing trigram gives an empty list.
+	 */
+	private Postings[] postings(String text) {
+		Set<String> grams = trigrams(text);
+		Postings[] lists = new Postings[grams.size()];
+		int i = 0;
+		for (String gram : grams) {
+			Postings postings = trigrams.get(gram);
+			lists[i++] = postings == null ? new Postings() : postings;
+		}
+		Arrays.sort(lists, Comparator.comparingInt(postings -> postings.size));
+		return lists;
+	}
+
+	private void collectMatches(Postings[] lists, String text, int afterDay, List<Integer> matches) {
+		Postings rarest = lists[0];
+		candidates: for (int j = 0; j < rarest.size; j++) {
+			int document = rarest.documents[j];
+			for (int k = 1; k < lists.length; k++) {
+				if (!lists[k].contains(document)) {
+					continue candidates;
+				}
+			}
+			// The trigrams may occur in another order
+			if (matches(document, text, afterDay)) {
+				matches.add(document);
+			}
+		}
+	}
+
+	private boolean matches(int document, String text, int afterDay) {
+		return texts[document] != null && dueDays[document] > afterDay && texts[document].contains(text);
+	}
+
+	private static int compare(int day, int second, long id, int otherDay, int otherSecond, long otherId) {
+		if (day != otherDay) {
+			return Integer.compare(day, otherDay);
+		}
+		if (second != otherSecond) {
+			return Integer.compare(second, otherSecond);
+		}
+		return Long.compare(id, otherId);
+	}
+
+	private void clear() {
+		orderIds = new long[INITIAL_CAPACITY];
+		dueDays = new int[INITIAL_CAPACITY];
+		dueSeconds = new int[INITIAL_CAPACITY];
+		texts = new String[INITIAL_CAPACITY];
+		size = 0;
+		removed = 0;
+		documents.clear();
+		trigrams.clear();
+		version++;
+	}
+
+	private void add(long orderId, int dueDay, int dueSecond, String text) {
+		if (size == orderIds.length) {
+			int capacity = size * 2;
+			orderIds = Arrays.copyOf(orderIds, capacity);
+			dueDays = Arrays.copyOf(dueDays, capacity);
+			dueSeconds = Arrays.copyOf(dueSeconds, capacity);
+			texts = Arrays.copyOf(texts, capacity);
+		}
+		int document = size++;
+		orderIds[document] = orderId;
+		dueDays[document] = dueDay;
+		dueSeconds[document] = dueSecond;
+		texts[document] = text;
+		documents.put(orderId, document);
+		for (String gram : trigrams(text)) {
+			trigrams.computeIfAbsent(gram, g -> new Postings()).add(document);
+		}
+		version++;
+	}
+
+	private void removeDocument(Long orderId) {
+		Integer document = documents.remove(orderId);
+		if (document != null) {
+			texts[document] = null;
+			removed++;
+		}
+	}
+
+	private void compactIfNeeded() {
+		if (removed <= INITIAL_CAPACITY || removed <= size - removed) {
+			return;
+		}
+		long[] liveOrderIds = orderIds;
+		int[] liveDueDays = dueDays;
+		int[] liveDueSeconds = dueSeconds;
+		String[] liveTexts = texts;
+		int oldSize = size;
+		clear();
+		for (int document = 0; document < oldSize; document++) {
+			if (liveTexts[document] != null) {
+				add(liveOrderIds[document], liveDueDays[document], liveDueSeconds[document], liveTexts[document]);
+			}
+		}
+	}
+
+	/**
+	 * Checks whether the customer of an order matches a search text, like the
+	 * index does.
+	 *
+	 * @param order
+	 *            the order
+	 * @param filter
+	 *            the text to search for
+	 * @return whether the customer name or phone number contains the text,
+	 *         ignoring case
+	 */
+	public static boolean matches(OrderBrief order, String filter) {
+		return text(order.getCustomerFullName(), order.getCustomerPhoneNumber())
+				.contains(filter == null ? "" : filter.toLowerCase(Locale.ROOT));
+	}
+
+	private static int day(LocalDate date) {
+		return date == null ? Integer.MIN_VALUE : (int) date.toEpochDay();
+	}
+
+	private static int second(LocalTime time) {
+		return time == null ? 0 : time.toSecondOfDay();
+	}
+
+	private static String text(String fullName, String phoneNumber) {
+		return ((fullName == null ? "" : fullName) + "\n" + (phoneNumber == null ? "" : phoneNumber))
+				.toLowerCase(Locale.ROOT);
+	}
+
+	private static Set<String> trigrams(String text) {
+		Set<String> grams = new HashSet<>();
+		for (int i = 0; i + GRAM <= text.length(); i++) {
+			grams.add(text.substring(i, i + GRAM));
+		}
+		return grams;
+	}
+
+	/**
+	 * The ascending numbers of the documents containing a trigram.
+	 */
+	private static class Postings {
+		private int[] documents = new int[4];
+		private int size;
+
+		void add(int document) {
+			if (size == documents.length) {
+				documents = Arrays.copyOf(documents, size * 2);
+			}
+			documents[size++] = document;
+		}
+
+		boolean contains(int document) {
+			return Arrays.binarySearch(documents, 0, size, document) >= 0;
+		}
+	}
+
+	/**
+	 * The sorted matches of a search.
+	 */
+	private static class Search {
+		private final long version;
+		private final String text;
+		private final int afterDay;
+		private final int[] documents;
+		private final long[] orderIds;
+		private final int[] dueDays;
+		private final int[] dueSeconds;
+
+		// Copies of the document fields, as the documents may change after the search
+		Search(long version, String text, int afterDay, int size) {
+			this.version = version;
+			this.text = text;
+			this.afterDay = afterDay;
+			documents = new int[size];
+			orderIds = new long[size];
+			dueDays = new int[size];
+			dueSeconds = new int[size];
+		}
+
+		List<Long> page(int from, int limit) {
+			List<Long> page = new ArrayList<>();
+			for (int i = from; i < orderIds.length && page.size() < limit; i++) {
+				page.add(orderIds[i]);
+			}
+			return page;
+		}
+	}
+
+	private static class FirstOrder implements OrderDueDate {
+		private final Long id;
+		private final LocalDate dueDate;
+
+		FirstOrder(Long id, LocalDate dueDate) {
+			this.id = id;
+			this.dueDate = dueDate;
+		}
+
+		@Override
+		public Long getId() {
+			return id;
+		}
+
+		@Override
+		public LocalDate getDueDate() {
+			return dueDate;
+		}
+	}
+}
@@ -1,33 +1,62 @@
 package com.vaadin.starter.bakery.backend.service;
 
+import java.time.Duration;
 import java.time.LocalDate;
+import java.time.LocalDateTime;
 import java.time.LocalTime;
 import java.time.YearMonth;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
 
-import javax.transaction.Transactional;
+import javax.persistence.EntityNotFoundException;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskExecutor;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import com.vaadin.starter.bakery.backend.data.DashboardData;
+import com.vaadin.starter.bakery.backend.data.DashboardUpdate;
 import com.vaadin.starter.bakery.backend.data.DeliveryStats;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
 import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.HistoryItem;
 import com.vaadin.starter.bakery.backend.data.entity.Order;
-import com.vaadin.starter.bakery.backend.data.entity.OrderSummary;
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueDate;
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueTime;
+import com.vaadin.starter.bakery.backend.data.entity.OrderSortKey;
 import com.vaadin.starter.bakery.backend.data.entity.Product;
 import com.vaadin.starter.bakery.backend.data.entity.User;
+import com.vaadin.starter.bakery.backend.repositories.ArchivedOrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.DeliveryRollupRepository;
+import com.vaadin.starter.bakery.backend.repositories.HistoryItemRepository;
+import com.vaadin.starter.bakery.backend.repositories.OrderListQueries;
 import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.ProductRepository;
 
 /**
  * Service class for managing {@link Order} entities.
@@ -40,21 +69,114 @@ public class OrderService implements CrudService<Order> {
     /** Repository for order persistence operations. */
     private final OrderRepository orderRepository;
 
+    /** Repository for reading the archived orders. */
+    private final ArchivedOrderRepository archivedOrderRepository;
+
+    /** Moves orders between the order tables and the archive. */
+    private final OrderArchiveService orderArchive;
+
+    /** Repository for appending to the order history. */
+    private final HistoryItemRepository historyItemRepository;
+
+    /** Repository for the pre-aggregated dashboard figures. */
+    private final DeliveryRollupRepository rollupRepository;
+
+    /** Keeps the dashboard rollup in sync with order writes. */
+    private final DeliveryRollupService rollupService;
+
+    /** Repository for loading the products of the product split. */
+    private final ProductRepository productRepository;
+
+    /** In-memory copy of the delivered order items for reporting. */
+    private final DeliveredItemStore deliveredItemStore;
+
+    /** In-memory index for searching orders by customer. */
+    private final OrderSearchIndex searchIndex;
+
+    /** Sends the changes of committed writes to the open dashboards. */
+    private final DashboardBroadcaster dashboardBroadcaster;
+
+    /** Deliveries per day shared by all users, by month. */
+    private final RefreshingCache<YearMonth, List<Number>> deliveriesPerDayCache;
+
+    /** Deliveries per month shared by all users, by year. */
+    private final RefreshingCache<Integer, List<Number>> deliveriesPerMonthCache;
+
+    /** Sales per month of the last three years shared by all users, by month. */
+    private final RefreshingCache<YearMonth, Number[][]> salesPerMonthCache;
+
+    /** Delivery statistics shared by all users, by day. */
+    private final RefreshingCache<LocalDate, DeliveryStats> deliveryStatsCache;
+
+    /**
+     * The first orders of the storefront without a customer filter, shared by all users,
+     * by due date filter.
+     */
+    private final RefreshingCache<Optional<LocalDate>, FirstOrders> firstOrdersCache;
+
+    /** How many orders {@link #firstOrdersCache} keeps per due date filter. */
+    private final int firstOrdersSize;
+
+    /** The number of committed order writes, for detecting stale order data. */
+    private final AtomicLong writeCount = new AtomicLong();
+
     /**
-     * Constructs an OrderService with the required {@link OrderRepository}.
+     * Constructs an OrderService with the required repositories.
      *
      * @param orderRepository the order repository
+     * @param archivedOrderRepository the archived order repository
+     * @param orderArchive the service moving orders to the archive and back
+     * @param historyItemRepository the order history repository
+     * @param rollupRepository the delivery rollup repository
+     * @param rollupService the delivery rollup service
+     * @param productRepository the product repository
+     * @param deliveredItemStore the in-memory store of delivered order items
+     * @param searchIndex the in-memory index for searching orders by customer
+     * @param dashboardBroadcaster the broadcaster of dashboard updates
+     * @param taskExecutor the executor refreshing stale dashboard data
+     * @param dashboardTimeToLive how long cached dashboard data is served without refreshing it
+     * @param dashboardCacheSize how many months, years or days of dashboard data each cache keeps at most
+     * @param firstOrdersSize how many of the first storefront orders are cached per due date filter
      */
     @Autowired
-    public OrderService(OrderRepository orderRepository) {
+    public OrderService(OrderRepository orderRepository, ArchivedOrderRepository archivedOrderRepository,
+            OrderArchiveService orderArchive, HistoryItemRepository historyItemRepository,
+            DeliveryRollupRepository rollupRepository,
+            DeliveryRollupService rollupService, ProductRepository productRepository,
+            DeliveredItemStore deliveredItemStore, OrderSearchIndex searchIndex,
+            DashboardBroadcaster dashboardBroadcaster, TaskExecutor taskExecutor,
+            @Value("${bakery.dashboard.cache.time-to-live:60s}") Duration dashboardTimeToLive,
+            @Value("${bakery.dashboard.cache.maximum-size:100}") int dashboardCacheSize,
+            @Value("${bakery.storefront.cache.orders:200}") int firstOrdersSize) {
         super();
         this.orderRepository = orderRepository;
+        this.archivedOrderRepository = archivedOrderRepository;
+        this.orderArchive = orderArchive;
+        this.historyItemRepository = historyItemRepository;
+        this.rollupRepository = rollupRepository;
+        this.rollupService = rollupService;
+        this.productRepository = productRepository;
+        this.deliveredItemStore = deliveredItemStore;
+        this.searchIndex = searchIndex;
+        this.dashboardBroadcaster = dashboardBroadcaster;
+        this.deliveriesPerDayCache = new RefreshingCache<>(this::loadDeliveriesPerDay, dashboardTimeToLive,
+                dashboardCacheSize, taskExecutor);
+        this.deliveriesPerMonthCache = new RefreshingCache<>(this::loadDeliveriesPerMonth, dashboardTimeToLive,
+                dashboardCacheSize, taskExecutor);
+        this.salesPerMonthCache = new RefreshingCache<>(this::loadSalesPerMonth, dashboardTimeToLive,
+                dashboardCacheSize, taskExecutor);
+        this.deliveryStatsCache = new RefreshingCache<>(this::loadDeliveryStats, dashboardTimeToLive,
+                dashboardCacheSize, taskExecutor);
+        // Dropped on every write, so the time to live only matters for changes made elsewhere
+        this.firstOrdersCache = new RefreshingCache<>(this::loadFirstOrders, dashboardTimeToLive,
+                dashboardCacheSize, taskExecutor);
+        this.firstOrdersSize = firstOrdersSize;
     }
 
     /** 
      * Set of order states considered not available for delivery statistics. 
      */
-    private static final Set<OrderState> notAvailableStates = Collections.unmodifiableSet(
+    static final Set<OrderState> notAvailableStates = Collections.unmodifiableSet(
             EnumSet.complementOf(EnumSet.of(OrderState.DELIVERED, OrderState.READY, OrderState.CANCELLED)));
 
     /**
@@ -66,16 +188,16 @@ public class OrderService implements CrudService<Order> {
      * @param orderFiller a BiConsumer to fill order fields
      * @return the saved order
      */
-    @Transactional(rollbackOn = Exception.class)
+    @Transactional(rollbackFor = Exception.class)
     public Order saveOrder(User currentUser, Long id, BiConsumer<User, Order> orderFiller) {
-        Order order;
-        if (id == null) {
-            order = new Order(currentUser);
-        } else {
-            order = load(id);
-        }
+        // Loaded first, as an archived order is restored by loading it for the update
+        Order order = id == null ? new Order(currentUser)
+                : loadForUpdate(id).orElseThrow(EntityNotFoundException::new);
+        DeliveryRollupService.Figures before = rollupService.snapshot(id);
         orderFiller.accept(currentUser, order);
-        return orderRepository.save(order);
+        order = orderRepository.save(order);
+        afterWrite(order.getId(), before, order);
+        return order;
     }
 
     /**
@@ -84,37 +206,235 @@ public class OrderService implements CrudService<Order> {
      * @param order the order to save
      * @return the saved order
      */
-    @Transactional(rollbackOn = Exception.class)
+    @Transactional(rollbackFor = Exception.class)
     public Order saveOrder(Order order) {
-        return orderRepository.save(order);
+        loadForMerge(order);
+        DeliveryRollupService.Figures before = rollupService.snapshot(order.getId());
+        Order saved = orderRepository.save(order);
+        afterWrite(saved.getId(), before, saved);
+        return saved;
     }
 
     /**
-     * Adds a comment to the given order and saves the update.
+     * Saves and flushes the given order entity, keeping the dashboard rollup in sync.
+     *
+     * @param currentUser the current user
+     * @param entity the order to save
+     * @return the saved order
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public Order save(User currentUser, Order entity) {
+        loadForMerge(entity);
+        DeliveryRollupService.Figures before = rollupService.snapshot(entity.getId());
+        Order saved = orderRepository.saveAndFlush(entity);
+        afterWrite(saved.getId(), before, saved);
+        return saved;
+    }
+
+    /**
+     * Reads the stored order with its items and history in one query before a detached
+     * order is merged. Otherwise the merge reads the order first, and then each of its
+     * items and history items by id. An order read from the archive, or archived since it
+     * was read, is restored, as otherwise the merge would insert it as a new one. Must be
+     * called before the rollup snapshot, which only covers the order tables.
+     */
+    private void loadForMerge(Order order) {
+        if (order.getId() != null) {
+            loadForUpdate(order.getId());
+        }
+    }
+
+    /**
+     * Reads an order with its items and history from the order tables for changing it. An
+     * archived order is moved back to the order tables first.
+     */
+    private Optional<Order> loadForUpdate(Long id) {
+        Optional<Order> order = orderRepository.findById(id);
+        if (!order.isPresent() && orderArchive.restore(id)) {
+            order = orderRepository.findById(id);
+        }
+        return order;
+    }
+
+    /**
+     * Loads an order with its items and history. An archived order is read from the
+     * archive without moving it, so that opening it does not change anything. It is moved
+     * back to the order tables when it is saved, commented or deleted.
+     *
+     * @param id the order id
+     * @return the order
+     * @throws EntityNotFoundException if there is no order with the id
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public Order load(long id) {
+        Optional<Order> order = orderRepository.findById(id);
+        if (!order.isPresent()) {
+            order = orderArchive.findArchived(id);
+        }
+        return order.orElseThrow(EntityNotFoundException::new);
+    }
+
+    /**
+     * Deletes the given order and removes it from the dashboard rollup.
+     *
+     * @param currentUser the current user
+     * @param entity the order to delete
+     */
+    @Override
+    @Transactional(rollbackFor = Exception.class)
+    public void delete(User currentUser, Order entity) {
+        if (entity == null) {
+            throw new EntityNotFoundException();
+        }
+        // Restored first, so that an archived order is deleted from the order tables
+        loadForMerge(entity);
+        DeliveryRollupService.Figures before = rollupService.snapshot(entity.getId());
+        orderRepository.delete(entity);
+        afterWrite(entity.getId(), before, null);
+    }
+
+    /**
+     * Updates the dashboard rollup with the changes of an order write. Once the transaction has been committed,
+     * invalidates the cached dashboard data the change affects, appends it to the delivered item store, sends it
+     * to the open dashboards and updates the search index. A write that changes none of the rollup figures, e.g. of
+     * the customer only, leaves the cached dashboard data as it is.
+     *
+     * @param orderId the id of the written order
+     * @param before the figures of the order before the write
+     * @param after the saved order, or null if it was deleted
+     */
+    private void afterWrite(Long orderId, DeliveryRollupService.Figures before, Order after) {
+        DeliveryRollupService.Figures changes = rollupService.update(before, after);
+
+        // The statistics of a day count the orders due that day and the next, and all the new orders
+        Set<LocalDate> dueDates = new HashSet<>();
+        Set<YearMonth> deliveredMonths = new HashSet<>();
+        AtomicBoolean newOrdersChanged = new AtomicBoolean();
+        changes.forEach((dueDate, state, productId, pickupLocationId, orders, quantity, sales) -> {
+            dueDates.add(dueDate);
+            if (state == OrderState.NEW) {
+                newOrdersChanged.set(true);
+            } else if (state == OrderState.DELIVERED) {
+                deliveredMonths.add(YearMonth.from(dueDate));
+            }
+        });
+        // The sales chart of a month covers the two previous years as well
+        Runnable invalidate = () -> {
+            deliveryStatsCache.invalidate(day -> newOrdersChanged.get() || dueDates.contains(day)
+                    || dueDates.contains(day.plusDays(1)));
+            deliveriesPerDayCache.invalidate(deliveredMonths::contains);
+            deliveriesPerMonthCache.invalidate(year -> deliveredMonths.stream()
+                    .anyMatch(changed -> changed.getYear() == year));
+            salesPerMonthCache.invalidate(month -> deliveredMonths.stream()
+                    .anyMatch(changed -> month.getYear() >= changed.getYear()
+                            && month.getYear() <= changed.getYear() + 2));
+            deliveredItemStore.append(changes);
+            dashboardBroadcaster.publish(changes);
+            if (after != null) {
+                searchIndex.update(after);
+            } else {
+                searchIndex.remove(orderId);
+            }
+            // Dropped rather than refreshed, so the user who saved an order sees it right away
+            firstOrdersCache.remove(key -> true);
+            writeCount.incrementAndGet();
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    invalidate.run();
+                }
+            });
+        } else {
+            invalidate.run();
+        }
+    }
+
+    /**
+     * Returns whether customer filters are matched by the search index, against the customer
+     * name and phone number. Until the index has been built, they are matched by the
+     * database against the customer name only.
+     *
+     * @return whether the search index is ready
+     */
+    public boolean isSearchIndexReady() {
+        return searchIndex.isReady();
+    }
+
+    /**
+     * Returns the number of order writes committed since startup. Order data read before
+     * the count last changed may be stale.
+     *
+     * @return the number of committed order writes
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * Adds a comment to the given order. The comment is inserted as the next history item
+     * and the order version is bumped, without loading or merging the order history, so
+     * commenting costs the same however long the history is. The given order is left
+     * untouched.
+     * <p>
+     * A comment changes neither the dashboard figures nor the order summaries, so no
+     * cached data is invalidated.
      *
      * @param currentUser the user adding the comment
      * @param order the order being commented on
      * @param comment the comment to add
-     * @return the updated order
+     * @return the updated order, with its full history
+     * @throws ObjectOptimisticLockingFailureException if the order has been changed or
+     *             deleted since it was read
      */
-    @Transactional(rollbackOn = Exception.class)
+    @Transactional(rollbackFor = Exception.class)
     public Order addComment(User currentUser, Order order, String comment) {
-        order.addHistoryItem(currentUser, comment);
-        return orderRepository.save(order);
+        // Archiving does not change the version, so an archived order is restored and commented
+        if (!orderRepository.existsById(order.getId())) {
+            orderArchive.restore(order.getId());
+        }
+        if (orderRepository.incrementVersion(order.getId(), order.getVersion()) == 0) {
+            throw new ObjectOptimisticLockingFailureException(Order.class, order.getId());
+        }
+        HistoryItem item = new HistoryItem(currentUser, comment);
+        item.setNewState(order.getState());
+        item = historyItemRepository.saveAndFlush(item);
+        historyItemRepository.appendToOrder(item.getId(), order.getId());
+        return orderRepository.findById(order.getId()).orElseThrow(EntityNotFoundException::new);
     }
 
     /**
-     * Finds orders matching the optional customer name filter and/or due date filter, paged.
+     * Finds orders matching the optional customer filter and/or due date filter, paged.
+     * Once the {@link OrderSearchIndex} has been built, the customer filter matches the
+     * customer's full name or phone number and is served by the index. Before that, only
+     * names are matched.
+     * <p>
+     * Pages found by the search index are read with their items. Other pages are read with
+     * the customer and pickup location only, as a paged query cannot fetch the items, so
+     * their items are loaded when first read, which must be within a transaction.
+     * <p>
+     * Archived orders are not included, see {@link #findBriefsAfterDueDate} for a list
+     * that includes them.
      *
-     * @param optionalFilter optional customer full name filter
+     * @param optionalFilter optional customer filter
      * @param optionalFilterDate optional due date filter
      * @param pageable the paging information
      * @return a page of matching orders
      */
+    @Transactional(readOnly = true)
     public Page<Order> findAnyMatchingAfterDueDate(Optional<String> optionalFilter,
             Optional<LocalDate> optionalFilterDate, Pageable pageable) {
         if (optionalFilter.isPresent() && !optionalFilter.get().isEmpty()) {
-            if (optionalFilterDate.isPresent()) {
+            if (searchIndex.isReady() && OrderSearchIndex.SORT.equals(pageable.getSort())) {
+                LocalDate dueAfter = optionalFilterDate.orElse(null);
+                List<Long> ids = searchIndex.find(optionalFilter.get(), dueAfter, pageable.getOffset(),
+                        pageable.getPageSize());
+                return new PageImpl<>(findAllInOrder(ids), pageable,
+                        searchIndex.count(optionalFilter.get(), dueAfter));
+            } else if (optionalFilterDate.isPresent()) {
                 return orderRepository.findByCustomerFullNameContainingIgnoreCaseAndDueDateAfter(
                         optionalFilter.get(), optionalFilterDate.get(), pageable);
             } else {
@@ -130,55 +450,285 @@ public class OrderService implements CrudService<Order> {
     }
 
     /**
-     * Finds orders starting from today (current date).
+     * Finds summaries of the orders matching the optional customer filter and/or due
+     * date filter, paged, see {@link #findAnyMatchingAfterDueDate}. The ids of a page
+     * are found first, from the {@link OrderSearchIndex} or the due date index, then
+     * the summaries are read with one query that aggregates the items, without loading
+     * any entities.
+     * <p>
+     * The {@link OrderArchiveService archive} is only read when the due date filter may
+     * match archived orders, e.g. when past orders are shown. The ids of both are then
+     * merged, reading as many of each as the page ends at.
      *
-     * @return list of order summaries starting today or later
+     * @param optionalFilter optional customer filter
+     * @param optionalFilterDate optional due date filter
+     * @param pageable the paging information
+     * @return a page of matching order summaries
      */
-    @Transactional
-    public List<OrderSummary> findAnyMatchingStartingToday() {
-        return orderRepository.findByDueDateGreaterThanEqual(LocalDate.now());
+    @Transactional(readOnly = true)
+    public Page<OrderBrief> findBriefsAfterDueDate(Optional<String> optionalFilter,
+            Optional<LocalDate> optionalFilterDate, Pageable pageable) {
+        if (optionalFilter.isPresent() && !optionalFilter.get().isEmpty()) {
+            if (searchIndex.isReady() && OrderSearchIndex.SORT.equals(pageable.getSort())) {
+                LocalDate dueAfter = optionalFilterDate.orElse(null);
+                List<Long> ids = searchIndex.find(optionalFilter.get(), dueAfter, pageable.getOffset(),
+                        pageable.getPageSize());
+                return new PageImpl<>(findBriefsInOrder(ids), pageable,
+                        searchIndex.count(optionalFilter.get(), dueAfter));
+            }
+            String pattern = containingPattern(optionalFilter.get());
+            if (OrderSearchIndex.SORT.equals(pageable.getSort()) && orderArchive.includes(optionalFilterDate)) {
+                List<OrderSortKey> keys = orderArchive.findMergedSortKeys(
+                        (orders, page) -> optionalFilterDate.isPresent()
+                                ? orders.findSortKeysByCustomerFullNameLikeAndDueDateAfter(pattern,
+                                        optionalFilterDate.get(), page)
+                                : orders.findSortKeysByCustomerFullNameLike(pattern, page),
+                        counting(optionalFilter, optionalFilterDate), pageable.getOffset(), pageable.getPageSize());
+                return new PageImpl<>(findBriefsInOrder(idsOf(keys)), pageable,
+                        countAnyMatchingAfterDueDate(optionalFilter, optionalFilterDate));
+            }
+            Page<Long> ids = optionalFilterDate.isPresent()
+                    ? orderRepository.findIdsByCustomerFullNameLikeAndDueDateAfter(pattern, optionalFilterDate.get(),
+                            pageable)
+                    : orderRepository.findIdsByCustomerFullNameLike(pattern, pageable);
+            return new PageImpl<>(findBriefsInOrder(ids.getContent()), pageable, ids.getTotalElements());
+        }
+        if (OrderSearchIndex.SORT.equals(pageable.getSort())
+                && pageable.getOffset() + pageable.getPageSize() <= firstOrdersSize) {
+            FirstOrders first = getFirstOrders(optionalFilterDate);
+            int from = (int) Math.min(pageable.getOffset(), first.orders.size());
+            int to = Math.min(from + pageable.getPageSize(), first.orders.size());
+            return new PageImpl<>(first.orders.subList(from, to), pageable, first.count);
+        }
+        if (OrderSearchIndex.SORT.equals(pageable.getSort()) && orderArchive.includes(optionalFilterDate)) {
+            List<OrderSortKey> keys = orderArchive.findMergedSortKeys(
+                    (orders, page) -> optionalFilterDate.isPresent()
+                            ? orders.findSortKeysByDueDateAfter(optionalFilterDate.get(), page)
+                            : orders.findSortKeys(page),
+                    counting(optionalFilter, optionalFilterDate), pageable.getOffset(), pageable.getPageSize());
+            return new PageImpl<>(findBriefsInOrder(idsOf(keys)), pageable,
+                    countAnyMatchingAfterDueDate(optionalFilter, optionalFilterDate));
+        }
+        Page<Long> ids = optionalFilterDate.isPresent()
+                ? orderRepository.findIdsByDueDateAfter(optionalFilterDate.get(), pageable)
+                : orderRepository.findIds(pageable);
+        return new PageImpl<>(findBriefsInOrder(ids.getContent()), pageable, ids.getTotalElements());
+    }
+
+    /**
+     * Finds summaries of the orders that follow an order in the order of
+     * {@code dueDate, dueTime, id}. The ids are sought from the first row after the given
+     * order with the {@link Order#INDEX_DUE_DATE_TIME_ID} index, so fetching a page deep
+     * in the list costs the same as fetching the first one. A due date filter does not
+     * need to be repeated, as all the following orders are due on or after the given one.
+     * The archive is only read when it holds orders due on or after the given one.
+     *
+     * @param optionalFilter an optional customer filter, see {@link #findAnyMatchingAfterDueDate}
+     * @param optionalFilterDate the due date filter of the previous page, for serving the
+     *            orders from the cached first orders
+     * @param last the last order of the previous page
+     * @param limit the maximum number of orders to return
+     * @return the following order summaries
+     */
+    @Transactional(readOnly = true)
+    public List<OrderBrief> findBriefsAfter(Optional<String> optionalFilter, Optional<LocalDate> optionalFilterDate,
+            OrderBrief last, int limit) {
+        Pageable pageable = PageRequest.of(0, limit);
+        boolean archived = orderArchive.includes(Optional.of(last.getDueDate().minusDays(1)));
+        if (optionalFilter.isPresent() && !optionalFilter.get().isEmpty()) {
+            if (searchIndex.isReady()) {
+                return findBriefsInOrder(searchIndex.findAfter(optionalFilter.get(), last, limit));
+            }
+            String pattern = containingPattern(optionalFilter.get());
+            if (archived) {
+                return findBriefsInOrder(idsOf(orderArchive.findMergedSortKeys((orders, page) -> orders
+                        .findSortKeysByCustomerFullNameLikeAfter(last.getDueDate(), last.getDueTime(), last.getId(),
+                                pattern, page),
+                        limit)));
+            }
+            return findBriefsInOrder(orderRepository.findIdPageByCustomerFullNameLikeAfter(last.getDueDate(),
+                    last.getDueTime(), last.getId(), pattern, pageable));
+        }
+        List<OrderBrief> cached = getFirstOrders(optionalFilterDate).after(last, limit);
+        if (cached != null) {
+            return cached;
+        }
+        if (archived) {
+            return findBriefsInOrder(idsOf(orderArchive.findMergedSortKeys((orders, page) -> orders
+                    .findSortKeysAfter(last.getDueDate(), last.getDueTime(), last.getId(), page), limit)));
+        }
+        return findBriefsInOrder(
+                orderRepository.findIdPageAfter(last.getDueDate(), last.getDueTime(), last.getId(), pageable));
+    }
+
+    /**
+     * Reads summaries of orders by id, in the order of the ids. The ids not found in the
+     * order tables are read from the archive, if anything has been archived.
+     *
+     * @param ids the order ids
+     * @return the order summaries
+     */
+    private List<OrderBrief> findBriefsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return inOrder(ids, orderArchive.findBriefsByIdIn(ids), OrderBrief::getId);
+    }
+
+    private static List<Long> idsOf(List<OrderSortKey> keys) {
+        return keys.stream().map(OrderSortKey::getId).collect(Collectors.toList());
     }
 
     /**
-     * Counts orders matching the optional customer name and/or due date filters.
+     * Finds the first order matching the optional customer and/or due date filters, see
+     * {@link #findAnyMatchingAfterDueDate}, in the order of {@code dueDate, dueTime, id}.
+     * Only the id and due date are read, so without a customer filter the query is
+     * answered from the {@link Order#INDEX_DUE_DATE_TIME_ID} index.
      *
-     * @param optionalFilter optional customer full name filter
+     * @param optionalFilter optional customer filter
      * @param optionalFilterDate optional due date filter
-     * @return the count of matching orders
+     * @return the id and due date of the first matching order, if any
      */
-    public long countAnyMatchingAfterDueDate(Optional<String> optionalFilter, Optional<LocalDate> optionalFilterDate) {
-        if (optionalFilter.isPresent() && optionalFilterDate.isPresent()) {
-            return orderRepository.countByCustomerFullNameContainingIgnoreCaseAndDueDateAfter(optionalFilter.get(),
-                    optionalFilterDate.get());
-        } else if (optionalFilter.isPresent()) {
-            return orderRepository.countByCustomerFullNameContainingIgnoreCase(optionalFilter.get());
-        } else if (optionalFilterDate.isPresent()) {
-            return orderRepository.countByDueDateAfter(optionalFilterDate.get());
+    @Transactional(readOnly = true)
+    public Optional<OrderDueDate> findFirstMatchingAfterDueDate(Optional<String> optionalFilter,
+            Optional<LocalDate> optionalFilterDate) {
+        Pageable first = PageRequest.of(0, 1);
+        List<OrderDueDate> orders;
+        if (optionalFilter.isPresent() && !optionalFilter.get().isEmpty()) {
+            if (searchIndex.isReady()) {
+                return Optional.ofNullable(searchIndex.findFirst(optionalFilter.get(), optionalFilterDate.orElse(null)));
+            }
+            String pattern = containingPattern(optionalFilter.get());
+            if (orderArchive.includes(optionalFilterDate)) {
+                return orderArchive.findMergedSortKeys((repository, page) -> optionalFilterDate.isPresent()
+                        ? repository.findSortKeysByCustomerFullNameLikeAndDueDateAfter(pattern, optionalFilterDate.get(),
+                                page)
+                        : repository.findSortKeysByCustomerFullNameLike(pattern, page), 1).stream()
+                        .<OrderDueDate>map(key -> key).findFirst();
+            }
+            orders = optionalFilterDate.isPresent()
+                    ? orderRepository.findDueDatesByCustomerFullNameLikeAfter(pattern, optionalFilterDate.get(), first)
+                    : orderRepository.findDueDatesByCustomerFullNameLike(pattern, first);
+        } else if (orderArchive.includes(optionalFilterDate)) {
+            return orderArchive.findMergedSortKeys((repository, page) -> optionalFilterDate.isPresent()
+                    ? repository.findSortKeysByDueDateAfter(optionalFilterDate.get(), page)
+                    : repository.findSortKeys(page), 1).stream().<OrderDueDate>map(key -> key).findFirst();
         } else {
-            return orderRepository.count();
+            orders = optionalFilterDate.isPresent()
+                    ? orderRepository.findDueDatesAfter(optionalFilterDate.get(), first)
+                    : orderRepository.findDueDates(first);
         }
+        return orders.stream().findFirst();
+    }
+
+    /**
+     * Returns a LIKE pattern that matches like the derived ContainingIgnoreCase queries
+     * when the text is upper cased.
+     */
+    private static String containingPattern(String text) {
+        return "%" + text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + "%";
     }
 
     /**
-     * Generates delivery statistics for the dashboard.
+     * Loads orders by id with their items, in the order of the ids.
      *
-     * @return the delivery statistics for today
+     * @param ids the order ids
+     * @return the orders
      */
-    private DeliveryStats getDeliveryStats() {
-        DeliveryStats stats = new DeliveryStats();
-        LocalDate today = LocalDate.now();
-        stats.setDueToday((int) orderRepository.countByDueDate(today));
-        stats.setDueTomorrow((int) orderRepository.countByDueDate(today.plusDays(1)));
-        stats.setDeliveredToday((int) orderRepository.countByDueDateAndStateIn(today,
-                Collections.singleton(OrderState.DELIVERED)));
-        stats.setNotAvailableToday((int) orderRepository.countByDueDateAndStateIn(today, notAvailableStates));
-        stats.setNewOrders((int) orderRepository.countByState(OrderState.NEW));
-        return stats;
+    private List<Order> findAllInOrder(List<Long> ids) {
+        return ids.isEmpty() ? new ArrayList<>() : inOrder(ids, orderRepository.findByIdIn(ids), Order::getId);
+    }
+
+    /**
+     * Sorts orders read by id in the order of the ids.
+     */
+    private static <T> List<T> inOrder(List<Long> ids, List<T> found, Function<T, Long> idOf) {
+        Map<Long, T> orders = new HashMap<>();
+        found.forEach(order -> orders.put(idOf.apply(order), order));
+        List<T> sorted = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            T order = orders.get(id);
+            // Skips an order deleted after the ids were read
+            if (order != null) {
+                sorted.add(order);
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Finds the due date and time of the next order that is ready for delivery.
+     *
+     * @param now the current date and time
+     * @return the next delivery, if any
+     */
+    @Transactional(readOnly = true)
+    public Optional<OrderDueTime> findNextDelivery(LocalDateTime now) {
+        return orderRepository.findNextDue(OrderState.READY, now.toLocalDate(), now.toLocalTime(),
+                PageRequest.of(0, 1)).stream().findFirst();
     }
 
     /**
-     * Generates dashboard data for the specified month and year.
+     * Finds the earliest due time of the orders due on the given day.
+     *
+     * @param dueDate the day
+     * @return the first due time, if there are orders for the day
+     */
+    @Transactional(readOnly = true)
+    public Optional<LocalTime> findFirstDueTime(LocalDate dueDate) {
+        return Optional.ofNullable(orderRepository.findFirstDueTime(dueDate));
+    }
+
+    /**
+     * Finds when the most recent order that is still new was placed.
+     *
+     * @return the time the order was placed, if there are new orders
+     */
+    @Transactional(readOnly = true)
+    public Optional<LocalDateTime> findLastNewOrderPlaced() {
+        return Optional.ofNullable(orderRepository.findLastPlaced(OrderState.NEW));
+    }
+
+    /**
+     * Counts orders matching the optional customer and/or due date filters, see
+     * {@link #findBriefsAfterDueDate}, including the archived ones.
+     *
+     * @param optionalFilter optional customer filter
+     * @param optionalFilterDate optional due date filter
+     * @return the count of matching orders
+     */
+    @Transactional(readOnly = true)
+    public long countAnyMatchingAfterDueDate(Optional<String> optionalFilter, Optional<LocalDate> optionalFilterDate) {
+        if (!optionalFilter.isPresent() || optionalFilter.get().isEmpty()) {
+            return getFirstOrders(optionalFilterDate).count;
+        } else if (searchIndex.isReady()) {
+            return searchIndex.count(optionalFilter.get(), optionalFilterDate.orElse(null));
+        }
+        ToLongFunction<OrderListQueries> count = counting(optionalFilter, optionalFilterDate);
+        return count.applyAsLong(orderRepository)
+                + (orderArchive.includes(optionalFilterDate) ? count.applyAsLong(archivedOrderRepository) : 0);
+    }
+
+    /**
+     * Returns a count of the orders matching the optional customer name and due date
+     * filters, for running on the order tables or the archive.
+     */
+    private static ToLongFunction<OrderListQueries> counting(Optional<String> optionalFilter,
+            Optional<LocalDate> optionalFilterDate) {
+        if (optionalFilter.isPresent() && !optionalFilter.get().isEmpty()) {
+            return orders -> optionalFilterDate.isPresent()
+                    ? orders.countByCustomerFullNameContainingIgnoreCaseAndDueDateAfter(optionalFilter.get(),
+                            optionalFilterDate.get())
+                    : orders.countByCustomerFullNameContainingIgnoreCase(optionalFilter.get());
+        }
+        return orders -> optionalFilterDate.isPresent() ? orders.countByDueDateAfter(optionalFilterDate.get())
+                : orders.count();
+    }
+
+    /**
+     * Returns the dashboard data for the specified month and year.
      * Includes delivery statistics, deliveries per day/month/year, sales, and product deliveries.
+     * The sections can also be read separately, e.g. for loading them in parallel.
      *
      * @param month the month (1-based)
      * @param year the year
@@ -189,57 +739,256 @@ public class OrderService implements CrudService<Order> {
         data.setDeliveryStats(getDeliveryStats());
         data.setDeliveriesThisMonth(getDeliveriesPerDay(month, year));
         data.setDeliveriesThisYear(getDeliveriesPerMonth(year));
+        data.setSalesPerMonth(getSalesPerMonth(month, year));
+        data.setProductDeliveries(getProductDeliveries(month, year));
+        return data;
+    }
 
-        Number[][] salesPerMonth = new Number[3][12];
-        data.setSalesPerMonth(salesPerMonth);
-        List<Object[]> sales = orderRepository.sumPerMonthLastThreeYears(OrderState.DELIVERED, year);
+    /**
+     * Returns the delivery statistics of today.
+     * Like all dashboard sections, the data is shared by all users and refreshed in the background once it gets
+     * older than {@code bakery.dashboard.cache.time-to-live} or when an order write changes it. It must not be
+     * modified.
+     *
+     * @return the delivery statistics
+     */
+    public DeliveryStats getDeliveryStats() {
+        LocalDate today = LocalDate.now();
+        deliveryStatsCache.remove(today::isAfter);
+        return deliveryStatsCache.get(today);
+    }
 
-        for (Object[] salesData : sales) {
-            // year, month, deliveries
-            int y = year - (int) salesData[0];
-            int m = (int) salesData[1] - 1;
-            if (y == 0 && m == month - 1) {
-                // skip current month as it contains incomplete data
-                continue;
+    /**
+     * Returns the number of deliveries per day for a given month and year.
+     * Missing days are filled with null.
+     *
+     * @param month the month (1-based)
+     * @param year the year
+     * @return a list of deliveries per day
+     */
+    public List<Number> getDeliveriesPerDay(int month, int year) {
+        return deliveriesPerDayCache.get(YearMonth.of(year, month));
+    }
+
+    /**
+     * Returns the number of deliveries per month for a given year.
+     * Missing months are filled with null.
+     *
+     * @param year the year
+     * @return a list of deliveries per month
+     */
+    public List<Number> getDeliveriesPerMonth(int year) {
+        return deliveriesPerMonthCache.get(year);
+    }
+
+    /**
+     * Returns the sales per month of the given year and the two previous years, the given year first.
+     * The given month is left out as it contains incomplete data.
+     *
+     * @param month the month (1-based)
+     * @param year the year
+     * @return the sales per month, by years before the given year
+     */
+    public Number[][] getSalesPerMonth(int month, int year) {
+        return salesPerMonthCache.get(YearMonth.of(year, month));
+    }
+
+    /**
+     * Returns the delivered quantity of each product in a given month.
+     *
+     * @param month the month (1-based)
+     * @param year the year
+     * @return the delivered quantities, ordered by product
+     */
+    public LinkedHashMap<Product, Integer> getProductDeliveries(int month, int year) {
+        LocalDate monthStart = LocalDate.of(year, month, 1);
+        return getProductDeliveries(monthStart, monthStart.plusMonths(1));
+    }
+
+    /**
+     * Returns the delivered quantity of each product in a date range. The
+     * quantities are read from the prefix sums of the {@link DeliveredItemStore},
+     * so the cost does not depend on the length of the range and no cache is
+     * needed.
+     *
+     * @param from the first due date, inclusive
+     * @param to the last due date, exclusive
+     * @return the delivered quantities, ordered by product
+     */
+    public LinkedHashMap<Product, Integer> getProductDeliveries(LocalDate from, LocalDate to) {
+        Map<Long, Long> quantities = deliveredItemStore.sumQuantityPerProduct(from, to);
+        LinkedHashMap<Product, Integer> productDeliveries = new LinkedHashMap<>();
+        if (quantities.isEmpty()) {
+            return productDeliveries;
+        }
+        List<Product> products = productRepository.findAllById(quantities.keySet());
+        products.sort(Comparator.comparing(Product::getId));
+        for (Product product : products) {
+            productDeliveries.put(product, quantities.get(product.getId()).intValue());
+        }
+        return productDeliveries;
+    }
+
+    /**
+     * Reloads the dashboard sections of the current month that the given changes affect, for sending them to the
+     * open dashboards. The counters are reloaded for any change. The reloaded sections replace the cached ones,
+     * so a dashboard opened later shows the same data.
+     *
+     * @param changes the merged changes of committed order writes
+     * @param today the current day
+     * @return the reloaded sections
+     */
+    public DashboardUpdate loadDashboardUpdate(DeliveryRollupService.Figures changes, LocalDate today) {
+        YearMonth month = YearMonth.from(today);
+        DashboardUpdate update = new DashboardUpdate(month);
+        Set<YearMonth> deliveredMonths = new HashSet<>();
+        changes.forEach((dueDate, state, productId, pickupLocationId, orders, quantity, sales) -> {
+            if (state == OrderState.DELIVERED) {
+                deliveredMonths.add(YearMonth.from(dueDate));
+                if (productId != null) {
+                    update.addProductDeliveryDate(dueDate);
+                }
             }
-            long count = (long) salesData[2];
-            salesPerMonth[y][m] = count;
+        });
+
+        update.setDeliveryStats(deliveryStatsCache.reload(today));
+        update.setNextDelivery(findNextDelivery(LocalDateTime.now()));
+        update.setLastNewOrderPlaced(findLastNewOrderPlaced());
+        update.setFirstDueTimeTomorrow(findFirstDueTime(today.plusDays(1)));
+        if (deliveredMonths.contains(month)) {
+            update.setDeliveriesThisMonth(deliveriesPerDayCache.reload(month));
         }
+        if (deliveredMonths.stream().anyMatch(changed -> changed.getYear() == month.getYear())) {
+            update.setDeliveriesThisYear(deliveriesPerMonthCache.reload(month.getYear()));
+        }
+        // The sales chart covers the two previous years as well
+        if (deliveredMonths.stream().anyMatch(changed -> changed.getYear() <= month.getYear()
+                && changed.getYear() >= month.getYear() - 2)) {
+            update.setSalesPerMonth(salesPerMonthCache.reload(month));
+        }
+        return update;
+    }
 
-        LinkedHashMap<Product, Integer> productDeliveries = new LinkedHashMap<>();
-        data.setProductDeliveries(productDeliveries);
-        for (Object[] result : orderRepository.countPerProduct(OrderState.DELIVERED, year, month)) {
-            int sum = ((Long) result[0]).intValue();
-            Product p = (Product) result[1];
-            productDeliveries.put(p, sum);
+    /**
+     * Returns the cached first storefront orders without a customer filter. The storefront filters on the due
+     * dates after yesterday, so the keys of earlier days are dropped instead of being kept forever.
+     *
+     * @param optionalFilterDate optional due date filter
+     * @return the first orders
+     */
+    private FirstOrders getFirstOrders(Optional<LocalDate> optionalFilterDate) {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        firstOrdersCache.remove(key -> key.isPresent() && key.get().isBefore(yesterday));
+        return firstOrdersCache.get(optionalFilterDate);
+    }
+
+    /**
+     * Reads the first storefront orders without a customer filter, and counts all of them.
+     *
+     * @param optionalFilterDate optional due date filter
+     * @return the first orders
+     */
+    private FirstOrders loadFirstOrders(Optional<LocalDate> optionalFilterDate) {
+        if (orderArchive.includes(optionalFilterDate)) {
+            List<OrderSortKey> keys = orderArchive.findMergedSortKeys((orders, page) -> optionalFilterDate.isPresent()
+                    ? orders.findSortKeysByDueDateAfter(optionalFilterDate.get(), page)
+                    : orders.findSortKeys(page), firstOrdersSize);
+            ToLongFunction<OrderListQueries> count = counting(Optional.empty(), optionalFilterDate);
+            return new FirstOrders(Collections.unmodifiableList(findBriefsInOrder(idsOf(keys))),
+                    count.applyAsLong(orderRepository) + count.applyAsLong(archivedOrderRepository));
         }
+        Pageable pageable = PageRequest.of(0, firstOrdersSize, OrderSearchIndex.SORT);
+        Page<Long> ids = optionalFilterDate.isPresent()
+                ? orderRepository.findIdsByDueDateAfter(optionalFilterDate.get(), pageable)
+                : orderRepository.findIds(pageable);
+        return new FirstOrders(Collections.unmodifiableList(findBriefsInOrder(ids.getContent())),
+                ids.getTotalElements());
+    }
 
-        return data;
+    /**
+     * Returns the cache of the first storefront orders, e.g. for reading its statistics.
+     *
+     * @return the cache
+     */
+    public RefreshingCache<?, ?> getFirstOrdersCache() {
+        return firstOrdersCache;
     }
 
     /**
-     * Computes the number of deliveries per day for a given month and year.
-     * Missing days are filled with null.
+     * Returns the caches of the dashboard sections, e.g. for reading their statistics.
      *
-     * @param month the month (1-based)
-     * @param year the year
+     * @return the caches by section name
+     */
+    public Map<String, RefreshingCache<?, ?>> getDashboardCaches() {
+        Map<String, RefreshingCache<?, ?>> caches = new LinkedHashMap<>();
+        caches.put("deliveryStats", deliveryStatsCache);
+        caches.put("deliveriesPerDay", deliveriesPerDayCache);
+        caches.put("deliveriesPerMonth", deliveriesPerMonthCache);
+        caches.put("salesPerMonth", salesPerMonthCache);
+        return caches;
+    }
+
+    /**
+     * Generates delivery statistics for the dashboard with a single aggregate query.
+     *
+     * @param today the day to generate the statistics for
+     * @return the delivery statistics for the day
+     */
+    private DeliveryStats loadDeliveryStats(LocalDate today) {
+        return orderRepository.getDeliveryStats(today, today.plusDays(1), OrderState.DELIVERED, notAvailableStates,
+                OrderState.NEW);
+    }
+
+    /**
+     * Computes the number of deliveries per day for a given month from the
+     * {@link DeliveryRollupService delivery rollup}.
+     *
+     * @param yearMonth the month
      * @return a list of deliveries per day
      */
-    private List<Number> getDeliveriesPerDay(int month, int year) {
-        int daysInMonth = YearMonth.of(year, month).lengthOfMonth();
-        return flattenAndReplaceMissingWithNull(daysInMonth,
-                orderRepository.countPerDay(OrderState.DELIVERED, year, month));
+    private List<Number> loadDeliveriesPerDay(YearMonth yearMonth) {
+        return flattenAndReplaceMissingWithNull(yearMonth.lengthOfMonth(), rollupRepository
+                .countPerDay(OrderState.DELIVERED, yearMonth.atDay(1), yearMonth.plusMonths(1).atDay(1)));
     }
 
     /**
-     * Computes the number of deliveries per month for a given year.
-     * Missing months are filled with null.
+     * Computes the number of deliveries per month for a given year from the
+     * {@link DeliveryRollupService delivery rollup}.
      *
      * @param year the year
      * @return a list of deliveries per month
      */
-    private List<Number> getDeliveriesPerMonth(int year) {
-        return flattenAndReplaceMissingWithNull(12, orderRepository.countPerMonth(OrderState.DELIVERED, year));
+    private List<Number> loadDeliveriesPerMonth(int year) {
+        return flattenAndReplaceMissingWithNull(12, rollupRepository.countPerMonth(OrderState.DELIVERED,
+                LocalDate.of(year, 1, 1), LocalDate.of(year + 1, 1, 1)));
+    }
+
+    /**
+     * Computes the sales per month of a year and the two previous years from the
+     * {@link DeliveryRollupService delivery rollup}.
+     *
+     * @param yearMonth the month to leave out
+     * @return the sales per month, by years before the given year
+     */
+    private Number[][] loadSalesPerMonth(YearMonth yearMonth) {
+        int month = yearMonth.getMonthValue();
+        int year = yearMonth.getYear();
+        Number[][] salesPerMonth = new Number[3][12];
+        List<Object[]> sales = rollupRepository.sumPerMonth(OrderState.DELIVERED, LocalDate.of(year - 2, 1, 1),
+                LocalDate.of(year + 1, 1, 1));
+
+        for (Object[] salesData : sales) {
+            // year, month, deliveries
+            int y = year - (int) salesData[0];
+            int m = (int) salesData[1] - 1;
+            if (y == 0 && m == month - 1) {
+                // skip current month as it contains incomplete data
+                continue;
+            }
+            long count = (long) salesData[2];
+            salesPerMonth[y][m] = count;
+        }
+        return salesPerMonth;
     }
 
     /**
@@ -287,4 +1036,33 @@ public class OrderService implements CrudService<Order> {
         return order;
     }
 
+    /**
+     * The first orders in the order of {@code dueDate, dueTime, id}, and the number of
+     * all the orders.
+     */
+    private static class FirstOrders {
+        private final List<OrderBrief> orders;
+        private final long count;
+
+        FirstOrders(List<OrderBrief> orders, long count) {
+            this.orders = orders;
+            this.count = count;
+        }
+
+        /**
+         * Returns the orders following an order, or null if they are not all kept.
+         */
+        List<OrderBrief> after(OrderBrief last, int limit) {
+            for (int i = 0; i < orders.size(); i++) {
+                if (orders.get(i).getId().equals(last.getId())) {
+                    int to = i + 1 + limit;
+                    if (to > orders.size() && orders.size() < count) {
+                        return null;
+                    }
+                    return orders.subList(i + 1, Math.min(to, orders.size()));
+                }
+            }
+            return null;
+        }
+    }
 }
@@ -50,7 +50,7 @@ public class PickupLocationService implements FilterableCrudService<PickupLocati
             String repositoryFilter = "%" + filter.get() + "%";
             return pickupLocationRepository.findByNameLikeIgnoreCase(repositoryFilter, pageable);
         } else {
-            return pickupLocationRepository.findAll(pageable);
+            return pickupLocationRepository.findBy(pageable);
         }
     }
 
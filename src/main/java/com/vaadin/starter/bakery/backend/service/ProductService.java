@@ -17,10 +17,15 @@ import com.vaadin.starter.bakery.backend.repositories.ProductRepository;
 public class ProductService implements FilterableCrudService<Product> {
 
 	private final ProductRepository productRepository;
+	private final DeliveryRollupService rollupService;
+	private final DeliveredItemStore deliveredItemStore;
 
 	@Autowired
-	public ProductService(ProductRepository productRepository) {
+	public ProductService(ProductRepository productRepository, DeliveryRollupService rollupService,
+			DeliveredItemStore deliveredItemStore) {
 		this.productRepository = productRepository;
+		this.rollupService = rollupService;
+		this.deliveredItemStore = deliveredItemStore;
 	}
 
 	@Override
@@ -60,7 +65,10 @@ public class ProductService implements FilterableCrudService<Product> {
 	@Override
 	public Product save(User currentUser, Product entity) {
 		try {
-			return FilterableCrudService.super.save(currentUser, entity);
+			Product product = FilterableCrudService.super.save(currentUser, entity);
+			rollupService.updatePrice(product);
+			deliveredItemStore.updatePrice(product);
+			return product;
 		} catch (DataIntegrityViolationException e) {
 			throw new UserFriendlyDataException(
 					"There is already a product with that name. Please select a unique name for the product.");
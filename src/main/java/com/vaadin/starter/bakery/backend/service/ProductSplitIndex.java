@@ -0,0 +1,106 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cumulative delivered quantities of each product by epoch day, so the
+ * quantity of a product in any date range is the difference of two array
+ * elements.
+ * <p>
+ * Changes are first added to the daily quantities and the cumulative sums are
+ * recalculated from the earliest changed day on {@link #commit()}, so loading
+ * many lines costs one pass per product. Not thread safe, the owner must
+ * synchronize access.
+ */
+class ProductSplitIndex {
+
+	/** Extra days allocated when the index has to grow, to avoid growing on every new day. */
+	private static final int GROWTH_DAYS = 366;
+
+	private final Map<Integer, Series> products = new HashMap<>();
+
+	void clear() {
+		products.clear();
+	}
+
+	void add(int epochDay, int productId, int quantity) {
+		products.computeIfAbsent(productId, id -> new Series(epochDay)).add(epochDay, quantity);
+	}
+
+	/**
+	 * Brings the cumulative sums up to date with the added quantities.
+	 */
+	void commit() {
+		products.values().forEach(Series::commit);
+	}
+
+	/**
+	 * @param fromDay
+	 *            the first epoch day, inclusive
+	 * @param toDay
+	 *            the last epoch day, exclusive
+	 * @return the quantity of each product in the range, without products that
+	 *         sum to zero
+	 */
+	Map<Integer, Long> sum(int fromDay, int toDay) {
+		Map<Integer, Long> sums = new HashMap<>();
+		products.forEach((productId, series) -> {
+			long sum = series.sum(fromDay, toDay);
+			if (sum != 0) {
+				sums.put(productId, sum);
+			}
+		});
+		return sums;
+	}
+
+	private static class Series {
+		private int firstDay;
+		private long[] daily;
+		// cumulative[i] is the quantity of the days before firstDay + i
+		private long[] cumulative;
+		private int dirtyFrom = Integer.MAX_VALUE;
+
+		Series(int epochDay) {
+			firstDay = epochDay;
+			daily = new long[GROWTH_DAYS];
+			cumulative = new long[GROWTH_DAYS + 1];
+		}
+
+		void add(int epochDay, int quantity) {
+			if (epochDay < firstDay) {
+				int shift = firstDay - epochDay + GROWTH_DAYS;
+				long[] grown = new long[daily.length + shift];
+				System.arraycopy(daily, 0, grown, shift, daily.length);
+				daily = grown;
+				cumulative = new long[daily.length + 1];
+				firstDay -= shift;
+				dirtyFrom = 0;
+			} else if (epochDay - firstDay >= daily.length) {
+				long[] grown = new long[epochDay - firstDay + GROWTH_DAYS];
+				System.arraycopy(daily, 0, grown, 0, daily.length);
+				long[] grownCumulative = new long[grown.length + 1];
+				System.arraycopy(cumulative, 0, grownCumulative, 0, cumulative.length);
+				dirtyFrom = Math.min(dirtyFrom, daily.length);
+				daily = grown;
+				cumulative = grownCumulative;
+			}
+			int index = epochDay - firstDay;
+			daily[index] += quantity;
+			dirtyFrom = Math.min(dirtyFrom, index);
+		}
+
+		void commit() {
+			for (int i = dirtyFrom; i < daily.length; i++) {
+				cumulative[i + 1] = cumulative[i] + daily[i];
+			}
+			dirtyFrom = Integer.MAX_VALUE;
+		}
+
+		long sum(int fromDay, int toDay) {
+			int from = Math.max(0, Math.min(fromDay - firstDay, daily.length));
+			int to = Math.max(0, Math.min(toDay - firstDay, daily.length));
+			return to > from ? cumulative[to] - cumulative[from] : 0;
+		}
+	}
+}
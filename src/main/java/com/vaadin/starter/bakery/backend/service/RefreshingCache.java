@@ -0,0 +1,393 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+import com.vaadin.starter.bakery.app.HasLogger;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * An application wide cache that serves stale values while they are being
+ * reloaded in the background.
+ * <p>
+ * A missing value is loaded on the calling thread, outside of the map, so the
+ * loader may read other keys of the cache. Concurrent misses for the same key
+ * wait for a single load. A value older than the
+ * time to live, or one that has been {@link #invalidate(Predicate)
+ * invalidated}, is still returned, but a single refresh is started on the
+ * executor. Values must not be modified after they have been loaded.
+ * <p>
+ * A value loaded while its key is {@link #remove(Predicate) removed} may
+ * predate the change the removal is for, so it is returned to the caller that
+ * loaded it but not kept.
+ * <p>
+ * When a load would exceed the maximum size, the least recently read entries
+ * are evicted. The counters can be published with
+ * {@link #bindTo(MeterRegistry, String)}.
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public class RefreshingCache<K, V> implements HasLogger {
+
+	/** The counter of the reads, tagged by cache and result */
+	public static final String GETS = "bakery.cache.gets";
+
+	/** The timer of the loads, tagged by cache */
+	public static final String LOADS = "bakery.cache.loads";
+
+	/** The counter of the evicted entries, tagged by cache */
+	public static final String EVICTIONS = "bakery.cache.evictions";
+
+	/** The gauge of the number of entries, tagged by cache */
+	public static final String SIZE = "bakery.cache.size";
+
+	private final Map<K, Entry<V>> entries = new ConcurrentHashMap<>();
+	/** The loads of missing values in progress, which other misses wait for */
+	private final Map<K, PendingLoad<V>> pendingLoads = new ConcurrentHashMap<>();
+	/** The loads in progress, each with a flag set when its key is removed */
+	private final Map<AtomicBoolean, K> loading = new ConcurrentHashMap<>();
+	private final Function<K, V> loader;
+	private final long timeToLiveNanos;
+	private final int maximumSize;
+	private final Executor executor;
+	private final LongSupplier clock;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder staleHits = new LongAdder();
+	private final LongAdder loads = new LongAdder();
+	private final LongAdder loadNanos = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public RefreshingCache(Function<K, V> loader, Duration timeToLive, int maximumSize, Executor executor) {
+		this(loader, timeToLive, maximumSize, executor, System::nanoTime);
+	}
+
+	RefreshingCache(Function<K, V> loader, Duration timeToLive, int maximumSize, Executor executor,
+			LongSupplier clock) {
+		this.loader = loader;
+		this.timeToLiveNanos = timeToLive.toNanos();
+		this.maximumSize = maximumSize;
+		this.executor = executor;
+		this.clock = clock;
+	}
+
+	public V get(K key) {
+		Entry<V> entry = entries.get(key);
+		if (entry == null) {
+			misses.increment();
+			return loadMissing(key);
+		}
+
+		long now = clock.getAsLong();
+		entry.readAt = now;
+		if (entry.invalidations.get() != 0 || now - entry.loadedAt > timeToLiveNanos) {
+			staleHits.increment();
+			refresh(key, entry);
+		} else {
+			hits.increment();
+		}
+		return entry.value;
+	}
+
+	private V loadMissing(K key) {
+		PendingLoad<V> pendingLoad = new PendingLoad<>();
+		PendingLoad<V> other = pendingLoads.putIfAbsent(key, pendingLoad);
+		if (other != null) {
+			return other.await(key);
+		}
+		AtomicBoolean removed = new AtomicBoolean();
+		loading.put(removed, key);
+		Entry<V> entry;
+		try {
+			// Stored by a load that completed since this one missed
+			entry = entries.get(key);
+			if (entry == null) {
+				entry = new Entry<>(load(key), clock.getAsLong());
+				entries.put(key, entry);
+			}
+			pendingLoad.complete(entry);
+		} catch (RuntimeException | Error e) {
+			pendingLoad.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(removed);
+			pendingLoads.remove(key, pendingLoad);
+		}
+		if (removed.get()) {
+			entries.remove(key, entry);
+		} else {
+			evictIfFull();
+		}
+		return entry.value;
+	}
+
+	/**
+	 * Marks the matching entries as stale and starts reloading them.
+	 *
+	 * @param keys
+	 *            selects the keys to invalidate
+	 */
+	public void invalidate(Predicate<K> keys) {
+		entries.forEach((key, entry) -> {
+			if (keys.test(key)) {
+				entry.invalidations.incrementAndGet();
+				refresh(key, entry);
+			}
+		});
+	}
+
+	/**
+	 * Drops the matching entries without reloading them. Values of the matching
+	 * keys that are being loaded are not kept either.
+	 *
+	 * @param keys
+	 *            selects the keys to remove
+	 */
+	public void remove(Predicate<K> keys) {
+		// Flagged first, so a load either sees the flag or stores before the entries are removed
+		loading.forEach((removed, key) -> {
+			if (keys.test(key)) {
+				removed.set(true);
+			}
+		});
+		entries.keySet().removeIf(keys);
+	}
+
+	/**
+	 * Loads a value on the calling thread and replaces the cached one with it,
+	 * e.g. for sending the current value elsewhere as well.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the loaded value
+	 */
+	public V reload(K key) {
+		Entry<V> entry = entries.get(key);
+		int invalidations = entry == null ? 0 : entry.invalidations.get();
+		AtomicBoolean removed = new AtomicBoolean();
+		loading.put(removed, key);
+		Entry<V> reloaded;
+		try {
+			reloaded = new Entry<>(load(key), clock.getAsLong());
+			if (entry != null && entry.invalidations.get() != invalidations) {
+				// Invalidated while loading, the value may predate the change
+				reloaded.invalidations.set(1);
+			}
+			entries.put(key, reloaded);
+		} finally {
+			loading.remove(removed);
+		}
+		if (removed.get()) {
+			entries.remove(key, reloaded);
+		} else {
+			evictIfFull();
+		}
+		return reloaded.value;
+	}
+
+	/**
+	 * Evicts the least recently read entries until the cache holds at most the
+	 * maximum number of entries.
+	 */
+	private void evictIfFull() {
+		while (entries.size() > maximumSize) {
+			// The caches hold few entries, so they are searched rather than kept in read order
+			K eldestKey = null;
+			Entry<V> eldest = null;
+			for (Map.Entry<K, Entry<V>> candidate : entries.entrySet()) {
+				if (eldest == null || candidate.getValue().readAt < eldest.readAt) {
+					eldestKey = candidate.getKey();
+					eldest = candidate.getValue();
+				}
+			}
+			if (eldest == null) {
+				return;
+			}
+			if (entries.remove(eldestKey, eldest)) {
+				evictions.increment();
+			}
+		}
+	}
+
+	private void refresh(K key, Entry<V> entry) {
+		if (!entry.refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			executor.execute(() -> {
+				try {
+					int invalidations = entry.invalidations.get();
+					Entry<V> reloaded = new Entry<>(load(key), clock.getAsLong());
+					// A refresh started by an invalidation is not a read
+					reloaded.readAt = entry.readAt;
+					if (entry.invalidations.get() != invalidations) {
+						// Invalidated while loading, the value may predate the change
+						reloaded.invalidations.set(1);
+					}
+					entries.replace(key, entry, reloaded);
+				} catch (RuntimeException e) {
+					getLogger().warn("Refreshing " + key + " failed, serving the previous value", e);
+				} finally {
+					entry.refreshing.set(false);
+				}
+			});
+		} catch (RuntimeException e) {
+			entry.refreshing.set(false);
+			throw e;
+		}
+	}
+
+	private V load(K key) {
+		long start = clock.getAsLong();
+		V value = loader.apply(key);
+		long nanos = clock.getAsLong() - start;
+		loads.increment();
+		loadNanos.add(nanos);
+		getLogger().debug("Loaded {} in {} ms", key, nanos / 1_000_000);
+		return value;
+	}
+
+	/**
+	 * @return the number of cached values
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the number of reads served from a fresh entry
+	 */
+	public long getHitCount() {
+		return hits.sum();
+	}
+
+	/**
+	 * @return the number of reads served from a stale entry while it was being
+	 *         refreshed
+	 */
+	public long getStaleHitCount() {
+		return staleHits.sum();
+	}
+
+	/**
+	 * @return the number of reads that had to load the value on the calling
+	 *         thread
+	 */
+	public long getMissCount() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of loads, both for misses and for refreshes
+	 */
+	public long getLoadCount() {
+		return loads.sum();
+	}
+
+	/**
+	 * @return the average time a load took, in milliseconds
+	 */
+	public double getAverageLoadMillis() {
+		long count = loads.sum();
+		return count == 0 ? 0 : loadNanos.sum() / 1_000_000.0 / count;
+	}
+
+	/**
+	 * @return the number of entries evicted to stay within the maximum size
+	 */
+	public long getEvictionCount() {
+		return evictions.sum();
+	}
+
+	/**
+	 * Publishes the counters of the cache as the Micrometer meters
+	 * {@value #GETS}, {@value #LOADS}, {@value #EVICTIONS} and {@value #SIZE},
+	 * tagged with the cache name.
+	 *
+	 * @param registry
+	 *            the registry to publish to
+	 * @param name
+	 *            the name of the cache
+	 */
+	public void bindTo(MeterRegistry registry, String name) {
+		FunctionCounter.builder(GETS, this, RefreshingCache::getHitCount).tag("cache", name).tag("result", "hit")
+				.description("Reads served from a fresh entry").register(registry);
+		FunctionCounter.builder(GETS, this, RefreshingCache::getStaleHitCount).tag("cache", name)
+				.tag("result", "stale").description("Reads served from a stale entry while it was being refreshed")
+				.register(registry);
+		FunctionCounter.builder(GETS, this, RefreshingCache::getMissCount).tag("cache", name).tag("result", "miss")
+				.description("Reads that loaded the value on the calling thread").register(registry);
+		FunctionTimer.builder(LOADS, this, RefreshingCache::getLoadCount, cache -> cache.loadNanos.sum(),
+				TimeUnit.NANOSECONDS).tag("cache", name).description("Loads for misses and refreshes")
+				.register(registry);
+		FunctionCounter.builder(EVICTIONS, this, RefreshingCache::getEvictionCount).tag("cache", name)
+				.description("Entries evicted to stay within the maximum size").register(registry);
+		Gauge.builder(SIZE, this, RefreshingCache::size).tag("cache", name).description("Cached values")
+				.register(registry);
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + getHitCount() + ", staleHits=" + getStaleHitCount() + ", misses=" + getMissCount()
+				+ ", loads=" + getLoadCount() + ", averageLoadMillis=" + getAverageLoadMillis() + ", evictions="
+				+ getEvictionCount();
+	}
+
+	/**
+	 * A load of a missing value, which other misses of the same key wait for.
+	 */
+	private static class PendingLoad<V> extends CompletableFuture<Entry<V>> {
+		private final Thread loadingThread = Thread.currentThread();
+
+		V await(Object key) {
+			if (loadingThread == Thread.currentThread()) {
+				throw new IllegalStateException("The loader of " + key + " reads its own key");
+			}
+			try {
+				return join().value;
+			} catch (CompletionException e) {
+				// The failure of the load, thrown to every caller waiting for it
+				if (e.getCause() instanceof RuntimeException) {
+					throw (RuntimeException) e.getCause();
+				}
+				if (e.getCause() instanceof Error) {
+					throw (Error) e.getCause();
+				}
+				throw e;
+			}
+		}
+	}
+
+	private static class Entry<V> {
+		private final V value;
+		private final long loadedAt;
+		private final AtomicBoolean refreshing = new AtomicBoolean();
+		private final AtomicInteger invalidations = new AtomicInteger();
+		private volatile long readAt;
+
+		Entry(V value, long loadedAt) {
+			this.value = value;
+			this.loadedAt = loadedAt;
+			this.readAt = loadedAt;
+		}
+	}
+}
@@ -3,11 +3,15 @@ package com.vaadin.starter.bakery.ui.dataproviders;
 import java.io.Serializable;
 import java.time.LocalDate;
 import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
 import org.vaadin.artur.spring.dataprovider.FilterablePageableDataProvider;
@@ -17,16 +21,35 @@ import com.vaadin.flow.data.provider.QuerySortOrder;
 import com.vaadin.flow.data.provider.QuerySortOrderBuilder;
 import com.vaadin.flow.spring.annotation.SpringComponent;
 import com.vaadin.flow.spring.annotation.UIScope;
-import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.service.OrderSearchIndex;
 import com.vaadin.starter.bakery.backend.service.OrderService;
 import com.vaadin.starter.bakery.ui.utils.BakeryConst;
 
 /**
- * A pageable order data provider.
+ * A pageable data provider of order summaries. The summaries do not reference
+ * any entities, so the pages kept by the grid take little memory.
+ * <p>
+ * A page that directly follows the previously fetched one in the default sort
+ * order is read by seeking past the last order of that page, so scrolling deep
+ * into the list does not make the database skip all the rows before it. Other
+ * pages, e.g. after jumping to a scroll position, are read with an offset.
+ * <p>
+ * When all orders matching a filter fit on the first page, they are kept. If
+ * the next filter contains the text of that filter, e.g. because the user
+ * typed another letter, the kept orders are filtered without querying the
+ * database, unless an order has been written meanwhile. The kept orders are
+ * filtered the way they were read, by the customer name and phone number when
+ * the search index matched them, or by the customer name only when the
+ * database did before the index was built.
+ * <p>
+ * The last count is kept as well, so a count computed in the background is
+ * returned when the grid asks for the size, unless the filter has changed or
+ * an order has been written meanwhile.
  */
 @SpringComponent
 @UIScope
-public class OrdersGridDataProvider extends FilterablePageableDataProvider<Order, OrdersGridDataProvider.OrderFilter> {
+public class OrdersGridDataProvider extends FilterablePageableDataProvider<OrderBrief, OrdersGridDataProvider.OrderFilter> {
 
 	public static class OrderFilter implements Serializable {
 		private String filter;
@@ -48,12 +71,42 @@ public class OrdersGridDataProvider extends FilterablePageableDataProvider<Order
 		public static OrderFilter getEmptyFilter() {
 			return new OrderFilter("", false);
 		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (o == null || getClass() != o.getClass()) {
+				return false;
+			}
+			OrderFilter that = (OrderFilter) o;
+			return showPrevious == that.showPrevious && Objects.equals(filter, that.filter);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(filter, showPrevious);
+		}
 	}
 
+	private static final Sort KEYSET_SORT = Sort.by(BakeryConst.DEFAULT_SORT_DIRECTION,
+			BakeryConst.ORDER_SORT_FIELDS);
+
 	private final OrderService orderService;
 	private List<QuerySortOrder> defaultSortOrders;
-	private Consumer<Page<Order>> pageObserver;
-	
+
+	// The end of the last fetched page, where the next page can be sought
+	private OrderFilter lastFilter;
+	private long lastEnd = -1;
+	private OrderBrief lastOrder;
+
+	// Read by background counts as well
+	private volatile LoadedOrders loadedOrders;
+
+	// Written by background counts
+	private volatile CountedOrders countedOrders;
+
 	@Autowired
 	public OrdersGridDataProvider(OrderService orderService) {
 		this.orderService = orderService;
@@ -73,26 +126,102 @@ public class OrdersGridDataProvider extends FilterablePageableDataProvider<Order
 	}
 
 	@Override
-	protected Page<Order> fetchFromBackEnd(Query<Order, OrderFilter> query, Pageable pageable) {
+	protected Page<OrderBrief> fetchFromBackEnd(Query<OrderBrief, OrderFilter> query, Pageable pageable) {
 		OrderFilter filter = query.getFilter().orElse(OrderFilter.getEmptyFilter());
-		Page<Order> page = orderService.findAnyMatchingAfterDueDate(Optional.ofNullable(filter.getFilter()),
-				getFilterDate(filter.isShowPrevious()), pageable);
-		if (pageObserver != null) {
-			pageObserver.accept(page);
+		long writeCount = orderService.getWriteCount();
+		boolean indexed = orderService.isSearchIndexReady();
+		List<OrderBrief> refined = KEYSET_SORT.equals(pageable.getSort()) ? refine(filter) : null;
+		Page<OrderBrief> page;
+		if (refined != null) {
+			int from = (int) Math.min(pageable.getOffset(), refined.size());
+			int to = Math.min(from + pageable.getPageSize(), refined.size());
+			page = new PageImpl<>(refined.subList(from, to), pageable, refined.size());
+			loadedOrders = new LoadedOrders(filter, writeCount, indexed, refined);
+		} else if (lastOrder != null && pageable.getOffset() == lastEnd && filter.equals(lastFilter)
+				&& KEYSET_SORT.equals(pageable.getSort())) {
+			List<OrderBrief> orders = orderService.findBriefsAfter(Optional.ofNullable(filter.getFilter()),
+					getFilterDate(filter.isShowPrevious()), lastOrder, pageable.getPageSize());
+			page = new PageImpl<>(orders, pageable, pageable.getOffset() + orders.size());
+		} else {
+			page = orderService.findBriefsAfterDueDate(Optional.ofNullable(filter.getFilter()),
+					getFilterDate(filter.isShowPrevious()), pageable);
+		}
+
+		List<OrderBrief> orders = page.getContent();
+		lastFilter = filter;
+		lastEnd = pageable.getOffset() + orders.size();
+		lastOrder = orders.isEmpty() ? null : orders.get(orders.size() - 1);
+		// Not kept if the index was built while reading, as either predicate may have matched the orders
+		if (refined == null && pageable.getOffset() == 0 && orders.size() < pageable.getPageSize()
+				&& KEYSET_SORT.equals(pageable.getSort()) && indexed == orderService.isSearchIndexReady()) {
+			loadedOrders = new LoadedOrders(filter, writeCount, indexed, orders);
 		}
+
 		return page;
 	}
 
+	@Override
+	public void refreshAll() {
+		// The orders may have changed, so the next page is read with an offset
+		lastOrder = null;
+		super.refreshAll();
+	}
+
 	@Override
 	protected List<QuerySortOrder> getDefaultSortOrders() {
 		return defaultSortOrders;
 	}
 
 	@Override
-	protected int sizeInBackEnd(Query<Order, OrderFilter> query) {
+	protected int sizeInBackEnd(Query<OrderBrief, OrderFilter> query) {
 		OrderFilter filter = query.getFilter().orElse(OrderFilter.getEmptyFilter());
-		return (int) orderService
-				.countAnyMatchingAfterDueDate(Optional.ofNullable(filter.getFilter()), getFilterDate(filter.isShowPrevious()));
+		CountedOrders counted = countedOrders;
+		if (counted != null && counted.filter.equals(filter) && counted.writeCount == orderService.getWriteCount()) {
+			return counted.count;
+		}
+		return count(filter);
+	}
+
+	/**
+	 * Counts the orders matching a filter. Can be called from a background
+	 * thread. The count is kept for the next size query of the same filter.
+	 *
+	 * @param filter
+	 *            the filter
+	 * @return the number of matching orders
+	 */
+	public int count(OrderFilter filter) {
+		long writeCount = orderService.getWriteCount();
+		List<OrderBrief> refined = refine(filter);
+		int count = refined != null ? refined.size()
+				: (int) orderService.countAnyMatchingAfterDueDate(Optional.ofNullable(filter.getFilter()),
+						getFilterDate(filter.isShowPrevious()));
+		countedOrders = new CountedOrders(filter, writeCount, count);
+		return count;
+	}
+
+	/**
+	 * Returns the orders matching a filter from the kept orders of a previous
+	 * filter, or null if they have to be read from the database. The orders are
+	 * matched the same way as the kept ones were, which is also how the
+	 * database would be queried now.
+	 */
+	private List<OrderBrief> refine(OrderFilter filter) {
+		LoadedOrders loaded = loadedOrders;
+		if (loaded == null || loaded.writeCount != orderService.getWriteCount()
+				|| loaded.indexed != orderService.isSearchIndexReady()
+				|| loaded.filter.isShowPrevious() != filter.isShowPrevious()
+				|| !lowerCase(filter.getFilter()).contains(lowerCase(loaded.filter.getFilter()))) {
+			return null;
+		}
+		String text = lowerCase(filter.getFilter());
+		Predicate<OrderBrief> matches = loaded.indexed ? order -> OrderSearchIndex.matches(order, text)
+				: order -> lowerCase(order.getCustomerFullName()).contains(text);
+		return loaded.orders.stream().filter(matches).collect(Collectors.toList());
+	}
+
+	private static String lowerCase(String filter) {
+		return filter == null ? "" : filter.toLowerCase(Locale.ROOT);
 	}
 
 	private Optional<LocalDate> getFilterDate(boolean showPrevious) {
@@ -103,12 +232,41 @@ public class OrdersGridDataProvider extends FilterablePageableDataProvider<Order
 		return Optional.of(LocalDate.now().minusDays(1));
 	}
 
-	public void setPageObserver(Consumer<Page<Order>> pageObserver) {
-		this.pageObserver = pageObserver;
-	}
-
 	@Override
-	public Object getId(Order item) {
+	public Object getId(OrderBrief item) {
 		return item.getId();
 	}
+
+	/**
+	 * All orders matching a filter, in the default sort order.
+	 */
+	private static class LoadedOrders {
+		private final OrderFilter filter;
+		private final long writeCount;
+		// Whether the orders were matched by the search index or by the customer name only
+		private final boolean indexed;
+		private final List<OrderBrief> orders;
+
+		LoadedOrders(OrderFilter filter, long writeCount, boolean indexed, List<OrderBrief> orders) {
+			this.filter = filter;
+			this.writeCount = writeCount;
+			this.indexed = indexed;
+			this.orders = orders;
+		}
+	}
+
+	/**
+	 * The number of orders matching a filter.
+	 */
+	private static class CountedOrders {
+		private final OrderFilter filter;
+		private final long writeCount;
+		private final int count;
+
+		CountedOrders(OrderFilter filter, long writeCount, int count) {
+			this.filter = filter;
+			this.writeCount = writeCount;
+			this.count = count;
+		}
+	}
 }
@@ -25,6 +25,7 @@ public class DashboardCounterLabel extends LitTemplate {
 	public void setOrdersCountData(OrdersCountData data) {
 		title.setText(data.getTitle());
 		subtitle.setText(data.getSubtitle());
-		count.setText(String.valueOf(data.getCount()));
+		// No count is shown while it is loading
+		count.setText(data.getCount() == null ? "" : String.valueOf(data.getCount()));
 	}
 }
@@ -0,0 +1,148 @@
+package com.vaadin.starter.bakery.ui.views.dashboard;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.spring.annotation.SpringComponent;
+import com.vaadin.starter.bakery.app.HasLogger;
+
+/**
+ * Loads dashboard sections in parallel on a bounded thread pool shared by all
+ * users, and hands each result to the UI as soon as it is ready.
+ * <p>
+ * When all threads are busy and the queue is full, sections are loaded on the
+ * calling thread instead, so a burst of dashboard views cannot queue up an
+ * unbounded amount of work.
+ * <p>
+ * A load that fails is logged, and the UI is told so it can show that the
+ * section is not available.
+ * <p>
+ * Data newer than a pending load, e.g. reloaded after other users' writes, can
+ * be shown with {@link Section#update}. The load is then ignored when it
+ * completes, as it may predate the writes.
+ */
+@SpringComponent
+public class DashboardSectionLoader implements HasLogger {
+
+	private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+	public DashboardSectionLoader(@Value("${bakery.dashboard.loader.threads:4}") int threads,
+			@Value("${bakery.dashboard.loader.queue-capacity:50}") int queueCapacity) {
+		executor.setCorePoolSize(threads);
+		executor.setMaxPoolSize(threads);
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("dashboard-loader-");
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		executor.initialize();
+	}
+
+	@PreDestroy
+	void shutdown() {
+		executor.shutdown();
+	}
+
+	/**
+	 * Loads a section in the background.
+	 *
+	 * @param ui
+	 *            the UI to update
+	 * @param loader
+	 *            loads the section data, must not access the UI
+	 * @param onLoaded
+	 *            shows the data, called with the UI locked
+	 * @param onFailed
+	 *            shows that the section could not be loaded, called with the
+	 *            UI locked
+	 */
+	public <T> void load(UI ui, Supplier<T> loader, Consumer<T> onLoaded, Runnable onFailed) {
+		CompletableFuture.supplyAsync(loader, executor).whenComplete((data, error) -> {
+			if (error != null) {
+				getLogger().error("Loading a dashboard section failed", error);
+			}
+			try {
+				ui.access(() -> {
+					if (error == null) {
+						onLoaded.accept(data);
+					} else {
+						onFailed.run();
+					}
+				});
+			} catch (UIDetachedException e) {
+				// The user navigated away before the section was loaded
+			}
+		});
+	}
+
+	/**
+	 * Loads a section in the background and shows it, unless newer data has
+	 * been shown meanwhile.
+	 *
+	 * @param ui
+	 *            the UI to update
+	 * @param loader
+	 *            loads the section data, must not access the UI
+	 * @param show
+	 *            shows the data, called with the UI locked
+	 * @param showFailed
+	 *            shows that the section could not be loaded, called with the
+	 *            UI locked unless newer data has been shown
+	 * @param onLoaded
+	 *            called with the UI locked when the load has completed, whether
+	 *            its data was shown or not, or has failed
+	 * @return the section, for showing newer data
+	 */
+	public <T> Section<T> load(UI ui, Supplier<T> loader, Consumer<T> show, Runnable showFailed,
+			Runnable onLoaded) {
+		Section<T> section = new Section<>(show);
+		load(ui, loader, data -> {
+			section.loaded(data);
+			onLoaded.run();
+		}, () -> {
+			if (!section.updated) {
+				showFailed.run();
+			}
+			onLoaded.run();
+		});
+		return section;
+	}
+
+	/**
+	 * A dashboard section shown from a background load, or from newer data
+	 * that arrived first. Must only be used with the UI locked.
+	 */
+	public static class Section<T> {
+		private final Consumer<T> show;
+		private boolean updated;
+
+		Section(Consumer<T> show) {
+			this.show = show;
+		}
+
+		private void loaded(T data) {
+			if (!updated) {
+				show.accept(data);
+			}
+		}
+
+		/**
+		 * Shows data newer than the pending load, which is not shown when it
+		 * completes.
+		 *
+		 * @param data
+		 *            the data to show
+		 */
+		public void update(T data) {
+			updated = true;
+			show.accept(data);
+		}
+	}
+}
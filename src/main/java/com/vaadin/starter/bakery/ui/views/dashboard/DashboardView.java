@@ -1,23 +1,26 @@
 package com.vaadin.starter.bakery.ui.views.dashboard;
 
 import java.time.LocalDate;
-import java.time.MonthDay;
-import java.time.Year;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.stream.Collectors;
+import java.util.Optional;
+import java.util.Set;
 import java.util.stream.IntStream;
 
 import javax.annotation.security.PermitAll;
 
 import org.springframework.beans.factory.annotation.Autowired;
 
-import com.vaadin.flow.component.ComponentEventListener;
+import com.vaadin.flow.component.AttachEvent;
+import com.vaadin.flow.component.DetachEvent;
 import com.vaadin.flow.component.Tag;
 import com.vaadin.flow.component.UI;
 import com.vaadin.flow.component.charts.Chart;
-import com.vaadin.flow.component.charts.events.ChartLoadEvent;
 import com.vaadin.flow.component.charts.model.Background;
 import com.vaadin.flow.component.charts.model.BackgroundShape;
 import com.vaadin.flow.component.charts.model.ChartType;
@@ -28,23 +31,29 @@ import com.vaadin.flow.component.charts.model.ListSeries;
 import com.vaadin.flow.component.charts.model.Pane;
 import com.vaadin.flow.component.charts.model.PlotOptionsPie;
 import com.vaadin.flow.component.charts.model.PlotOptionsSolidgauge;
+import com.vaadin.flow.component.datepicker.DatePicker;
 import com.vaadin.flow.component.dependency.JsModule;
 import com.vaadin.flow.component.grid.Grid;
 import com.vaadin.flow.component.littemplate.LitTemplate;
 import com.vaadin.flow.component.template.Id;
 import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
-import com.vaadin.starter.bakery.backend.data.DashboardData;
+import com.vaadin.flow.shared.Registration;
+import com.vaadin.starter.bakery.app.HasLogger;
+import com.vaadin.starter.bakery.backend.data.DashboardUpdate;
 import com.vaadin.starter.bakery.backend.data.DeliveryStats;
-import com.vaadin.starter.bakery.backend.data.entity.Order;
-import com.vaadin.starter.bakery.backend.data.entity.OrderSummary;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueTime;
 import com.vaadin.starter.bakery.backend.data.entity.Product;
+import com.vaadin.starter.bakery.backend.service.DashboardBroadcaster;
 import com.vaadin.starter.bakery.backend.service.OrderService;
 import com.vaadin.starter.bakery.ui.MainView;
 import com.vaadin.starter.bakery.ui.dataproviders.OrdersGridDataProvider;
 import com.vaadin.starter.bakery.ui.utils.BakeryConst;
 import com.vaadin.starter.bakery.ui.utils.FormattingUtils;
+import com.vaadin.starter.bakery.ui.views.dashboard.DashboardSectionLoader.Section;
 import com.vaadin.starter.bakery.ui.views.storefront.OrderCard;
+import com.vaadin.starter.bakery.ui.views.storefront.beans.OrdersCountData;
 import com.vaadin.starter.bakery.ui.views.storefront.beans.OrdersCountDataWithChart;
 
 @Tag("dashboard-view")
@@ -52,13 +61,57 @@ import com.vaadin.starter.bakery.ui.views.storefront.beans.OrdersCountDataWithCh
 @Route(value = BakeryConst.PAGE_DASHBOARD, layout = MainView.class)
 @PageTitle(BakeryConst.TITLE_DASHBOARD)
 @PermitAll
-public class DashboardView extends LitTemplate {
+public class DashboardView extends LitTemplate implements HasLogger {
+
+	private static final String LOAD_FAILED = "Could not be loaded";
 
 	private static final String[] MONTH_LABELS = new String[] {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul",
 			"Aug", "Sep", "Oct", "Nov", "Dec"};
 
 	private final OrderService orderService;
 
+	private final DashboardBroadcaster dashboardBroadcaster;
+
+	private final DashboardSectionLoader sectionLoader;
+
+	private final YearMonth month = YearMonth.now();
+
+	private final long createdAt = System.nanoTime();
+
+	private final Set<Chart> loadedCharts = new HashSet<>();
+
+	/** The charts showing that their data could not be loaded */
+	private final Set<Chart> failedCharts = new HashSet<>();
+
+	private Section<OrdersCounts> ordersCountsSection;
+
+	private Section<List<Number>> deliveriesThisMonthSection;
+
+	private Section<List<Number>> deliveriesThisYearSection;
+
+	private Section<Number[][]> salesSection;
+
+	private ListSeries deliveriesThisMonthSeries;
+
+	private ListSeries deliveriesThisYearSeries;
+
+	private final ListSeries[] salesSeries = new ListSeries[3];
+
+	private DataSeries productDeliveriesSeries;
+
+	/** The first due date of the product split, inclusive */
+	private LocalDate productSplitStart = month.atDay(1);
+
+	/** The last due date of the product split, exclusive */
+	private LocalDate productSplitEnd = month.plusMonths(1).atDay(1);
+
+	/** Identifies the latest product split load, so older results are ignored */
+	private int productSplitLoad;
+
+	private DataSeries todayCountSeries;
+
+	private Registration updateRegistration;
+
 	@Id("todayCount")
 	private DashboardCounterLabel todayCount;
 
@@ -81,17 +134,26 @@ public class DashboardView extends LitTemplate {
 	private Chart yearlySalesGraph;
 
 	@Id("ordersGrid")
-	private Grid<Order> grid;
+	private Grid<OrderBrief> grid;
 
 	@Id("monthlyProductSplit")
 	private Chart monthlyProductSplit;
 
+	@Id("productSplitFrom")
+	private DatePicker productSplitFrom;
+
+	@Id("productSplitTo")
+	private DatePicker productSplitTo;
+
 	@Id("todayCountChart")
 	private Chart todayCountChart;
 
 	@Autowired
-	public DashboardView(OrderService orderService, OrdersGridDataProvider orderDataProvider) {
+	public DashboardView(OrderService orderService, DashboardBroadcaster dashboardBroadcaster,
+			DashboardSectionLoader sectionLoader, OrdersGridDataProvider orderDataProvider) {
 		this.orderService = orderService;
+		this.dashboardBroadcaster = dashboardBroadcaster;
+		this.sectionLoader = sectionLoader;
 
 		grid.addColumn(OrderCard.getTemplate()
 				.withProperty("orderCard", OrderCard::create)
@@ -102,35 +164,204 @@ public class DashboardView extends LitTemplate {
 		grid.setSelectionMode(Grid.SelectionMode.NONE);
 		grid.setDataProvider(orderDataProvider);
 
-		DashboardData data = orderService.getDashboardData(MonthDay.now().getMonthValue(), Year.now().getValue());
-		populateYearlySalesChart(data);
-		populateDeliveriesCharts(data);
-		populateOrdersCounts(data.getDeliveryStats());
-		initProductSplitMonthlyGraph(data.getProductDeliveries());
+		// The charts are shown empty until their data has been loaded
+		initOrdersCounts();
+		initDeliveriesCharts();
+		initYearlySalesChart();
+		initProductSplitMonthlyGraph();
+
+		loadSections(UI.getCurrent());
+	}
+
+	/**
+	 * Loads every section in parallel and shows each one as soon as its data
+	 * is available, unless a broadcast update has already shown newer data. A
+	 * section that cannot be loaded says so.
+	 */
+	private void loadSections(UI ui) {
+		int monthValue = month.getMonthValue();
+		int year = month.getYear();
+		ordersCountsSection = sectionLoader.load(ui, this::loadOrdersCounts, this::populateOrdersCounts,
+				this::showOrdersCountsFailed, () -> sectionLoaded(todayCountChart));
+		deliveriesThisMonthSection = sectionLoader.load(ui, () -> orderService.getDeliveriesPerDay(monthValue, year),
+				deliveries -> populateSeries(deliveriesThisMonthChart, deliveriesThisMonthSeries, deliveries),
+				() -> showLoadFailed(deliveriesThisMonthChart), () -> sectionLoaded(deliveriesThisMonthChart));
+		deliveriesThisYearSection = sectionLoader.load(ui, () -> orderService.getDeliveriesPerMonth(year),
+				deliveries -> populateSeries(deliveriesThisYearChart, deliveriesThisYearSeries, deliveries),
+				() -> showLoadFailed(deliveriesThisYearChart), () -> sectionLoaded(deliveriesThisYearChart));
+		salesSection = sectionLoader.load(ui, () -> orderService.getSalesPerMonth(monthValue, year),
+				this::populateSales, () -> showLoadFailed(yearlySalesGraph), () -> sectionLoaded(yearlySalesGraph));
+		sectionLoader.load(ui, () -> orderService.getProductDeliveries(monthValue, year), productDeliveries -> {
+			// Skipped if another range has been selected meanwhile
+			if (productSplitLoad == 0) {
+				populateProductSplitMonthlyGraph(productDeliveries);
+				productDeliveriesSeries.updateSeries();
+			}
+			sectionLoaded(monthlyProductSplit);
+		}, () -> {
+			if (productSplitLoad == 0) {
+				showLoadFailed(monthlyProductSplit);
+			}
+			sectionLoaded(monthlyProductSplit);
+		});
+	}
 
-		measurePageLoadPerformance();
+	/**
+	 * Reloads the product split for the range selected in the date pickers.
+	 */
+	private void productSplitRangeChanged() {
+		LocalDate from = productSplitFrom.getValue();
+		LocalDate to = productSplitTo.getValue();
+		if (from == null || to == null || to.isBefore(from)) {
+			return;
+		}
+		loadProductSplit(from, to.plusDays(1));
 	}
 
-	// This method is overridden to measure the page load performance and can be safely removed
-	// if there is no need for that.
-	private void measurePageLoadPerformance() {
-		final int nTotal = 5; // the total number of charts on the page
-		AtomicInteger nLoaded = new AtomicInteger();
-		ComponentEventListener<ChartLoadEvent> chartLoadListener = (event) -> {
-			nLoaded.addAndGet(1);
-			if (nLoaded.get() == nTotal) {
-				UI.getCurrent().getPage().executeJs("$0._chartsLoadedResolve()", this);
+	/**
+	 * Loads the product split of a date range, replacing any earlier load that
+	 * has not been shown yet.
+	 *
+	 * @param from
+	 *            the first due date, inclusive
+	 * @param end
+	 *            the last due date, exclusive
+	 */
+	private void loadProductSplit(LocalDate from, LocalDate end) {
+		int load = ++productSplitLoad;
+		sectionLoader.load(UI.getCurrent(), () -> orderService.getProductDeliveries(from, end), productDeliveries -> {
+			if (load != productSplitLoad) {
+				return;
+			}
+			populateProductSplitMonthlyGraph(productDeliveries);
+			if (from.equals(productSplitStart) && end.equals(productSplitEnd)) {
+				productDeliveriesSeries.updateSeries();
+				clearLoadFailed(monthlyProductSplit);
+			} else {
+				productSplitStart = from;
+				productSplitEnd = end;
+				failedCharts.remove(monthlyProductSplit);
+				monthlyProductSplit.getConfiguration().setTitle(getProductSplitTitle(from, end.minusDays(1)));
+				monthlyProductSplit.getConfiguration().setSubTitle((String) null);
+				// The titles are only sent with the whole configuration
+				monthlyProductSplit.drawChart();
+			}
+		}, () -> {
+			if (load == productSplitLoad) {
+				showLoadFailed(monthlyProductSplit);
 			}
-		};
+		});
+	}
+
+	private void showLoadFailed(Chart chart) {
+		failedCharts.add(chart);
+		chart.getConfiguration().setSubTitle(LOAD_FAILED);
+		// The subtitle is only sent with the whole configuration
+		chart.drawChart();
+	}
+
+	/**
+	 * Removes the failure subtitle once data has been shown after all, e.g.
+	 * from a broadcast update.
+	 */
+	private void clearLoadFailed(Chart chart) {
+		if (failedCharts.remove(chart)) {
+			chart.getConfiguration().setSubTitle((String) null);
+			chart.drawChart();
+		}
+	}
 
-		todayCountChart.addChartLoadListener(chartLoadListener);
-		deliveriesThisMonthChart.addChartLoadListener(chartLoadListener);
-		deliveriesThisYearChart.addChartLoadListener(chartLoadListener);
-		yearlySalesGraph.addChartLoadListener(chartLoadListener);
-		monthlyProductSplit.addChartLoadListener(chartLoadListener);
+	private void showOrdersCountsFailed() {
+		todayCount.setOrdersCountData(new OrdersCountData("Remaining Today", LOAD_FAILED, null));
+		notAvailableCount.setOrdersCountData(new OrdersCountData("Not Available", LOAD_FAILED, null));
+		newCount.setOrdersCountData(new OrdersCountData("New", LOAD_FAILED, null));
+		tomorrowCount.setOrdersCountData(new OrdersCountData("Tomorrow", LOAD_FAILED, null));
 	}
 
-	private void initProductSplitMonthlyGraph(Map<Product, Integer> productDeliveries) {
+	private static String getProductSplitTitle(LocalDate from, LocalDate to) {
+		if (from.getDayOfMonth() == 1 && to.equals(YearMonth.from(from).atEndOfMonth())) {
+			return "Products delivered in " + FormattingUtils.getFullMonthName(from);
+		}
+		return "Products delivered " + FormattingUtils.MONTH_AND_DAY_FORMATTER.format(from) + " – "
+				+ FormattingUtils.MONTH_AND_DAY_FORMATTER.format(to);
+	}
+
+	private void populateSeries(Chart chart, ListSeries series, List<Number> data) {
+		// The data is copied as it is shared with other users
+		series.setData(new ArrayList<>(data));
+		series.updateSeries();
+		clearLoadFailed(chart);
+	}
+
+	private void populateSales(Number[][] sales) {
+		for (int i = 0; i < salesSeries.length; i++) {
+			salesSeries[i].setData(sales[i]);
+			salesSeries[i].updateSeries();
+		}
+		clearLoadFailed(yearlySalesGraph);
+	}
+
+	// This method reports the page load performance and can be safely removed
+	// if there is no need for that. The charts are drawn empty before their data
+	// is loaded, so their load events no longer tell when the page is ready.
+	// Instead, the client marks the times once it has rendered the first and
+	// the last section, whether loaded or failed.
+	private void sectionLoaded(Chart chart) {
+		loadedCharts.add(chart);
+		long millis = (System.nanoTime() - createdAt) / 1_000_000;
+		if (loadedCharts.size() == 1) {
+			getLogger().debug("Time to first chart: {} ms", millis);
+			getElement().executeJs("this._firstChartLoaded()");
+		}
+		if (loadedCharts.size() == 5) {
+			getLogger().debug("Time to all charts: {} ms", millis);
+			getElement().executeJs("this._chartsLoadedResolve()");
+		}
+	}
+
+	@Override
+	protected void onAttach(AttachEvent attachEvent) {
+		super.onAttach(attachEvent);
+		UI ui = attachEvent.getUI();
+		updateRegistration = dashboardBroadcaster.register(update -> ui.access(() -> applyUpdate(update)));
+	}
+
+	@Override
+	protected void onDetach(DetachEvent detachEvent) {
+		updateRegistration.remove();
+		updateRegistration = null;
+		super.onDetach(detachEvent);
+	}
+
+	/**
+	 * Shows the sections reloaded after writes of other users. The reloaded
+	 * data replaces what is shown, and the pending load of a section still
+	 * loading is ignored as it may predate the writes.
+	 */
+	private void applyUpdate(DashboardUpdate update) {
+		if (!update.getMonth().equals(month)) {
+			return;
+		}
+		if (update.getDeliveryStats() != null) {
+			ordersCountsSection.update(toOrdersCounts(update.getDeliveryStats(), update.getNextDelivery(),
+					update.getLastNewOrderPlaced(), update.getFirstDueTimeTomorrow()));
+		}
+		if (update.getDeliveriesThisMonth() != null) {
+			deliveriesThisMonthSection.update(update.getDeliveriesThisMonth());
+		}
+		if (update.getDeliveriesThisYear() != null) {
+			deliveriesThisYearSection.update(update.getDeliveriesThisYear());
+		}
+		if (update.getSalesPerMonth() != null) {
+			salesSection.update(update.getSalesPerMonth());
+		}
+		// Read from memory, so each dashboard reloads its own range
+		if (update.hasProductDeliveries(productSplitStart, productSplitEnd)) {
+			loadProductSplit(productSplitStart, productSplitEnd);
+		}
+	}
+
+	private void initProductSplitMonthlyGraph() {
 
 		LocalDate today = LocalDate.now();
 
@@ -139,30 +370,61 @@ public class DashboardView extends LitTemplate {
 		conf.getChart().setBorderRadius(4);
 		conf.getChart().setStyledMode(true);
 		conf.setTitle("Products delivered in " + FormattingUtils.getFullMonthName(today));
-		DataSeries deliveriesPerProductSeries = new DataSeries(productDeliveries.entrySet().stream()
-				.map(e -> new DataSeriesItem(e.getKey().getName(), e.getValue())).collect(Collectors.toList()));
+		productDeliveriesSeries = new DataSeries();
 		PlotOptionsPie plotOptionsPie = new PlotOptionsPie();
 		plotOptionsPie.setInnerSize("60%");
 		plotOptionsPie.getDataLabels().setCrop(false);
-		deliveriesPerProductSeries.setPlotOptions(plotOptionsPie);
-		conf.addSeries(deliveriesPerProductSeries);
+		productDeliveriesSeries.setPlotOptions(plotOptionsPie);
+		conf.addSeries(productDeliveriesSeries);
+
+		productSplitFrom.setValue(productSplitStart);
+		productSplitTo.setValue(productSplitEnd.minusDays(1));
+		productSplitFrom.addValueChangeListener(e -> productSplitRangeChanged());
+		productSplitTo.addValueChangeListener(e -> productSplitRangeChanged());
+	}
+
+	private void populateProductSplitMonthlyGraph(Map<Product, Integer> productDeliveries) {
+		List<DataSeriesItem> items = new ArrayList<>();
+		productDeliveries.forEach((product, quantity) -> items.add(new DataSeriesItem(product.getName(), quantity)));
+		productDeliveriesSeries.setData(items);
+	}
+
+	private void initOrdersCounts() {
+		todayCount.setOrdersCountData(new OrdersCountData("Remaining Today", null, null));
+		notAvailableCount.setOrdersCountData(new OrdersCountData("Not Available", null, null));
+		newCount.setOrdersCountData(new OrdersCountData("New", null, null));
+		tomorrowCount.setOrdersCountData(new OrdersCountData("Tomorrow", null, null));
+		initTodayCountSolidgaugeChart();
 	}
 
-	private void populateOrdersCounts(DeliveryStats deliveryStats) {
-		List<OrderSummary> orders = orderService.findAnyMatchingStartingToday();
+	/**
+	 * Reads the counters and their subtitles. Does not access the UI, so it
+	 * can run in the background.
+	 */
+	private OrdersCounts loadOrdersCounts() {
+		return toOrdersCounts(orderService.getDeliveryStats(), orderService.findNextDelivery(LocalDateTime.now()),
+				orderService.findLastNewOrderPlaced(), orderService.findFirstDueTime(LocalDate.now().plusDays(1)));
+	}
 
-		OrdersCountDataWithChart todaysOrdersCountData = DashboardUtils
-				.getTodaysOrdersCountData(deliveryStats, orders.iterator());
-		todayCount.setOrdersCountData(todaysOrdersCountData);
-		initTodayCountSolidgaugeChart(todaysOrdersCountData);
-		notAvailableCount.setOrdersCountData(DashboardUtils.getNotAvailableOrdersCountData(deliveryStats));
-		Order lastOrder = orderService.load(orders.get(orders.size() - 1).getId());
-		newCount.setOrdersCountData(DashboardUtils.getNewOrdersCountData(deliveryStats, lastOrder));
-		tomorrowCount.setOrdersCountData(DashboardUtils.getTomorrowOrdersCountData(deliveryStats, orders.iterator()));
+	private static OrdersCounts toOrdersCounts(DeliveryStats deliveryStats, Optional<OrderDueTime> nextDelivery,
+			Optional<LocalDateTime> lastNewOrderPlaced, Optional<LocalTime> firstDueTimeTomorrow) {
+		OrdersCounts counts = new OrdersCounts();
+		counts.today = DashboardUtils.getTodaysOrdersCountData(deliveryStats, nextDelivery);
+		counts.notAvailable = DashboardUtils.getNotAvailableOrdersCountData(deliveryStats);
+		counts.newOrders = DashboardUtils.getNewOrdersCountData(deliveryStats, lastNewOrderPlaced);
+		counts.tomorrow = DashboardUtils.getTomorrowOrdersCountData(deliveryStats, firstDueTimeTomorrow);
+		return counts;
 	}
 
+	private void populateOrdersCounts(OrdersCounts counts) {
+		todayCount.setOrdersCountData(counts.today);
+		updateTodayCountSolidgaugeChart(counts.today);
+		notAvailableCount.setOrdersCountData(counts.notAvailable);
+		newCount.setOrdersCountData(counts.newOrders);
+		tomorrowCount.setOrdersCountData(counts.tomorrow);
+	}
 
-	private void initTodayCountSolidgaugeChart(OrdersCountDataWithChart data) {
+	private void initTodayCountSolidgaugeChart() {
 		Configuration configuration = todayCountChart.getConfiguration();
 		configuration.getChart().setType(ChartType.SOLIDGAUGE);
 		configuration.getChart().setStyledMode(true);
@@ -170,7 +432,7 @@ public class DashboardView extends LitTemplate {
 		configuration.getTooltip().setEnabled(false);
 
 		configuration.getyAxis().setMin(0);
-		configuration.getyAxis().setMax(data.getOverall());
+		configuration.getyAxis().setMax(0);
 		configuration.getyAxis().getLabels().setEnabled(false);
 
 		PlotOptionsSolidgauge opt = new PlotOptionsSolidgauge();
@@ -178,10 +440,11 @@ public class DashboardView extends LitTemplate {
 		configuration.setPlotOptions(opt);
 
 		DataSeriesItemWithRadius point = new DataSeriesItemWithRadius();
-		point.setY(data.getCount());
+		point.setY(0);
 		point.setInnerRadius("100%");
 		point.setRadius("110%");
-		configuration.setSeries(new DataSeries(point));
+		todayCountSeries = new DataSeries(point);
+		configuration.setSeries(todayCountSeries);
 
 		Pane pane = configuration.getPane();
 		pane.setStartAngle(0);
@@ -194,7 +457,21 @@ public class DashboardView extends LitTemplate {
 		pane.setBackground(background);
 	}
 
-	private void populateDeliveriesCharts(DashboardData data) {
+	private void updateTodayCountSolidgaugeChart(OrdersCountDataWithChart data) {
+		Configuration configuration = todayCountChart.getConfiguration();
+		DataSeriesItem point = todayCountSeries.get(0);
+		if (data.getOverall().equals(configuration.getyAxis().getMax())) {
+			point.setY(data.getCount());
+			todayCountSeries.update(point);
+		} else {
+			// The scale can only be changed by drawing the chart again
+			configuration.getyAxis().setMax(data.getOverall());
+			point.setY(data.getCount());
+			todayCountChart.drawChart();
+		}
+	}
+
+	private void initDeliveriesCharts() {
 		LocalDate today = LocalDate.now();
 
 		// init the 'Deliveries in [this year]' chart
@@ -203,20 +480,21 @@ public class DashboardView extends LitTemplate {
 
 		yearConf.setTitle("Deliveries in " + today.getYear());
 		yearConf.getxAxis().setCategories(MONTH_LABELS);
-		yearConf.addSeries(new ListSeries("per Month", data.getDeliveriesThisYear()));
+		deliveriesThisYearSeries = new ListSeries("per Month");
+		yearConf.addSeries(deliveriesThisYearSeries);
 		yearConf.getChart().setStyledMode(true);
 
 		// init the 'Deliveries in [this month]' chart
 		Configuration monthConf = deliveriesThisMonthChart.getConfiguration();
 		configureColumnChart(monthConf);
 
-		List<Number> deliveriesThisMonth = data.getDeliveriesThisMonth();
-		String[] deliveriesThisMonthCategories = IntStream.rangeClosed(1, deliveriesThisMonth.size())
+		String[] deliveriesThisMonthCategories = IntStream.rangeClosed(1, month.lengthOfMonth())
 				.mapToObj(String::valueOf).toArray(String[]::new);
 
 		monthConf.setTitle("Deliveries in " + FormattingUtils.getFullMonthName(today));
 		monthConf.getxAxis().setCategories(deliveriesThisMonthCategories);
-		monthConf.addSeries(new ListSeries("per Day", deliveriesThisMonth));
+		deliveriesThisMonthSeries = new ListSeries("per Day");
+		monthConf.addSeries(deliveriesThisMonthSeries);
 	}
 
 	private void configureColumnChart(Configuration conf) {
@@ -233,7 +511,7 @@ public class DashboardView extends LitTemplate {
 		conf.getLegend().setEnabled(false);
 	}
 
-	private void populateYearlySalesChart(DashboardData data) {
+	private void initYearlySalesChart() {
 		Configuration conf = yearlySalesGraph.getConfiguration();
 		conf.getChart().setType(ChartType.AREASPLINE);
 		conf.getChart().setBorderRadius(4);
@@ -246,9 +524,17 @@ public class DashboardView extends LitTemplate {
 
 		conf.getyAxis().getTitle().setText(null);
 
-		int year = Year.now().getValue();
-		for (int i = 0; i < 3; i++) {
-			conf.addSeries(new ListSeries(Integer.toString(year - i), data.getSalesPerMonth(i)));
+		int year = month.getYear();
+		for (int i = 0; i < salesSeries.length; i++) {
+			salesSeries[i] = new ListSeries(Integer.toString(year - i));
+			conf.addSeries(salesSeries[i]);
 		}
 	}
+
+	private static class OrdersCounts {
+		private OrdersCountDataWithChart today;
+		private OrdersCountData notAvailable;
+		private OrdersCountData newOrders;
+		private OrdersCountData tomorrow;
+	}
 }
@@ -10,9 +10,7 @@ import java.time.LocalDate;
 import java.util.List;
 
 import com.vaadin.flow.data.renderer.LitRenderer;
-import com.vaadin.starter.bakery.backend.data.entity.Order;
-import com.vaadin.starter.bakery.backend.data.entity.OrderItem;
-import com.vaadin.starter.bakery.backend.data.entity.OrderSummary;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
 
 /**
  * Help class to get ready to use LitRenderer for displaying order card list on the Storefront and Dashboard grids.
@@ -25,7 +23,7 @@ import com.vaadin.starter.bakery.backend.data.entity.OrderSummary;
  */
 public class OrderCard {
 
-	public static LitRenderer<Order> getTemplate() {
+	public static LitRenderer<OrderBrief> getTemplate() {
 		return LitRenderer.of(
 				  "<order-card"
 				+ "  .header='${item.header}'"
@@ -34,15 +32,15 @@ public class OrderCard {
 				+ "</order-card>");
 	}
 	
-	public static OrderCard create(OrderSummary order) {
+	public static OrderCard create(OrderBrief order) {
 		return new OrderCard(order);
 	}
 
 	private boolean recent, inWeek;
 
-	private final OrderSummary order;
+	private final OrderBrief order;
 	
-	public OrderCard(OrderSummary order) {
+	public OrderCard(OrderBrief order) {
 		this.order = order;
 		LocalDate now = LocalDate.now();
 		LocalDate date = order.getDueDate();
@@ -51,7 +49,7 @@ public class OrderCard {
 	}
 
 	public String getPlace() {
-		return recent || inWeek ? order.getPickupLocation().getName() : null;
+		return recent || inWeek ? order.getPickupLocationName() : null;
 	}
 
 	public String getTime() {
@@ -79,10 +77,10 @@ public class OrderCard {
 	}
 
 	public String getFullName() {
-		return order.getCustomer().getFullName();
+		return order.getCustomerFullName();
 	}
 
-	public List<OrderItem> getItems() {
+	public List<OrderBrief.Item> getItems() {
 		return order.getItems();
 	}
 }
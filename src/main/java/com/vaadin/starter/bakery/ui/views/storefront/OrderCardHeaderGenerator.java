@@ -3,39 +3,50 @@ package com.vaadin.starter.bakery.ui.views.storefront;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.function.Predicate;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.LongSupplier;
 
-import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueDate;
 import com.vaadin.starter.bakery.ui.views.storefront.beans.OrderCardHeader;
 
+/**
+ * Decides which order cards show a header: the first order of each date bucket,
+ * e.g. the first order due today, in the order of the grid.
+ * <p>
+ * The first order of a bucket is the first order due on or after the start of
+ * the bucket, if it is due before the end of the bucket. It is looked up with
+ * one query when a card of the bucket is rendered first, and kept until the
+ * filter changes or an order is written, by this user or any other. So the
+ * headers do not depend on
+ * which pages the grid has fetched, or in what order, and only one order id
+ * is kept per bucket.
+ */
 public class OrderCardHeaderGenerator {
 
-	private class HeaderWrapper {
-		private Predicate<LocalDate> matcher;
+	private static class HeaderBucket {
+		// Inclusive, or null for no lower bound
+		private final LocalDate start;
 
-		private OrderCardHeader header;
+		// Exclusive, or null for no upper bound
+		private final LocalDate end;
 
-		private Long selected;
+		private final OrderCardHeader header;
 
-		public HeaderWrapper(Predicate<LocalDate> matcher, OrderCardHeader header) {
-			this.matcher = matcher;
-			this.header = header;
-		}
+		// The write count the first order was looked up at, or -1
+		private long resolvedAt = -1;
 
-		public boolean matches(LocalDate date) {
-			return matcher.test(date);
-		}
+		private Long first;
 
-		public Long getSelected() {
-			return selected;
+		public HeaderBucket(LocalDate start, LocalDate end, OrderCardHeader header) {
+			this.start = start;
+			this.end = end;
+			this.header = header;
 		}
 
-		public void setSelected(Long selected) {
-			this.selected = selected;
+		public boolean matches(LocalDate date) {
+			return (start == null || !date.isBefore(start)) && (end == null || date.isBefore(end));
 		}
 
 		public OrderCardHeader getHeader() {
@@ -45,8 +56,29 @@ public class OrderCardHeaderGenerator {
 
 	private final DateTimeFormatter HEADER_DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern("EEE, MMM d");
 
-	private final Map<Long, OrderCardHeader> ordersWithHeaders = new HashMap<>();
-	private List<HeaderWrapper> headerChain = new ArrayList<>();
+	private final BiFunction<Optional<String>, Optional<LocalDate>, Optional<OrderDueDate>> firstOrderFinder;
+
+	private final LongSupplier writeCount;
+
+	private String filter;
+
+	private List<HeaderBucket> headerChain = new ArrayList<>();
+
+	/**
+	 * @param firstOrderFinder
+	 *            finds the first order matching a customer filter that is
+	 *            due after a date, like
+	 *            {@link com.vaadin.starter.bakery.backend.service.OrderService#findFirstMatchingAfterDueDate}
+	 * @param writeCount
+	 *            the number of committed order writes, like
+	 *            {@link com.vaadin.starter.bakery.backend.service.OrderService#getWriteCount}
+	 */
+	public OrderCardHeaderGenerator(
+			BiFunction<Optional<String>, Optional<LocalDate>, Optional<OrderDueDate>> firstOrderFinder,
+			LongSupplier writeCount) {
+		this.firstOrderFinder = firstOrderFinder;
+		this.writeCount = writeCount;
+	}
 
 	private OrderCardHeader getRecentHeader() {
 		return new OrderCardHeader("Recent", "Before this week");
@@ -89,57 +121,64 @@ public class OrderCardHeaderGenerator {
 		return secondaryHeaderFor(start) + " - " + secondaryHeaderFor(end);
 	}
 
-	public OrderCardHeader get(Long id) {
-		return ordersWithHeaders.get(id);
+	/**
+	 * Returns the header to show above an order card.
+	 *
+	 * @param id
+	 *            the order id
+	 * @param dueDate
+	 *            the due date of the order
+	 * @return the header, or null if the order is not the first of its bucket
+	 */
+	public OrderCardHeader get(Long id, LocalDate dueDate) {
+		for (HeaderBucket bucket : headerChain) {
+			if (bucket.matches(dueDate)) {
+				// Read first, so a write committed during the lookup makes it look up again
+				long writes = writeCount.getAsLong();
+				if (bucket.resolvedAt != writes) {
+					Optional<LocalDate> dueAfter = Optional.ofNullable(bucket.start).map(start -> start.minusDays(1));
+					bucket.first = firstOrderFinder.apply(Optional.ofNullable(filter), dueAfter)
+							.filter(order -> bucket.matches(order.getDueDate())).map(OrderDueDate::getId)
+							.orElse(null);
+					bucket.resolvedAt = writes;
+				}
+				return id.equals(bucket.first) ? bucket.getHeader() : null;
+			}
+		}
+		return null;
 	}
 
-	public void resetHeaderChain(boolean showPrevious) {
+	/**
+	 * Starts over for a new filter.
+	 *
+	 * @param filter
+	 *            the customer filter
+	 * @param showPrevious
+	 *            whether orders due before today are shown
+	 */
+	public void resetHeaderChain(String filter, boolean showPrevious) {
+		this.filter = filter;
 		this.headerChain = createHeaderChain(showPrevious);
-		ordersWithHeaders.clear();
 	}
 
-	public void ordersRead(List<Order> orders) {
-		Iterator<HeaderWrapper> headerIterator = headerChain.stream().filter(h -> h.getSelected() == null).iterator();
-		if (!headerIterator.hasNext()) {
-			return;
-		}
-
-		HeaderWrapper current = headerIterator.next();
-		for (Order order : orders) {
-			// If last selected, discard orders that match it.
-			if (current.getSelected() != null && current.matches(order.getDueDate())) {
-				continue;
-			}
-			while (current != null && !current.matches(order.getDueDate())) {
-				current = headerIterator.hasNext() ? headerIterator.next() : null;
-			}
-			if (current == null) {
-				break;
-			}
-			current.setSelected(order.getId());
-			ordersWithHeaders.put(order.getId(), current.getHeader());
-		}
-	}
-
-	private List<HeaderWrapper> createHeaderChain(boolean showPrevious) {
-		List<HeaderWrapper> headerChain = new ArrayList<>();
+	private List<HeaderBucket> createHeaderChain(boolean showPrevious) {
+		List<HeaderBucket> headerChain = new ArrayList<>();
 		LocalDate today = LocalDate.now();
+		LocalDate tomorrow = today.plusDays(1);
 		LocalDate startOfTheWeek = today.minusDays(today.getDayOfWeek().getValue() - 1);
 		if (showPrevious) {
 			LocalDate yesterday = today.minusDays(1);
 			// Week starting on Monday
-			headerChain.add(new HeaderWrapper(d -> d.isBefore(startOfTheWeek), this.getRecentHeader()));
+			headerChain.add(new HeaderBucket(null, startOfTheWeek, this.getRecentHeader()));
 			if (startOfTheWeek.isBefore(yesterday)) {
-				headerChain.add(new HeaderWrapper(d -> d.isBefore(yesterday) && !d.isAfter(startOfTheWeek),
-						this.getThisWeekBeforeYesterdayHeader()));
+				headerChain.add(new HeaderBucket(startOfTheWeek, yesterday, this.getThisWeekBeforeYesterdayHeader()));
 			}
-			headerChain.add(new HeaderWrapper(yesterday::equals, this.getYesterdayHeader()));
+			headerChain.add(new HeaderBucket(yesterday, today, this.getYesterdayHeader()));
 		}
 		LocalDate firstDayOfTheNextWeek = startOfTheWeek.plusDays(7);
-		headerChain.add(new HeaderWrapper(today::equals, getTodayHeader()));
-		headerChain.add(new HeaderWrapper(d -> d.isAfter(today) && d.isBefore(firstDayOfTheNextWeek),
-				getThisWeekStartingTomorrow(showPrevious)));
-		headerChain.add(new HeaderWrapper(d -> !d.isBefore(firstDayOfTheNextWeek), getUpcomingHeader()));
+		headerChain.add(new HeaderBucket(today, tomorrow, getTodayHeader()));
+		headerChain.add(new HeaderBucket(tomorrow, firstDayOfTheNextWeek, getThisWeekStartingTomorrow(showPrevious)));
+		headerChain.add(new HeaderBucket(firstDayOfTheNextWeek, null, getUpcomingHeader()));
 		return headerChain;
 	}
-}
\ No newline at end of file
+}
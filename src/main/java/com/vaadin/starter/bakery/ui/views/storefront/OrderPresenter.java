@@ -1,17 +1,27 @@
 package com.vaadin.starter.bakery.ui.views.storefront;
 
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
 import org.springframework.context.annotation.Scope;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import com.vaadin.flow.component.Focusable;
 import com.vaadin.flow.component.HasValue;
 import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.component.grid.dataview.GridLazyDataView;
 import com.vaadin.flow.spring.annotation.SpringComponent;
+import com.vaadin.starter.bakery.app.HasLogger;
 import com.vaadin.starter.bakery.app.security.CurrentUser;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
 import com.vaadin.starter.bakery.backend.data.entity.Order;
 import com.vaadin.starter.bakery.backend.service.OrderService;
 import com.vaadin.starter.bakery.ui.crud.EntityPresenter;
@@ -23,7 +33,7 @@ import static com.vaadin.starter.bakery.ui.utils.BakeryConst.PAGE_STOREFRONT_ORD
 
 @SpringComponent
 @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
-public class OrderPresenter {
+public class OrderPresenter implements HasLogger {
 
 	private OrderCardHeaderGenerator headersGenerator;
 	private StorefrontView view;
@@ -32,23 +42,40 @@ public class OrderPresenter {
 	private final OrdersGridDataProvider dataProvider;
 	private final CurrentUser currentUser;
 	private final OrderService orderService;
+	private final AsyncTaskExecutor taskExecutor;
+	private final TransactionTemplate countTransaction;
+	private final boolean estimatedSize;
+
+	private OrderFilter filter = OrderFilter.getEmptyFilter();
+	// Identifies the latest background count, so older counts are ignored
+	private int countRequest;
+	private Future<?> pendingCount;
 
 	@Autowired
 	OrderPresenter(OrderService orderService, OrdersGridDataProvider dataProvider,
-			EntityPresenter<Order, StorefrontView> entityPresenter, CurrentUser currentUser) {
+			EntityPresenter<Order, StorefrontView> entityPresenter, CurrentUser currentUser,
+			AsyncTaskExecutor taskExecutor, PlatformTransactionManager transactionManager,
+			@Value("${bakery.storefront.estimated-size:true}") boolean estimatedSize,
+			@Value("${bakery.storefront.count-timeout:10s}") Duration countTimeout) {
 		this.orderService = orderService;
 		this.entityPresenter = entityPresenter;
 		this.dataProvider = dataProvider;
 		this.currentUser = currentUser;
-		headersGenerator = new OrderCardHeaderGenerator();
-		headersGenerator.resetHeaderChain(false);
-		dataProvider.setPageObserver(p -> headersGenerator.ordersRead(p.getContent()));
+		this.taskExecutor = taskExecutor;
+		countTransaction = new TransactionTemplate(transactionManager);
+		countTransaction.setReadOnly(true);
+		countTransaction.setTimeout((int) Math.max(1, countTimeout.getSeconds()));
+		this.estimatedSize = estimatedSize;
+		headersGenerator = new OrderCardHeaderGenerator(orderService::findFirstMatchingAfterDueDate,
+				orderService::getWriteCount);
+		headersGenerator.resetHeaderChain(filter.getFilter(), filter.isShowPrevious());
 	}
 
 	void init(StorefrontView view) {
 		this.entityPresenter.setView(view);
 		this.view = view;
 		view.getGrid().setDataProvider(dataProvider);
+		countInBackground();
 		view.getOpenedOrderEditor().setCurrentUser(currentUser.getUser());
 		view.getOpenedOrderEditor().addCancelListener(e -> cancel());
 		view.getOpenedOrderEditor().addReviewListener(e -> review());
@@ -59,13 +86,57 @@ public class OrderPresenter {
 		view.getOpenedOrderDetails().addCommentListener(e -> addComment(e.getMessage()));
 	}
 
-	OrderCardHeader getHeaderByOrderId(Long id) {
-		return headersGenerator.get(id);
+	OrderCardHeader getHeader(OrderBrief order) {
+		return headersGenerator.get(order.getId(), order.getDueDate());
 	}
 
 	public void filterChanged(String filter, boolean showPrevious) {
-		headersGenerator.resetHeaderChain(showPrevious);
-		dataProvider.setFilter(new OrderFilter(filter, showPrevious));
+		headersGenerator.resetHeaderChain(filter, showPrevious);
+		this.filter = new OrderFilter(filter, showPrevious);
+		dataProvider.setFilter(this.filter);
+		countInBackground();
+	}
+
+	/**
+	 * Lets the grid show the first page without counting the matching orders
+	 * first. The grid estimates the size as it fetches more pages, until the
+	 * exact count is computed in the background. The grid then takes the size
+	 * from the data provider, which returns the kept count until an order is
+	 * written and counts again after that. A count that has been superseded by
+	 * a newer filter is cancelled if it has not started yet. A running count is
+	 * not interrupted, as that would close the connection and an H2 file
+	 * database with it, but its queries time out after the count timeout.
+	 */
+	private void countInBackground() {
+		if (!estimatedSize) {
+			return;
+		}
+		GridLazyDataView<OrderBrief> dataView = view.getGrid().getLazyDataView();
+		dataView.setItemCountUnknown();
+
+		if (pendingCount != null) {
+			pendingCount.cancel(false);
+		}
+		UI ui = UI.getCurrent();
+		OrderFilter countedFilter = filter;
+		int request = ++countRequest;
+		pendingCount = taskExecutor.submit(() -> {
+			try {
+				countTransaction.executeWithoutResult(status -> dataProvider.count(countedFilter));
+			} catch (RuntimeException e) {
+				getLogger().warn("Counting the orders failed, the grid keeps estimating their number", e);
+				return;
+			}
+			try {
+				ui.access(() -> {
+					if (request == countRequest) {
+						dataView.setItemCountFromDataProvider();
+					}
+				});
+			} catch (UIDetachedException e) {
+				// The user navigated away before the orders were counted
+			}
+		});
 	}
 
 	void onNavigation(Long id, boolean edit) {
@@ -114,9 +185,10 @@ public class OrderPresenter {
 			if (entityPresenter.isNew()) {
 				view.showCreatedNotification();
 				dataProvider.refreshAll();
+				countInBackground();
 			} else {
 				view.showUpdatedNotification();
-				dataProvider.refreshItem(e);
+				dataProvider.refreshItem(new OrderBrief(e));
 			}
 			close();
 		});
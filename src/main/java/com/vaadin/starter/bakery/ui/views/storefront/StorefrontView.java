@@ -24,6 +24,7 @@ import com.vaadin.flow.router.PageTitle;
 import com.vaadin.flow.router.Route;
 import com.vaadin.flow.router.RouteAlias;
 import com.vaadin.starter.bakery.app.HasLogger;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
 import com.vaadin.starter.bakery.backend.data.entity.Order;
 import com.vaadin.starter.bakery.backend.data.entity.util.EntityUtil;
 import com.vaadin.starter.bakery.ui.MainView;
@@ -50,7 +51,7 @@ public class StorefrontView extends LitTemplate
 	private SearchBar searchBar;
 
 	@Id("grid")
-	private Grid<Order> grid;
+	private Grid<OrderBrief> grid;
 
 	@Id("dialog")
 	private Dialog dialog;
@@ -76,7 +77,7 @@ public class StorefrontView extends LitTemplate
 
 		grid.addColumn(OrderCard.getTemplate()
 				.withProperty("orderCard", OrderCard::create)
-				.withProperty("header", order -> presenter.getHeaderByOrderId(order.getId()))
+				.withProperty("header", presenter::getHeader)
 				.withFunction("cardClick",
 						order -> UI.getCurrent().navigate(BakeryConst.PAGE_STOREFRONT + "/" + order.getId())));
 
@@ -144,7 +145,7 @@ public class StorefrontView extends LitTemplate
 		return orderDetails;
 	}
 
-	Grid<Order> getGrid() {
+	Grid<OrderBrief> getGrid() {
 		return grid;
 	}
 
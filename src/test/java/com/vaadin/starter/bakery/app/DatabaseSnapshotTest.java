@@ -0,0 +1,81 @@
+package com.vaadin.starter.bakery.app;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+import org.h2.Driver;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.boot.SpringApplication;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.mock.env.MockEnvironment;
+
+/**
+ * Writes a database snapshot and starts on a copy of it.
+ */
+public class DatabaseSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Path snapshot;
+	private MockEnvironment environment;
+
+	@Before
+	public void setup() throws Exception {
+		snapshot = folder.getRoot().toPath().resolve("snapshots/bakery.zip");
+		environment = new MockEnvironment().withProperty(DatabaseSnapshot.FILE, snapshot.toString())
+				.withProperty(DatabaseSnapshot.DIRECTORY, folder.newFolder("databases").toString());
+	}
+
+	@Test
+	public void restoresTheSnapshot() {
+		environment.setProperty(DatabaseSnapshot.CREATE, "true");
+		postProcess();
+		Assert.assertEquals("create", environment.getProperty("spring.jpa.hibernate.ddl-auto"));
+		JdbcTemplate created = jdbcTemplate();
+		created.execute("CREATE TABLE product (name VARCHAR(255))");
+		created.update("INSERT INTO product VALUES ('Strawberry Bun')");
+		new DatabaseSnapshotWriter(created, snapshot.toString()).write();
+		created.execute("SHUTDOWN");
+		Assert.assertTrue(Files.isRegularFile(snapshot));
+
+		// Every start replaces the database files with the snapshot
+		for (int i = 0; i < 2; i++) {
+			environment.setProperty(DatabaseSnapshot.CREATE, "false");
+			postProcess();
+			Assert.assertEquals("none", environment.getProperty("spring.jpa.hibernate.ddl-auto"));
+			JdbcTemplate restored = jdbcTemplate();
+			Assert.assertEquals(1, restored.queryForObject("SELECT COUNT(*) FROM product", Integer.class).intValue());
+			restored.update("INSERT INTO product VALUES ('Vanilla Cracker')");
+			restored.execute("SHUTDOWN");
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void failsWithoutSnapshot() {
+		postProcess();
+	}
+
+	@Test
+	public void keepsTheDatabaseWithoutSnapshotFile() {
+		environment.setProperty(DatabaseSnapshot.FILE, "");
+		postProcess();
+		Assert.assertNull(environment.getProperty("spring.datasource.url"));
+	}
+
+	private void postProcess() {
+		new DatabaseSnapshot(Supplier::get).postProcessEnvironment(environment, new SpringApplication());
+	}
+
+	private JdbcTemplate jdbcTemplate() {
+		return new JdbcTemplate(new SimpleDriverDataSource(new Driver(), environment.getProperty("spring.datasource.url"),
+				environment.getProperty("spring.datasource.username"),
+				environment.getProperty("spring.datasource.password")));
+	}
+}
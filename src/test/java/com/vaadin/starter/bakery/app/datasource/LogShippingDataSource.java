@@ -0,0 +1,466 @@
+package com.vaadin.starter.bakery.app.datasource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+import com.vaadin.starter.bakery.app.HasLogger;
+
+/**
+ * A stand-in for the log shipping of a database server, for testing the
+ * replica routing on H2: records the writes made through the primary data
+ * source and applies them to a replica database in commit order, on a
+ * background thread.
+ * <p>
+ * On creation, the replica is replaced with a copy of the primary database.
+ * After that, every statement that returns an update count is recorded with
+ * its parameters, and the statements of a transaction are logged when it
+ * commits. Commits are serialized, so the replica applies the transactions in
+ * the order the primary committed them. Statements with stream parameters and
+ * stored procedure calls are not recorded.
+ * <p>
+ * A transaction is added to the log before its commit starts and applied
+ * once the commit has returned, so the replica counts as behind from before a
+ * write becomes visible on the primary until it has been applied, see
+ * {@link #getLag()}. When applying a transaction fails, the replica is left
+ * behind for good.
+ */
+public class LogShippingDataSource extends DelegatingDataSource implements Closeable, HasLogger {
+
+	/** The lag of a replica that is no longer updated, longer than any tolerance. */
+	private static final Duration FAILED_LAG = Duration.ofSeconds(Long.MAX_VALUE);
+
+	private final DataSource replica;
+	private final ExecutorService executor;
+
+	/** The transactions that are committing or have not been applied to the replica, oldest first. */
+	private final Queue<Transaction> log = new ConcurrentLinkedQueue<>();
+
+	/** Serializes the commits and the shipping of their transactions. */
+	private final Object commitLock = new Object();
+
+	private volatile boolean failed;
+
+	/**
+	 * Replaces the replica with a copy of the primary database, and starts
+	 * shipping the writes made through this data source.
+	 *
+	 * @param primary
+	 *            the primary database
+	 * @param replica
+	 *            the replica database, whose content is dropped
+	 */
+	public LogShippingDataSource(DataSource primary, DataSource replica) {
+		super(primary);
+		this.replica = replica;
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "log-shipping");
+			thread.setDaemon(true);
+			return thread;
+		});
+		copyPrimary();
+	}
+
+	@Override
+	public void close() throws IOException {
+		executor.shutdown();
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (getTargetDataSource() instanceof Closeable) {
+			((Closeable) getTargetDataSource()).close();
+		}
+	}
+
+	/**
+	 * Returns how long ago the oldest transaction that the replica is missing
+	 * started to commit.
+	 *
+	 * @return zero when the replica is up to date, or a duration longer than
+	 *         any tolerance once shipping has failed
+	 */
+	public Duration getLag() {
+		if (failed) {
+			return FAILED_LAG;
+		}
+		Transaction oldest = log.peek();
+		return oldest == null ? Duration.ZERO : Duration.ofNanos(System.nanoTime() - oldest.logged);
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		return recording(super.getConnection());
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		return recording(super.getConnection(username, password));
+	}
+
+	private void copyPrimary() {
+		long start = System.nanoTime();
+		int statements = 0;
+		try (Connection from = super.getConnection();
+				Connection to = replica.getConnection();
+				Statement script = from.createStatement();
+				Statement target = to.createStatement()) {
+			target.execute("DROP ALL OBJECTS");
+			try (ResultSet lines = script.executeQuery("SCRIPT NOPASSWORDS NOSETTINGS")) {
+				while (lines.next()) {
+					target.execute(lines.getString(1));
+					statements++;
+				}
+			}
+		} catch (SQLException e) {
+			throw new IllegalStateException("Copying the primary database to the replica failed", e);
+		}
+		getLogger().info("Copied the primary database to the replica with {} statements in {} ms", statements,
+				(System.nanoTime() - start) / 1_000_000);
+	}
+
+	/**
+	 * Adds a transaction to the log before it commits. Must be called while
+	 * holding {@link #commitLock}, followed by {@link #end}.
+	 */
+	private Transaction begin(List<Write> writes) {
+		Transaction transaction = new Transaction(writes, System.nanoTime());
+		log.add(transaction);
+		return transaction;
+	}
+
+	/**
+	 * Ships a logged transaction once it has committed, or drops it when it
+	 * failed or wrote nothing.
+	 */
+	private void end(Transaction transaction, boolean committed) {
+		if (committed && !transaction.writes.isEmpty()) {
+			transaction.committed = true;
+			executor.execute(this::apply);
+		} else {
+			// The last in the log, as the commits are serialized
+			log.remove(transaction);
+		}
+	}
+
+	/**
+	 * Applies the committed transactions to the replica. Runs on the single
+	 * shipping thread, so a transaction stays in the log until it is applied.
+	 */
+	private void apply() {
+		Transaction transaction;
+		while (!failed && (transaction = log.peek()) != null && transaction.committed) {
+			try (Connection connection = replica.getConnection()) {
+				connection.setAutoCommit(false);
+				for (Write write : transaction.writes) {
+					write.apply(connection);
+				}
+				connection.commit();
+			} catch (SQLException | ReflectiveOperationException e) {
+				failed = true;
+				getLogger().error("Applying a transaction to the replica failed, it is no longer updated", e);
+				return;
+			}
+			log.poll();
+		}
+	}
+
+	private Connection recording(Connection target) {
+		return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+				new RecordingConnection(target));
+	}
+
+	private static Object call(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * The writes of a transaction, which are only applied once it has
+	 * committed.
+	 */
+	private static class Transaction {
+		private final List<Write> writes;
+		private final long logged;
+		private volatile boolean committed;
+
+		Transaction(List<Write> writes, long logged) {
+			this.writes = writes;
+			this.logged = logged;
+		}
+	}
+
+	/**
+	 * A statement that was executed on the primary, with the parameter setter
+	 * calls of each execution when it is a prepared statement.
+	 */
+	private static class Write {
+		private final String sql;
+		private final List<List<Setter>> executions;
+
+		Write(String sql, List<List<Setter>> executions) {
+			this.sql = sql;
+			this.executions = executions;
+		}
+
+		void apply(Connection connection) throws SQLException, ReflectiveOperationException {
+			if (executions == null) {
+				try (Statement statement = connection.createStatement()) {
+					statement.execute(sql);
+				}
+				return;
+			}
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				if (executions.size() == 1) {
+					Setter.apply(statement, executions.get(0));
+					statement.execute();
+				} else {
+					for (List<Setter> setters : executions) {
+						Setter.apply(statement, setters);
+						statement.addBatch();
+					}
+					statement.executeBatch();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A call of a parameter setter of a prepared statement, e.g.
+	 * {@code setLong(1, 42)}.
+	 */
+	private static class Setter {
+		private final Method method;
+		private final Object[] args;
+
+		Setter(Method method, Object[] args) {
+			this.method = method;
+			this.args = args;
+		}
+
+		static void apply(PreparedStatement statement, List<Setter> setters) throws ReflectiveOperationException {
+			for (Setter setter : setters) {
+				setter.method.invoke(statement, setter.args);
+			}
+		}
+	}
+
+	/**
+	 * Records the writes of a connection and ships them when they are
+	 * committed.
+	 */
+	private class RecordingConnection implements InvocationHandler {
+		private final Connection target;
+		private final List<Write> pending = new ArrayList<>();
+		private final Map<Savepoint, Integer> savepoints = new HashMap<>();
+
+		RecordingConnection(Connection target) {
+			this.target = target;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			switch (method.getName()) {
+			case "createStatement":
+				return statement(call(target, method, args), Statement.class, null);
+			case "prepareStatement":
+				return statement(call(target, method, args), PreparedStatement.class, (String) args[0]);
+			case "commit":
+				commit(method, args);
+				return null;
+			case "setAutoCommit":
+				// Switching auto-commit on commits the current transaction
+				if ((Boolean) args[0]) {
+					commit(method, args);
+				} else {
+					call(target, method, args);
+				}
+				return null;
+			case "rollback":
+				call(target, method, args);
+				if (args == null) {
+					pending.clear();
+					savepoints.clear();
+				} else {
+					Integer size = savepoints.get(args[0]);
+					if (size != null) {
+						pending.subList(size, pending.size()).clear();
+					}
+				}
+				return null;
+			case "setSavepoint":
+				Savepoint savepoint = (Savepoint) call(target, method, args);
+				savepoints.put(savepoint, pending.size());
+				return savepoint;
+			case "equals":
+				return proxy == args[0];
+			case "hashCode":
+				return System.identityHashCode(proxy);
+			case "close":
+				pending.clear();
+				savepoints.clear();
+				return call(target, method, args);
+			default:
+				return call(target, method, args);
+			}
+		}
+
+		private Object statement(Object statement, Class<? extends Statement> type, String sql) {
+			return Proxy.newProxyInstance(LogShippingDataSource.class.getClassLoader(), new Class<?>[] { type },
+					new RecordingStatement(this, (Statement) statement, sql));
+		}
+
+		private void commit(Method method, Object[] args) throws Throwable {
+			synchronized (commitLock) {
+				// A transaction without writes, e.g. a read-only one, does not hold back the replica
+				Transaction transaction = pending.isEmpty() ? null : begin(new ArrayList<>(pending));
+				boolean committed = false;
+				try {
+					call(target, method, args);
+					committed = true;
+				} finally {
+					if (transaction != null) {
+						end(transaction, committed);
+					}
+				}
+				pending.clear();
+				savepoints.clear();
+			}
+		}
+
+		/**
+		 * Executes a write, and records it for the current transaction or
+		 * ships it at once in auto-commit mode.
+		 */
+		Object execute(Method method, Object[] args, Statement statement, Recorder recorder) throws Throwable {
+			if (!target.getAutoCommit()) {
+				Object result = call(statement, method, args);
+				recorder.record(result, pending);
+				return result;
+			}
+			synchronized (commitLock) {
+				Transaction transaction = begin(new ArrayList<>());
+				boolean committed = false;
+				try {
+					Object result = call(statement, method, args);
+					recorder.record(result, transaction.writes);
+					committed = true;
+					return result;
+				} finally {
+					end(transaction, committed);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds the writes of an executed statement to a list.
+	 */
+	private interface Recorder {
+		void record(Object result, List<Write> writes);
+	}
+
+	/**
+	 * Records the parameters, batches and writes of a statement.
+	 */
+	private static class RecordingStatement implements InvocationHandler {
+		private final RecordingConnection connection;
+		private final Statement target;
+		private final String sql;
+		/** The parameters set for the next execution, by parameter index. */
+		private final Map<Object, Setter> parameters = new LinkedHashMap<>();
+		private final List<List<Setter>> batch = new ArrayList<>();
+		private final List<String> sqlBatch = new ArrayList<>();
+
+		RecordingStatement(RecordingConnection connection, Statement target, String sql) {
+			this.connection = connection;
+			this.target = target;
+			this.sql = sql;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (method.getDeclaringClass() == PreparedStatement.class && name.startsWith("set")) {
+				parameters.put(args[0], new Setter(method, args));
+				return call(target, method, args);
+			}
+			switch (name) {
+			case "clearParameters":
+				parameters.clear();
+				break;
+			case "addBatch":
+				if (args == null) {
+					batch.add(new ArrayList<>(parameters.values()));
+				} else {
+					sqlBatch.add((String) args[0]);
+				}
+				break;
+			case "clearBatch":
+				batch.clear();
+				sqlBatch.clear();
+				break;
+			case "executeUpdate":
+			case "executeLargeUpdate":
+				return connection.execute(method, args, target, (result, writes) -> writes.add(write(args)));
+			case "execute":
+				// Only statements without a result set write
+				return connection.execute(method, args, target, (result, writes) -> {
+					if (!(Boolean) result) {
+						writes.add(write(args));
+					}
+				});
+			case "executeBatch":
+			case "executeLargeBatch":
+				return connection.execute(method, args, target, (result, writes) -> {
+					if (sql != null && !batch.isEmpty()) {
+						writes.add(new Write(sql, new ArrayList<>(batch)));
+					}
+					sqlBatch.forEach(statement -> writes.add(new Write(statement, null)));
+					batch.clear();
+					sqlBatch.clear();
+				});
+			default:
+				break;
+			}
+			return call(target, method, args);
+		}
+
+		private Write write(Object[] args) {
+			if (args != null && args.length > 0) {
+				return new Write((String) args[0], null);
+			}
+			List<List<Setter>> executions = new ArrayList<>();
+			executions.add(new ArrayList<>(parameters.values()));
+			return new Write(sql, executions);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package com.vaadin.starter.bakery.app.datasource;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.jdbc.datasource.SimpleDriverDataSource;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.transaction.TestTransaction;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.vaadin.starter.bakery.backend.data.entity.Product;
+import com.vaadin.starter.bakery.backend.service.DashboardBroadcaster;
+import com.vaadin.starter.bakery.backend.service.DeliveredItemStore;
+import com.vaadin.starter.bakery.backend.service.DeliveryRollupService;
+import com.vaadin.starter.bakery.backend.service.OrderArchiveService;
+import com.vaadin.starter.bakery.backend.service.OrderSearchIndex;
+import com.vaadin.starter.bakery.backend.service.OrderService;
+import com.vaadin.starter.bakery.backend.service.ProductService;
+import com.vaadin.starter.bakery.test.DemoDataJpaTest;
+
+/**
+ * Reads the orders from a replica kept up to date by a
+ * {@link LogShippingDataSource}, and checks when the routing falls back to the
+ * primary.
+ */
+@RunWith(SpringRunner.class)
+@DemoDataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+// The query cache of H2 may keep a result read while another session was committing
+@TestPropertySource(properties = { "spring.datasource.url=jdbc:h2:mem:shipping;DB_CLOSE_ON_EXIT=FALSE;QUERY_CACHE_SIZE=0",
+		"bakery.datasource.replica.url=jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=FALSE;QUERY_CACHE_SIZE=0" })
+@Import({ OrderService.class, OrderArchiveService.class, ProductService.class,
+		DeliveryRollupService.class, DeliveredItemStore.class, OrderSearchIndex.class, DashboardBroadcaster.class })
+public class ReplicaRoutingDataSourceTest {
+
+	@TestConfiguration
+	static class LogShippingConfiguration extends ReplicaDataSourceConfiguration {
+		@Override
+		protected ReplicaRoutingDataSource routing(DataSource primary, DataSource replica, Duration maxLag,
+				Duration heartbeatInterval) {
+			LogShippingDataSource shipping = new LogShippingDataSource(primary, replica);
+			return new ReplicaRoutingDataSource(shipping, replica, shipping::getLag, Duration.ZERO);
+		}
+	}
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Autowired
+	private ReplicaRoutingDataSource routingDataSource;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	private OrderService orderService;
+
+	@Autowired
+	private ProductService productService;
+
+	@Before
+	public void setup() {
+		// The writes must be committed to be shipped
+		TestTransaction.end();
+		awaitReplica();
+	}
+
+	@Test
+	public void readOnlyTransactionsReadTheReplica() {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+		readOnly.setReadOnly(true);
+		Assert.assertEquals("REPLICA", readOnly.execute(status -> database(jdbcTemplate)));
+		Assert.assertNotEquals("REPLICA", new TransactionTemplate(transactionManager).execute(status -> database(jdbcTemplate)));
+		Assert.assertNotEquals("REPLICA", database(jdbcTemplate));
+
+		long replicaConnections = routingDataSource.getReplicaConnectionCount();
+		Optional<LocalDate> yesterday = Optional.of(LocalDate.now().minusDays(1));
+		orderService.findBriefsAfterDueDate(Optional.of("a"), yesterday, PageRequest.of(0, 20));
+		orderService.countAnyMatchingAfterDueDate(Optional.of("a"), yesterday);
+		orderService.getDeliveriesPerMonth(LocalDate.now().getYear());
+		Assert.assertTrue(routingDataSource.getReplicaConnectionCount() >= replicaConnections + 3);
+	}
+
+	@Test
+	public void writesAreShipped() {
+		JdbcTemplate replica = new JdbcTemplate(new SimpleDriverDataSource(new org.h2.Driver(),
+				"jdbc:h2:mem:replica", "sa", ""));
+		JdbcTemplate primary = new JdbcTemplate(dataSource);
+		for (String table : new String[] { "order_info", "order_item", "history_item", "product", "delivery_rollup" }) {
+			String count = "SELECT COUNT(*) FROM " + table;
+			Assert.assertEquals(table, primary.queryForObject(count, Long.class),
+					replica.queryForObject(count, Long.class));
+		}
+
+		Product product = productService.find(PageRequest.of(0, 1)).getContent().get(0);
+		Integer price = product.getPrice();
+		try {
+			product.setPrice(price + 1);
+			product = productService.save(null, product);
+			awaitReplica();
+			Assert.assertEquals(price + 1, replica.queryForObject("SELECT price FROM product WHERE id = ?",
+					Integer.class, product.getId()).intValue());
+		} finally {
+			product.setPrice(price);
+			productService.save(null, product);
+		}
+	}
+
+	@Test
+	public void committedWritesAreReadByOtherThreads() throws Exception {
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+		jdbcTemplate.execute("CREATE TABLE shipping_counter (id INT PRIMARY KEY, counter INT)");
+		jdbcTemplate.update("INSERT INTO shipping_counter VALUES (1, 0)");
+		TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+		TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+		readOnly.setReadOnly(true);
+		// The highest counter whose commit has returned
+		AtomicInteger committed = new AtomicInteger();
+
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<?>> threads = new ArrayList<>();
+			for (int thread = 0; thread < 8; thread++) {
+				boolean writer = thread % 2 == 0;
+				threads.add(executor.submit(() -> {
+					for (int i = 0; i < 100; i++) {
+						if (writer) {
+							int counter = readWrite.execute(status -> {
+								jdbcTemplate.update("UPDATE shipping_counter SET counter = counter + 1 WHERE id = 1");
+								return jdbcTemplate.queryForObject("SELECT counter FROM shipping_counter WHERE id = 1",
+										Integer.class);
+							});
+							committed.accumulateAndGet(counter, Math::max);
+						} else {
+							int expected = committed.get();
+							int read = readOnly.execute(status -> jdbcTemplate
+									.queryForObject("SELECT counter FROM shipping_counter WHERE id = 1", Integer.class));
+							Assert.assertTrue(read + " < " + expected, read >= expected);
+						}
+					}
+				}));
+			}
+			for (Future<?> thread : threads) {
+				thread.get(1, TimeUnit.MINUTES);
+			}
+		} finally {
+			executor.shutdownNow();
+			jdbcTemplate.execute("DROP TABLE shipping_counter");
+			awaitReplica();
+		}
+		Assert.assertEquals(400, committed.get());
+	}
+
+	@Test
+	public void laggingReplicaIsNotRead() {
+		DataSource primary = new SimpleDriverDataSource(new org.h2.Driver(), "jdbc:h2:mem:primary", "sa", "");
+		DataSource replica = new SimpleDriverDataSource(new org.h2.Driver(), "jdbc:h2:mem:replica", "sa", "");
+		Duration[] lag = { Duration.ofMillis(500) };
+		ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primary, replica, () -> lag[0],
+				Duration.ofSeconds(1));
+		DataSource lazy = new LazyConnectionDataSourceProxy(routing);
+		TransactionTemplate readOnly = new TransactionTemplate(new DataSourceTransactionManager(lazy));
+		readOnly.setReadOnly(true);
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(lazy);
+
+		Assert.assertEquals("REPLICA", readOnly.execute(status -> database(jdbcTemplate)));
+		lag[0] = Duration.ofSeconds(2);
+		Assert.assertEquals("PRIMARY", readOnly.execute(status -> database(jdbcTemplate)));
+		Assert.assertEquals(1, routing.getLaggingConnectionCount());
+	}
+
+	@Test
+	public void replicaIsNotReadBeforeItHasTheLastWrite() {
+		DataSource primary = new SimpleDriverDataSource(new org.h2.Driver(), "jdbc:h2:mem:primary", "sa", "");
+		DataSource replica = new SimpleDriverDataSource(new org.h2.Driver(), "jdbc:h2:mem:replica", "sa", "");
+		long[] now = { 0 };
+		ReplicaRoutingDataSource routing = new ReplicaRoutingDataSource(primary, replica,
+				() -> Duration.ofMillis(500), Duration.ofSeconds(1), () -> now[0]);
+		DataSource lazy = new LazyConnectionDataSourceProxy(routing);
+		DataSourceTransactionManager transactionManager = new DataSourceTransactionManager(lazy);
+		TransactionTemplate readOnly = new TransactionTemplate(transactionManager);
+		readOnly.setReadOnly(true);
+		JdbcTemplate jdbcTemplate = new JdbcTemplate(lazy);
+
+		now[0] = Duration.ofSeconds(10).toNanos();
+		new TransactionTemplate(transactionManager).execute(status -> database(jdbcTemplate));
+		now[0] += Duration.ofMillis(200).toNanos();
+		Assert.assertEquals("PRIMARY", readOnly.execute(status -> database(jdbcTemplate)));
+		now[0] += Duration.ofMillis(400).toNanos();
+		Assert.assertEquals("REPLICA", readOnly.execute(status -> database(jdbcTemplate)));
+		Assert.assertEquals(1, routing.getLaggingConnectionCount());
+	}
+
+	@Test
+	public void heartbeatMeasuresTheLag() {
+		DataSource primary = new SimpleDriverDataSource(new org.h2.Driver(),
+				"jdbc:h2:mem:heartbeat_primary;DB_CLOSE_DELAY=-1", "sa", "");
+		DataSource replica = new SimpleDriverDataSource(new org.h2.Driver(),
+				"jdbc:h2:mem:heartbeat_replica;DB_CLOSE_DELAY=-1", "sa", "");
+		JdbcTemplate replicaTemplate = new JdbcTemplate(replica);
+		replicaTemplate.execute("CREATE TABLE replica_heartbeat (id INT PRIMARY KEY, beat BIGINT NOT NULL)");
+		long[] now = { 1000 };
+		ReplicaHeartbeat heartbeat = new ReplicaHeartbeat(primary, replica, () -> now[0]);
+
+		heartbeat.beat();
+		Assert.assertTrue("Unknown until the replica has a heartbeat",
+				heartbeat.get().compareTo(Duration.ofDays(1)) > 0);
+
+		// The replica applies the first heartbeat while the second is written
+		replicaTemplate.update("INSERT INTO replica_heartbeat (id, beat) VALUES (1, 1000)");
+		now[0] = 1500;
+		heartbeat.beat();
+		Assert.assertEquals(1500, new JdbcTemplate(primary)
+				.queryForObject("SELECT beat FROM replica_heartbeat WHERE id = 1", Long.class).longValue());
+		now[0] = 1600;
+		Assert.assertEquals(Duration.ofMillis(600), heartbeat.get());
+	}
+
+	private static String database(JdbcTemplate jdbcTemplate) {
+		return jdbcTemplate.queryForObject("SELECT DATABASE()", String.class);
+	}
+
+	private void awaitReplica() {
+		LogShippingDataSource shipping = (LogShippingDataSource) routingDataSource.getResolvedDefaultDataSource();
+		long deadline = System.nanoTime() + Duration.ofSeconds(30).toNanos();
+		while (!shipping.getLag().isZero()) {
+			Assert.assertTrue("The replica did not catch up", System.nanoTime() < deadline);
+			Thread.yield();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package com.vaadin.starter.bakery.app.metrics;
+
+import java.util.List;
+
+import javax.persistence.EntityNotFoundException;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.ImportAutoConfiguration;
+import org.springframework.boot.autoconfigure.aop.AopAutoConfiguration;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.vaadin.starter.bakery.backend.repositories.PickupLocationRepository;
+import com.vaadin.starter.bakery.backend.service.PickupLocationService;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Checks the tags of the call timers, and that the slow call log leaves out
+ * the argument values.
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@ImportAutoConfiguration(AopAutoConfiguration.class)
+@Import({ CallTimingAspect.class, PickupLocationService.class })
+public class CallTimingAspectTest {
+
+	@TestConfiguration
+	static class Config {
+		@Bean
+		public MeterRegistry meterRegistry() {
+			return new SimpleMeterRegistry();
+		}
+	}
+
+	@Autowired
+	private MeterRegistry registry;
+
+	@Autowired
+	private PickupLocationService pickupLocationService;
+
+	@Autowired
+	private PickupLocationRepository pickupLocationRepository;
+
+	@Test
+	public void callsAreTimedByClassAndMethod() {
+		pickupLocationService.count();
+		pickupLocationRepository.findAll();
+		try {
+			pickupLocationService.load(-1);
+			Assert.fail();
+		} catch (EntityNotFoundException expected) {
+			// Timed with the exception
+		}
+
+		Assert.assertEquals(1, timer(CallTimingAspect.SERVICE_TIMER, "PickupLocationService", "count", "none").count());
+		// Called by the service
+		Assert.assertEquals(1,
+				timer(CallTimingAspect.REPOSITORY_TIMER, "PickupLocationRepository", "count", "none").count());
+		Assert.assertEquals(1,
+				timer(CallTimingAspect.REPOSITORY_TIMER, "PickupLocationRepository", "findAll", "none").count());
+		Assert.assertEquals(1, timer(CallTimingAspect.SERVICE_TIMER, "PickupLocationService", "load",
+				"EntityNotFoundException").count());
+	}
+
+	@Test
+	public void argumentValuesAreRedacted() {
+		Assert.assertEquals("String, Collection[2], null, PageRequest",
+				CallTimingAspect.redact(new Object[] { "Jane Doe", List.of(1L, 2L), null, PageRequest.of(0, 10) }));
+	}
+
+	private Timer timer(String name, String className, String method, String exception) {
+		Timer timer = registry.find(name).tag("class", className).tag("method", method).tag("exception", exception)
+				.timer();
+		Assert.assertNotNull(className + "." + method, timer);
+		return timer;
+	}
+}
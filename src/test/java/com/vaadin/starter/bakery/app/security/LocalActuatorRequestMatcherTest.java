@@ -0,0 +1,37 @@
+package com.vaadin.starter.bakery.app.security;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+
+public class LocalActuatorRequestMatcherTest {
+
+	private final LocalActuatorRequestMatcher matcher = new LocalActuatorRequestMatcher(8081, "/actuator");
+
+	private static MockHttpServletRequest request(int port, String path, String remoteAddress) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", path);
+		request.setServletPath(path);
+		request.setLocalPort(port);
+		request.setRemoteAddr(remoteAddress);
+		return request;
+	}
+
+	@Test
+	public void localActuatorRequestsMatch() {
+		Assert.assertTrue(matcher.matches(request(8081, "/actuator/metrics", "127.0.0.1")));
+		Assert.assertTrue(matcher.matches(request(8081, "/actuator/health", "::1")));
+	}
+
+	@Test
+	public void remoteRequestsDoNotMatch() {
+		Assert.assertFalse(matcher.matches(request(8081, "/actuator/metrics", "192.168.1.20")));
+	}
+
+	@Test
+	public void otherPathsAndPortsDoNotMatch() {
+		Assert.assertFalse(matcher.matches(request(8081, "/dashboard", "127.0.0.1")));
+		Assert.assertFalse(matcher.matches(request(8080, "/actuator/metrics", "127.0.0.1")));
+		Assert.assertFalse(new LocalActuatorRequestMatcher(-1, "/actuator")
+				.matches(request(-1, "/actuator/metrics", "127.0.0.1")));
+	}
+}
@@ -0,0 +1,72 @@
+package com.vaadin.starter.bakery.backend.repositories;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.test.BenchmarkDataJpaTest;
+import com.vaadin.starter.bakery.test.Timing;
+
+/**
+ * Times reading a page of order ids at increasing depths with an offset
+ * against seeking past the last order of the previous page.
+ * <p>
+ * The offset page is read with the same query as the keyset page, without the
+ * count query of {@link OrderRepository#findIds}, so that only the paging
+ * differs.
+ */
+@RunWith(SpringRunner.class)
+@BenchmarkDataJpaTest
+public class KeysetPagingBenchmark {
+
+	private static final int PAGE_SIZE = 50;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Test
+	public void pagesAtIncreasingDepths() {
+		long count = orderRepository.count();
+		long[] depths = { PAGE_SIZE, 1_000, 5_000, 20_000, count - PAGE_SIZE };
+
+		Timing.report("Page of {} of {} order ids, median ms: depth, offset, keyset", PAGE_SIZE, count);
+		for (long depth : depths) {
+			int offset = (int) depth;
+			List<Long> previous = offsetPage(offset - 1, 1);
+			OrderBrief last = orderRepository.findBriefsByIdIn(previous).get(0);
+			Assert.assertEquals(offsetPage(offset, PAGE_SIZE), keysetPage(last));
+
+			double offsetMillis = Timing.medianMillis(100, 101, () -> {
+				entityManager.clear();
+				return offsetPage(offset, PAGE_SIZE);
+			});
+			double keysetMillis = Timing.medianMillis(100, 101, () -> {
+				entityManager.clear();
+				return keysetPage(last);
+			});
+			Timing.report("{}: {} / {}", depth, offsetMillis, keysetMillis);
+		}
+	}
+
+	private List<Long> offsetPage(int offset, int size) {
+		return entityManager
+				.createQuery("SELECT o.id FROM OrderInfo o ORDER BY o.dueDate, o.dueTime, o.id", Long.class)
+				.setFirstResult(offset).setMaxResults(size).getResultList();
+	}
+
+	private List<Long> keysetPage(OrderBrief last) {
+		return orderRepository.findIdPageAfter(last.getDueDate(), last.getDueTime(), last.getId(),
+				PageRequest.of(0, PAGE_SIZE));
+	}
+}
@@ -0,0 +1,37 @@
+package com.vaadin.starter.bakery.backend.repositories;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+
+import com.vaadin.starter.bakery.backend.data.OrderState;
+
+/**
+ * Aggregates the orders directly, as the reference for the figures the
+ * dashboard reads from the delivery rollup and the delivered item store. The
+ * queries take the state and a half-open due date range.
+ */
+public final class OrderAggregates {
+
+	/** The number of orders per month, as (month, count) */
+	public static final String COUNT_PER_MONTH = "SELECT month(o.dueDate) as month, count(*) as deliveries FROM OrderInfo o WHERE o.state=?1 AND o.dueDate>=?2 AND o.dueDate<?3 GROUP BY month(o.dueDate)";
+
+	/** The sales per month, as (year, month, sum) with the latest year first */
+	public static final String SUM_PER_MONTH = "SELECT year(o.dueDate) as y, month(o.dueDate) as m, sum(oi.quantity*p.price) as deliveries FROM OrderInfo o JOIN o.items oi JOIN oi.product p WHERE o.state=?1 AND o.dueDate>=?2 AND o.dueDate<?3 GROUP BY year(o.dueDate), month(o.dueDate) ORDER BY y DESC, month(o.dueDate)";
+
+	/** The number of orders per day of month, as (day, count) */
+	public static final String COUNT_PER_DAY = "SELECT day(o.dueDate) as day, count(*) as deliveries FROM OrderInfo o WHERE o.state=?1 AND o.dueDate>=?2 AND o.dueDate<?3 GROUP BY day(o.dueDate)";
+
+	/** The quantity per product, as (sum, product) ordered by product id */
+	public static final String COUNT_PER_PRODUCT = "SELECT sum(oi.quantity), p FROM OrderInfo o JOIN o.items oi JOIN oi.product p WHERE o.state=?1 AND o.dueDate>=?2 AND o.dueDate<?3 GROUP BY p.id ORDER BY p.id";
+
+	private OrderAggregates() {
+	}
+
+	public static List<Object[]> query(EntityManager entityManager, String jpql, OrderState state, LocalDate from,
+			LocalDate to) {
+		return entityManager.createQuery(jpql, Object[].class).setParameter(1, state).setParameter(2, from)
+				.setParameter(3, to).getResultList();
+	}
+}
@@ -0,0 +1,83 @@
+package com.vaadin.starter.bakery.backend.repositories;
+
+import java.lang.ref.Reference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.vaadin.starter.bakery.test.BenchmarkDataJpaTest;
+import com.vaadin.starter.bakery.test.Timing;
+
+/**
+ * Measures the heap retained by pages of order entities with their items, as
+ * the cards show them, against pages of order briefs.
+ * <p>
+ * Like in the grid, each page is read in its own persistence context and kept
+ * after it has been closed. The heap of the pages is measured as what is
+ * released when they are dropped, as other objects may be collected
+ * meanwhile.
+ */
+@RunWith(SpringRunner.class)
+@BenchmarkDataJpaTest
+public class OrderBriefHeapBenchmark {
+
+	private static final int PAGE_SIZE = 50;
+
+	private static final int ROUNDS = 5;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Test
+	public void retainedHeapPerPage() {
+		List<List<Long>> pages = new ArrayList<>();
+		Sort sort = Sort.by("dueDate", "dueTime", "id");
+		for (int page = 0;; page++) {
+			List<Long> ids = orderRepository.findIds(PageRequest.of(page, PAGE_SIZE, sort)).getContent();
+			if (ids.isEmpty()) {
+				break;
+			}
+			pages.add(ids);
+		}
+		int orderCount = pages.stream().mapToInt(List::size).sum();
+
+		// Warms up, as the first reads also allocate what the persistence layer keeps
+		retainedHeap(pages, orderRepository::findByIdIn, orderCount);
+		retainedHeap(pages, orderRepository::findBriefsByIdIn, orderCount);
+
+		Timing.report("Heap retained by {} orders in pages of {}, bytes per page: entities with items, briefs",
+				orderCount, PAGE_SIZE);
+		for (int round = 0; round < ROUNDS; round++) {
+			long entityBytes = retainedHeap(pages, orderRepository::findByIdIn, orderCount);
+			long briefBytes = retainedHeap(pages, orderRepository::findBriefsByIdIn, orderCount);
+			Timing.report("{} / {}", entityBytes * PAGE_SIZE / orderCount, briefBytes * PAGE_SIZE / orderCount);
+		}
+	}
+
+	private long retainedHeap(List<List<Long>> pages, Function<List<Long>, List<?>> read, int orderCount) {
+		List<List<?>> kept = new ArrayList<>(pages.size());
+		for (List<Long> ids : pages) {
+			kept.add(read.apply(ids));
+			entityManager.clear();
+		}
+		Assert.assertEquals(orderCount, kept.stream().mapToInt(List::size).sum());
+		long withPages = Timing.usedHeap();
+		// The compiled code could otherwise let the pages be collected before the measurement
+		Reference.reachabilityFence(kept);
+		kept = null;
+		return withPages - Timing.usedHeap();
+	}
+}
@@ -0,0 +1,375 @@
+package com.vaadin.starter.bakery.backend.repositories;
+
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.YearMonth;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.Hibernate;
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.hql.internal.ast.ASTQueryTranslatorFactory;
+import org.hibernate.hql.spi.QueryTranslator;
+import org.hibernate.stat.Statistics;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.vaadin.starter.bakery.backend.data.DeliveryStats;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.DeliveryRollup;
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueDate;
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueTime;
+import com.vaadin.starter.bakery.backend.data.entity.Product;
+import com.vaadin.starter.bakery.backend.service.DeliveryRollupService;
+import com.vaadin.starter.bakery.test.DemoDataJpaTest;
+
+/**
+ * Runs the order queries against the generated demo data.
+ */
+@RunWith(SpringRunner.class)
+@DemoDataJpaTest
+@Import(DeliveryRollupService.class)
+public class OrderRepositoryTest {
+
+	private static final Collection<OrderState> NOT_AVAILABLE_STATES = EnumSet
+			.complementOf(EnumSet.of(OrderState.DELIVERED, OrderState.READY, OrderState.CANCELLED));
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private DeliveryRollupRepository rollupRepository;
+
+	@Autowired
+	private DeliveryRollupService rollupService;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Test
+	public void deliveryStatsMatchSeparateCounts() {
+		LocalDate today = LocalDate.now();
+		for (int i = -3; i <= 3; i++) {
+			LocalDate day = today.plusDays(i);
+			DeliveryStats expected = countSeparately(day);
+			DeliveryStats actual = orderRepository.getDeliveryStats(day, day.plusDays(1), OrderState.DELIVERED,
+					NOT_AVAILABLE_STATES, OrderState.NEW);
+
+			Assert.assertEquals(day.toString(), expected.getDueToday(), actual.getDueToday());
+			Assert.assertEquals(day.toString(), expected.getDueTomorrow(), actual.getDueTomorrow());
+			Assert.assertEquals(day.toString(), expected.getDeliveredToday(), actual.getDeliveredToday());
+			Assert.assertEquals(day.toString(), expected.getNotAvailableToday(), actual.getNotAvailableToday());
+			Assert.assertEquals(day.toString(), expected.getNewOrders(), actual.getNewOrders());
+		}
+	}
+
+	@Test
+	public void deliveryStatsWithoutOrders() {
+		LocalDate day = LocalDate.of(1990, 1, 1);
+		DeliveryStats stats = orderRepository.getDeliveryStats(day, day.plusDays(1), OrderState.DELIVERED,
+				NOT_AVAILABLE_STATES, OrderState.CANCELLED);
+
+		Assert.assertEquals(0, stats.getDueToday());
+		Assert.assertEquals(0, stats.getDueTomorrow());
+		Assert.assertEquals(0, stats.getDeliveredToday());
+		Assert.assertEquals(0, stats.getNotAvailableToday());
+		Assert.assertEquals(orderRepository.countByState(OrderState.CANCELLED), stats.getNewOrders());
+	}
+
+	@Test
+	public void dashboardProjectionsMatchFullEntities() {
+		LocalDate today = LocalDate.now();
+		LocalTime now = LocalTime.of(12, 0);
+		List<Order> orders = orderRepository.findAll();
+
+		Order next = orders.stream().filter(o -> o.getState() == OrderState.READY)
+				.filter(o -> o.getDueDate().isAfter(today)
+						|| (o.getDueDate().isEqual(today) && o.getDueTime().isAfter(now)))
+				.min(Comparator.comparing(Order::getDueDate).thenComparing(Order::getDueTime)).get();
+		OrderDueTime nextDue = orderRepository.findNextDue(OrderState.READY, today, now, PageRequest.of(0, 1))
+				.get(0);
+		Assert.assertEquals(next.getDueDate(), nextDue.getDueDate());
+		Assert.assertEquals(next.getDueTime(), nextDue.getDueTime());
+
+		LocalDate tomorrow = today.plusDays(1);
+		LocalTime firstDue = orders.stream().filter(o -> o.getDueDate().isEqual(tomorrow)).map(Order::getDueTime)
+				.min(Comparator.naturalOrder()).orElse(null);
+		Assert.assertEquals(firstDue, orderRepository.findFirstDueTime(tomorrow));
+
+		LocalDateTime lastPlaced = orders.stream().filter(o -> o.getState() == OrderState.NEW)
+				.map(o -> o.getHistory().get(0).getTimestamp()).max(Comparator.naturalOrder()).orElse(null);
+		Assert.assertEquals(lastPlaced, orderRepository.findLastPlaced(OrderState.NEW));
+	}
+
+	@Test
+	public void rollupQueriesUseStateAndDueDateIndex() throws Exception {
+		for (String method : new String[] { "countPerMonth", "countPerDay", "sumPerMonth", "countPerProduct" }) {
+			String plan = explain(DeliveryRollupRepository.class, method);
+			Assert.assertTrue(method + ": " + plan, plan.contains(DeliveryRollup.INDEX_STATE_DUE_DATE));
+		}
+	}
+
+	@Test
+	public void functionWrappedDueDateScansTable() {
+		String plan = explain("SELECT count(*) FROM OrderInfo o WHERE o.state=?1 AND year(o.dueDate)=?2 AND month(o.dueDate)=?3");
+		Assert.assertFalse(plan, plan.contains(Order.INDEX_STATE_DUE_DATE + ": STATE = ?1 AND DUE_DATE"));
+	}
+
+	@Test
+	public void keysetPagesUseDueDateTimeIdIndex() throws Exception {
+		Method method = OrderRepository.class.getMethod("findIdPageAfter", LocalDate.class, LocalTime.class,
+				Long.class, Pageable.class);
+		// The SQL has a placeholder for each occurrence of a parameter
+		LocalDate date = LocalDate.now();
+		String plan = explain(method.getAnnotation(Query.class).value(), date, date, LocalTime.NOON, LocalTime.NOON,
+				1L);
+		Assert.assertTrue(plan, plan.contains(Order.INDEX_DUE_DATE_TIME_ID));
+	}
+
+	@Test
+	public void firstDueDateMatchesFirstPage() throws Exception {
+		LocalDate yesterday = LocalDate.now().minusDays(1);
+		Pageable first = PageRequest.of(0, 1);
+		Order expected = orderRepository
+				.findByDueDateAfter(yesterday, PageRequest.of(0, 1, Sort.by("dueDate", "dueTime", "id")))
+				.getContent().get(0);
+		List<OrderDueDate> actual = orderRepository.findDueDatesAfter(yesterday, first);
+		Assert.assertEquals(expected.getId(), actual.get(0).getId());
+		Assert.assertEquals(expected.getDueDate(), actual.get(0).getDueDate());
+		Assert.assertEquals(actual.get(0).getId(),
+				orderRepository.findDueDatesByCustomerFullNameLikeAfter("%", yesterday, first).get(0).getId());
+
+		Method method = OrderRepository.class.getMethod("findDueDatesAfter", LocalDate.class, Pageable.class);
+		String plan = explain(method.getAnnotation(Query.class).value(), yesterday);
+		Assert.assertTrue(plan, plan.contains(Order.INDEX_DUE_DATE_TIME_ID));
+	}
+
+	@Test
+	public void keysetPagesMatchOffsetPages() {
+		Sort sort = Sort.by(Sort.Direction.ASC, "dueDate", "dueTime", "id");
+		int pageSize = 50;
+
+		int pages = comparePages(pageSize,
+				page -> briefs(orderRepository.findIds(PageRequest.of(page, pageSize, sort)).getContent()),
+				last -> briefs(orderRepository.findIdPageAfter(last.getDueDate(), last.getDueTime(), last.getId(),
+						PageRequest.of(0, pageSize))));
+		Assert.assertTrue(pages > 10);
+
+		comparePages(pageSize,
+				page -> briefs(orderRepository.findIdsByCustomerFullNameLike("%a%",
+						PageRequest.of(page, pageSize, sort)).getContent()),
+				last -> briefs(orderRepository.findIdPageByCustomerFullNameLikeAfter(last.getDueDate(),
+						last.getDueTime(), last.getId(), "%a%", PageRequest.of(0, pageSize))));
+	}
+
+	/**
+	 * Reads all pages with offsets and by seeking past the last order of the
+	 * previous page, checks that they contain the same orders and returns the
+	 * number of pages compared.
+	 */
+	private int comparePages(int pageSize, Function<Integer, List<OrderBrief>> offsetPage,
+			Function<OrderBrief, List<OrderBrief>> keysetPage) {
+		int pages = 0;
+		List<OrderBrief> expected = offsetPage.apply(0);
+		for (int page = 1; expected.size() == pageSize; page++) {
+			OrderBrief last = expected.get(expected.size() - 1);
+			entityManager.clear();
+			expected = offsetPage.apply(page);
+			Assert.assertEquals(ids(expected), ids(keysetPage.apply(last)));
+			pages++;
+		}
+		return pages;
+	}
+
+	private static List<Long> ids(List<OrderBrief> orders) {
+		return orders.stream().map(OrderBrief::getId).collect(Collectors.toList());
+	}
+
+	private List<OrderBrief> briefs(List<Long> ids) {
+		Map<Long, OrderBrief> briefs = orderRepository.findBriefsByIdIn(ids).stream()
+				.collect(Collectors.toMap(OrderBrief::getId, Function.identity()));
+		return ids.stream().map(briefs::get).collect(Collectors.toList());
+	}
+
+	@Test
+	public void briefsMatchEntities() {
+		Sort sort = Sort.by("dueDate", "dueTime", "id");
+		List<Order> orders = orderRepository.findAll(sort);
+		List<OrderBrief> briefs = briefs(orderRepository.findIds(PageRequest.of(0, orders.size(), sort)).getContent());
+
+		Assert.assertEquals(orders.size(), briefs.size());
+		for (int i = 0; i < orders.size(); i++) {
+			Assert.assertEquals(describe(new OrderBrief(orders.get(i))), describe(briefs.get(i)));
+		}
+	}
+
+	@Test
+	public void briefsAreReadWithoutEntities() {
+		Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		boolean enabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		List<Long> ids = orderRepository.findIds(PageRequest.of(0, 50, Sort.by("dueDate", "dueTime", "id")))
+				.getContent();
+		try {
+			entityManager.clear();
+			statistics.clear();
+			List<OrderBrief> briefs = orderRepository.findBriefsByIdIn(ids);
+			Assert.assertEquals(ids.size(), briefs.size());
+			// One statement for the page, and nothing kept in the persistence context
+			Assert.assertEquals(1, statistics.getPrepareStatementCount());
+			Assert.assertEquals(0, entityManager.unwrap(Session.class).getStatistics().getEntityCount());
+			Assert.assertEquals(0, statistics.getEntityLoadCount());
+		} finally {
+			statistics.setStatisticsEnabled(enabled);
+		}
+	}
+
+	@Test
+	public void briefsKeepLineBreaksInNames() {
+		Order order = orderRepository.findAll(PageRequest.of(0, 1)).getContent().get(0);
+		Product product = order.getItems().get(0).getProduct();
+		product.setName("Two\nline\\n\nbun\\");
+		entityManager.flush();
+		entityManager.clear();
+
+		OrderBrief brief = orderRepository.findBriefsByIdIn(List.of(order.getId())).get(0);
+		Assert.assertEquals(order.getItems().size(), brief.getItems().size());
+		Assert.assertEquals("Two\nline\\n\nbun\\", brief.getItems().get(0).getProductName());
+	}
+
+	@Test
+	public void fetchPlansLoadWhatTheirUseCaseShows() {
+		Statistics statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+		boolean enabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		List<Long> ids = orderRepository.findIds(PageRequest.of(0, 50, Sort.by("dueDate", "dueTime", "id")))
+				.getContent();
+		try {
+			// Order lists: no items
+			entityManager.clear();
+			statistics.clear();
+			List<Order> page = orderRepository.findAll(PageRequest.of(0, 50)).getContent();
+			Assert.assertFalse(page.stream().anyMatch(order -> Hibernate.isInitialized(order.getItems())));
+			Assert.assertTrue(Hibernate.isInitialized(page.get(0).getCustomer()));
+			// The page and its count
+			Assert.assertEquals(2, statistics.getPrepareStatementCount());
+
+			// Cards read by id: the items and their products in the same query
+			entityManager.clear();
+			statistics.clear();
+			List<Order> cards = orderRepository.findByIdIn(ids);
+			cards.forEach(order -> order.getItems().forEach(item -> item.getProduct().getName()));
+			Assert.assertEquals(ids.size(), cards.size());
+			Assert.assertEquals(1, statistics.getPrepareStatementCount());
+
+			// Editor: the items and the history in the same query
+			entityManager.clear();
+			statistics.clear();
+			Order order = orderRepository.findById(ids.get(0)).get();
+			order.getItems().forEach(item -> item.getProduct().getName());
+			order.getHistory().forEach(item -> item.getCreatedBy().getEmail());
+			Assert.assertEquals(1, statistics.getPrepareStatementCount());
+		} finally {
+			statistics.setStatisticsEnabled(enabled);
+		}
+	}
+
+	private static String describe(OrderBrief order) {
+		return order.getId() + " " + order.getDueDate() + " " + order.getDueTime() + " " + order.getState() + " "
+				+ order.getCustomerFullName() + " " + order.getCustomerPhoneNumber() + " "
+				+ order.getPickupLocationName() + " " + order.getItems().stream()
+						.map(item -> item.getQuantity() + " " + item.getProductName()).collect(Collectors.toList());
+	}
+
+	@Test
+	public void rollupMatchesOrderQueries() {
+		rollupService.rebuild();
+		YearMonth month = YearMonth.now().minusMonths(1);
+		LocalDate from = month.atDay(1);
+		LocalDate to = month.plusMonths(1).atDay(1);
+		LocalDate yearStart = LocalDate.of(month.getYear() - 2, 1, 1);
+		LocalDate yearEnd = LocalDate.of(month.getYear() + 1, 1, 1);
+
+		assertRows(aggregate(OrderAggregates.COUNT_PER_DAY, from, to),
+				rollupRepository.countPerDay(OrderState.DELIVERED, from, to));
+		assertRows(aggregate(OrderAggregates.COUNT_PER_MONTH, yearStart, yearEnd),
+				rollupRepository.countPerMonth(OrderState.DELIVERED, yearStart, yearEnd));
+		assertRows(aggregate(OrderAggregates.SUM_PER_MONTH, yearStart, yearEnd),
+				rollupRepository.sumPerMonth(OrderState.DELIVERED, yearStart, yearEnd));
+		assertRows(aggregate(OrderAggregates.COUNT_PER_PRODUCT, from, to),
+				rollupRepository.countPerProduct(OrderState.DELIVERED, from, to));
+	}
+
+	private List<Object[]> aggregate(String jpql, LocalDate from, LocalDate to) {
+		return OrderAggregates.query(entityManager, jpql, OrderState.DELIVERED, from, to);
+	}
+
+	private void assertRows(List<Object[]> expected, List<Object[]> actual) {
+		Assert.assertFalse(expected.isEmpty());
+		Assert.assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertArrayEquals(expected.get(i), actual.get(i));
+		}
+	}
+
+	/**
+	 * Returns the H2 query plan of the SQL that Hibernate generates for the
+	 * query of a repository method taking (state, from, to).
+	 */
+	private String explain(Class<?> repository, String methodName) throws NoSuchMethodException {
+		Method method = repository.getMethod(methodName, OrderState.class, LocalDate.class, LocalDate.class);
+		return explain(method.getAnnotation(Query.class).value());
+	}
+
+	private String explain(String jpql) {
+		return explain(jpql, OrderState.DELIVERED.ordinal(), LocalDate.now().minusMonths(1), LocalDate.now());
+	}
+
+	private String explain(String jpql, Object... parameters) {
+		SessionFactoryImplementor sessionFactory = entityManager.getEntityManagerFactory()
+				.unwrap(SessionFactoryImplementor.class);
+		QueryTranslator translator = new ASTQueryTranslatorFactory().createQueryTranslator(jpql, jpql,
+				Collections.emptyMap(), sessionFactory, null);
+		translator.compile(Collections.emptyMap(), false);
+
+		javax.persistence.Query explain = entityManager.createNativeQuery("EXPLAIN " + translator.getSQLString());
+		for (int i = 0; i < parameters.length; i++) {
+			explain.setParameter(i + 1, parameters[i]);
+		}
+		return String.valueOf(explain.getSingleResult());
+	}
+
+	private DeliveryStats countSeparately(LocalDate day) {
+		DeliveryStats stats = new DeliveryStats();
+		stats.setDueToday((int) orderRepository.countByDueDate(day));
+		stats.setDueTomorrow((int) orderRepository.countByDueDate(day.plusDays(1)));
+		stats.setDeliveredToday(
+				(int) orderRepository.countByDueDateAndStateIn(day, Collections.singleton(OrderState.DELIVERED)));
+		stats.setNotAvailableToday((int) orderRepository.countByDueDateAndStateIn(day, NOT_AVAILABLE_STATES));
+		stats.setNewOrders((int) orderRepository.countByState(OrderState.NEW));
+		return stats;
+	}
+}
@@ -0,0 +1,150 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.flow.shared.Registration;
+import com.vaadin.starter.bakery.backend.data.DashboardUpdate;
+import com.vaadin.starter.bakery.backend.data.OrderState;
+
+public class DashboardBroadcasterTest {
+
+	private static final LocalDate TODAY = LocalDate.of(2021, 3, 15);
+
+	private final List<Runnable> pendingFlushes = new ArrayList<>();
+	private final List<DeliveryRollupService.Figures> reloads = new ArrayList<>();
+	private final List<DashboardUpdate> updates = new ArrayList<>();
+	private RuntimeException reloadFailure;
+	private DashboardBroadcaster broadcaster;
+
+	@Before
+	public void setup() {
+		broadcaster = new DashboardBroadcaster(pendingFlushes::add, () -> TODAY, (changes, today) -> {
+			if (reloadFailure != null) {
+				throw reloadFailure;
+			}
+			reloads.add(changes);
+			return new DashboardUpdate(YearMonth.from(today));
+		});
+		broadcaster.register(updates::add);
+	}
+
+	private void runFlushes() {
+		List<Runnable> flushes = new ArrayList<>(pendingFlushes);
+		pendingFlushes.clear();
+		flushes.forEach(Runnable::run);
+	}
+
+	private static DeliveryRollupService.Figures order(LocalDate dueDate, OrderState state, Long productId,
+			int quantity, int price) {
+		DeliveryRollupService.Figures figures = new DeliveryRollupService.Figures();
+		figures.add(dueDate, state, null, 1L, 1, 0, 0);
+		figures.add(dueDate, state, productId, 1L, 1, quantity, (long) quantity * price);
+		return figures;
+	}
+
+	private static DeliveryRollupService.Figures change(DeliveryRollupService.Figures before,
+			DeliveryRollupService.Figures after) {
+		after.subtract(before);
+		return after;
+	}
+
+	/**
+	 * Returns the number of orders of the changes by due date and state.
+	 */
+	private static Map<String, Long> orders(DeliveryRollupService.Figures changes) {
+		Map<String, Long> orders = new TreeMap<>();
+		changes.forEach((dueDate, state, productId, pickupLocationId, count, quantity, sales) -> {
+			if (productId == null) {
+				orders.merge(dueDate + " " + state, count, Long::sum);
+			}
+		});
+		return orders;
+	}
+
+	@Test
+	public void changesAreReloadedAndSentInOneBatch() {
+		broadcaster.publish(order(TODAY, OrderState.NEW, 1L, 2, 100));
+		broadcaster.publish(order(TODAY.plusDays(1), OrderState.NEW, 1L, 1, 100));
+		broadcaster.publish(change(order(TODAY, OrderState.READY, 1L, 3, 100),
+				order(TODAY, OrderState.DELIVERED, 1L, 3, 100)));
+		Assert.assertEquals("Only one flush is scheduled", 1, pendingFlushes.size());
+		Assert.assertTrue(reloads.isEmpty());
+		Assert.assertTrue(updates.isEmpty());
+
+		runFlushes();
+		Assert.assertEquals("The sections are reloaded once for all listeners", 1, reloads.size());
+		Assert.assertEquals(Map.of(TODAY + " NEW", 1L, TODAY.plusDays(1) + " NEW", 1L, TODAY + " READY", -1L,
+				TODAY + " DELIVERED", 1L), orders(reloads.get(0)));
+		Assert.assertEquals(1, updates.size());
+		Assert.assertEquals(YearMonth.from(TODAY), updates.get(0).getMonth());
+	}
+
+	@Test
+	public void changesCancellingEachOtherAreNotSent() {
+		DeliveryRollupService.Figures placed = order(TODAY, OrderState.NEW, 1L, 2, 100);
+		broadcaster.publish(placed);
+		broadcaster.publish(change(placed, new DeliveryRollupService.Figures()));
+		runFlushes();
+
+		Assert.assertTrue(reloads.isEmpty());
+		Assert.assertTrue(updates.isEmpty());
+	}
+
+	@Test
+	public void nextChangeSchedulesNewBatch() {
+		broadcaster.publish(order(TODAY, OrderState.NEW, 1L, 2, 100));
+		runFlushes();
+		broadcaster.publish(order(TODAY, OrderState.PROBLEM, 1L, 2, 100));
+		Assert.assertEquals(1, pendingFlushes.size());
+		runFlushes();
+
+		Assert.assertEquals(2, updates.size());
+		Assert.assertEquals(Map.of(TODAY + " PROBLEM", 1L), orders(reloads.get(1)));
+	}
+
+	@Test
+	public void nothingIsReloadedWithoutListeners() {
+		DashboardBroadcaster unused = new DashboardBroadcaster(pendingFlushes::add, () -> TODAY, (changes, today) -> {
+			reloads.add(changes);
+			return new DashboardUpdate(YearMonth.from(today));
+		});
+		unused.publish(order(TODAY, OrderState.NEW, 1L, 2, 100));
+		runFlushes();
+
+		Assert.assertTrue(reloads.isEmpty());
+	}
+
+	@Test
+	public void failedReloadIsNotSent() {
+		reloadFailure = new IllegalStateException("Database not available");
+		broadcaster.publish(order(TODAY, OrderState.NEW, 1L, 2, 100));
+		runFlushes();
+		Assert.assertTrue(updates.isEmpty());
+
+		reloadFailure = null;
+		broadcaster.publish(order(TODAY, OrderState.NEW, 1L, 2, 100));
+		runFlushes();
+		Assert.assertEquals(1, updates.size());
+	}
+
+	@Test
+	public void removedListenerIsNotCalled() {
+		List<DashboardUpdate> other = new ArrayList<>();
+		Registration registration = broadcaster.register(other::add);
+		registration.remove();
+		broadcaster.publish(order(TODAY, OrderState.NEW, 1L, 2, 100));
+		runFlushes();
+
+		Assert.assertEquals(1, updates.size());
+		Assert.assertTrue(other.isEmpty());
+	}
+}
@@ -0,0 +1,210 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.OrderItem;
+import com.vaadin.starter.bakery.backend.data.entity.Product;
+import com.vaadin.starter.bakery.backend.repositories.OrderAggregates;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+import com.vaadin.starter.bakery.backend.service.DeliveredItemStore.Dimension;
+import com.vaadin.starter.bakery.backend.service.DeliveredItemStore.Measure;
+import com.vaadin.starter.bakery.test.DemoDataJpaTest;
+
+/**
+ * Compares the in-memory store with the delivered orders of the generated demo
+ * data.
+ */
+@RunWith(SpringRunner.class)
+@DemoDataJpaTest
+@Import(DeliveredItemStore.class)
+public class DeliveredItemStoreTest {
+
+	@Autowired
+	private DeliveredItemStore store;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	private List<Order> delivered;
+
+	@Before
+	public void setup() {
+		store.rebuild();
+		delivered = orderRepository.findAll().stream().filter(order -> order.getState() == OrderState.DELIVERED)
+				.collect(Collectors.toList());
+	}
+
+	@Test
+	public void salesPerPickupLocationAndWeekMatchAggregateQuery() {
+		LocalDate from = LocalDate.now().minusYears(2);
+		LocalDate to = LocalDate.now();
+
+		// The weeks are folded from the days, as the SQL week functions differ by database
+		Map<Integer, Map<Integer, Long>> expected = new HashMap<>();
+		List<Object[]> rows = entityManager.getEntityManager().createQuery(
+				"SELECT o.pickupLocation.id, o.dueDate, sum(oi.quantity*p.price) FROM OrderInfo o JOIN o.items oi "
+						+ "JOIN oi.product p WHERE o.state=?1 AND o.dueDate>=?2 AND o.dueDate<?3 "
+						+ "GROUP BY o.pickupLocation.id, o.dueDate",
+				Object[].class).setParameter(1, OrderState.DELIVERED).setParameter(2, from).setParameter(3, to)
+				.getResultList();
+		for (Object[] row : rows) {
+			int location = ((Long) row[0]).intValue();
+			int week = (int) ((LocalDate) row[1]).with(DayOfWeek.MONDAY).toEpochDay();
+			expected.computeIfAbsent(location, key -> new HashMap<>()).merge(week, ((Number) row[2]).longValue(),
+					Long::sum);
+		}
+
+		Map<Integer, Map<Integer, Long>> actual = store.sum(Measure.SALES, Dimension.PICKUP_LOCATION,
+				Dimension.WEEK, from, to, null, null);
+		Assert.assertFalse(actual.isEmpty());
+		Assert.assertEquals(expected, actual);
+	}
+
+	@Test
+	public void productMixPerWeekday() {
+		LocalDate from = LocalDate.of(1990, 1, 1);
+		LocalDate to = LocalDate.now().plusYears(1);
+		Long productId = delivered.get(0).getItems().get(0).getProduct().getId();
+
+		Map<Integer, Map<Integer, Long>> expected = new HashMap<>();
+		Map<Integer, Long> expectedForProduct = new HashMap<>();
+		for (Order order : delivered) {
+			int weekday = order.getDueDate().getDayOfWeek().getValue();
+			for (OrderItem item : order.getItems()) {
+				int product = item.getProduct().getId().intValue();
+				expected.computeIfAbsent(weekday, key -> new HashMap<>()).merge(product, (long) item.getQuantity(),
+						Long::sum);
+				if (item.getProduct().getId().equals(productId)) {
+					expectedForProduct.merge(weekday, (long) item.getQuantity(), Long::sum);
+				}
+			}
+		}
+
+		Assert.assertEquals(expected,
+				store.sum(Measure.QUANTITY, Dimension.WEEKDAY, Dimension.PRODUCT, from, to, null, null));
+		Assert.assertEquals(expectedForProduct,
+				store.sum(Measure.QUANTITY, Dimension.WEEKDAY, from, to, productId, null));
+	}
+
+	@Test
+	public void productSplitMatchesAggregateQuery() {
+		LocalDate today = LocalDate.now();
+		LocalDate[][] ranges = { { today.withDayOfMonth(1), today.withDayOfMonth(1).plusMonths(1) },
+				{ today.minusDays(10), today.plusDays(3) }, { today.minusYears(1), today },
+				{ today.minusYears(5), today.plusYears(1) } };
+
+		for (LocalDate[] range : ranges) {
+			Map<Long, Long> expected = new HashMap<>();
+			for (Object[] row : OrderAggregates.query(entityManager.getEntityManager(),
+					OrderAggregates.COUNT_PER_PRODUCT, OrderState.DELIVERED, range[0], range[1])) {
+				expected.put(((Product) row[1]).getId(), (Long) row[0]);
+			}
+			Assert.assertEquals(expected, store.sumQuantityPerProduct(range[0], range[1]));
+		}
+	}
+
+	@Test
+	public void appendedChangesAreSummed() {
+		Order order = delivered.get(0);
+		OrderItem item = order.getItems().get(0);
+		LocalDate dueDate = order.getDueDate();
+		Long productId = item.getProduct().getId();
+		Long locationId = order.getPickupLocation().getId();
+		Map<Integer, Long> before = store.sum(Measure.QUANTITY, Dimension.MONTH, dueDate, dueDate.plusDays(1),
+				productId, locationId);
+		long splitBefore = store.sumQuantityPerProduct(dueDate, dueDate.plusDays(1)).get(productId);
+
+		// The order is moved back to ready, then delivered with two more items
+		DeliveryRollupService.Figures undelivered = new DeliveryRollupService.Figures();
+		undelivered.add(dueDate, OrderState.DELIVERED, productId, locationId, -1, -item.getQuantity(),
+				-item.getTotalPrice());
+		undelivered.add(dueDate, OrderState.READY, productId, locationId, 1, item.getQuantity(),
+				item.getTotalPrice());
+		store.append(undelivered);
+		DeliveryRollupService.Figures redelivered = new DeliveryRollupService.Figures();
+		redelivered.add(dueDate, OrderState.DELIVERED, productId, locationId, 1, item.getQuantity() + 2,
+				(long) (item.getQuantity() + 2) * item.getProduct().getPrice());
+		store.append(redelivered);
+
+		int month = dueDate.getYear() * 100 + dueDate.getMonthValue();
+		Map<Integer, Long> after = store.sum(Measure.QUANTITY, Dimension.MONTH, dueDate, dueDate.plusDays(1),
+				productId, locationId);
+		Assert.assertEquals(before.get(month) + 2, after.get(month).longValue());
+		Assert.assertEquals(splitBefore + 2,
+				store.sumQuantityPerProduct(dueDate, dueDate.plusDays(1)).get(productId).longValue());
+	}
+
+	@Test
+	public void cancellingChangesAreMerged() {
+		Order order = delivered.get(0);
+		OrderItem item = order.getItems().get(0);
+		LocalDate dueDate = order.getDueDate();
+		Long productId = item.getProduct().getId();
+		Long locationId = order.getPickupLocation().getId();
+		LocalDate from = LocalDate.of(1990, 1, 1);
+		LocalDate to = LocalDate.now().plusYears(1);
+		Map<Integer, Map<Integer, Long>> before = store.sum(Measure.SALES, Dimension.PRODUCT,
+				Dimension.PICKUP_LOCATION, from, to, null, null);
+		int size = store.size();
+
+		// The order is moved back to ready and delivered again, over and over
+		for (int i = 0; i < 5000; i++) {
+			DeliveryRollupService.Figures undelivered = new DeliveryRollupService.Figures();
+			undelivered.add(dueDate, OrderState.DELIVERED, productId, locationId, -1, -item.getQuantity(),
+					-item.getTotalPrice());
+			store.append(undelivered);
+			DeliveryRollupService.Figures redelivered = new DeliveryRollupService.Figures();
+			redelivered.add(dueDate, OrderState.DELIVERED, productId, locationId, 1, item.getQuantity(),
+					item.getTotalPrice());
+			store.append(redelivered);
+		}
+
+		Assert.assertTrue(store.size() < size + 2000);
+		Assert.assertEquals(before,
+				store.sum(Measure.SALES, Dimension.PRODUCT, Dimension.PICKUP_LOCATION, from, to, null, null));
+	}
+
+	@Test
+	public void productsAreGroupedByTheirIds() {
+		LocalDate dueDate = delivered.get(0).getDueDate();
+		Long locationId = delivered.get(0).getPickupLocation().getId();
+		// Ids far beyond the other ones, as handed out by a shared sequence
+		long productId = Integer.MAX_VALUE - 1L;
+		Map<Integer, Long> before = store.sum(Measure.QUANTITY, Dimension.PRODUCT, dueDate, dueDate.plusDays(1),
+				null, null);
+		Assert.assertEquals(new HashMap<>(), store.sum(Measure.QUANTITY, Dimension.PRODUCT, dueDate,
+				dueDate.plusDays(1), productId, null));
+
+		DeliveryRollupService.Figures delivery = new DeliveryRollupService.Figures();
+		delivery.add(dueDate, OrderState.DELIVERED, productId, locationId, 1, 3, 300);
+		store.append(delivery);
+
+		Map<Integer, Long> expected = new HashMap<>(before);
+		expected.put(Integer.MAX_VALUE - 1, 3L);
+		Assert.assertEquals(expected, store.sum(Measure.QUANTITY, Dimension.PRODUCT, dueDate, dueDate.plusDays(1),
+				null, null));
+		Assert.assertEquals(Map.of((int) productId, 3L), store.sum(Measure.QUANTITY, Dimension.PRODUCT, dueDate,
+				dueDate.plusDays(1), productId, null));
+		Assert.assertEquals(new HashMap<>(), store.sum(Measure.QUANTITY, Dimension.PRODUCT, dueDate,
+				dueDate.plusDays(1), productId, Long.valueOf(Integer.MAX_VALUE)));
+	}
+}
@@ -0,0 +1,173 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.DeliveryRollup;
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.OrderItem;
+import com.vaadin.starter.bakery.backend.data.entity.User;
+import com.vaadin.starter.bakery.backend.repositories.DeliveryRollupRepository;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.ProductRepository;
+import com.vaadin.starter.bakery.backend.repositories.UserRepository;
+import com.vaadin.starter.bakery.test.DemoDataJpaTest;
+
+/**
+ * Writes orders through the service and compares the rollup with the
+ * aggregate queries over the order tables that it is rebuilt from.
+ */
+@RunWith(SpringRunner.class)
+@DemoDataJpaTest
+@Import({ OrderService.class, OrderArchiveService.class, DeliveryRollupService.class, DeliveredItemStore.class,
+		OrderSearchIndex.class, DashboardBroadcaster.class })
+public class DeliveryRollupServiceTest {
+
+	@Autowired
+	private OrderService orderService;
+
+	@Autowired
+	private DeliveryRollupService rollupService;
+
+	@Autowired
+	private DeliveryRollupRepository rollupRepository;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private TestEntityManager entityManager;
+
+	private User user;
+
+	@Before
+	public void setup() {
+		rollupService.rebuild();
+		user = userRepository.findAll().get(0);
+	}
+
+	@Test
+	public void rollupMatchesOrdersAfterUpdateCancelAndDelete() {
+		Assert.assertEquals(aggregated(), rollup());
+		Long id = orderRepository.findAll().stream()
+				.filter(o -> o.getState() == OrderState.NEW && o.getItems().size() > 1).findFirst().get().getId();
+		// Edited detached, like in the order editor
+		entityManager.clear();
+		Order order = orderService.load(id);
+		entityManager.clear();
+
+		OrderItem item = order.getItems().get(0);
+		item.setQuantity(item.getQuantity() + 2);
+		order.getItems().remove(1);
+		order.setDueDate(order.getDueDate().plusDays(1));
+		order = orderService.save(user, order);
+		Assert.assertEquals(aggregated(), rollup());
+
+		entityManager.clear();
+		order.changeState(user, OrderState.CANCELLED);
+		order = orderService.save(user, order);
+		Assert.assertEquals(aggregated(), rollup());
+
+		entityManager.clear();
+		orderService.delete(user, orderService.load(id));
+		Assert.assertEquals(aggregated(), rollup());
+	}
+
+	@Test
+	public void ordersWithoutPickupLocationShareTheirRows() {
+		LocalDate dueDate = LocalDate.of(2001, 2, 3);
+		Order order = new Order(user);
+		order.setDueDate(dueDate);
+		OrderItem item = new OrderItem();
+		item.setProduct(productRepository.findAll().get(0));
+		item.setQuantity(3);
+		order.getItems().add(item);
+
+		DeliveryRollupService.Figures placed = rollupService.update(new DeliveryRollupService.Figures(), order);
+		rollupService.update(new DeliveryRollupService.Figures(), order);
+		List<DeliveryRollup> rows = rows(dueDate);
+		Assert.assertEquals("One row for the orders and one for the product", 2, rows.size());
+		for (DeliveryRollup row : rows) {
+			Assert.assertNull(row.getPickupLocationId());
+			Assert.assertEquals(2, row.getOrderCount());
+		}
+
+		rollupService.update(placed, null);
+		rollupService.update(placed, null);
+		rows = rows(dueDate);
+		Assert.assertEquals(2, rows.size());
+		for (DeliveryRollup row : rows) {
+			Assert.assertEquals(0, row.getOrderCount());
+			Assert.assertEquals(0, row.getQuantity());
+			Assert.assertEquals(0, row.getSales());
+		}
+	}
+
+	private List<DeliveryRollup> rows(LocalDate dueDate) {
+		// The rollup is changed with bulk updates, which bypass the persistence context
+		entityManager.flush();
+		entityManager.clear();
+		return rollupRepository.findAll().stream().filter(row -> row.getDueDate().equals(dueDate))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Returns the figures (orders, quantity, sales) of the rollup by due date,
+	 * state, product and pickup location, leaving out the keys without any.
+	 */
+	private Map<List<Object>, List<Long>> rollup() {
+		Map<List<Object>, List<Long>> figures = new HashMap<>();
+		entityManager.flush();
+		entityManager.clear();
+		for (DeliveryRollup row : rollupRepository.findAll()) {
+			add(figures, row.getDueDate(), row.getState(), row.getProductId(), row.getPickupLocationId(),
+					row.getOrderCount(), row.getQuantity(), row.getSales());
+		}
+		figures.values().removeIf(values -> values.stream().allMatch(value -> value == 0));
+		return figures;
+	}
+
+	/**
+	 * Returns the figures of the queries the rollup is rebuilt from, like
+	 * {@link #rollup()}.
+	 */
+	private Map<List<Object>, List<Long>> aggregated() {
+		Map<List<Object>, List<Long>> figures = new HashMap<>();
+		for (Object[] row : rollupRepository.aggregateOrders()) {
+			add(figures, row[0], row[1], null, row[2], (Long) row[3], 0, 0);
+		}
+		for (Object[] row : rollupRepository.aggregateOrderItems()) {
+			add(figures, row[0], row[1], row[3], row[2], (Long) row[4], (Long) row[5], (Long) row[6]);
+		}
+		return figures;
+	}
+
+	private static void add(Map<List<Object>, List<Long>> figures, Object dueDate, Object state, Object productId,
+			Object pickupLocationId, long orders, long quantity, long sales) {
+		List<Long> values = figures.computeIfAbsent(Arrays.asList(dueDate, state, productId, pickupLocationId),
+				key -> Arrays.asList(0L, 0L, 0L));
+		values.set(0, values.get(0) + orders);
+		values.set(1, values.get(1) + quantity);
+		values.set(2, values.get(2) + sales);
+	}
+}
@@ -0,0 +1,300 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.transaction.TestTransaction;
+
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.ArchivedOrder;
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.OrderItem;
+import com.vaadin.starter.bakery.backend.data.entity.OrderSortKey;
+import com.vaadin.starter.bakery.backend.data.entity.User;
+import com.vaadin.starter.bakery.backend.repositories.ArchivedOrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.DeliveryRollupRepository;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.PickupLocationRepository;
+import com.vaadin.starter.bakery.backend.repositories.ProductRepository;
+import com.vaadin.starter.bakery.backend.repositories.UserRepository;
+import com.vaadin.starter.bakery.test.DemoDataJpaTest;
+
+/**
+ * Archives the oldest orders and checks that the storefront, with past orders
+ * shown, and the rebuilt reporting data are the same as before, and that an
+ * archived order is read when it is opened and restored when it is changed.
+ */
+@RunWith(SpringRunner.class)
+@DemoDataJpaTest
+@Import({ OrderService.class, OrderArchiveService.class, DeliveryRollupService.class, DeliveredItemStore.class,
+		OrderSearchIndex.class, DashboardBroadcaster.class })
+public class OrderArchiveServiceTest {
+
+	@Autowired
+	private OrderArchiveService orderArchive;
+
+	@Autowired
+	private OrderService orderService;
+
+	@Autowired
+	private DeliveryRollupService rollupService;
+
+	@Autowired
+	private OrderSearchIndex searchIndex;
+
+	@Autowired
+	private DeliveredItemStore deliveredItemStore;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private ArchivedOrderRepository archivedOrderRepository;
+
+	@Autowired
+	private DeliveryRollupRepository rollupRepository;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private PickupLocationRepository pickupLocationRepository;
+
+	@Test
+	public void archivedOrdersAreStillListed() {
+		// Each batch commits on its own
+		TestTransaction.end();
+		Optional<LocalDate> yesterday = Optional.of(LocalDate.now().minusDays(1));
+		long count = orderRepository.count();
+		long upcoming = orderRepository.countByDueDateAfter(yesterday.get());
+		List<Long> all = orderRepository.findIds(PageRequest.of(0, (int) count, OrderSearchIndex.SORT)).getContent();
+		List<Long> matching = orderRepository
+				.findIdsByCustomerFullNameLike("%A%", PageRequest.of(0, (int) count, OrderSearchIndex.SORT))
+				.getContent();
+		deliveredItemStore.rebuild();
+		int deliveredItems = deliveredItemStore.size();
+		rollupService.rebuild();
+		List<String> rollup = rollup();
+
+		LocalDate dueBefore = orderRepository.findDueDates(PageRequest.of(0, 1)).get(0).getDueDate().plusDays(20);
+		try {
+			int batches = 0;
+			int archived = 0;
+			for (int moved = 25; moved == 25; batches++) {
+				moved = orderArchive.archive(dueBefore, 25);
+				archived += moved;
+			}
+			Assert.assertTrue(batches > 2);
+			Assert.assertEquals(archived, archivedOrderRepository.count());
+			Assert.assertEquals(count - archived, orderRepository.count());
+			for (ArchivedOrder order : archivedOrderRepository.findAll()) {
+				Assert.assertTrue(order.getDueDate().isBefore(dueBefore));
+				Assert.assertTrue(OrderArchiveService.ARCHIVED_STATES.contains(order.getState()));
+			}
+
+			// The upcoming orders are read from the order tables only
+			Assert.assertFalse(orderArchive.includes(yesterday));
+			Assert.assertEquals(upcoming, orderService.countAnyMatchingAfterDueDate(Optional.empty(), yesterday));
+
+			// Past orders are merged from both, in the shared first orders and beyond them
+			Assert.assertTrue(orderArchive.includes(Optional.empty()));
+			Assert.assertEquals(count, orderService.countAnyMatchingAfterDueDate(Optional.empty(), Optional.empty()));
+			Assert.assertEquals(matching.size(),
+					orderService.countAnyMatchingAfterDueDate(Optional.of("a"), Optional.empty()));
+			assertPages(all, matching);
+			OrderBrief last = orderService.findBriefsAfterDueDate(Optional.of("a"), Optional.empty(),
+					PageRequest.of(0, 50, OrderSearchIndex.SORT)).getContent().get(9);
+			Assert.assertEquals(slice(matching, 10, 50),
+					ids(orderService.findBriefsAfter(Optional.of("a"), Optional.empty(), last, 50)));
+			Assert.assertEquals(all.get(0),
+					orderService.findFirstMatchingAfterDueDate(Optional.empty(), Optional.empty()).get().getId());
+
+			// The rebuilds span the archive
+			searchIndex.rebuild();
+			Assert.assertEquals(count, searchIndex.size());
+			deliveredItemStore.rebuild();
+			Assert.assertEquals(deliveredItems, deliveredItemStore.size());
+			rollupService.rebuild();
+			Assert.assertEquals(rollup, rollup());
+
+			// Opening an archived order reads it from the archive
+			Long id = all.get(0);
+			Assert.assertTrue(archivedOrderRepository.existsById(id));
+			Order order = orderService.load(id);
+			Assert.assertEquals(id, order.getId());
+			Assert.assertFalse(order.getItems().isEmpty());
+			Assert.assertTrue(archivedOrderRepository.existsById(id));
+			Assert.assertFalse(orderRepository.existsById(id));
+
+			// Restored orders are merged with the archived ones
+			for (int i = 0; i < archived; i += archived / 5) {
+				Assert.assertTrue(orderArchive.restore(all.get(i)));
+			}
+			Assert.assertTrue(orderRepository.existsById(id));
+			Assert.assertEquals(id,
+					orderService.findFirstMatchingAfterDueDate(Optional.empty(), Optional.empty()).get().getId());
+			assertPages(all, matching);
+		} finally {
+			for (ArchivedOrder order : archivedOrderRepository.findAll()) {
+				orderArchive.restore(order.getId());
+			}
+			rollupService.rebuild();
+		}
+		Assert.assertEquals(count, orderRepository.count());
+	}
+
+	@Test
+	public void archivedOrdersAreRestoredWhenChanged() {
+		TestTransaction.end();
+		User user = userRepository.findAll().get(0);
+		LocalDate first = orderRepository.findDueDates(PageRequest.of(0, 1)).get(0).getDueDate();
+		Order created = orderService.saveOrder(user, null, (createdBy, order) -> {
+			order.setDueDate(first);
+			order.setDueTime(LocalTime.NOON);
+			order.setPickupLocation(pickupLocationRepository.findAll().get(0));
+			order.getCustomer().setFullName("Archived Customer");
+			order.getCustomer().setPhoneNumber("+358 555 0100");
+			OrderItem item = new OrderItem();
+			item.setProduct(productRepository.findAll().get(0));
+			order.getItems().add(item);
+			order.changeState(createdBy, OrderState.DELIVERED);
+		});
+		try {
+			while (orderArchive.archive(first.plusDays(3), 25) == 25) {
+				// Until all are archived
+			}
+			List<Long> archived = archivedOrderRepository.findAll().stream().map(ArchivedOrder::getId)
+					.filter(id -> !id.equals(created.getId())).collect(Collectors.toList());
+			Assert.assertTrue(archived.size() > 2);
+			Assert.assertTrue(archivedOrderRepository.existsById(created.getId()));
+
+			// Saving moves the order back with the changes
+			Order opened = orderService.load(archived.get(0));
+			opened.getCustomer().setDetails("Restored");
+			orderService.save(user, opened);
+			Assert.assertFalse(archivedOrderRepository.existsById(opened.getId()));
+			Assert.assertEquals("Restored", orderService.load(opened.getId()).getCustomer().getDetails());
+
+			// Archiving keeps the version, so the order shown can be commented
+			Order commented = orderService.load(archived.get(1));
+			int history = commented.getHistory().size();
+			commented = orderService.addComment(user, commented, "Comment on an archived order");
+			Assert.assertEquals(history + 1, commented.getHistory().size());
+			Assert.assertFalse(archivedOrderRepository.existsById(commented.getId()));
+
+			// Deleting removes the archived rows
+			orderService.delete(user, orderService.load(created.getId()));
+			Assert.assertFalse(archivedOrderRepository.existsById(created.getId()));
+			Assert.assertFalse(orderRepository.existsById(created.getId()));
+		} finally {
+			for (ArchivedOrder order : archivedOrderRepository.findAll()) {
+				orderArchive.restore(order.getId());
+			}
+			if (orderRepository.existsById(created.getId())) {
+				orderService.delete(user, orderService.load(created.getId()));
+			}
+		}
+	}
+
+	@Test
+	public void restoreWaitsForListsReadingBothTables() throws Exception {
+		TestTransaction.end();
+		LocalDate first = orderRepository.findDueDates(PageRequest.of(0, 1)).get(0).getDueDate();
+		try {
+			while (orderArchive.archive(first.plusDays(3), 25) == 25) {
+				// Until all are archived
+			}
+			Long id = orderService.findFirstMatchingAfterDueDate(Optional.empty(), Optional.empty()).get().getId();
+			Assert.assertTrue(archivedOrderRepository.existsById(id));
+
+			CountDownLatch reading = new CountDownLatch(1);
+			CountDownLatch restoring = new CountDownLatch(1);
+			// Stops between reading the order tables and the archive
+			CompletableFuture<List<OrderSortKey>> listed = CompletableFuture
+					.supplyAsync(() -> orderArchive.findMergedSortKeys((orders, page) -> {
+						if (orders == archivedOrderRepository) {
+							reading.countDown();
+							await(restoring);
+						}
+						return orders.findSortKeys(page);
+					}, 10));
+			await(reading);
+			CompletableFuture<Boolean> restored = CompletableFuture.supplyAsync(() -> orderArchive.restore(id));
+			Thread.sleep(200);
+			Assert.assertFalse(restored.isDone());
+			restoring.countDown();
+
+			Assert.assertEquals(id, listed.get(10, TimeUnit.SECONDS).get(0).getId());
+			Assert.assertTrue(restored.get(10, TimeUnit.SECONDS));
+			Assert.assertTrue(orderRepository.existsById(id));
+		} finally {
+			for (ArchivedOrder order : archivedOrderRepository.findAll()) {
+				orderArchive.restore(order.getId());
+			}
+		}
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Checks pages of all orders and of those matching a name, including pages
+	 * beyond the cached first orders and pages not aligned to them.
+	 */
+	private void assertPages(List<Long> all, List<Long> matching) {
+		for (int size : new int[] { 50, 13 }) {
+			int pages = all.size() / size + 1;
+			for (int page = 0; page < pages; page += page < 6 ? 1 : Math.max(1, pages / 7)) {
+				Assert.assertEquals(slice(all, page * size, size), ids(orderService.findBriefsAfterDueDate(
+						Optional.empty(), Optional.empty(), PageRequest.of(page, size, OrderSearchIndex.SORT))
+						.getContent()));
+				Assert.assertEquals(slice(matching, page * size, size), ids(orderService.findBriefsAfterDueDate(
+						Optional.of("a"), Optional.empty(), PageRequest.of(page, size, OrderSearchIndex.SORT))
+						.getContent()));
+			}
+		}
+	}
+
+	private List<String> rollup() {
+		LocalDate from = LocalDate.of(2000, 1, 1);
+		LocalDate to = LocalDate.of(2100, 1, 1);
+		List<Object[]> rows = new ArrayList<>();
+		for (OrderState state : OrderState.values()) {
+			rows.addAll(rollupRepository.countPerMonth(state, from, to));
+			rows.addAll(rollupRepository.sumPerMonth(state, from, to));
+		}
+		return rows.stream().map(Arrays::toString).sorted().collect(Collectors.toList());
+	}
+
+	private static List<Long> slice(List<Long> ids, int from, int size) {
+		return ids.subList(Math.min(from, ids.size()), Math.min(from + size, ids.size()));
+	}
+
+	private static List<Long> ids(List<OrderBrief> orders) {
+		return orders.stream().map(OrderBrief::getId).collect(Collectors.toList());
+	}
+}
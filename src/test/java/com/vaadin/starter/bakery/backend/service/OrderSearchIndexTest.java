@@ -0,0 +1,120 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+import com.vaadin.starter.bakery.test.DemoDataJpaTest;
+
+/**
+ * Compares the search index with the generated demo orders.
+ */
+@RunWith(SpringRunner.class)
+@DemoDataJpaTest
+@Import(OrderSearchIndex.class)
+public class OrderSearchIndexTest {
+
+	@Autowired
+	private OrderSearchIndex index;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	private List<Order> orders;
+
+	@Before
+	public void setup() {
+		index.rebuild();
+		orders = orderRepository.findAll();
+	}
+
+	@Test
+	public void findsNamesAndPhoneNumbers() {
+		LocalDate yesterday = LocalDate.now().minusDays(1);
+		for (String filter : new String[] { "a", "ch", "mac", "Macias", "ER H", "555-12", "+1-555", "xyz" }) {
+			List<Long> expected = search(filter, null);
+			Assert.assertEquals(filter, expected.size(), index.count(filter, null));
+			Assert.assertEquals(filter, expected, index.find(filter, null, 0, Integer.MAX_VALUE));
+
+			List<Long> expectedAfter = search(filter, yesterday);
+			Assert.assertEquals(filter, expectedAfter, index.find(filter, yesterday, 0, Integer.MAX_VALUE));
+			Assert.assertEquals(filter, expectedAfter.subList(Math.min(10, expectedAfter.size()),
+					Math.min(30, expectedAfter.size())), index.find(filter, yesterday, 10, 20));
+		}
+		Assert.assertEquals(orders.size(), index.size());
+	}
+
+	@Test
+	public void refinesPreviousMatches() {
+		// Typed letter by letter, each search refines the previous matches
+		for (String filter : new String[] { "l", "le", "les", "lest", "lester", "lester m", "lester mc" }) {
+			Assert.assertEquals(filter, search(filter, null), index.find(filter, null, 0, Integer.MAX_VALUE));
+		}
+
+		// Changed orders are found although they were not among the previous matches
+		Order order = orders.get(0);
+		order.getCustomer().setFullName("Lester Mcfly");
+		index.update(order);
+		List<Long> found = index.find("lester mcf", null, 0, Integer.MAX_VALUE);
+		Assert.assertEquals(search("lester mcf", null), found);
+		Assert.assertTrue(found.contains(order.getId()));
+	}
+
+	@Test
+	public void findsFollowingOrders() {
+		List<Long> expected = search("mac", null);
+		Order last = orderRepository.findById(expected.get(9)).get();
+
+		Assert.assertEquals(expected.subList(10, 15), index.findAfter("mac", new OrderBrief(last), 5));
+
+		LocalDate yesterday = LocalDate.now().minusDays(1);
+		Assert.assertEquals(expected.get(0), index.findFirst("mac", null).getId());
+		Assert.assertEquals(search("mac", yesterday).get(0), index.findFirst("mac", yesterday).getId());
+		Assert.assertNull(index.findFirst("xyz", null));
+	}
+
+	@Test
+	public void updatesAndRemovesOrders() {
+		Order order = orders.get(0);
+		order.getCustomer().setFullName("Quintessa Zylberman");
+		index.update(order);
+		Assert.assertEquals(1, index.count("zylb", null));
+
+		// Replaced documents are eventually dropped
+		for (int i = 0; i < 3000; i++) {
+			order.getCustomer().setFullName("Quintessa Zylberman " + i);
+			index.update(order);
+		}
+		Assert.assertEquals(1, index.count("zylb", null));
+		Assert.assertEquals(1, index.count("man 2999", null));
+		Assert.assertEquals(orders.size(), index.size());
+
+		index.remove(order.getId());
+		Assert.assertEquals(0, index.count("zylb", null));
+		Assert.assertEquals(orders.size() - 1, index.size());
+	}
+
+	private List<Long> search(String filter, LocalDate dueAfter) {
+		String text = filter.toLowerCase(Locale.ROOT);
+		return orders.stream()
+				.filter(o -> o.getCustomer().getFullName().toLowerCase(Locale.ROOT).contains(text)
+						|| o.getCustomer().getPhoneNumber().contains(text))
+				.filter(o -> dueAfter == null || o.getDueDate().isAfter(dueAfter))
+				.sorted(Comparator.comparing(Order::getDueDate).thenComparing(Order::getDueTime)
+						.thenComparing(Order::getId))
+				.map(Order::getId).collect(Collectors.toList());
+	}
+}
@@ -0,0 +1,249 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.transaction.TestTransaction;
+
+import com.vaadin.starter.bakery.backend.data.DashboardUpdate;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.HistoryItem;
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.User;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.UserRepository;
+import com.vaadin.starter.bakery.test.DemoDataJpaTest;
+
+/**
+ * Compares the storefront pages served from the shared first orders with the
+ * repository queries, checks which writes refresh the dashboard data, and counts
+ * the statements of adding comments.
+ */
+@RunWith(SpringRunner.class)
+@DemoDataJpaTest
+@Import({ OrderService.class, OrderArchiveService.class, DeliveryRollupService.class, DeliveredItemStore.class,
+		OrderSearchIndex.class, DashboardBroadcaster.class })
+public class OrderServiceTest {
+
+	@Autowired
+	private OrderService orderService;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	@Test
+	public void firstPagesAreShared() {
+		// The context and its caches are shared with the other tests
+		RefreshingCache<?, ?> cache = orderService.getFirstOrdersCache();
+		cache.remove(key -> true);
+		long loads = cache.getLoadCount();
+		long hits = cache.getHitCount();
+		Optional<LocalDate> yesterday = Optional.of(LocalDate.now().minusDays(1));
+		for (Optional<LocalDate> filterDate : List.of(Optional.<LocalDate>empty(), yesterday)) {
+			List<Long> expected = filterDate.isPresent()
+					? orderRepository.findIdsByDueDateAfter(filterDate.get(), PageRequest.of(0, 300, OrderSearchIndex.SORT))
+							.getContent()
+					: orderRepository.findIds(PageRequest.of(0, 300, OrderSearchIndex.SORT)).getContent();
+			long count = filterDate.isPresent() ? orderRepository.countByDueDateAfter(filterDate.get())
+					: orderRepository.count();
+
+			// Pages within the cached orders and beyond them
+			for (int page = 0; page < 6; page++) {
+				Assert.assertEquals(slice(expected, page * 50, 50), ids(orderService
+						.findBriefsAfterDueDate(Optional.empty(), filterDate, PageRequest.of(page, 50, OrderSearchIndex.SORT))
+						.getContent()));
+			}
+			Assert.assertEquals(count, orderService.countAnyMatchingAfterDueDate(Optional.of(""), filterDate));
+
+			// Following pages within the cached orders and across their end
+			for (int index : new int[] { 99, 179 }) {
+				if (index >= expected.size()) {
+					continue;
+				}
+				OrderBrief last = new OrderBrief(orderRepository.findById(expected.get(index)).get());
+				Assert.assertEquals(slice(expected, index + 1, 50),
+						ids(orderService.findBriefsAfter(Optional.empty(), filterDate, last, 50)));
+			}
+		}
+
+		// One load per due date filter, all the other pages are hits
+		Assert.assertEquals(2, cache.getLoadCount() - loads);
+		Assert.assertTrue(cache.getHitCount() - hits >= 10);
+	}
+
+	@Test
+	public void earlierDueDateFiltersAreDropped() {
+		LocalDate yesterday = LocalDate.now().minusDays(1);
+		long count = orderService.countAnyMatchingAfterDueDate(Optional.empty(), Optional.of(yesterday.minusDays(1)));
+		Assert.assertEquals(count, orderRepository.countByDueDateAfter(yesterday.minusDays(1)));
+
+		orderService.countAnyMatchingAfterDueDate(Optional.empty(), Optional.of(yesterday));
+		RefreshingCache<?, ?> cache = orderService.getFirstOrdersCache();
+		Assert.assertTrue("Only the filters of yesterday and of all orders are kept", cache.size() <= 2);
+	}
+
+	@Test
+	public void savedOrdersAreShownRightAway() {
+		OrderBrief first = orderService
+				.findBriefsAfterDueDate(Optional.empty(), Optional.empty(), PageRequest.of(0, 50, OrderSearchIndex.SORT))
+				.getContent().get(0);
+		Order order = orderRepository.findById(first.getId()).get();
+		String fullName = order.getCustomer().getFullName();
+		try {
+			order.getCustomer().setFullName("Quintessa Zylberman");
+			orderService.saveOrder(order);
+			TestTransaction.flagForCommit();
+			TestTransaction.end();
+
+			Assert.assertEquals("Quintessa Zylberman",
+					orderService.findBriefsAfterDueDate(Optional.empty(), Optional.empty(),
+							PageRequest.of(0, 50, OrderSearchIndex.SORT)).getContent().get(0).getCustomerFullName());
+		} finally {
+			TestTransaction.start();
+			order = orderRepository.findById(first.getId()).get();
+			order.getCustomer().setFullName(fullName);
+			orderService.saveOrder(order);
+			TestTransaction.flagForCommit();
+			TestTransaction.end();
+		}
+	}
+
+	@Test
+	public void customerChangesKeepDashboardData() {
+		YearMonth month = YearMonth.now();
+		orderService.getDashboardData(month.getMonthValue(), month.getYear());
+		long loads = dashboardLoads();
+		Order order = orderRepository.findAll(PageRequest.of(0, 1)).getContent().get(0);
+		String fullName = order.getCustomer().getFullName();
+		try {
+			order.getCustomer().setFullName("Quintessa Zylberman");
+			orderService.saveOrder(order);
+			TestTransaction.flagForCommit();
+			TestTransaction.end();
+
+			Assert.assertEquals("Nothing is refreshed", loads, dashboardLoads());
+			RefreshingCache<?, ?> cache = orderService.getDashboardCaches().get("deliveriesPerDay");
+			long hits = cache.getHitCount();
+			orderService.getDeliveriesPerDay(month.getMonthValue(), month.getYear());
+			Assert.assertEquals(hits + 1, cache.getHitCount());
+		} finally {
+			TestTransaction.start();
+			order = orderRepository.findById(order.getId()).get();
+			order.getCustomer().setFullName(fullName);
+			orderService.saveOrder(order);
+			TestTransaction.flagForCommit();
+			TestTransaction.end();
+		}
+	}
+
+	private long dashboardLoads() {
+		return orderService.getDashboardCaches().values().stream().mapToLong(RefreshingCache::getLoadCount).sum();
+	}
+
+	@Test
+	public void commentsCostTheSameForLongHistories() {
+		Statistics statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+		boolean enabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		User user = userRepository.findAll().get(0);
+		Order order = orderRepository.findAll().get(0);
+		int historySize = orderRepository.findById(order.getId()).get().getHistory().size();
+		int version = order.getVersion();
+
+		long[] statements = new long[100];
+		for (int i = 0; i < statements.length; i++) {
+			statistics.clear();
+			order = orderService.addComment(user, order, "Comment " + i);
+			statements[i] = statistics.getPrepareStatementCount();
+			// Nothing is merged
+			Assert.assertEquals(0, statistics.getEntityUpdateCount());
+			Assert.assertEquals(0, statistics.getCollectionUpdateCount());
+		}
+		statistics.setStatisticsEnabled(enabled);
+
+		// Only taking the next block of ids from the sequence costs one more
+		long fewest = LongStream.of(statements).min().getAsLong();
+		Assert.assertTrue(LongStream.of(statements).allMatch(count -> count <= fewest + 1));
+		Assert.assertEquals(version + statements.length, order.getVersion());
+		List<HistoryItem> history = order.getHistory();
+		Assert.assertEquals(historySize + statements.length, history.size());
+		for (int i = 0; i < statements.length; i++) {
+			Assert.assertEquals("Comment " + i, history.get(historySize + i).getMessage());
+			Assert.assertEquals(order.getState(), history.get(historySize + i).getNewState());
+		}
+	}
+
+	@Test(expected = ObjectOptimisticLockingFailureException.class)
+	public void commentsOnChangedOrdersFail() {
+		User user = userRepository.findAll().get(0);
+		Order order = orderRepository.findAll().get(0);
+		orderService.addComment(user, order, "First");
+		orderService.addComment(user, order, "Second");
+	}
+
+	private static List<Long> slice(List<Long> ids, int from, int size) {
+		return ids.subList(Math.min(from, ids.size()), Math.min(from + size, ids.size()));
+	}
+
+	private static List<Long> ids(List<OrderBrief> orders) {
+		return orders.stream().map(OrderBrief::getId).collect(Collectors.toList());
+	}
+
+	@Test
+	public void dashboardUpdateReplacesCachedSections() {
+		LocalDate today = LocalDate.now();
+		YearMonth month = YearMonth.from(today);
+		List<Number> cached = orderService.getDeliveriesPerDay(month.getMonthValue(), month.getYear());
+
+		DeliveryRollupService.Figures delivered = new DeliveryRollupService.Figures();
+		delivered.add(today, OrderState.DELIVERED, null, 1L, 1, 0, 0);
+		delivered.add(today, OrderState.DELIVERED, 1L, 1L, 1, 2, 200);
+		DashboardUpdate update = orderService.loadDashboardUpdate(delivered, today);
+
+		Assert.assertEquals(month, update.getMonth());
+		Assert.assertNotNull(update.getDeliveryStats());
+		// Reloaded rather than changed by the figures, which were not written
+		Assert.assertEquals(cached, update.getDeliveriesThisMonth());
+		Assert.assertNotSame(cached, update.getDeliveriesThisMonth());
+		Assert.assertSame(update.getDeliveriesThisMonth(),
+				orderService.getDeliveriesPerDay(month.getMonthValue(), month.getYear()));
+		Assert.assertSame(update.getDeliveriesThisYear(), orderService.getDeliveriesPerMonth(month.getYear()));
+		Assert.assertSame(update.getSalesPerMonth(),
+				orderService.getSalesPerMonth(month.getMonthValue(), month.getYear()));
+		Assert.assertTrue(update.hasProductDeliveries(today, today.plusDays(1)));
+		Assert.assertFalse(update.hasProductDeliveries(today.plusDays(1), today.plusDays(8)));
+
+		DeliveryRollupService.Figures placed = new DeliveryRollupService.Figures();
+		placed.add(today.plusYears(3), OrderState.NEW, null, 1L, 1, 0, 0);
+		update = orderService.loadDashboardUpdate(placed, today);
+
+		Assert.assertNotNull(update.getDeliveryStats());
+		Assert.assertNull(update.getDeliveriesThisMonth());
+		Assert.assertNull(update.getDeliveriesThisYear());
+		Assert.assertNull(update.getSalesPerMonth());
+		Assert.assertFalse(update.hasProductDeliveries(today, today.plusYears(4)));
+	}
+}
@@ -0,0 +1,68 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.Product;
+import com.vaadin.starter.bakery.backend.repositories.OrderAggregates;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+import com.vaadin.starter.bakery.test.BenchmarkDataJpaTest;
+import com.vaadin.starter.bakery.test.Timing;
+
+/**
+ * Times the product split of date ranges of increasing length from the prefix
+ * sums of the {@link DeliveredItemStore} against the JPQL aggregate.
+ */
+@RunWith(SpringRunner.class)
+@BenchmarkDataJpaTest
+@Import(DeliveredItemStore.class)
+public class ProductSplitBenchmark {
+
+	@Autowired
+	private DeliveredItemStore store;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	@Test
+	public void productSplit() {
+		store.rebuild();
+		LocalDate today = LocalDate.now();
+		LocalDate[][] ranges = { { today.withDayOfMonth(1), today.withDayOfMonth(1).plusMonths(1) },
+				{ today.minusYears(1), today }, { today.minusYears(4), today.plusYears(1) } };
+
+		Timing.report("Product split of {} delivered orders, median ms: range, aggregate query, prefix sums",
+				orderRepository.countByState(OrderState.DELIVERED));
+		for (LocalDate[] range : ranges) {
+			Assert.assertEquals(aggregate(range[0], range[1]), store.sumQuantityPerProduct(range[0], range[1]));
+			double query = Timing.medianMillis(5, 21, () -> aggregate(range[0], range[1]));
+			double index = Timing.medianMillis(50, 1001, () -> store.sumQuantityPerProduct(range[0], range[1]));
+			Timing.report("{} - {}: {} / {}", range[0], range[1], query, index);
+		}
+	}
+
+	private Map<Long, Long> aggregate(LocalDate from, LocalDate to) {
+		List<Object[]> rows = OrderAggregates.query(entityManager, OrderAggregates.COUNT_PER_PRODUCT,
+				OrderState.DELIVERED, from, to);
+		Map<Long, Long> quantities = new HashMap<>();
+		for (Object[] row : rows) {
+			quantities.put(((Product) row[1]).getId(), (Long) row[0]);
+		}
+		return quantities;
+	}
+}
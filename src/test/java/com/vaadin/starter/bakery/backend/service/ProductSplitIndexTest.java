@@ -0,0 +1,63 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProductSplitIndexTest {
+
+	private static final int DAY = 19000;
+
+	private ProductSplitIndex index;
+
+	@Before
+	public void setup() {
+		index = new ProductSplitIndex();
+		index.add(DAY, 1, 5);
+		index.add(DAY + 1, 1, 2);
+		index.add(DAY + 1, 2, 7);
+		index.commit();
+	}
+
+	@Test
+	public void sumsRanges() {
+		Assert.assertEquals(sums(1, 7L, 2, 7L), index.sum(DAY, DAY + 2));
+		Assert.assertEquals(sums(1, 5L), index.sum(DAY, DAY + 1));
+		Assert.assertEquals(sums(1, 2L, 2, 7L), index.sum(DAY + 1, DAY + 100));
+		Assert.assertEquals(sums(1, 7L, 2, 7L), index.sum(DAY - 5000, DAY + 5000));
+		Assert.assertEquals(Collections.emptyMap(), index.sum(DAY + 2, DAY + 100));
+		Assert.assertEquals(Collections.emptyMap(), index.sum(DAY + 1, DAY));
+	}
+
+	@Test
+	public void growsAtBothEnds() {
+		index.add(DAY - 1000, 1, 3);
+		index.add(DAY + 1000, 1, 4);
+		index.commit();
+
+		Assert.assertEquals(sums(1, 14L, 2, 7L), index.sum(DAY - 1000, DAY + 1001));
+		Assert.assertEquals(sums(1, 3L), index.sum(DAY - 1000, DAY));
+		Assert.assertEquals(sums(1, 4L), index.sum(DAY + 2, DAY + 1001));
+		Assert.assertEquals(sums(1, 7L, 2, 7L), index.sum(DAY, DAY + 2));
+	}
+
+	@Test
+	public void correctionsCancelOut() {
+		index.add(DAY + 1, 2, -7);
+		index.commit();
+
+		Assert.assertEquals(sums(1, 7L), index.sum(DAY, DAY + 2));
+	}
+
+	private static Map<Integer, Long> sums(Object... productsAndQuantities) {
+		Map<Integer, Long> sums = new HashMap<>();
+		for (int i = 0; i < productsAndQuantities.length; i += 2) {
+			sums.put((Integer) productsAndQuantities[i], (Long) productsAndQuantities[i + 1]);
+		}
+		return sums;
+	}
+}
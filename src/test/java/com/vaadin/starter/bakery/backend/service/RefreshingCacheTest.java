@@ -0,0 +1,265 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class RefreshingCacheTest {
+
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicInteger loads = new AtomicInteger();
+	private final List<Runnable> pendingRefreshes = new ArrayList<>();
+	private RefreshingCache<String, String> cache;
+
+	@Before
+	public void setup() {
+		cache = new RefreshingCache<>(key -> key + loads.incrementAndGet(), Duration.ofNanos(10), 10,
+				pendingRefreshes::add, clock::get);
+	}
+
+	private void runRefreshes() {
+		List<Runnable> refreshes = new ArrayList<>(pendingRefreshes);
+		pendingRefreshes.clear();
+		refreshes.forEach(Runnable::run);
+	}
+
+	@Test
+	public void freshValueDoesNotLoad() {
+		Assert.assertEquals("a1", cache.get("a"));
+		Assert.assertEquals("a1", cache.get("a"));
+		Assert.assertEquals("a1", cache.get("a"));
+
+		Assert.assertEquals(1, loads.get());
+		Assert.assertEquals(1, cache.getMissCount());
+		Assert.assertEquals(2, cache.getHitCount());
+		Assert.assertTrue(pendingRefreshes.isEmpty());
+	}
+
+	@Test
+	public void staleValueIsServedWhileRefreshing() {
+		cache.get("a");
+		clock.addAndGet(11);
+
+		Assert.assertEquals("a1", cache.get("a"));
+		Assert.assertEquals("a1", cache.get("a"));
+		Assert.assertEquals("Only one refresh is started", 1, pendingRefreshes.size());
+		Assert.assertEquals(1, loads.get());
+
+		runRefreshes();
+		Assert.assertEquals("a2", cache.get("a"));
+		Assert.assertEquals(2, cache.getStaleHitCount());
+		Assert.assertEquals(1, cache.getHitCount());
+	}
+
+	@Test
+	public void invalidateRefreshesMatchingKeys() {
+		cache.get("a");
+		cache.get("b");
+
+		cache.invalidate("a"::equals);
+		Assert.assertEquals(1, pendingRefreshes.size());
+		runRefreshes();
+
+		Assert.assertEquals("a3", cache.get("a"));
+		Assert.assertEquals("b2", cache.get("b"));
+	}
+
+	@Test
+	public void invalidateDuringRefreshKeepsEntryStale() {
+		cache = new RefreshingCache<>(key -> {
+			int load = loads.incrementAndGet();
+			if (load == 2) {
+				// A write commits while the refresh is reading
+				cache.invalidate(k -> true);
+			}
+			return key + load;
+		}, Duration.ofNanos(10), 10, pendingRefreshes::add, clock::get);
+		cache.get("a");
+		cache.invalidate(k -> true);
+		runRefreshes();
+
+		Assert.assertEquals("a2", cache.get("a"));
+		Assert.assertEquals(1, pendingRefreshes.size());
+		runRefreshes();
+		Assert.assertEquals("a3", cache.get("a"));
+	}
+
+	@Test
+	public void failedRefreshKeepsPreviousValue() {
+		cache = new RefreshingCache<>(key -> {
+			if (loads.incrementAndGet() > 1) {
+				throw new IllegalStateException("Database unavailable");
+			}
+			return key;
+		}, Duration.ofNanos(10), 10, pendingRefreshes::add, clock::get);
+		cache.get("a");
+		clock.addAndGet(11);
+
+		Assert.assertEquals("a", cache.get("a"));
+		runRefreshes();
+		Assert.assertEquals("a", cache.get("a"));
+		Assert.assertEquals("Refresh is retried", 1, pendingRefreshes.size());
+	}
+
+	@Test
+	public void removeDropsEntries() {
+		cache.get("a");
+		cache.remove("a"::equals);
+
+		Assert.assertEquals("a2", cache.get("a"));
+		Assert.assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void reloadReplacesStaleEntry() {
+		cache.get("a");
+		clock.addAndGet(11);
+
+		Assert.assertEquals("a2", cache.reload("a"));
+		Assert.assertEquals("a2", cache.get("a"));
+		Assert.assertEquals(1, cache.getHitCount());
+		Assert.assertTrue("The reloaded entry is fresh", pendingRefreshes.isEmpty());
+	}
+
+	@Test
+	public void loadHeldOpenAcrossRemoveIsNotKept() throws Exception {
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch written = new CountDownLatch(1);
+		cache = new RefreshingCache<>(key -> {
+			int load = loads.incrementAndGet();
+			if (load == 1) {
+				loading.countDown();
+				await(written);
+			}
+			return key + load;
+		}, Duration.ofSeconds(10), 10, pendingRefreshes::add, clock::get);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			Future<String> miss = executor.submit(() -> cache.get("a"));
+			loading.await();
+			// A write commits while the miss is reading
+			cache.remove(k -> true);
+			written.countDown();
+
+			Assert.assertEquals("The loading caller still gets its value", "a1", miss.get());
+			Assert.assertEquals(0, cache.size());
+			Assert.assertEquals("a2", cache.get("a"));
+			Assert.assertEquals("a2", cache.get("a"));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void concurrentMissesWaitForOneLoad() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		cache = new RefreshingCache<>(key -> {
+			await(release);
+			return key + loads.incrementAndGet();
+		}, Duration.ofSeconds(10), 10, pendingRefreshes::add, clock::get);
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Future<String> first = executor.submit(() -> cache.get("a"));
+			Future<String> second = executor.submit(() -> cache.get("a"));
+			while (cache.getMissCount() < 2) {
+				Thread.yield();
+			}
+			release.countDown();
+
+			Assert.assertEquals("a1", first.get());
+			Assert.assertEquals("a1", second.get());
+			Assert.assertEquals(1, loads.get());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void loaderCanReadOtherKeys() {
+		// Enough keys for the map to grow while the outer key is loading
+		cache = new RefreshingCache<>(key -> {
+			if (!key.equals("all")) {
+				return key;
+			}
+			StringBuilder all = new StringBuilder();
+			for (int i = 0; i < 100; i++) {
+				all.append(cache.get(String.valueOf(i)));
+			}
+			return all.toString();
+		}, Duration.ofSeconds(10), 200, pendingRefreshes::add, clock::get);
+
+		Assert.assertTrue(cache.get("all").startsWith("0123"));
+		Assert.assertEquals(101, cache.size());
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void loaderReadingItsOwnKeyFails() {
+		cache = new RefreshingCache<>(key -> cache.get(key), Duration.ofSeconds(10), 10, pendingRefreshes::add,
+				clock::get);
+		cache.get("a");
+	}
+
+	@Test
+	public void leastRecentlyReadEntryIsEvicted() {
+		cache = new RefreshingCache<>(key -> key + loads.incrementAndGet(), Duration.ofSeconds(10), 2,
+				pendingRefreshes::add, clock::get);
+		cache.get("a");
+		clock.incrementAndGet();
+		cache.get("b");
+		clock.incrementAndGet();
+		cache.get("a");
+		clock.incrementAndGet();
+
+		cache.get("c");
+		Assert.assertEquals(2, cache.size());
+		Assert.assertEquals(1, cache.getEvictionCount());
+		Assert.assertEquals("a1", cache.get("a"));
+		Assert.assertEquals("c3", cache.get("c"));
+		Assert.assertEquals("b4", cache.get("b"));
+	}
+
+	@Test
+	public void countersArePublished() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		cache.bindTo(registry, "test");
+		cache.get("a");
+		cache.get("a");
+		clock.addAndGet(11);
+		cache.get("a");
+		runRefreshes();
+
+		Assert.assertEquals(1, registry.get(RefreshingCache.GETS).tag("cache", "test").tag("result", "hit")
+				.functionCounter().count(), 0);
+		Assert.assertEquals(1, registry.get(RefreshingCache.GETS).tag("result", "stale").functionCounter().count(),
+				0);
+		Assert.assertEquals(1, registry.get(RefreshingCache.GETS).tag("result", "miss").functionCounter().count(),
+				0);
+		FunctionTimer loadTimer = registry.get(RefreshingCache.LOADS).tag("cache", "test").functionTimer();
+		Assert.assertEquals(2, loadTimer.count(), 0);
+		Assert.assertEquals(1, registry.get(RefreshingCache.SIZE).gauge().value(), 0);
+		Assert.assertEquals(0, registry.get(RefreshingCache.EVICTIONS).functionCounter().count(), 0);
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		}
+	}
+}
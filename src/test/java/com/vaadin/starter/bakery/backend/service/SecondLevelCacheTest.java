@@ -0,0 +1,132 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.util.List;
+import java.util.Optional;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.context.transaction.TestTransaction;
+
+import com.vaadin.starter.bakery.backend.data.entity.PickupLocation;
+import com.vaadin.starter.bakery.backend.data.entity.Product;
+import com.vaadin.starter.bakery.backend.repositories.ProductRepository;
+import com.vaadin.starter.bakery.test.DemoDataJpaTest;
+
+/**
+ * Checks that the products and pickup locations are read from the
+ * second-level cache, and that the writes of their services are seen by the
+ * next read. Hibernate replaces a written entity in its region on commit, and
+ * drops the cached query results of a table when it is written, so the
+ * services need no explicit eviction.
+ */
+@RunWith(SpringRunner.class)
+@DemoDataJpaTest
+@Import({ ProductService.class, PickupLocationService.class, DeliveryRollupService.class, DeliveredItemStore.class })
+public class SecondLevelCacheTest {
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private PickupLocationService pickupLocationService;
+
+	@Autowired
+	private ProductRepository productRepository;
+
+	@Autowired
+	private EntityManagerFactory entityManagerFactory;
+
+	private Statistics statistics;
+
+	@Before
+	public void setup() {
+		// Like the requests of the views, each call reads in a session of its own; the
+		// entities put in the cache by a transaction are only read by later ones
+		TestTransaction.end();
+		SessionFactory sessionFactory = entityManagerFactory.unwrap(SessionFactory.class);
+		sessionFactory.getCache().evictAllRegions();
+		statistics = sessionFactory.getStatistics();
+		statistics.clear();
+	}
+
+	@Test
+	public void repeatedReadsTakeNoStatements() {
+		for (Optional<String> filter : List.of(Optional.<String>empty(), Optional.of("a"))) {
+			Runnable products = () -> {
+				productService.findAnyMatching(filter, PageRequest.of(0, 50));
+				productService.countAnyMatching(filter);
+			};
+			Runnable locations = () -> {
+				pickupLocationService.findAnyMatching(filter, PageRequest.of(0, 50));
+				pickupLocationService.countAnyMatching(filter);
+			};
+			Assert.assertTrue(statements(products) > 0);
+			Assert.assertEquals("Cached products " + filter, 0, statements(products));
+			Assert.assertTrue(statements(locations) > 0);
+			Assert.assertEquals("Cached pickup locations " + filter, 0, statements(locations));
+		}
+		pickupLocationService.getDefault();
+		Assert.assertEquals("Default pickup location", 0, statements(pickupLocationService::getDefault));
+
+		Long id = productService.find(PageRequest.of(0, 1)).getContent().get(0).getId();
+		Assert.assertEquals("Product by id", 0, statements(() -> productRepository.findById(id).get()));
+	}
+
+	@Test
+	public void writesAreSeenByTheNextRead() {
+		Assert.assertEquals(0, productService.countAnyMatching(Optional.of("zz")));
+		Assert.assertTrue(productService.findAnyMatching(Optional.of("zz"), PageRequest.of(0, 50)).isEmpty());
+		long locations = pickupLocationService.countAnyMatching(Optional.empty());
+
+		Product product = productService.find(PageRequest.of(0, 1)).getContent().get(0);
+		String name = product.getName();
+		Integer price = product.getPrice();
+		PickupLocation location = new PickupLocation();
+		location.setName("Pizzazz Bakery");
+		try {
+			product.setName("Pizzazz");
+			product.setPrice(1234);
+			product = productService.save(null, product);
+			location = pickupLocationService.save(null, location);
+
+			Assert.assertEquals(1, productService.countAnyMatching(Optional.of("zz")));
+			Product found = productService.findAnyMatching(Optional.of("zz"), PageRequest.of(0, 50)).getContent()
+					.get(0);
+			Assert.assertEquals(1234, found.getPrice().intValue());
+			Assert.assertEquals("Pizzazz", productRepository.findById(product.getId()).get().getName());
+			Assert.assertEquals(locations + 1, pickupLocationService.countAnyMatching(Optional.empty()));
+			Assert.assertEquals(1, pickupLocationService.countAnyMatching(Optional.of("zz")));
+		} finally {
+			product.setName(name);
+			product.setPrice(price);
+			productService.save(null, product);
+			if (location.getId() != null) {
+				pickupLocationService.delete(null, location.getId());
+			}
+		}
+		Assert.assertEquals(0, productService.countAnyMatching(Optional.of("zz")));
+		Assert.assertEquals(locations, pickupLocationService.countAnyMatching(Optional.empty()));
+	}
+
+	private long statements(Runnable call) {
+		boolean enabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		statistics.clear();
+		try {
+			call.run();
+		} finally {
+			statistics.setStatisticsEnabled(enabled);
+		}
+		return statistics.getPrepareStatementCount();
+	}
+}
@@ -0,0 +1,176 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Optional;
+
+import javax.persistence.EntityManager;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.vaadin.starter.bakery.app.security.UserDetailsServiceImpl;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.data.entity.Order;
+import com.vaadin.starter.bakery.backend.data.entity.User;
+import com.vaadin.starter.bakery.backend.repositories.OrderRepository;
+import com.vaadin.starter.bakery.backend.repositories.UserRepository;
+import com.vaadin.starter.bakery.test.DemoDataJpaTest;
+
+/**
+ * Guards the number of statements of the service calls behind the views, so
+ * that a change to the mappings or the queries cannot add a query per row
+ * unnoticed. Runs against the generated demo data, a few thousand orders over
+ * several years.
+ */
+@RunWith(SpringRunner.class)
+@DemoDataJpaTest
+@Import({ OrderService.class, OrderArchiveService.class, DeliveryRollupService.class, DeliveredItemStore.class,
+		OrderSearchIndex.class, DashboardBroadcaster.class, ProductService.class, UserService.class,
+		PickupLocationService.class, UserDetailsServiceImpl.class })
+public class ServiceQueryCountTest {
+
+	@Autowired
+	private OrderService orderService;
+
+	@Autowired
+	private ProductService productService;
+
+	@Autowired
+	private UserService userService;
+
+	@Autowired
+	private PickupLocationService pickupLocationService;
+
+	@Autowired
+	private UserDetailsServiceImpl userDetailsService;
+
+	@Autowired
+	private OrderSearchIndex searchIndex;
+
+	@Autowired
+	private DeliveredItemStore deliveredItemStore;
+
+	@Autowired
+	private OrderArchiveService orderArchive;
+
+	@Autowired
+	private OrderRepository orderRepository;
+
+	@Autowired
+	private UserRepository userRepository;
+
+	@Autowired
+	private EntityManager entityManager;
+
+	private StatementCounter counter;
+
+	private User user;
+
+	@Before
+	public void setup() {
+		searchIndex.rebuild();
+		deliveredItemStore.rebuild();
+		// Read once and kept, so only the first storefront query of the application reads it
+		orderArchive.getLastDueDate();
+		counter = new StatementCounter(entityManager);
+		user = userRepository.findAll().get(0);
+	}
+
+	@Test
+	public void orderPages() {
+		Optional<LocalDate> yesterday = Optional.of(LocalDate.now().minusDays(1));
+
+		// The page, its count and the items of all its orders
+		counter.assertCountPerPage("Order page", 3, size -> readItems(orderService
+				.findAnyMatchingAfterDueDate(Optional.empty(), Optional.empty(), page(1, size)).getContent()));
+		counter.assertCountPerPage("Upcoming order page", 3, size -> readItems(orderService
+				.findAnyMatchingAfterDueDate(Optional.empty(), yesterday, page(0, size)).getContent()));
+		// Searched in memory, then the orders with their items
+		counter.assertCountPerPage("Order search page", 1, size -> readItems(orderService
+				.findAnyMatchingAfterDueDate(Optional.of("a"), Optional.empty(), page(1, size)).getContent()));
+
+		// Beyond the shared first orders: the ids of the page, their count and the summaries
+		counter.assertCountPerPage("Storefront page", 3, size -> orderService
+				.findBriefsAfterDueDate(Optional.empty(), Optional.empty(), page(50, size)));
+		counter.assertCountPerPage("Storefront search page", 1, size -> orderService
+				.findBriefsAfterDueDate(Optional.of("a"), Optional.empty(), page(1, size)));
+	}
+
+	@Test
+	public void dashboard() {
+		orderService.getDashboardCaches().values().forEach(cache -> cache.remove(key -> true));
+		LocalDate today = LocalDate.now();
+
+		// One query per section, the product split is summed in memory
+		counter.assertCount("Dashboard", 5,
+				() -> orderService.getDashboardData(today.getMonthValue(), today.getYear()));
+		// Only the products of the product split, the other sections are cached
+		counter.assertCount("Cached dashboard", 1,
+				() -> orderService.getDashboardData(today.getMonthValue(), today.getYear()));
+	}
+
+	@Test
+	public void orderWrites() {
+		// Read like in the editor
+		Long id = orderRepository.findAll().stream().filter(o -> o.getItems().size() > 2).findFirst().get().getId();
+		entityManager.clear();
+		Order order = orderRepository.findById(id).get();
+		int items = order.getItems().size();
+		entityManager.detach(order);
+		order.changeState(user, order.getState() == OrderState.PROBLEM ? OrderState.NEW : OrderState.PROBLEM);
+
+		// The snapshot, the stored order, the order, the history item and its position, and
+		// at most an update, a sequence value and an insert of the rollup rows of the order
+		// and each product in both states
+		counter.assertNoFetches("saveOrder", () -> orderService.saveOrder(order));
+		entityManager.clear();
+		Order saved = orderRepository.findById(order.getId()).get();
+		entityManager.detach(saved);
+		saved.changeState(user, OrderState.CONFIRMED);
+		counter.assertAtMost("saveOrder", 6 + 2 * 3 * (items + 1), () -> orderService.saveOrder(saved));
+
+		// The version, the history item and its position, and the order read again, and at
+		// times the next block of ids
+		entityManager.clear();
+		Order commented = orderRepository.findById(order.getId()).get();
+		entityManager.detach(commented);
+		counter.assertAtMost("addComment", 5, () -> orderService.addComment(user, commented, "Comment"));
+	}
+
+	@Test
+	public void crudPages() {
+		// Like the grids of the admin views: the page, its count unless it is the last one, and
+		// the size of the grid, without reading related entities one by one
+		for (FilterableCrudService<?> service : List.of(productService, userService, pickupLocationService)) {
+			String name = service.getClass().getSimpleName();
+			for (int size : new int[] { 5, 100 }) {
+				counter.assertAtMost(name + " page of " + size, 3, () -> {
+					service.findAnyMatching(Optional.empty(), PageRequest.of(0, size));
+					service.countAnyMatching(Optional.empty());
+				});
+				counter.assertNoFetches(name + " page of " + size,
+						() -> service.findAnyMatching(Optional.empty(), PageRequest.of(0, size)));
+			}
+		}
+	}
+
+	@Test
+	public void login() {
+		counter.assertCount("loadUserByUsername", 1, () -> userDetailsService.loadUserByUsername(user.getEmail()));
+	}
+
+	private static PageRequest page(int page, int size) {
+		return PageRequest.of(page, size, OrderSearchIndex.SORT);
+	}
+
+	private static void readItems(List<Order> orders) {
+		orders.forEach(OrderBrief::new);
+	}
+}
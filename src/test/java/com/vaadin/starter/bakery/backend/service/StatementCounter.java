@@ -0,0 +1,88 @@
+package com.vaadin.starter.bakery.backend.service;
+
+import java.util.function.IntConsumer;
+
+import javax.persistence.EntityManager;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+
+/**
+ * Counts the SQL statements Hibernate prepares during a call. The persistence
+ * context is flushed and cleared and the second-level cache evicted first, so
+ * entities and query results read before the call do not hide its queries.
+ */
+public class StatementCounter {
+
+	private final EntityManager entityManager;
+	private final Statistics statistics;
+
+	public StatementCounter(EntityManager entityManager) {
+		this.entityManager = entityManager;
+		this.statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+	}
+
+	/**
+	 * Runs a call and returns the number of statements it prepared.
+	 */
+	public long count(Runnable call) {
+		run(call);
+		return statistics.getPrepareStatementCount();
+	}
+
+	/**
+	 * Runs a call and returns the number of entities and collections it read
+	 * with a query of their own, e.g. by initializing a lazy association.
+	 */
+	public long countFetches(Runnable call) {
+		run(call);
+		return statistics.getEntityFetchCount() + statistics.getCollectionFetchCount();
+	}
+
+	private void run(Runnable call) {
+		entityManager.flush();
+		entityManager.clear();
+		entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getCache().evictAllRegions();
+		boolean enabled = statistics.isStatisticsEnabled();
+		statistics.setStatisticsEnabled(true);
+		statistics.clear();
+		try {
+			call.run();
+		} finally {
+			statistics.setStatisticsEnabled(enabled);
+		}
+	}
+
+	/**
+	 * Asserts that a call prepares exactly the given number of statements.
+	 */
+	public void assertCount(String call, long expected, Runnable runnable) {
+		Assert.assertEquals(call + " statements", expected, count(runnable));
+	}
+
+	/**
+	 * Asserts that a call prepares at most the given number of statements.
+	 */
+	public void assertAtMost(String call, long max, Runnable runnable) {
+		long count = count(runnable);
+		Assert.assertTrue(call + " took " + count + " statements, expected at most " + max, count <= max);
+	}
+
+	/**
+	 * Asserts that a call does not read entities or collections one by one.
+	 */
+	public void assertNoFetches(String call, Runnable runnable) {
+		Assert.assertEquals(call + " fetches", 0, countFetches(runnable));
+	}
+
+	/**
+	 * Asserts that a call reading a number of rows prepares the given number of
+	 * statements for both a few rows and many rows, i.e. that it does not query
+	 * per row.
+	 */
+	public void assertCountPerPage(String call, long expected, IntConsumer pageOfSize) {
+		assertCount(call + " of 5", expected, () -> pageOfSize.accept(5));
+		assertCount(call + " of 100", expected, () -> pageOfSize.accept(100));
+	}
+}
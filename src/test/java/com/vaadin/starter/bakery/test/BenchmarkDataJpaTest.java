@@ -0,0 +1,29 @@
+package com.vaadin.starter.bakery.test;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.test.context.TestPropertySource;
+
+/**
+ * A {@link DemoDataJpaTest} for the benchmarks, on four years of demo data
+ * with 40 orders a day. The database runs without the query cache of H2,
+ * which would return the result of the previous run of a query.
+ *
+ * @see Timing
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+@DemoDataJpaTest
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@TestPropertySource(properties = { "spring.datasource.url=jdbc:h2:mem:benchmark;DB_CLOSE_ON_EXIT=FALSE;QUERY_CACHE_SIZE=0",
+		"bakery.generator.years=4", "bakery.generator.orders-per-day=40" })
+public @interface BenchmarkDataJpaTest {
+}
@@ -0,0 +1,28 @@
+package com.vaadin.starter.bakery.test;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Inherited;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+
+import com.vaadin.starter.bakery.app.DataGenerator;
+
+/**
+ * A {@link DataJpaTest} on the generated demo data. Add the services under
+ * test with another {@code @Import}.
+ *
+ * @see DemoDataTestConfiguration
+ */
+@Target(ElementType.TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+@Inherited
+@DataJpaTest
+@Import({ DataGenerator.class, DemoDataTestConfiguration.class })
+public @interface DemoDataJpaTest {
+}
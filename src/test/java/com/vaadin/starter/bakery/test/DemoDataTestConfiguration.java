@@ -0,0 +1,27 @@
+package com.vaadin.starter.bakery.test;
+
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.task.SyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+
+/**
+ * The beans of {@link DemoDataJpaTest}: a fast password encoder for the
+ * generated users, and a task executor that runs the background work of the
+ * services, e.g. the dashboard cache refreshes, on the calling thread.
+ */
+@TestConfiguration
+public class DemoDataTestConfiguration {
+
+	@Bean
+	public PasswordEncoder passwordEncoder() {
+		return new BCryptPasswordEncoder(4);
+	}
+
+	@Bean
+	public TaskExecutor taskExecutor() {
+		return new SyncTaskExecutor();
+	}
+}
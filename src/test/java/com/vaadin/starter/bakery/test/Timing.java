@@ -0,0 +1,87 @@
+package com.vaadin.starter.bakery.test;
+
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Times operations for the benchmarks, the test classes named
+ * {@code *Benchmark}, which only run with {@code mvn test -Pbenchmark}. The
+ * results are logged by the {@value #LOGGER} logger.
+ */
+public final class Timing {
+
+	/** The logger of the benchmark results */
+	public static final String LOGGER = "benchmark";
+
+	private static final Logger logger = LoggerFactory.getLogger(LOGGER);
+
+	/** Keeps the results of the timed operations, so that they are not optimized away */
+	private static volatile Object sink;
+
+	private Timing() {
+	}
+
+	/**
+	 * Runs an operation a number of times without timing it, then returns the
+	 * median time of the timed runs.
+	 *
+	 * @param warmups
+	 *            the runs that are not timed, for loading the classes and
+	 *            compiling the code
+	 * @param runs
+	 *            the timed runs
+	 * @param operation
+	 *            the operation
+	 * @return the median time of a run, in milliseconds
+	 */
+	public static double medianMillis(int warmups, int runs, Supplier<?> operation) {
+		for (int i = 0; i < warmups; i++) {
+			sink = operation.get();
+		}
+		long[] nanos = new long[runs];
+		for (int i = 0; i < runs; i++) {
+			long start = System.nanoTime();
+			sink = operation.get();
+			nanos[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(nanos);
+		return nanos[runs / 2] / 1_000_000.0;
+	}
+
+	/**
+	 * Collects garbage until nothing more is released, and returns the used
+	 * heap. Objects waiting for their finalizers or cleaners are only freed by
+	 * a later collection.
+	 *
+	 * @return the used heap, in bytes
+	 */
+	public static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+		for (int i = 0; i < 20; i++) {
+			System.gc();
+			System.runFinalization();
+			long now = runtime.totalMemory() - runtime.freeMemory();
+			if (now >= used) {
+				break;
+			}
+			used = now;
+		}
+		return used;
+	}
+
+	/**
+	 * Logs a result.
+	 *
+	 * @param format
+	 *            the message, with {@code {}} for the arguments
+	 * @param arguments
+	 *            the arguments
+	 */
+	public static void report(String format, Object... arguments) {
+		logger.info(format, arguments);
+	}
+}
@@ -0,0 +1,117 @@
+package com.vaadin.starter.bakery.ui.dataproviders;
+
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.data.domain.PageImpl;
+
+import com.vaadin.flow.data.provider.Query;
+import com.vaadin.starter.bakery.backend.data.OrderBrief;
+import com.vaadin.starter.bakery.backend.data.OrderState;
+import com.vaadin.starter.bakery.backend.service.OrderService;
+import com.vaadin.starter.bakery.ui.dataproviders.OrdersGridDataProvider.OrderFilter;
+
+/**
+ * Checks that the grid size is taken from the background count until an order
+ * is written or the filter changes, and that kept orders are filtered the way
+ * they were read.
+ */
+public class OrdersGridDataProviderTest {
+
+	private final OrderService orderService = Mockito.mock(OrderService.class);
+	private OrdersGridDataProvider dataProvider;
+
+	@Before
+	public void setup() {
+		Mockito.when(orderService.getWriteCount()).thenReturn(5L);
+		Mockito.when(orderService.countAnyMatchingAfterDueDate(ArgumentMatchers.any(), ArgumentMatchers.any()))
+				.thenReturn(42L, 43L);
+		dataProvider = new OrdersGridDataProvider(orderService);
+	}
+
+	private int size(OrderFilter filter) {
+		dataProvider.setFilter(filter);
+		return dataProvider.size(new Query<>(filter));
+	}
+
+	private void verifyCounts(int times) {
+		Mockito.verify(orderService, Mockito.times(times)).countAnyMatchingAfterDueDate(ArgumentMatchers.any(),
+				ArgumentMatchers.any());
+	}
+
+	@Test
+	public void backgroundCountIsUsedUntilAnOrderIsWritten() {
+		OrderFilter filter = new OrderFilter("", true);
+		Assert.assertEquals(Integer.valueOf(42), CompletableFuture.supplyAsync(() -> dataProvider.count(filter)).join());
+
+		Assert.assertEquals(42, size(filter));
+		verifyCounts(1);
+
+		// Another user saves an order
+		Mockito.when(orderService.getWriteCount()).thenReturn(6L);
+		Assert.assertEquals(43, size(filter));
+		verifyCounts(2);
+		Mockito.verify(orderService, Mockito.times(2)).countAnyMatchingAfterDueDate(Optional.of(""),
+				Optional.empty());
+	}
+
+	@Test
+	public void countOfAnotherFilterIsNotUsed() {
+		dataProvider.count(new OrderFilter("", true));
+
+		Assert.assertEquals(43, size(new OrderFilter("", false)));
+		verifyCounts(2);
+	}
+
+	private static OrderBrief order(long id, String fullName, String phoneNumber) {
+		return new OrderBrief(id, LocalDate.now(), LocalTime.NOON, OrderState.NEW, fullName, phoneNumber, "Bakery",
+				"1", "Strawberry Bun");
+	}
+
+	private List<OrderBrief> fetch(String text) {
+		OrderFilter filter = new OrderFilter(text, true);
+		dataProvider.setFilter(filter);
+		return dataProvider.fetch(new Query<>(0, 50, Collections.emptyList(), null, filter)).collect(Collectors.toList());
+	}
+
+	@Test
+	public void ordersMatchedByNameAreRefinedByName() {
+		// The database matches the customer name only until the search index is built
+		Mockito.when(orderService.isSearchIndexReady()).thenReturn(false);
+		List<OrderBrief> byName = Arrays.asList(order(1, "Jo 12", "+358 555"), order(2, "Jo 1", "+358 120"));
+		Mockito.when(orderService.findBriefsAfterDueDate(ArgumentMatchers.any(), ArgumentMatchers.any(),
+				ArgumentMatchers.any())).thenAnswer(invocation -> new PageImpl<>(byName));
+
+		Assert.assertEquals(2, fetch("1").size());
+		List<OrderBrief> refined = fetch("12");
+		Assert.assertEquals(1, refined.size());
+		Assert.assertEquals(Long.valueOf(1), refined.get(0).getId());
+		Mockito.verify(orderService, Mockito.times(1)).findBriefsAfterDueDate(ArgumentMatchers.any(),
+				ArgumentMatchers.any(), ArgumentMatchers.any());
+	}
+
+	@Test
+	public void ordersAreReadAgainOnceTheIndexIsBuilt() {
+		Mockito.when(orderService.isSearchIndexReady()).thenReturn(false);
+		List<OrderBrief> byName = Arrays.asList(order(1, "Jo 1", "+358 555"));
+		Mockito.when(orderService.findBriefsAfterDueDate(ArgumentMatchers.any(), ArgumentMatchers.any(),
+				ArgumentMatchers.any())).thenAnswer(invocation -> new PageImpl<>(byName));
+		fetch("1");
+
+		Mockito.when(orderService.isSearchIndexReady()).thenReturn(true);
+		fetch("12");
+		Mockito.verify(orderService, Mockito.times(2)).findBriefsAfterDueDate(ArgumentMatchers.any(),
+				ArgumentMatchers.any(), ArgumentMatchers.any());
+	}
+}
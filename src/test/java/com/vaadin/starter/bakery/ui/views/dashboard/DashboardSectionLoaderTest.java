@@ -0,0 +1,188 @@
+package com.vaadin.starter.bakery.ui.views.dashboard;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+
+import com.vaadin.flow.component.UI;
+import com.vaadin.flow.component.UIDetachedException;
+import com.vaadin.flow.server.Command;
+import com.vaadin.starter.bakery.ui.views.dashboard.DashboardSectionLoader.Section;
+
+/**
+ * Loads sections with a UI that runs its access commands right away, and checks
+ * what is shown.
+ */
+public class DashboardSectionLoaderTest {
+
+	private final UI ui = Mockito.mock(UI.class);
+	private final List<String> shown = Collections.synchronizedList(new ArrayList<>());
+	private DashboardSectionLoader loader;
+
+	@Before
+	public void setup() {
+		Mockito.when(ui.access(ArgumentMatchers.any())).thenAnswer(invocation -> {
+			// Serialized like the commands of a locked session
+			synchronized (ui) {
+				invocation.<Command>getArgument(0).execute();
+			}
+			return CompletableFuture.completedFuture(null);
+		});
+	}
+
+	@After
+	public void shutdown() {
+		loader.shutdown();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	@Test
+	public void sectionsAreLoadedInParallel() {
+		loader = new DashboardSectionLoader(2, 10);
+		// Each load completes only once the other one has started
+		CyclicBarrier bothStarted = new CyclicBarrier(2);
+		CountDownLatch loaded = new CountDownLatch(2);
+		for (String section : new String[] { "counts", "sales" }) {
+			loader.load(ui, () -> {
+				try {
+					bothStarted.await(10, TimeUnit.SECONDS);
+				} catch (Exception e) {
+					throw new IllegalStateException(e);
+				}
+				return section;
+			}, data -> {
+				shown.add(data);
+				loaded.countDown();
+			}, Assert::fail);
+		}
+		await(loaded);
+		Assert.assertTrue(shown.containsAll(List.of("counts", "sales")));
+	}
+
+	@Test
+	public void sectionsAreLoadedOnTheCallingThreadWhenTheQueueIsFull() {
+		loader = new DashboardSectionLoader(1, 0);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch loaded = new CountDownLatch(1);
+		loader.load(ui, () -> {
+			await(release);
+			return Thread.currentThread().getName();
+		}, data -> {
+			shown.add(data);
+			loaded.countDown();
+		}, Assert::fail);
+
+		loader.load(ui, () -> Thread.currentThread().getName(), shown::add, Assert::fail);
+		Assert.assertEquals(List.of(Thread.currentThread().getName()), shown);
+		release.countDown();
+		await(loaded);
+		Assert.assertTrue(shown.get(1).startsWith("dashboard-loader-"));
+	}
+
+	@Test
+	public void failedLoadsAreShownAsFailed() {
+		loader = new DashboardSectionLoader(1, 10);
+		CountDownLatch settled = new CountDownLatch(1);
+		loader.<String>load(ui, () -> {
+			throw new IllegalStateException("Database not available");
+		}, shown::add, () -> shown.add("failed"), settled::countDown);
+		await(settled);
+		Assert.assertEquals(List.of("failed"), shown);
+	}
+
+	@Test
+	public void failedLoadIsIgnoredAfterAnUpdate() {
+		loader = new DashboardSectionLoader(1, 10);
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch settled = new CountDownLatch(1);
+		Section<String> section = loader.load(ui, () -> {
+			loading.countDown();
+			await(release);
+			throw new IllegalStateException("Database not available");
+		}, shown::add, () -> shown.add("failed"), settled::countDown);
+
+		await(loading);
+		synchronized (ui) {
+			section.update("reloaded after a write");
+		}
+		release.countDown();
+		await(settled);
+		Assert.assertEquals(List.of("reloaded after a write"), shown);
+	}
+
+	@Test
+	public void detachedLoadsShowNothing() {
+		loader = new DashboardSectionLoader(1, 10);
+		UI detached = Mockito.mock(UI.class);
+		Mockito.when(detached.access(ArgumentMatchers.any())).thenThrow(new UIDetachedException());
+		loader.load(detached, () -> "detached", shown::add, () -> shown.add("failed"));
+		loader.<String>load(detached, () -> {
+			throw new IllegalStateException("Database not available");
+		}, shown::add, () -> shown.add("failed"));
+
+		// The single thread runs the loads in order
+		CountDownLatch loaded = new CountDownLatch(1);
+		loader.load(ui, () -> "last", data -> {
+			shown.add(data);
+			loaded.countDown();
+		}, Assert::fail);
+		await(loaded);
+		Assert.assertEquals(List.of("last"), shown);
+	}
+
+	@Test
+	public void updateArrivingWhileLoadingReplacesTheLoad() {
+		loader = new DashboardSectionLoader(1, 10);
+		CountDownLatch loading = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch loaded = new CountDownLatch(1);
+		Section<String> section = loader.load(ui, () -> {
+			loading.countDown();
+			await(release);
+			return "loaded before the write";
+		}, shown::add, Assert::fail, loaded::countDown);
+
+		await(loading);
+		// A broadcast of the data reloaded after a write
+		synchronized (ui) {
+			section.update("reloaded after the write");
+		}
+		release.countDown();
+		await(loaded);
+		Assert.assertEquals(List.of("reloaded after the write"), shown);
+
+		// Later updates are shown as well
+		synchronized (ui) {
+			section.update("reloaded after another write");
+		}
+		Assert.assertEquals(List.of("reloaded after the write", "reloaded after another write"), shown);
+	}
+
+	@Test
+	public void loadIsShownWithoutUpdates() {
+		loader = new DashboardSectionLoader(1, 10);
+		CountDownLatch loaded = new CountDownLatch(1);
+		loader.load(ui, () -> "loaded", shown::add, Assert::fail, loaded::countDown);
+		await(loaded);
+		Assert.assertEquals(List.of("loaded"), shown);
+	}
+}
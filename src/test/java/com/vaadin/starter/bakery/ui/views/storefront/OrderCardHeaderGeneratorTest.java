@@ -0,0 +1,131 @@
+package com.vaadin.starter.bakery.ui.views.storefront;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.vaadin.starter.bakery.backend.data.entity.OrderDueDate;
+import com.vaadin.starter.bakery.ui.views.storefront.beans.OrderCardHeader;
+
+public class OrderCardHeaderGeneratorTest {
+
+	private final Map<Long, LocalDate> orders = new LinkedHashMap<>();
+
+	private int lookups;
+
+	private final AtomicLong writes = new AtomicLong();
+
+	private OrderCardHeaderGenerator generator;
+
+	@Before
+	public void setup() {
+		// Two orders a day, sorted by due date
+		LocalDate today = LocalDate.now();
+		long id = 1;
+		for (int day = -20; day < 20; day++) {
+			orders.put(id++, today.plusDays(day));
+			orders.put(id++, today.plusDays(day));
+		}
+		generator = new OrderCardHeaderGenerator((filter, dueAfter) -> {
+			lookups++;
+			Assert.assertEquals(Optional.of("filter"), filter);
+			return orders.entrySet().stream()
+					.filter(order -> !dueAfter.isPresent() || order.getValue().isAfter(dueAfter.get()))
+					.findFirst().map(order -> dueDate(order.getKey(), order.getValue()));
+		}, writes::get);
+	}
+
+	@Test
+	public void headersDoNotDependOnAccessOrder() {
+		generator.resetHeaderChain("filter", true);
+		Map<Long, String> inOrder = headers(new ArrayList<>(orders.keySet()));
+		int lookupsInOrder = lookups;
+
+		List<Long> ids = new ArrayList<>(orders.keySet());
+		Collections.shuffle(ids, new Random(1));
+		generator.resetHeaderChain("filter", true);
+		lookups = 0;
+		Map<Long, String> shuffled = headers(ids);
+
+		Assert.assertEquals(inOrder, shuffled);
+		Assert.assertEquals(lookupsInOrder, lookups);
+		LocalDate today = LocalDate.now();
+		Assert.assertEquals("Recent", shuffled.get(1L));
+		Assert.assertEquals("Today", shuffled.get(firstDueOn(today)));
+		// One header per bucket
+		Assert.assertEquals(shuffled.size(), new HashSet<>(shuffled.values()).size());
+	}
+
+	@Test
+	public void upcomingOrdersOnly() {
+		generator.resetHeaderChain("filter", false);
+		LocalDate today = LocalDate.now();
+		LocalDate nextMonday = today.with(TemporalAdjusters.next(DayOfWeek.MONDAY));
+		Long firstToday = firstDueOn(today);
+
+		Assert.assertNull(generator.get(firstToday + 1, today));
+		Assert.assertEquals("Today", generator.get(firstToday, today).getMain());
+		Assert.assertEquals("Upcoming", generator.get(firstDueOn(nextMonday), nextMonday).getMain());
+		Assert.assertNull(generator.get(firstDueOn(nextMonday) + 1, nextMonday));
+		Assert.assertEquals(2, lookups);
+	}
+
+	@Test
+	public void firstOrdersAreLookedUpAgainAfterWrites() {
+		generator.resetHeaderChain("filter", false);
+		LocalDate today = LocalDate.now();
+		Long firstToday = firstDueOn(today);
+		Assert.assertNotNull(generator.get(firstToday, today));
+
+		// Deleted by another user
+		orders.remove(firstToday);
+		Assert.assertNotNull(generator.get(firstToday, today));
+		writes.incrementAndGet();
+		Assert.assertNull(generator.get(firstToday, today));
+		Assert.assertNotNull(generator.get(firstToday + 1, today));
+		Assert.assertEquals("Looked up once per write", 2, lookups);
+	}
+
+	private Long firstDueOn(LocalDate date) {
+		return orders.entrySet().stream().filter(order -> order.getValue().equals(date)).findFirst().get().getKey();
+	}
+
+	private Map<Long, String> headers(List<Long> ids) {
+		Map<Long, String> headers = new HashMap<>();
+		for (Long id : ids) {
+			OrderCardHeader header = generator.get(id, orders.get(id));
+			if (header != null) {
+				headers.put(id, header.getMain());
+			}
+		}
+		return headers;
+	}
+
+	private static OrderDueDate dueDate(Long id, LocalDate dueDate) {
+		return new OrderDueDate() {
+			@Override
+			public Long getId() {
+				return id;
+			}
+
+			@Override
+			public LocalDate getDueDate() {
+				return dueDate;
+			}
+		};
+	}
+}